@@ -44,6 +44,18 @@ public @interface CacheNamespace {
   
   boolean blocking() default false;
 
+  /**
+   * Invalidates only the entries read from the tables a statement modifies instead of the whole namespace.
+   * @since 3.4.6
+   */
+  boolean tableInvalidation() default false;
+
+  /**
+   * Lets concurrent misses on the same key wait for a single database query instead of blocking on a lock per key.
+   * @since 3.4.6
+   */
+  boolean coalescing() default false;
+
   /**
    * Property values for a implementation object.
    * @since 3.4.2
@@ -46,6 +46,12 @@ public @interface Options {
 
   boolean useCache() default true;
 
+  /**
+   * Set to false to bypass the local (session) cache for this statement.
+   * @since 3.4.6
+   */
+  boolean useLocalCache() default true;
+
   FlushCachePolicy flushCache() default FlushCachePolicy.DEFAULT;
 
   ResultSetType resultSetType() default ResultSetType.FORWARD_ONLY;
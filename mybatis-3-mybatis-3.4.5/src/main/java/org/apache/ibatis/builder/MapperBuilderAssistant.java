@@ -26,6 +26,7 @@ import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.executor.ErrorContext;
@@ -128,12 +129,31 @@ public class MapperBuilderAssistant extends BaseBuilder {
 	//负责创建Cache对象
 	public Cache useNewCache(Class<? extends Cache> typeClass, Class<? extends Cache> evictionClass, Long flushInterval,
 			Integer size, boolean readWrite, boolean blocking, Properties props) {
+		return useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, false, props);
+	}
+
+	public Cache useNewCache(Class<? extends Cache> typeClass, Class<? extends Cache> evictionClass, Long flushInterval,
+			Integer size, boolean readWrite, boolean blocking, boolean tableInvalidation, Properties props) {
+		return useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, tableInvalidation, false,
+				props);
+	}
+
+	public Cache useNewCache(Class<? extends Cache> typeClass, Class<? extends Cache> evictionClass, Long flushInterval,
+			Integer size, boolean readWrite, boolean blocking, boolean tableInvalidation, boolean coalescing,
+			Properties props) {
+		CacheStatistics statistics = configuration.isCacheStatisticsEnabled()
+				? new CacheStatistics(currentNamespace, configuration.getCacheListeners()) : null;
 		//创建cache对象，这里使用建造者模式，CacheBuilder是建造者的角色，而Cache是生成的产品
 		Cache cache = new CacheBuilder(currentNamespace).implementation(valueOrDefault(typeClass, PerpetualCache.class))
 				.addDecorator(valueOrDefault(evictionClass, LruCache.class)).clearInterval(flushInterval).size(size)
-				.readWrite(readWrite).blocking(blocking).properties(props).build();
+				.readWrite(readWrite).blocking(blocking).tableInvalidation(tableInvalidation).coalescing(coalescing)
+				.statistics(statistics)
+				.invalidationTransport(configuration.getInvalidationTransport()).properties(props).build();
 		//添加到Configuration对象的caches集合中保存，其中会将Cache的id作为key,Cache对象作为value
 		configuration.addCache(cache);
+		if (statistics != null) {
+			configuration.addCacheStatistics(statistics);
+		}
 		//记录当前命名空间使用的key
 		currentCache = cache;
 		return cache;
@@ -227,6 +247,17 @@ public class MapperBuilderAssistant extends BaseBuilder {
 			Class<?> parameterType, String resultMap, Class<?> resultType, ResultSetType resultSetType,
 			boolean flushCache, boolean useCache, boolean resultOrdered, KeyGenerator keyGenerator, String keyProperty,
 			String keyColumn, String databaseId, LanguageDriver lang, String resultSets) {
+		return addMappedStatement(id, sqlSource, statementType, sqlCommandType, fetchSize, timeout, parameterMap,
+				parameterType, resultMap, resultType, resultSetType, flushCache, useCache, resultOrdered, keyGenerator,
+				keyProperty, keyColumn, databaseId, lang, resultSets, null, true, false, false, null, null);
+	}
+
+	public MappedStatement addMappedStatement(String id, SqlSource sqlSource, StatementType statementType,
+			SqlCommandType sqlCommandType, Integer fetchSize, Integer timeout, String parameterMap,
+			Class<?> parameterType, String resultMap, Class<?> resultType, ResultSetType resultSetType,
+			boolean flushCache, boolean useCache, boolean resultOrdered, KeyGenerator keyGenerator, String keyProperty,
+			String keyColumn, String databaseId, LanguageDriver lang, String resultSets, String tables,
+			boolean useLocalCache, boolean immutable, boolean preload, String lookupStatement, String lookupProperty) {
 
 		if (unresolvedCacheRef) {
 			throw new IncompleteElementException("Cache-ref not yet resolved");
@@ -234,14 +265,22 @@ public class MapperBuilderAssistant extends BaseBuilder {
 
 		id = applyCurrentNamespace(id, false);
 		boolean isSelect = sqlCommandType == SqlCommandType.SELECT;
+		if ((immutable || preload || lookupStatement != null) && !isSelect) {
+			throw new BuilderException("Only select statements can be immutable. Statement: " + id);
+		}
+		if (lookupStatement != null && lookupProperty == null) {
+			throw new BuilderException("The lookupProperty is required when lookupStatement is set. Statement: " + id);
+		}
 
 		MappedStatement.Builder statementBuilder = new MappedStatement.Builder(configuration, id, sqlSource,
 				sqlCommandType).resource(resource).fetchSize(fetchSize).timeout(timeout).statementType(statementType)
 						.keyGenerator(keyGenerator).keyProperty(keyProperty).keyColumn(keyColumn).databaseId(databaseId)
-						.lang(lang).resultOrdered(resultOrdered).resultSets(resultSets)
+						.lang(lang).resultOrdered(resultOrdered).resultSets(resultSets).tables(tables)
 						.resultMaps(getStatementResultMaps(resultMap, resultType, id)).resultSetType(resultSetType)
 						.flushCacheRequired(valueOrDefault(flushCache, !isSelect))
-						.useCache(valueOrDefault(useCache, isSelect)).cache(currentCache);
+						.useCache(valueOrDefault(useCache, isSelect)).useLocalCache(useLocalCache).cache(currentCache)
+						.immutable(immutable).preload(preload)
+						.lookup(applyCurrentNamespace(lookupStatement, true), lookupProperty);
 
 		ParameterMap statementParameterMap = getStatementParameterMap(parameterMap, parameterType, id);
 		if (statementParameterMap != null) {
@@ -0,0 +1,245 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.builder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.parsing.GenericTokenParser;
+import org.apache.ibatis.parsing.TokenHandler;
+import org.apache.ibatis.reflection.MetaClass;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+
+/**
+ * A parsed <code>#{...}</code> placeholder.
+ * <p>
+ * The content of the placeholder is parsed once. The {@link ParameterMapping} still has to be
+ * resolved for every execution because the property type depends on the parameter object and on
+ * the additional parameters, but a template built for a mapped statement caches the property type
+ * per parameter type and the mapping per property type. Renamed properties (foreach items) get a
+ * copy of the cached mapping.
+ * </p>
+ * Parsing errors of a cached template are reported when it is first built, as they were when the
+ * placeholder was parsed at execution time.
+ *
+ * @since 3.4.6
+ */
+public class ParameterMappingTemplate extends BaseBuilder {
+
+  private static final String PARAMETER_PROPERTIES = "javaType,jdbcType,mode,numericScale,resultMap,typeHandler,jdbcTypeName";
+
+  private final String content;
+  private final Map<String, String> propertiesMap;
+  private final BuilderException parseError;
+  private final String property;
+  private final boolean cached;
+  private final ConcurrentHashMap<Class<?>, Class<?>> propertyTypes;
+  private final ConcurrentHashMap<Class<?>, ParameterMapping> mappings;
+
+  /**
+   * Creates a cached template, for placeholders that are part of a mapped statement.
+   */
+  public ParameterMappingTemplate(Configuration configuration, String content) {
+    this(configuration, content, true);
+  }
+
+  /**
+   * @param cached false for placeholders found in SQL text that is generated at execution time,
+   *          parsing errors are then thrown right away and nothing is cached
+   */
+  public ParameterMappingTemplate(Configuration configuration, String content, boolean cached) {
+    super(configuration);
+    this.content = content;
+    this.cached = cached;
+    Map<String, String> parsed = null;
+    BuilderException error = null;
+    try {
+      parsed = parseParameterMapping(content);
+    } catch (BuilderException e) {
+      if (!cached) {
+        throw e;
+      }
+      error = e;
+    }
+    this.propertiesMap = parsed;
+    this.parseError = error;
+    this.property = parsed == null ? null : parsed.get("property");
+    this.propertyTypes = cached ? new ConcurrentHashMap<Class<?>, Class<?>>() : null;
+    this.mappings = cached ? new ConcurrentHashMap<Class<?>, ParameterMapping>() : null;
+  }
+
+  /**
+   * Replaces every <code>#{...}</code> placeholder of the sql with a "?".
+   *
+   * @param templates receives the templates of the placeholders, in order
+   * @return the sql with "?" placeholders
+   */
+  public static String parse(final Configuration configuration, String sql, final List<ParameterMappingTemplate> templates,
+      final boolean cached) {
+    GenericTokenParser parser = new GenericTokenParser("#{", "}", new TokenHandler() {
+      @Override
+      public String handleToken(String content) {
+        templates.add(new ParameterMappingTemplate(configuration, content, cached));
+        return "?";
+      }
+    });
+    return parser.parse(sql);
+  }
+
+  public String getContent() {
+    return content;
+  }
+
+  /**
+   * @return the property declared by the placeholder, or null if it could not be parsed
+   */
+  public String getProperty() {
+    return property;
+  }
+
+  /**
+   * @param property the property declared by the placeholder, or a renamed one (foreach items)
+   * @param parameterType the type of the parameter object
+   * @param metaParameters the additional parameters
+   */
+  public ParameterMapping build(String property, Class<?> parameterType, MetaObject metaParameters) {
+    return build(property, getPropertyType(property, parameterType, metaParameters));
+  }
+
+  /**
+   * @return the type the mapping of the property is built for, a mapping built for the same
+   *         property and type can be reused
+   */
+  public Class<?> getPropertyType(String property, Class<?> parameterType, MetaObject metaParameters) {
+    checkParsed();
+    if (metaParameters.hasGetter(property)) { // issue #448 get type from additional params
+      return metaParameters.getGetterType(property);
+    } else if (cached && equals(property, this.property)) {
+      Class<?> propertyType = propertyTypes.get(parameterType);
+      if (propertyType == null) {
+        propertyType = resolvePropertyType(property, parameterType);
+        propertyTypes.put(parameterType, propertyType);
+      }
+      return propertyType;
+    }
+    return resolvePropertyType(property, parameterType);
+  }
+
+  /**
+   * @param propertyType the type returned by {@link #getPropertyType(String, Class, MetaObject)}
+   */
+  public ParameterMapping build(String property, Class<?> propertyType) {
+    checkParsed();
+    if (!cached) {
+      return buildParameterMapping(property, propertyType);
+    }
+    ParameterMapping mapping = mappings.get(propertyType);
+    if (mapping == null) {
+      mapping = buildParameterMapping(property, propertyType);
+      mappings.put(propertyType, mapping);
+    }
+    return equals(property, mapping.getProperty()) ? mapping : rename(mapping, property);
+  }
+
+  private void checkParsed() {
+    if (parseError != null) {
+      throw new BuilderException(parseError.getMessage(), parseError.getCause());
+    }
+  }
+
+  private Class<?> resolvePropertyType(String property, Class<?> parameterType) {
+    if (typeHandlerRegistry.hasTypeHandler(parameterType)) {
+      return parameterType;
+    } else if (JdbcType.CURSOR.name().equals(propertiesMap.get("jdbcType"))) {
+      return java.sql.ResultSet.class;
+    } else if (property == null || Map.class.isAssignableFrom(parameterType)) {
+      return Object.class;
+    }
+    MetaClass metaClass = MetaClass.forClass(parameterType, configuration.getReflectorFactory());
+    if (metaClass.hasGetter(property)) {
+      return metaClass.getGetterType(property);
+    }
+    return Object.class;
+  }
+
+  private ParameterMapping buildParameterMapping(String property, Class<?> propertyType) {
+    ParameterMapping.Builder builder = new ParameterMapping.Builder(configuration, property, propertyType);
+    Class<?> javaType = propertyType;
+    String typeHandlerAlias = null;
+    for (Map.Entry<String, String> entry : propertiesMap.entrySet()) {
+      String name = entry.getKey();
+      String value = entry.getValue();
+      if ("javaType".equals(name)) {
+        javaType = resolveClass(value);
+        builder.javaType(javaType);
+      } else if ("jdbcType".equals(name)) {
+        builder.jdbcType(resolveJdbcType(value));
+      } else if ("mode".equals(name)) {
+        builder.mode(resolveParameterMode(value));
+      } else if ("numericScale".equals(name)) {
+        builder.numericScale(Integer.valueOf(value));
+      } else if ("resultMap".equals(name)) {
+        builder.resultMapId(value);
+      } else if ("typeHandler".equals(name)) {
+        typeHandlerAlias = value;
+      } else if ("jdbcTypeName".equals(name)) {
+        builder.jdbcTypeName(value);
+      } else if ("property".equals(name)) {
+        // Do Nothing
+      } else if ("expression".equals(name)) {
+        throw new BuilderException("Expression based parameters are not supported yet");
+      } else {
+        throw new BuilderException("An invalid property '" + name + "' was found in mapping #{" + content
+            + "}.  Valid properties are " + PARAMETER_PROPERTIES);
+      }
+    }
+    if (typeHandlerAlias != null) {
+      builder.typeHandler(resolveTypeHandler(javaType, typeHandlerAlias));
+    }
+    return builder.build();
+  }
+
+  private ParameterMapping rename(ParameterMapping mapping, String property) {
+    return new ParameterMapping.Builder(configuration, property, mapping.getJavaType())
+        .typeHandler(mapping.getTypeHandler())
+        .jdbcType(mapping.getJdbcType())
+        .mode(mapping.getMode())
+        .numericScale(mapping.getNumericScale())
+        .resultMapId(mapping.getResultMapId())
+        .jdbcTypeName(mapping.getJdbcTypeName())
+        .build();
+  }
+
+  private static Map<String, String> parseParameterMapping(String content) {
+    try {
+      return new ParameterExpression(content);
+    } catch (BuilderException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new BuilderException("Parsing error was found in mapping #{" + content
+          + "}.  Check syntax #{property|(expression), var1=value1, var2=value2, ...} ", ex);
+    }
+  }
+
+  private static boolean equals(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+}
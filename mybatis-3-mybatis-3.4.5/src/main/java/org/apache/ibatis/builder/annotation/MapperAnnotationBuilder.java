@@ -194,7 +194,8 @@ public class MapperAnnotationBuilder {
 			Long flushInterval = cacheDomain.flushInterval() == 0 ? null : cacheDomain.flushInterval();
 			Properties props = convertToProperties(cacheDomain.properties());
 			assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size,
-					cacheDomain.readWrite(), cacheDomain.blocking(), props);
+					cacheDomain.readWrite(), cacheDomain.blocking(), cacheDomain.tableInvalidation(),
+					cacheDomain.coalescing(), props);
 		}
 	}
 
@@ -376,7 +377,9 @@ public class MapperAnnotationBuilder {
 					// DatabaseID
 					null, languageDriver,
 					// ResultSets
-					options != null ? nullOrEmpty(options.resultSets()) : null);
+					options != null ? nullOrEmpty(options.resultSets()) : null,
+					// Tables
+					null, options == null || options.useLocalCache(), false, false, null, null);
 		}
 	}
 
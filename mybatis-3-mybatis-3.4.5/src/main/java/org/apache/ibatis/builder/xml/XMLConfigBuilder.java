@@ -22,6 +22,8 @@ import javax.sql.DataSource;
 
 import org.apache.ibatis.builder.BaseBuilder;
 import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.cache.impl.SnapshotCache;
+import org.apache.ibatis.cache.invalidation.InvalidationTransport;
 import org.apache.ibatis.datasource.DataSourceFactory;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.loader.ProxyFactory;
@@ -126,6 +128,8 @@ public class XMLConfigBuilder extends BaseBuilder {
 			objectWrapperFactoryElement(root.evalNode("objectWrapperFactory"));
 			//解析reflectorFactory节点
 			reflectorFactoryElement(root.evalNode("reflectorFactory"));
+			//解析invalidationTransport节点，需在mappers节点之前
+			invalidationTransportElement(root.evalNode("invalidationTransport"));
 			settingsElement(settings);
 			// read it after objectFactory and objectWrapperFactory issue #631
 			//解析environments节点
@@ -261,6 +265,16 @@ public class XMLConfigBuilder extends BaseBuilder {
 		}
 	}
 	
+	private void invalidationTransportElement(XNode context) throws Exception {
+		if (context != null) {
+			String type = context.getStringAttribute("type");
+			Properties properties = context.getChildrenAsProperties();
+			InvalidationTransport transport = (InvalidationTransport) resolveClass(type).newInstance();
+			transport.setProperties(properties);
+			configuration.setInvalidationTransport(transport);
+		}
+	}
+
 	//解析properties节点
 	private void propertiesElement(XNode context) throws Exception {
 		if (context != null) {
@@ -308,6 +322,10 @@ public class XMLConfigBuilder extends BaseBuilder {
 		configuration.setDefaultExecutorType(ExecutorType.valueOf(props.getProperty("defaultExecutorType", "SIMPLE")));
 		configuration.setDefaultStatementTimeout(integerValueOf(props.getProperty("defaultStatementTimeout"), null));
 		configuration.setDefaultFetchSize(integerValueOf(props.getProperty("defaultFetchSize"), null));
+		configuration.setDynamicSqlCacheSize(integerValueOf(props.getProperty("dynamicSqlCacheSize"), 0));
+		configuration.setSubstitutionCacheSize(integerValueOf(props.getProperty("substitutionCacheSize"), 0));
+		configuration.setSnapshotCacheSize(
+				integerValueOf(props.getProperty("snapshotCacheSize"), SnapshotCache.DEFAULT_SIZE));
 		configuration.setMapUnderscoreToCamelCase(booleanValueOf(props.getProperty("mapUnderscoreToCamelCase"), false));
 		configuration.setSafeRowBoundsEnabled(booleanValueOf(props.getProperty("safeRowBoundsEnabled"), false));
 		configuration.setLocalCacheScope(LocalCacheScope.valueOf(props.getProperty("localCacheScope", "SESSION")));
@@ -324,6 +342,8 @@ public class XMLConfigBuilder extends BaseBuilder {
 		configuration.setUseActualParamName(booleanValueOf(props.getProperty("useActualParamName"), true));
 		configuration
 				.setReturnInstanceForEmptyRow(booleanValueOf(props.getProperty("returnInstanceForEmptyRow"), false));
+		configuration.setCacheStatisticsEnabled(booleanValueOf(props.getProperty("cacheStatisticsEnabled"), false));
+		configuration.setCacheStatisticsJmxEnabled(booleanValueOf(props.getProperty("cacheStatisticsJmxEnabled"), false));
 		configuration.setLogPrefix(props.getProperty("logPrefix"));
 		@SuppressWarnings("unchecked")
 		Class<? extends Log> logImpl = (Class<? extends Log>) resolveClass(props.getProperty("logImpl"));
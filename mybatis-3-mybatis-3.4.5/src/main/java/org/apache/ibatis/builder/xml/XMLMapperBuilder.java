@@ -249,10 +249,15 @@ public class XMLMapperBuilder extends BaseBuilder {
 			boolean readWrite = !context.getBooleanAttribute("readOnly", false);
 			//解析blocking属性，默认值为false
 			boolean blocking = context.getBooleanAttribute("blocking", false);
+			//解析tableInvalidation属性，默认值为false
+			boolean tableInvalidation = context.getBooleanAttribute("tableInvalidation", false);
+			//解析coalescing属性，默认值为false
+			boolean coalescing = context.getBooleanAttribute("coalescing", false);
 			//获取cache节点下咋子节点，用于初始化二级缓存
 			Properties props = context.getChildrenAsProperties();
 			//通过MapperBuilderAssistant创建Cache对象，并添加到Configuration.caches集合中保存
-			builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, props);
+			builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking,
+					tableInvalidation, coalescing, props);
 		}
 	}
 
@@ -87,6 +87,13 @@ public class XMLStatementBuilder extends BaseBuilder {
 		boolean isSelect = sqlCommandType == SqlCommandType.SELECT;
 		boolean flushCache = context.getBooleanAttribute("flushCache", !isSelect);
 		boolean useCache = context.getBooleanAttribute("useCache", isSelect);
+		//是否使用一级缓存，默认值为true
+		boolean useLocalCache = context.getBooleanAttribute("useLocalCache", true);
+		//不可变的引用数据，preload或lookupStatement均隐含immutable
+		boolean preload = context.getBooleanAttribute("preload", false);
+		String lookupStatement = context.getStringAttribute("lookupStatement");
+		String lookupProperty = context.getStringAttribute("lookupProperty");
+		boolean immutable = context.getBooleanAttribute("immutable", preload || lookupStatement != null);
 		boolean resultOrdered = context.getBooleanAttribute("resultOrdered", false);
 		
 		//在解析Sql语句之前，先处理其中的include节点
@@ -104,6 +111,8 @@ public class XMLStatementBuilder extends BaseBuilder {
 		String resultSets = context.getStringAttribute("resultSets");
 		String keyProperty = context.getStringAttribute("keyProperty");
 		String keyColumn = context.getStringAttribute("keyColumn");
+		//语句读取或修改的表，未配置时从sql中解析
+		String tables = context.getStringAttribute("tables");
 		KeyGenerator keyGenerator;
 		//获取selectKey节点对应的SelectKeyGenerator的id
 		String keyStatementId = id + SelectKeyGenerator.SELECT_KEY_SUFFIX;
@@ -122,7 +131,8 @@ public class XMLStatementBuilder extends BaseBuilder {
 
 		builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
 				parameterMap, parameterTypeClass, resultMap, resultTypeClass, resultSetTypeEnum, flushCache, useCache,
-				resultOrdered, keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets);
+				resultOrdered, keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets, tables,
+				useLocalCache, immutable, preload, lookupStatement, lookupProperty);
 	}
 	
 	//解析selectKey节点 解决主键自增问题
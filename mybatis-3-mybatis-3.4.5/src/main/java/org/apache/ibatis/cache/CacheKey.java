@@ -16,8 +16,6 @@
 package org.apache.ibatis.cache;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.apache.ibatis.reflection.ArrayUtil;
 
@@ -32,43 +30,80 @@ public class CacheKey implements Cloneable, Serializable {
 
 	private static final int DEFAULT_MULTIPLYER = 37;
 	private static final int DEFAULT_HASHCODE = 17;
+	private static final int DEFAULT_CAPACITY = 8;
+	private static final long CHECKSUM_MULTIPLIER = 0x9E3779B97F4A7C15L;
+	private static final Object[] EMPTY_UPDATE_LIST = new Object[0];
 	//参与计算hashcode
 	private final int multiplier;
 	//cachekey对象的hashcode
 	private int hashcode;
-	//校验和
+	//64位校验和，由每个对象的hashcode及其位置混合得到，比累加hashcode的冲突少得多
 	private long checksum;
 	//updateList集合个数
 	private int count;
-	//由updateList集合的所有对象共同决定两个chchekey对象是否成功
-	private transient List<Object> updateList;
+	//由updateList数组中前count个对象共同决定两个cachekey对象是否相等
+	private transient Object[] updateList;
 
 	public CacheKey() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            the expected number of updates, used to size the internal
+	 *            storage
+	 * @since 3.4.6
+	 */
+	public CacheKey(int expectedSize) {
 		this.hashcode = DEFAULT_HASHCODE;
 		this.multiplier = DEFAULT_MULTIPLYER;
 		this.count = 0;
-		this.updateList = new ArrayList<Object>();
+		this.updateList = expectedSize > 0 ? new Object[expectedSize] : EMPTY_UPDATE_LIST;
 	}
 
 	public CacheKey(Object[] objects) {
-		this();
+		this(objects.length);
 		updateAll(objects);
 	}
 
+	/**
+	 * Creates a key that starts with the updates of the given prefix, so the
+	 * shared part of the keys (e.g. the statement id) is hashed only once.
+	 *
+	 * @param prefix
+	 *            the precomputed key
+	 * @param expectedSize
+	 *            the expected number of updates to be added to the prefix
+	 * @since 3.4.6
+	 */
+	public CacheKey(CacheKey prefix, int expectedSize) {
+		this.multiplier = prefix.multiplier;
+		this.hashcode = prefix.hashcode;
+		this.checksum = prefix.checksum;
+		this.count = prefix.count;
+		this.updateList = new Object[prefix.count + Math.max(expectedSize, 0)];
+		System.arraycopy(prefix.updateList, 0, this.updateList, 0, prefix.count);
+	}
+
 	public int getUpdateCount() {
-		return updateList.size();
+		return count;
 	}
 
 	public void update(Object object) {
 		int baseHashCode = object == null ? 1 : ArrayUtil.hashCode(object);
 
 		count++;
-		checksum += baseHashCode;
+		checksum = mix(checksum, baseHashCode, count);
 		baseHashCode *= count;
 
 		hashcode = multiplier * hashcode + baseHashCode;
 
-		updateList.add(object);
+		if (count > updateList.length) {
+			Object[] newUpdateList = new Object[Math.max(DEFAULT_CAPACITY, updateList.length * 2)];
+			System.arraycopy(updateList, 0, newUpdateList, 0, updateList.length);
+			updateList = newUpdateList;
+		}
+		updateList[count - 1] = object;
 	}
 
 	public void updateAll(Object[] objects) {
@@ -98,10 +133,10 @@ public class CacheKey implements Cloneable, Serializable {
 			return false;
 		}
 
-		for (int i = 0; i < updateList.size(); i++) {
-			Object thisObject = updateList.get(i);
-			Object thatObject = cacheKey.updateList.get(i);
-			if (!ArrayUtil.equals(thisObject, thatObject)) {
+		for (int i = 0; i < count; i++) {
+			Object thisObject = updateList[i];
+			Object thatObject = cacheKey.updateList[i];
+			if (thisObject != thatObject && !ArrayUtil.equals(thisObject, thatObject)) {
 				return false;
 			}
 		}
@@ -116,8 +151,8 @@ public class CacheKey implements Cloneable, Serializable {
 	@Override
 	public String toString() {
 		StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-		for (Object object : updateList) {
-			returnValue.append(':').append(ArrayUtil.toString(object));
+		for (int i = 0; i < count; i++) {
+			returnValue.append(':').append(ArrayUtil.toString(updateList[i]));
 		}
 		return returnValue.toString();
 	}
@@ -125,8 +160,16 @@ public class CacheKey implements Cloneable, Serializable {
 	@Override
 	public CacheKey clone() throws CloneNotSupportedException {
 		CacheKey clonedCacheKey = (CacheKey) super.clone();
-		clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+		clonedCacheKey.updateList = updateList.clone();
 		return clonedCacheKey;
 	}
 
+	private static long mix(long checksum, int hash, int position) {
+		long h = (checksum ^ (hash & 0xffffffffL)) * CHECKSUM_MULTIPLIER + position;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
 }
@@ -0,0 +1,46 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Receives the events recorded by {@link CacheStatistics}.
+ * <p>
+ * Listeners are registered with {@link org.apache.ibatis.session.Configuration#addCacheListener(CacheListener)}
+ * and are called synchronously by the thread using the cache, so implementations must be
+ * thread safe and return quickly.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+public interface CacheListener {
+
+  void onHit(String cacheId);
+
+  void onMiss(String cacheId);
+
+  void onPut(String cacheId);
+
+  /**
+   * @param count number of entries evicted at once, always greater than zero
+   */
+  void onEviction(String cacheId, EvictionReason reason, int count);
+
+  /**
+   * @param nanos time spent loading from the database the value of a missed entry
+   */
+  void onLoad(String cacheId, long nanos);
+
+}
@@ -0,0 +1,296 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Usage counters of a cache.
+ * <p>
+ * Hits, misses and puts are recorded by the outermost decorator of the cache,
+ * evictions by the decorators that evict (see {@link EvictionReason}) and load
+ * times by the executor. Decorators receive the instance through a
+ * <code>statistics</code> property set by {@link org.apache.ibatis.mapping.CacheBuilder}.
+ * Statistics are only created when enabled in the configuration, so a cache
+ * without statistics pays nothing.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+public class CacheStatistics implements CacheStatisticsMBean {
+
+  private static final EvictionReason[] REASONS = EvictionReason.values();
+
+  private final String id;
+  private final List<CacheListener> listeners;
+  private volatile Cache cache;
+  // the name of the bean registered by registerMBean, null if not registered
+  private ObjectName mbeanName;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong puts = new AtomicLong();
+  private final AtomicLong loads = new AtomicLong();
+  private final AtomicLong loadTime = new AtomicLong();
+  private final AtomicLong serializedEntries = new AtomicLong();
+  private final AtomicLong serializedBytes = new AtomicLong();
+  private final AtomicLongArray evictions = new AtomicLongArray(REASONS.length);
+
+  public CacheStatistics(String id) {
+    this(id, Collections.<CacheListener>emptyList());
+  }
+
+  /**
+   * @param listeners live list of listeners, usually {@link org.apache.ibatis.session.Configuration#getCacheListeners()}
+   */
+  public CacheStatistics(String id, List<CacheListener> listeners) {
+    this.id = id;
+    this.listeners = listeners;
+  }
+
+  /**
+   * @param cache the cache whose size is reported, null if it cannot be measured
+   */
+  public void setCache(Cache cache) {
+    this.cache = cache;
+  }
+
+  public void hit() {
+    hits.incrementAndGet();
+    if (!listeners.isEmpty()) {
+      for (CacheListener listener : listeners) {
+        listener.onHit(id);
+      }
+    }
+  }
+
+  public void miss() {
+    misses.incrementAndGet();
+    if (!listeners.isEmpty()) {
+      for (CacheListener listener : listeners) {
+        listener.onMiss(id);
+      }
+    }
+  }
+
+  public void put() {
+    puts.incrementAndGet();
+    if (!listeners.isEmpty()) {
+      for (CacheListener listener : listeners) {
+        listener.onPut(id);
+      }
+    }
+  }
+
+  public void evicted(EvictionReason reason, int count) {
+    if (count <= 0) {
+      return;
+    }
+    evictions.addAndGet(reason.ordinal(), count);
+    if (!listeners.isEmpty()) {
+      for (CacheListener listener : listeners) {
+        listener.onEviction(id, reason, count);
+      }
+    }
+  }
+
+  public void loaded(long nanos) {
+    loads.incrementAndGet();
+    loadTime.addAndGet(nanos);
+    if (!listeners.isEmpty()) {
+      for (CacheListener listener : listeners) {
+        listener.onLoad(id, nanos);
+      }
+    }
+  }
+
+  /**
+   * Samples the size of a serialized entry, used to estimate the memory held by the cache.
+   */
+  public void serialized(int bytes) {
+    serializedEntries.incrementAndGet();
+    serializedBytes.addAndGet(bytes);
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public long getHits() {
+    return hits.get();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long hitCount = hits.get();
+    long requests = hitCount + misses.get();
+    return requests == 0 ? 0 : (double) hitCount / (double) requests;
+  }
+
+  @Override
+  public long getPuts() {
+    return puts.get();
+  }
+
+  @Override
+  public long getEvictions() {
+    long total = 0;
+    for (int i = 0; i < REASONS.length; i++) {
+      total += evictions.get(i);
+    }
+    return total;
+  }
+
+  public long getEvictions(EvictionReason reason) {
+    return evictions.get(reason.ordinal());
+  }
+
+  @Override
+  public Map<String, Long> getEvictionsByReason() {
+    Map<String, Long> result = new LinkedHashMap<String, Long>();
+    for (EvictionReason reason : REASONS) {
+      result.put(reason.name(), evictions.get(reason.ordinal()));
+    }
+    return result;
+  }
+
+  @Override
+  public long getLoads() {
+    return loads.get();
+  }
+
+  @Override
+  public long getTotalLoadTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(loadTime.get());
+  }
+
+  @Override
+  public double getAverageLoadTimeMillis() {
+    long loadCount = loads.get();
+    return loadCount == 0 ? 0 : loadTime.get() / 1000000.0 / loadCount;
+  }
+
+  /**
+   * @return the number of entries, or -1 if unknown
+   */
+  @Override
+  public int getSize() {
+    Cache measured = cache;
+    return measured == null ? -1 : measured.getSize();
+  }
+
+  /**
+   * @return an estimate of the bytes held by the cache based on the average serialized
+   *         entry, or -1 if the cache does not serialize its entries (readOnly caches)
+   */
+  @Override
+  public long getEstimatedBytes() {
+    long entries = serializedEntries.get();
+    int size = getSize();
+    if (entries == 0 || size < 0) {
+      return -1;
+    }
+    return serializedBytes.get() / entries * size;
+  }
+
+  @Override
+  public void reset() {
+    hits.set(0);
+    misses.set(0);
+    puts.set(0);
+    loads.set(0);
+    loadTime.set(0);
+    serializedEntries.set(0);
+    serializedBytes.set(0);
+    for (int i = 0; i < REASONS.length; i++) {
+      evictions.set(i, 0);
+    }
+  }
+
+  /**
+   * Registers these statistics in the platform MBean server. A bean already registered
+   * under the same name is left in place: it belongs to another configuration.
+   *
+   * @param scope identifies the configuration the cache belongs to, so that factories
+   *          sharing a namespace do not collide
+   * @return the name of the bean, or null if the name is already taken
+   * @see #unregisterMBean()
+   */
+  public synchronized ObjectName registerMBean(String scope) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("org.apache.ibatis:type=CacheStatistics,scope=" + ObjectName.quote(scope)
+          + ",id=" + ObjectName.quote(id));
+      if (server.isRegistered(name)) {
+        return null;
+      }
+      server.registerMBean(this, name);
+      mbeanName = name;
+      return name;
+    } catch (InstanceAlreadyExistsException e) {
+      // registered concurrently
+      return null;
+    } catch (JMException e) {
+      throw new CacheException("Error registering statistics MBean for cache " + id + ". Cause: " + e, e);
+    }
+  }
+
+  /**
+   * Unregisters the bean registered by {@link #registerMBean(String)}, if any. The
+   * platform MBean server keeps the statistics and their cache reachable until then.
+   */
+  public synchronized void unregisterMBean() {
+    if (mbeanName == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+    } catch (InstanceNotFoundException e) {
+      // already unregistered
+    } catch (JMException e) {
+      throw new CacheException("Error unregistering statistics MBean for cache " + id + ". Cause: " + e, e);
+    } finally {
+      mbeanName = null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStatistics [id=" + id + ", hits=" + getHits() + ", misses=" + getMisses() + ", puts=" + getPuts()
+        + ", evictions=" + getEvictionsByReason() + ", loads=" + getLoads() + ", size=" + getSize() + "]";
+  }
+
+}
@@ -0,0 +1,44 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Why entries left a cache, as reported by {@link CacheStatistics}.
+ *
+ * @since 3.4.6
+ */
+public enum EvictionReason {
+  /**
+   * Removed by the eviction policy (LRU, FIFO) because the cache was full.
+   */
+  SIZE,
+  /**
+   * Dropped by a scheduled flush (flushInterval).
+   */
+  EXPIRED,
+  /**
+   * Reclaimed by the garbage collector (SOFT, WEAK).
+   */
+  COLLECTED,
+  /**
+   * Found stale after one of the tables it was read from has been modified.
+   */
+  INVALIDATED,
+  /**
+   * Removed by an explicit flush of the whole cache.
+   */
+  CLEARED
+}
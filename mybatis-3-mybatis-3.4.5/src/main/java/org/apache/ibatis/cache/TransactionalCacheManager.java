@@ -15,9 +15,11 @@
  */
 package org.apache.ibatis.cache;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.ibatis.cache.decorators.TableInvalidatingCache;
 import org.apache.ibatis.cache.decorators.TransactionalCache;
 
 /**
@@ -33,6 +35,10 @@ public class TransactionalCacheManager {
 		getTransactionalCache(cache).clear();
 	}
 
+	public void clear(Cache cache, Collection<String> tables) {
+		getTransactionalCache(cache).clear(tables);
+	}
+
 	public Object getObject(Cache cache, CacheKey key) {
 		return getTransactionalCache(cache).getObject(key);
 	}
@@ -41,6 +47,10 @@ public class TransactionalCacheManager {
 		getTransactionalCache(cache).putObject(key, value);
 	}
 
+	public void putObject(Cache cache, CacheKey key, Object value, TableInvalidatingCache.Versions versions) {
+		getTransactionalCache(cache).putObject(key, value, versions);
+	}
+
 	public void commit() {
 		for (TransactionalCache txCache : transactionalCaches.values()) {
 			txCache.commit();
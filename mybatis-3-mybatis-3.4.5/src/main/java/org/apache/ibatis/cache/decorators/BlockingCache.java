@@ -133,6 +133,10 @@ public class BlockingCache implements Cache {
 		}
 	}
 
+	public Cache getDelegate() {
+		return delegate;
+	}
+
 	public long getTimeout() {
 		return timeout;
 	}
@@ -0,0 +1,179 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * Request coalescing (single-flight) decorator.
+ * <p>
+ * When several threads miss the same key at the same time only the first one
+ * is sent to the database, the others wait for it to put the result and then
+ * read it from the cache. Unlike {@link BlockingCache} no lock is kept per key:
+ * an in-flight load only lives until its value is put (or the key is removed on
+ * rollback), the number of concurrent loads is bounded and waiters give up
+ * after a timeout and query the database themselves.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+public class CoalescingCache implements Cache {
+
+  private final Cache delegate;
+  private final ConcurrentHashMap<Object, InFlightLoad> inFlightLoads;
+  private long timeout = 10000;
+  private int maxInFlight = 1024;
+
+  public CoalescingCache(Cache delegate) {
+    this.delegate = delegate;
+    this.inFlightLoads = new ConcurrentHashMap<Object, InFlightLoad>();
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    try {
+      delegate.putObject(key, value);
+    } finally {
+      complete(key);
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    if (value != null) {
+      return value;
+    }
+    long deadline = System.currentTimeMillis() + timeout;
+    while (true) {
+      InFlightLoad load = inFlightLoads.get(key);
+      if (load == null) {
+        if (inFlightLoads.size() >= maxInFlight) {
+          // too many concurrent loads, do not coalesce this one
+          return null;
+        }
+        load = inFlightLoads.putIfAbsent(key, new InFlightLoad());
+        if (load == null) {
+          // the current thread is the loader, it will query the database
+          return null;
+        }
+      }
+      if (load.owner == Thread.currentThread()) {
+        return null;
+      }
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0 || !load.await(remaining)) {
+        // the loader is taking too long or it has been lost, stop waiting for it
+        inFlightLoads.remove(key, load);
+        return null;
+      }
+      value = delegate.getObject(key);
+      if (value != null) {
+        return value;
+      }
+      // the loader did not provide a value (rolled back or null result), try to become the loader
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    // despite of its name, this method is called only to release waiters
+    complete(key);
+    return null;
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  public Cache getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * @return the number of loads currently in progress
+   */
+  public int getInFlightCount() {
+    return inFlightLoads.size();
+  }
+
+  public long getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * @param timeout maximum number of milliseconds a thread waits for another one loading the same key
+   */
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * @param maxInFlight maximum number of keys being loaded at the same time, further misses are not coalesced
+   */
+  public void setMaxInFlight(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+  }
+
+  private void complete(Object key) {
+    InFlightLoad load = inFlightLoads.remove(key);
+    if (load != null) {
+      load.latch.countDown();
+    }
+  }
+
+  private static class InFlightLoad {
+
+    private final Thread owner = Thread.currentThread();
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    boolean await(long millis) {
+      try {
+        return latch.await(millis, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CacheException("Got interrupted while waiting for the in-flight load", e);
+      }
+    }
+  }
+
+}
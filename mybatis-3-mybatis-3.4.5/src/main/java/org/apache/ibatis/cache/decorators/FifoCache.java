@@ -20,6 +20,8 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.EvictionReason;
 
 /**
  * FIFO (first in, first out) cache decorator
@@ -33,6 +35,8 @@ public class FifoCache implements Cache {
 	private final Deque<Object> keyList;
 	//缓存的上限
 	private int size;
+	//缓存统计信息，未开启统计时为null
+	private CacheStatistics statistics;
 
 	public FifoCache(Cache delegate) {
 		this.delegate = delegate;
@@ -54,6 +58,10 @@ public class FifoCache implements Cache {
 		this.size = size;
 	}
 
+	public void setStatistics(CacheStatistics statistics) {
+		this.statistics = statistics;
+	}
+
 	@Override
 	public void putObject(Object key, Object value) {
 		cycleKeyList(key);
@@ -88,6 +96,9 @@ public class FifoCache implements Cache {
 		if (keyList.size() > size) {
 			Object oldestKey = keyList.removeFirst();
 			delegate.removeObject(oldestKey);
+			if (statistics != null) {
+				statistics.evicted(EvictionReason.SIZE, 1);
+			}
 		}
 	}
 
@@ -20,6 +20,8 @@ import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.EvictionReason;
 
 /**
  * Lru (least recently used) cache decorator
@@ -33,6 +35,8 @@ public class LruCache implements Cache {
 	private Map<Object, Object> keyMap;
 	// 记录最少使用的缓存项的key
 	private Object eldestKey;
+	// 缓存统计信息，未开启统计时为null
+	private CacheStatistics statistics;
 
 	public LruCache(Cache delegate) {
 		this.delegate = delegate;
@@ -68,6 +72,10 @@ public class LruCache implements Cache {
 		};
 	}
 
+	public void setStatistics(CacheStatistics statistics) {
+		this.statistics = statistics;
+	}
+
 	@Override
 	public void putObject(Object key, Object value) {
 		delegate.putObject(key, value);
@@ -103,6 +111,9 @@ public class LruCache implements Cache {
 		if (eldestKey != null) {
 			delegate.removeObject(eldestKey);
 			eldestKey = null;
+			if (statistics != null) {
+				statistics.evicted(EvictionReason.SIZE, 1);
+			}
 		}
 	}
 
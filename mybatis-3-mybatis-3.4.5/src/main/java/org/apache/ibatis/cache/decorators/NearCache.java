@@ -0,0 +1,123 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.invalidation.InvalidationListener;
+import org.apache.ibatis.cache.invalidation.InvalidationTransport;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Keeps a node local cache coherent with the other nodes of a cluster.
+ * <p>
+ * Flushes committed on this node are applied locally and published through an
+ * {@link InvalidationTransport}; flushes received from other nodes are applied
+ * locally only. When the cache uses table level invalidation only the modified
+ * tables are sent. It must be the outermost decorator.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+public class NearCache implements Cache {
+
+  private static final Log log = LogFactory.getLog(NearCache.class);
+
+  private final Cache delegate;
+  private final InvalidationTransport transport;
+  private final TableInvalidatingCache tableCache;
+
+  public NearCache(Cache delegate, InvalidationTransport transport) {
+    this.delegate = delegate;
+    this.transport = transport;
+    this.tableCache = TableInvalidatingCache.of(delegate);
+    transport.subscribe(getId(), new InvalidationListener() {
+      @Override
+      public void onInvalidation(String cacheId, Collection<String> tables) {
+        invalidateLocally(tables);
+      }
+    });
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    publish(null);
+  }
+
+  /**
+   * Invalidates the entries read from the given tables on every node.
+   */
+  public void clearTables(Collection<String> tables) {
+    invalidateLocally(tables);
+    publish(tables);
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  public Cache getDelegate() {
+    return delegate;
+  }
+
+  private void invalidateLocally(Collection<String> tables) {
+    if (tables == null || tableCache == null) {
+      delegate.clear();
+    } else {
+      tableCache.clearTables(tables);
+    }
+  }
+
+  private void publish(Collection<String> tables) {
+    try {
+      transport.publish(getId(), tables);
+    } catch (RuntimeException e) {
+      // the local cache is already invalidated, the other nodes will keep stale entries until they expire
+      log.warn("Error publishing invalidation of cache " + getId() + ". Cause: " + e);
+    }
+  }
+
+}
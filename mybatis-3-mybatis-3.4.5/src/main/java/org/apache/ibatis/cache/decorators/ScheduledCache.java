@@ -18,6 +18,8 @@ package org.apache.ibatis.cache.decorators;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.EvictionReason;
 
 /**
  * @author Clinton Begin
@@ -27,6 +29,7 @@ public class ScheduledCache implements Cache {
   private final Cache delegate;
   protected long clearInterval;
   protected long lastClear;
+  private CacheStatistics statistics;
 
   public ScheduledCache(Cache delegate) {
     this.delegate = delegate;
@@ -38,6 +41,10 @@ public class ScheduledCache implements Cache {
     this.clearInterval = clearInterval;
   }
 
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
   @Override
   public String getId() {
     return delegate.getId();
@@ -89,6 +96,9 @@ public class ScheduledCache implements Cache {
 
   private boolean clearWhenStale() {
     if (System.currentTimeMillis() - lastClear > clearInterval) {
+      if (statistics != null) {
+        statistics.evicted(EvictionReason.EXPIRED, delegate.getSize());
+      }
       clear();
       return true;
     }
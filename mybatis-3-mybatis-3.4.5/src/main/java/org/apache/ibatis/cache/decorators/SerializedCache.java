@@ -27,6 +27,7 @@ import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.io.Resources;
 
 /**
@@ -35,11 +36,16 @@ import org.apache.ibatis.io.Resources;
 public class SerializedCache implements Cache {
 
   private final Cache delegate;
+  private CacheStatistics statistics;
 
   public SerializedCache(Cache delegate) {
     this.delegate = delegate;
   }
 
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
   @Override
   public String getId() {
     return delegate.getId();
@@ -53,7 +59,11 @@ public class SerializedCache implements Cache {
   @Override
   public void putObject(Object key, Object object) {
     if (object == null || object instanceof Serializable) {
-      delegate.putObject(key, serialize((Serializable) object));
+      byte[] bytes = serialize((Serializable) object);
+      if (statistics != null && bytes != null) {
+        statistics.serialized(bytes.length);
+      }
+      delegate.putObject(key, bytes);
     } else {
       throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + object);
     }
@@ -22,6 +22,8 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.EvictionReason;
 
 /**
  * Soft Reference cache decorator
@@ -34,6 +36,7 @@ public class SoftCache implements Cache {
   private final ReferenceQueue<Object> queueOfGarbageCollectedEntries;
   private final Cache delegate;
   private int numberOfHardLinks;
+  private CacheStatistics statistics;
 
   public SoftCache(Cache delegate) {
     this.delegate = delegate;
@@ -58,6 +61,10 @@ public class SoftCache implements Cache {
     this.numberOfHardLinks = size;
   }
 
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     removeGarbageCollectedItems();
@@ -108,8 +115,14 @@ public class SoftCache implements Cache {
 
   private void removeGarbageCollectedItems() {
     SoftEntry sv;
+    int collected = 0;
     while ((sv = (SoftEntry) queueOfGarbageCollectedEntries.poll()) != null) {
       delegate.removeObject(sv.key);
+      collected++;
+    }
+    // collected entries are counted here only, they are always enqueued even if found cleared by getObject
+    if (statistics != null) {
+      statistics.evicted(EvictionReason.COLLECTED, collected);
     }
   }
 
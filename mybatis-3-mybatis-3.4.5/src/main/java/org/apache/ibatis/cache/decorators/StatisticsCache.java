@@ -0,0 +1,89 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.EvictionReason;
+
+/**
+ * Records hits, misses, puts and flushes in a {@link CacheStatistics}.
+ * It must be the outermost decorator so that it sees what callers see.
+ *
+ * @since 3.4.6
+ */
+public class StatisticsCache implements Cache {
+
+  private final Cache delegate;
+  private final CacheStatistics statistics;
+
+  public StatisticsCache(Cache delegate, CacheStatistics statistics) {
+    this.delegate = delegate;
+    this.statistics = statistics;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    if (value != null) {
+      statistics.put();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    if (value == null) {
+      statistics.miss();
+    } else {
+      statistics.hit();
+    }
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    statistics.evicted(EvictionReason.CLEARED, delegate.getSize());
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  public CacheStatistics getStatistics() {
+    return statistics;
+  }
+
+}
@@ -0,0 +1,276 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.EvictionReason;
+import org.apache.ibatis.parsing.TableNameParser;
+
+/**
+ * Table level invalidation decorator.
+ * <p>
+ * Every entry is stored together with the tables it was read from and the
+ * version those tables had before the query was executed. Invalidating a table just bumps its
+ * version, so a write statement only evicts the entries that touch the tables
+ * it modifies instead of clearing the whole namespace. Entries stored without
+ * table information depend on every table.
+ * </p>
+ * Stale entries are not removed eagerly, they are simply reported as missing
+ * and left to the eviction policy of the underlying cache.
+ * <p>
+ * Only the {@link CoalescingCache} or {@link BlockingCache} and the
+ * {@link NearCache} decorators are added around this one: a stale entry is a miss
+ * for them, so concurrent readers of an invalidated entry wait for a single load.
+ * This decorator also records hits, misses and puts when statistics are enabled.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+public class TableInvalidatingCache implements Cache {
+
+  private final Cache delegate;
+  private final ConcurrentHashMap<String, AtomicLong> tableVersions;
+  private final AtomicLong globalVersion;
+  private CacheStatistics statistics;
+
+  public TableInvalidatingCache(Cache delegate) {
+    this.delegate = delegate;
+    this.tableVersions = new ConcurrentHashMap<String, AtomicLong>();
+    this.globalVersion = new AtomicLong();
+  }
+
+  /**
+   * @return the table invalidating layer of a second level cache, possibly wrapped
+   *         by a {@link NearCache} and a {@link CoalescingCache} or {@link BlockingCache},
+   *         or null if it does not invalidate by table
+   */
+  public static TableInvalidatingCache of(Cache cache) {
+    if (cache instanceof NearCache) {
+      cache = ((NearCache) cache).getDelegate();
+    }
+    if (cache instanceof CoalescingCache) {
+      cache = ((CoalescingCache) cache).getDelegate();
+    } else if (cache instanceof BlockingCache) {
+      cache = ((BlockingCache) cache).getDelegate();
+    }
+    return cache instanceof TableInvalidatingCache ? (TableInvalidatingCache) cache : null;
+  }
+
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (value == null || value instanceof Entry) {
+      delegate.putObject(key, value);
+    } else {
+      delegate.putObject(key, newEntry(value, captureVersions(null)));
+    }
+    if (statistics != null && value != null) {
+      statistics.put();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return getObject(key, null);
+  }
+
+  /**
+   * @param hiddenTables tables that have been modified by the current transaction, entries
+   *          depending on them are reported as missing
+   */
+  public Object getObject(Object key, Collection<String> hiddenTables) {
+    Object value = delegate.getObject(key);
+    if (value instanceof Entry) {
+      Entry entry = (Entry) value;
+      if (isStale(entry)) {
+        if (statistics != null) {
+          statistics.evicted(EvictionReason.INVALIDATED, 1);
+        }
+        value = null;
+      } else if (hiddenTables != null && !hiddenTables.isEmpty() && entry.dependsOn(hiddenTables)) {
+        value = null;
+      } else {
+        value = entry.value;
+      }
+    }
+    if (statistics != null) {
+      if (value == null) {
+        statistics.miss();
+      } else {
+        statistics.hit();
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    if (statistics != null) {
+      statistics.evicted(EvictionReason.CLEARED, delegate.getSize());
+    }
+    delegate.clear();
+  }
+
+  /**
+   * Invalidates every entry that was read from any of the given tables and
+   * every entry whose tables are unknown. The names are normalized by
+   * {@link TableNameParser#normalize(String)}.
+   */
+  public void clearTables(Collection<String> tables) {
+    for (String table : tables) {
+      versionOf(TableNameParser.normalize(table)).incrementAndGet();
+    }
+    globalVersion.incrementAndGet();
+  }
+
+  /**
+   * Captures the current version of the tables. It must be called before the
+   * query reading them is executed: a write committed while the query runs
+   * then makes its result stale instead of being stamped as current.
+   *
+   * @param tables the tables the query reads, normalized by
+   *          {@link TableNameParser#normalize(String)}, null or empty if unknown
+   */
+  public Versions captureVersions(Collection<String> tables) {
+    if (tables == null || tables.isEmpty()) {
+      return new Versions(null, null, globalVersion.get());
+    }
+    String[] names = tables.toArray(new String[tables.size()]);
+    long[] versions = new long[names.length];
+    for (int i = 0; i < names.length; i++) {
+      versions[i] = versionOf(names[i]).get();
+    }
+    return new Versions(names, versions, 0);
+  }
+
+  /**
+   * Same as <code>newEntry(value, captureVersions(tables))</code>, for values
+   * that were read before the call.
+   */
+  public Object newEntry(Object value, Collection<String> tables) {
+    return newEntry(value, captureVersions(tables));
+  }
+
+  /**
+   * @param versions the versions captured before the value was read
+   */
+  public Object newEntry(Object value, Versions versions) {
+    return value == null ? null : new Entry(value, versions);
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private boolean isStale(Entry entry) {
+    Versions versions = entry.versions;
+    if (versions.tables == null) {
+      return versions.globalVersion != globalVersion.get();
+    }
+    for (int i = 0; i < versions.tables.length; i++) {
+      if (versions.versions[i] != versionOf(versions.tables[i]).get()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private AtomicLong versionOf(String table) {
+    AtomicLong version = tableVersions.get(table);
+    if (version == null) {
+      AtomicLong newVersion = new AtomicLong();
+      version = tableVersions.putIfAbsent(table, newVersion);
+      if (version == null) {
+        version = newVersion;
+      }
+    }
+    return version;
+  }
+
+  /**
+   * The versions of the tables a query reads, see {@link #captureVersions(Collection)}.
+   */
+  public static final class Versions implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] tables;
+    private final long[] versions;
+    private final long globalVersion;
+
+    Versions(String[] tables, long[] versions, long globalVersion) {
+      this.tables = tables;
+      this.versions = versions;
+      this.globalVersion = globalVersion;
+    }
+
+    boolean dependsOn(Collection<String> modifiedTables) {
+      if (tables == null) {
+        return true;
+      }
+      for (String table : tables) {
+        if (modifiedTables.contains(table)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  static class Entry implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object value;
+    private final Versions versions;
+
+    Entry(Object value, Versions versions) {
+      this.value = value;
+      this.versions = versions;
+    }
+
+    boolean dependsOn(Collection<String> modifiedTables) {
+      return versions.dependsOn(modifiedTables);
+    }
+  }
+
+}
@@ -15,8 +15,10 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -24,6 +26,7 @@ import java.util.concurrent.locks.ReadWriteLock;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.parsing.TableNameParser;
 
 /**
  * The 2nd level cache transactional buffer.
@@ -50,12 +53,20 @@ public class TransactionalCache implements Cache {
 	private final Map<Object, Object> entriesToAddOnCommit;
 	//记录缓存未命中的CacheKey对象
 	private final Set<Object> entriesMissedInCache;
+	//底层Cache按表失效时，事务提交时需要失效的表
+	private final Set<String> tablesToClearOnCommit;
+	private final TableInvalidatingCache tableCache;
+	//底层Cache为NearCache时，事务提交时的失效会广播到其他节点
+	private final NearCache nearCache;
 
 	public TransactionalCache(Cache delegate) {
 		this.delegate = delegate;
 		this.clearOnCommit = false;
 		this.entriesToAddOnCommit = new HashMap<Object, Object>();
 		this.entriesMissedInCache = new HashSet<Object>();
+		this.tablesToClearOnCommit = new HashSet<String>();
+		this.tableCache = TableInvalidatingCache.of(delegate);
+		this.nearCache = delegate instanceof NearCache ? (NearCache) delegate : null;
 	}
 
 	@Override
@@ -71,8 +82,10 @@ public class TransactionalCache implements Cache {
 	@Override
 	public Object getObject(Object key) {
 		// issue #116
-		//查询底层的Cache是否包含指定的key
-		Object object = delegate.getObject(key);
+		//查询底层的Cache是否包含指定的key，当前事务修改过表时直接查询TableInvalidatingCache，
+		//不经过合并并发加载的装饰器
+		Object object = tableCache == null || tablesToClearOnCommit.isEmpty() ? delegate.getObject(key)
+				: tableCache.getObject(key, tablesToClearOnCommit);
 		//不包含，则记录到未命中集合中
 		if (object == null) {
 			entriesMissedInCache.add(key);
@@ -96,6 +109,23 @@ public class TransactionalCache implements Cache {
 		entriesToAddOnCommit.put(key, object);
 	}
 
+	/**
+	 * Same as {@link #putObject(Object, Object)} but records the tables the
+	 * object was read from, so it can be invalidated at table level.
+	 *
+	 * @param versions the versions of the tables, captured by
+	 *          {@link TableInvalidatingCache#captureVersions(Collection)} before
+	 *          the query was executed
+	 */
+	public void putObject(Object key, Object object, TableInvalidatingCache.Versions versions) {
+		if (tableCache == null) {
+			putObject(key, object);
+		} else {
+			//表的版本是在执行查询之前记录的，查询执行期间以及查询与提交之间发生的失效都不会丢失
+			entriesToAddOnCommit.put(key, tableCache.newEntry(object, versions));
+		}
+	}
+
 	@Override
 	public Object removeObject(Object key) {
 		return null;
@@ -107,9 +137,42 @@ public class TransactionalCache implements Cache {
 		entriesToAddOnCommit.clear();
 	}
 
+	/**
+	 * Invalidates only the entries read from the given tables. Falls back to
+	 * {@link #clear()} when the underlying cache does not support table level
+	 * invalidation or the tables are unknown.
+	 */
+	public void clear(Collection<String> tables) {
+		if (tableCache == null || tables == null || tables.isEmpty()) {
+			clear();
+			return;
+		}
+		//与缓存项记录的表名使用相同的规则
+		Set<String> normalized = new HashSet<String>();
+		for (String table : tables) {
+			normalized.add(TableNameParser.normalize(table));
+		}
+		tablesToClearOnCommit.addAll(normalized);
+		//移除依赖于这些表的暂存缓存项
+		Iterator<Object> values = entriesToAddOnCommit.values().iterator();
+		while (values.hasNext()) {
+			Object value = values.next();
+			if (!(value instanceof TableInvalidatingCache.Entry)
+					|| ((TableInvalidatingCache.Entry) value).dependsOn(normalized)) {
+				values.remove();
+			}
+		}
+	}
+
 	public void commit() {
 		if (clearOnCommit) {
 			delegate.clear();
+		} else if (!tablesToClearOnCommit.isEmpty()) {
+			if (nearCache != null) {
+				nearCache.clearTables(tablesToClearOnCommit);
+			} else {
+				tableCache.clearTables(tablesToClearOnCommit);
+			}
 		}
 		flushPendingEntries();
 		reset();
@@ -124,6 +187,7 @@ public class TransactionalCache implements Cache {
 		clearOnCommit = false;
 		entriesToAddOnCommit.clear();
 		entriesMissedInCache.clear();
+		tablesToClearOnCommit.clear();
 	}
 
 	private void flushPendingEntries() {
@@ -22,6 +22,8 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.EvictionReason;
 
 /**
  * Weak Reference cache decorator.
@@ -34,6 +36,7 @@ public class WeakCache implements Cache {
   private final ReferenceQueue<Object> queueOfGarbageCollectedEntries;
   private final Cache delegate;
   private int numberOfHardLinks;
+  private CacheStatistics statistics;
 
   public WeakCache(Cache delegate) {
     this.delegate = delegate;
@@ -57,6 +60,10 @@ public class WeakCache implements Cache {
     this.numberOfHardLinks = size;
   }
 
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     removeGarbageCollectedItems();
@@ -102,8 +109,14 @@ public class WeakCache implements Cache {
 
   private void removeGarbageCollectedItems() {
     WeakEntry sv;
+    int collected = 0;
     while ((sv = (WeakEntry) queueOfGarbageCollectedEntries.poll()) != null) {
       delegate.removeObject(sv.key);
+      collected++;
+    }
+    // collected entries are counted here only, they are always enqueued even if found cleared by getObject
+    if (statistics != null) {
+      statistics.evicted(EvictionReason.COLLECTED, collected);
     }
   }
 
@@ -0,0 +1,201 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Shared cache for the results of immutable statements (reference data).
+ * <p>
+ * It is used across sessions without any transactional bookkeeping: lists are
+ * stored as unmodifiable snapshots, the first value stored for a key wins and
+ * entries are only dropped by an explicit {@link #clear()}. Result objects are
+ * shared by every caller and must be treated as read only.
+ * </p>
+ * The number of entries (one per distinct parameter) is bounded: once the cache
+ * holds <code>size</code> entries, the results for new parameters are not
+ * cached and those queries go to the database every time. Nothing is evicted,
+ * so the entries already cached keep their hit rate.
+ *
+ * @since 3.4.6
+ */
+public class SnapshotCache implements Cache {
+
+  public static final int DEFAULT_SIZE = 1024;
+
+  private final String id;
+  private final int size;
+  private final AtomicInteger count = new AtomicInteger();
+  private final ConcurrentHashMap<Object, Object> cache = new ConcurrentHashMap<Object, Object>();
+  private final ConcurrentHashMap<String, Map<Object, List<Object>>> indexes = new ConcurrentHashMap<String, Map<Object, List<Object>>>();
+
+  public SnapshotCache(String id) {
+    this(id, DEFAULT_SIZE);
+  }
+
+  /**
+   * @param size the maximum number of entries
+   */
+  public SnapshotCache(String id, int size) {
+    this.id = id;
+    this.size = size;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    return cache.size();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (value == null || cache.containsKey(key)) {
+      return;
+    }
+    // reserve a slot first so that concurrent puts cannot exceed the size
+    if (count.incrementAndGet() > size) {
+      count.decrementAndGet();
+      return;
+    }
+    if (cache.putIfAbsent(key, value instanceof List ? snapshot((List<?>) value) : value) != null) {
+      count.decrementAndGet();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return cache.get(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Object removed = cache.remove(key);
+    if (removed != null) {
+      count.decrementAndGet();
+    }
+    return removed;
+  }
+
+  @Override
+  public void clear() {
+    for (Object key : cache.keySet()) {
+      removeObject(key);
+    }
+    indexes.clear();
+  }
+
+  /**
+   * @return the index previously built for the property, or null
+   */
+  public Map<Object, List<Object>> getIndex(String property) {
+    return indexes.get(property);
+  }
+
+  /**
+   * Builds (once) an index of the given snapshot by the value of a property of its elements.
+   */
+  public Map<Object, List<Object>> index(String property, List<?> snapshot, Configuration configuration) {
+    Map<Object, List<Object>> index = indexes.get(property);
+    if (index != null) {
+      return index;
+    }
+    Map<Object, List<Object>> newIndex = new HashMap<Object, List<Object>>();
+    for (Object element : snapshot) {
+      if (element == null) {
+        continue;
+      }
+      MetaObject metaObject = configuration.newMetaObject(element);
+      Object indexKey = normalizeKey(metaObject.getValue(property));
+      List<Object> matches = newIndex.get(indexKey);
+      if (matches == null) {
+        matches = new ArrayList<Object>(1);
+        newIndex.put(indexKey, matches);
+      }
+      matches.add(element);
+    }
+    for (Map.Entry<Object, List<Object>> entry : newIndex.entrySet()) {
+      entry.setValue(Collections.unmodifiableList(entry.getValue()));
+    }
+    index = indexes.putIfAbsent(property, Collections.unmodifiableMap(newIndex));
+    return index == null ? indexes.get(property) : index;
+  }
+
+  /**
+   * Numbers are compared by value so that an int parameter finds a long or a
+   * BigDecimal id: integral values are turned into a Long (or a BigInteger when
+   * they do not fit), other values into a BigDecimal without trailing zeros.
+   */
+  public static Object normalizeKey(Object key) {
+    if (key instanceof Long) {
+      return key;
+    }
+    if (key instanceof Integer || key instanceof Short || key instanceof Byte
+        || key instanceof AtomicInteger || key instanceof AtomicLong) {
+      return Long.valueOf(((Number) key).longValue());
+    }
+    BigDecimal decimal;
+    if (key instanceof BigDecimal) {
+      decimal = (BigDecimal) key;
+    } else if (key instanceof BigInteger) {
+      decimal = new BigDecimal((BigInteger) key);
+    } else if ((key instanceof Double || key instanceof Float)
+        && !Double.isNaN(((Number) key).doubleValue()) && !Double.isInfinite(((Number) key).doubleValue())) {
+      decimal = new BigDecimal(((Number) key).doubleValue());
+    } else {
+      return key;
+    }
+    if (decimal.signum() == 0) {
+      return Long.valueOf(0);
+    }
+    decimal = decimal.stripTrailingZeros();
+    if (decimal.scale() <= 0) {
+      BigInteger integer = decimal.toBigInteger();
+      if (integer.bitLength() < 64) {
+        return Long.valueOf(integer.longValue());
+      }
+      return integer;
+    }
+    return decimal;
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private static List<Object> snapshot(List<?> list) {
+    return Collections.unmodifiableList(new ArrayList<Object>(list));
+  }
+
+}
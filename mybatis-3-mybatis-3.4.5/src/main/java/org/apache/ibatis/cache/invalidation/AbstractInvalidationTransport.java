@@ -0,0 +1,83 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Keeps the listeners of a transport and dispatches received messages,
+ * ignoring the ones sent by this node.
+ *
+ * @since 3.4.6
+ */
+public abstract class AbstractInvalidationTransport implements InvalidationTransport {
+
+  private static final Log log = LogFactory.getLog(AbstractInvalidationTransport.class);
+
+  private final String nodeId = UUID.randomUUID().toString();
+  private final ConcurrentHashMap<String, List<InvalidationListener>> listeners = new ConcurrentHashMap<String, List<InvalidationListener>>();
+
+  @Override
+  public void setProperties(Properties properties) {
+    // NOP
+  }
+
+  @Override
+  public void subscribe(String cacheId, InvalidationListener listener) {
+    List<InvalidationListener> cacheListeners = listeners.get(cacheId);
+    if (cacheListeners == null) {
+      List<InvalidationListener> newListeners = new CopyOnWriteArrayList<InvalidationListener>();
+      cacheListeners = listeners.putIfAbsent(cacheId, newListeners);
+      if (cacheListeners == null) {
+        cacheListeners = newListeners;
+      }
+    }
+    cacheListeners.add(listener);
+  }
+
+  /**
+   * @return the id of this node, sent with every message
+   */
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  protected void deliver(String originNodeId, String cacheId, Collection<String> tables) {
+    if (nodeId.equals(originNodeId)) {
+      return;
+    }
+    List<InvalidationListener> cacheListeners = listeners.get(cacheId);
+    if (cacheListeners == null) {
+      return;
+    }
+    for (InvalidationListener listener : cacheListeners) {
+      try {
+        listener.onInvalidation(cacheId, tables);
+      } catch (RuntimeException e) {
+        log.warn("Error applying invalidation of cache " + cacheId + " from node " + originNodeId + ". Cause: " + e);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,239 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Transport that appends invalidations to a journal file shared by all the
+ * nodes, each node tailing the file from the moment it started.
+ * <p>
+ * Meant for tests and for several JVMs running on the same host (or sharing
+ * a file system with reliable locking). The journal is never truncated.
+ * </p>
+ * Properties:
+ * <ul>
+ * <li><code>journal</code>: path of the journal file (required)</li>
+ * <li><code>pollInterval</code>: milliseconds between two reads of the journal, defaults to 100</li>
+ * </ul>
+ *
+ * @since 3.4.6
+ */
+public class FileJournalInvalidationTransport extends AbstractInvalidationTransport {
+
+  private static final Log log = LogFactory.getLog(FileJournalInvalidationTransport.class);
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String ALL_TABLES = "*";
+
+  private File journal;
+  private long pollInterval = 100;
+
+  private RandomAccessFile reader;
+  private long position;
+  private final ByteArrayOutputStream pendingLine = new ByteArrayOutputStream();
+  private Thread poller;
+  private volatile boolean closed;
+
+  public FileJournalInvalidationTransport() {
+  }
+
+  public FileJournalInvalidationTransport(File journal) {
+    this.journal = journal;
+  }
+
+  @Override
+  public void setProperties(Properties properties) {
+    String path = properties.getProperty("journal");
+    if (path != null) {
+      journal = new File(path);
+    }
+    String interval = properties.getProperty("pollInterval");
+    if (interval != null) {
+      pollInterval = Long.parseLong(interval);
+    }
+  }
+
+  public void setPollInterval(long pollInterval) {
+    this.pollInterval = pollInterval;
+  }
+
+  @Override
+  public void publish(String cacheId, Collection<String> tables) {
+    start();
+    StringBuilder line = new StringBuilder();
+    line.append(getNodeId()).append('\t').append(cacheId).append('\t');
+    if (tables == null) {
+      line.append(ALL_TABLES);
+    } else {
+      boolean first = true;
+      for (String table : tables) {
+        if (!first) {
+          line.append(',');
+        }
+        line.append(table);
+        first = false;
+      }
+    }
+    line.append('\n');
+    FileOutputStream out = null;
+    try {
+      out = new FileOutputStream(journal, true);
+      FileChannel channel = out.getChannel();
+      // the lock keeps the lines written by several processes apart
+      FileLock lock = channel.lock();
+      try {
+        channel.write(ByteBuffer.wrap(line.toString().getBytes(UTF_8)));
+      } finally {
+        lock.release();
+      }
+    } catch (IOException e) {
+      throw new CacheException("Error publishing invalidation of cache " + cacheId + " to " + journal + ". Cause: " + e, e);
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  @Override
+  public void subscribe(String cacheId, InvalidationListener listener) {
+    start();
+    super.subscribe(cacheId, listener);
+  }
+
+  /**
+   * Delivers the messages appended to the journal since the last call. Called
+   * periodically by the polling thread, it can also be called directly.
+   *
+   * @return the number of messages read
+   */
+  public synchronized int poll() {
+    if (closed || reader == null) {
+      return 0;
+    }
+    List<String> lines = new ArrayList<String>();
+    try {
+      long length = reader.length();
+      if (length < position) {
+        // the journal has been recreated
+        position = 0;
+        pendingLine.reset();
+      }
+      if (length > position) {
+        byte[] bytes = new byte[(int) Math.min(length - position, 1 << 20)];
+        reader.seek(position);
+        reader.readFully(bytes);
+        position += bytes.length;
+        for (byte b : bytes) {
+          if (b == '\n') {
+            lines.add(new String(pendingLine.toByteArray(), UTF_8));
+            pendingLine.reset();
+          } else {
+            pendingLine.write(b);
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Error reading invalidation journal " + journal + ". Cause: " + e);
+      return 0;
+    }
+    for (String line : lines) {
+      String[] parts = line.split("\t", 3);
+      if (parts.length != 3) {
+        continue;
+      }
+      Collection<String> tables = ALL_TABLES.equals(parts[2]) ? null : Arrays.asList(parts[2].split(","));
+      deliver(parts[0], parts[1], tables);
+    }
+    return lines.size();
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (poller != null) {
+      poller.interrupt();
+      poller = null;
+    }
+    if (reader != null) {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        // ignore
+      }
+      reader = null;
+    }
+  }
+
+  private synchronized void start() {
+    if (reader != null) {
+      return;
+    }
+    if (closed) {
+      throw new CacheException("The invalidation transport has been closed.");
+    }
+    if (journal == null) {
+      throw new CacheException("The property 'journal' of FileJournalInvalidationTransport is required.");
+    }
+    try {
+      if (!journal.exists()) {
+        journal.createNewFile();
+      }
+      reader = new RandomAccessFile(journal, "r");
+      // only the messages published from now on concern this node
+      position = reader.length();
+    } catch (IOException e) {
+      throw new CacheException("Error opening invalidation journal " + journal + ". Cause: " + e, e);
+    }
+    poller = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (!closed) {
+          try {
+            Thread.sleep(pollInterval);
+          } catch (InterruptedException e) {
+            return;
+          }
+          poll();
+        }
+      }
+    }, "mybatis-invalidation-journal");
+    poller.setDaemon(true);
+    poller.start();
+  }
+
+}
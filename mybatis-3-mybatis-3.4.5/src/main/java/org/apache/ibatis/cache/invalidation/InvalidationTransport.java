@@ -0,0 +1,47 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.util.Collection;
+import java.util.Properties;
+
+/**
+ * Sends the invalidations of the second level caches of this node to the
+ * other nodes and receives theirs.
+ * <p>
+ * One transport is shared by all the caches of a configuration. Messages
+ * published by a transport must not be delivered back to its own listeners.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+public interface InvalidationTransport {
+
+  void setProperties(Properties properties);
+
+  /**
+   * @param tables the invalidated tables, or null if the whole cache has been cleared
+   */
+  void publish(String cacheId, Collection<String> tables);
+
+  void subscribe(String cacheId, InvalidationListener listener);
+
+  /**
+   * Releases the resources held by the transport, no message is delivered afterwards.
+   */
+  void close();
+
+}
@@ -0,0 +1,52 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource;
+
+/**
+ * Tells the datasource whether the statement being prepared by the current thread only reads data.
+ * <p>
+ * The executor marks every statement it prepares, whatever the configured datasource is, so that a
+ * datasource routing reads to replicas works even when it is wrapped by another datasource. Statements
+ * prepared without being marked are considered writes.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+public final class StatementRoute {
+
+  private static final ThreadLocal<Boolean> READ_STATEMENT = new ThreadLocal<Boolean>();
+
+  private StatementRoute() {
+  }
+
+  /**
+   * Marks the statements prepared by the current thread, until {@link #clear()} is called.
+   *
+   * @param read true if they only read data and may be sent to a replica
+   */
+  public static void mark(boolean read) {
+    READ_STATEMENT.set(read);
+  }
+
+  public static void clear() {
+    READ_STATEMENT.remove();
+  }
+
+  public static boolean isRead() {
+    return Boolean.TRUE.equals(READ_STATEMENT.get());
+  }
+
+}
@@ -0,0 +1,129 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * Computes the maximum number of active connections of an adaptive pool from the acquisition
+ * waits and the utilization observed since its previous evaluation.
+ * <p>
+ * The limit grows by a quarter as soon as the 95th percentile of the waits exceeds the target
+ * or a request times out. It shrinks by a tenth, never below what would keep the utilization
+ * under 70%, only after several calm evaluations in a row: waits under half of the target and
+ * less than half of the connections in use. The gap between both thresholds and the delay
+ * keep the pool from oscillating with short bursts.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+final class AdaptivePoolSizer {
+
+  private static final double GROWTH_FACTOR = 0.25;
+  private static final double SHRINK_FACTOR = 0.1;
+  private static final double LOW_UTILIZATION = 0.5;
+  private static final double TARGET_UTILIZATION = 0.7;
+
+  // the configured limits, the idle limit is scaled along the active one
+  private final int baseMaximumActive;
+  private final int baseMaximumIdle;
+
+  private long[] previousWaits;
+  private long previousUsageNanos;
+  private long previousTimeouts;
+  private long previousEvaluation;
+  private int calmEvaluations;
+  private double lastWaitMillis;
+  private double lastUtilization;
+
+  AdaptivePoolSizer(int baseMaximumActive, int baseMaximumIdle) {
+    this.baseMaximumActive = baseMaximumActive;
+    this.baseMaximumIdle = baseMaximumIdle;
+  }
+
+  int getBaseMaximumActive() {
+    return baseMaximumActive;
+  }
+
+  /*
+   * @param limit - the current maximum number of active connections
+   * @return the new maximum
+   */
+  int evaluate(int limit, int minimum, int maximum, double targetWaitMillis, int shrinkDelay, PoolMetrics metrics) {
+    long now = System.nanoTime();
+    long[] waits = metrics.getAcquireTime().getBucketCounts();
+    long usageNanos = metrics.getUsageTime().getTotalNanos();
+    long timeouts = metrics.getTimeouts();
+    long[] newWaits = previousWaits == null ? null : new long[waits.length];
+    boolean reset = newWaits == null || usageNanos < previousUsageNanos || timeouts < previousTimeouts;
+    for (int i = 0; !reset && i < waits.length; i++) {
+      newWaits[i] = waits[i] - previousWaits[i];
+      reset = newWaits[i] < 0;
+    }
+    long elapsed = now - previousEvaluation;
+    long newUsageNanos = usageNanos - previousUsageNanos;
+    long newTimeouts = timeouts - previousTimeouts;
+    previousWaits = waits;
+    previousUsageNanos = usageNanos;
+    previousTimeouts = timeouts;
+    previousEvaluation = now;
+    if (reset || elapsed <= 0) {
+      // first evaluation or the metrics have been reset, this one is the new baseline
+      calmEvaluations = 0;
+      return clamp(limit, minimum, maximum);
+    }
+
+    lastWaitMillis = LatencyHistogram.getPercentileMillis(newWaits, 95);
+    lastUtilization = newUsageNanos / ((double) elapsed * limit);
+    if ((lastWaitMillis > targetWaitMillis || newTimeouts > 0) && limit < maximum) {
+      calmEvaluations = 0;
+      return clamp(limit + Math.max(1, (int) Math.ceil(limit * GROWTH_FACTOR)), minimum, maximum);
+    }
+    if (lastWaitMillis > targetWaitMillis / 2 || newTimeouts > 0 || lastUtilization >= LOW_UTILIZATION) {
+      calmEvaluations = 0;
+      return clamp(limit, minimum, maximum);
+    }
+    if (++calmEvaluations < shrinkDelay || limit <= minimum) {
+      return clamp(limit, minimum, maximum);
+    }
+    calmEvaluations = 0;
+    int needed = (int) Math.ceil(lastUtilization * limit / TARGET_UTILIZATION);
+    int shrunk = limit - Math.max(1, (int) Math.ceil(limit * SHRINK_FACTOR));
+    return clamp(Math.max(needed, shrunk), minimum, maximum);
+  }
+
+  /*
+   * @return the maximum number of idle connections matching the given maximum of active ones
+   */
+  int idleLimitFor(int maximumActive) {
+    if (baseMaximumActive <= 0) {
+      return Math.min(baseMaximumIdle, maximumActive);
+    }
+    int idle = (int) Math.round((double) maximumActive * baseMaximumIdle / baseMaximumActive);
+    return Math.min(maximumActive, Math.max(1, idle));
+  }
+
+  double getLastWaitMillis() {
+    return lastWaitMillis;
+  }
+
+  double getLastUtilization() {
+    return lastUtilization;
+  }
+
+  private static int clamp(int limit, int minimum, int maximum) {
+    return Math.max(minimum, Math.min(maximum, limit));
+  }
+
+}
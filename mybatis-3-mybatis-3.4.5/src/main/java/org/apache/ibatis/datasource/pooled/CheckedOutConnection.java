@@ -0,0 +1,84 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Snapshot of a connection currently checked out from a pool.
+ *
+ * @since 3.4.6
+ */
+public class CheckedOutConnection {
+
+  private final int realHashCode;
+  private final long checkoutTimestamp;
+  private final String threadName;
+  private final Throwable checkoutSite;
+
+  public CheckedOutConnection(int realHashCode, long checkoutTimestamp, String threadName, Throwable checkoutSite) {
+    this.realHashCode = realHashCode;
+    this.checkoutTimestamp = checkoutTimestamp;
+    this.threadName = threadName;
+    this.checkoutSite = checkoutSite;
+  }
+
+  public int getRealHashCode() {
+    return realHashCode;
+  }
+
+  public long getCheckoutTimestamp() {
+    return checkoutTimestamp;
+  }
+
+  /**
+   * @return the number of milliseconds since the connection was checked out
+   */
+  public long getAge() {
+    return System.currentTimeMillis() - checkoutTimestamp;
+  }
+
+  /**
+   * @return the thread that checked the connection out, null if leak detection is disabled
+   */
+  public String getThreadName() {
+    return threadName;
+  }
+
+  /**
+   * @return the stack of the checkout, null if leak detection is disabled or the checkout was not sampled
+   */
+  public Throwable getCheckoutSite() {
+    return checkoutSite;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("Connection ").append(realHashCode).append(" checked out for ").append(getAge()).append(" ms");
+    if (threadName != null) {
+      builder.append(" by thread ").append(threadName);
+    }
+    if (checkoutSite != null) {
+      StringWriter writer = new StringWriter();
+      checkoutSite.printStackTrace(new PrintWriter(writer));
+      builder.append('\n').append(writer);
+    }
+    return builder.toString();
+  }
+
+}
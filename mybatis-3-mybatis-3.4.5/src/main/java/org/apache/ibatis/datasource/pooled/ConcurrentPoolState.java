@@ -0,0 +1,107 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free counters of a {@link ConcurrentPooledDataSource}.
+ *
+ * @since 3.4.6
+ */
+public class ConcurrentPoolState extends PoolState {
+
+  protected final AtomicLong requestCount = new AtomicLong();
+  protected final AtomicLong accumulatedRequestTime = new AtomicLong();
+  protected final AtomicLong accumulatedCheckoutTime = new AtomicLong();
+  protected final AtomicLong claimedOverdueConnectionCount = new AtomicLong();
+  protected final AtomicLong accumulatedCheckoutTimeOfOverdueConnections = new AtomicLong();
+  protected final AtomicLong accumulatedWaitTime = new AtomicLong();
+  protected final AtomicLong hadToWaitCount = new AtomicLong();
+  protected final AtomicLong badConnectionCount = new AtomicLong();
+  protected final AtomicLong validationCount = new AtomicLong();
+  protected final AtomicLong accumulatedValidationTimeNanos = new AtomicLong();
+
+  public ConcurrentPoolState(ConcurrentPooledDataSource dataSource) {
+    super(dataSource);
+  }
+
+  @Override
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  @Override
+  public long getAverageRequestTime() {
+    long requests = requestCount.get();
+    return requests == 0 ? 0 : accumulatedRequestTime.get() / requests;
+  }
+
+  @Override
+  public long getAverageWaitTime() {
+    long waits = hadToWaitCount.get();
+    return waits == 0 ? 0 : accumulatedWaitTime.get() / waits;
+  }
+
+  @Override
+  public long getHadToWaitCount() {
+    return hadToWaitCount.get();
+  }
+
+  @Override
+  public long getBadConnectionCount() {
+    return badConnectionCount.get();
+  }
+
+  @Override
+  public long getClaimedOverdueConnectionCount() {
+    return claimedOverdueConnectionCount.get();
+  }
+
+  @Override
+  public long getAverageOverdueCheckoutTime() {
+    long claimed = claimedOverdueConnectionCount.get();
+    return claimed == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections.get() / claimed;
+  }
+
+  @Override
+  public long getAverageCheckoutTime() {
+    long requests = requestCount.get();
+    return requests == 0 ? 0 : accumulatedCheckoutTime.get() / requests;
+  }
+
+  @Override
+  public long getValidationCount() {
+    return validationCount.get();
+  }
+
+  @Override
+  public long getAverageValidationTimeNanos() {
+    long validations = validationCount.get();
+    return validations == 0 ? 0 : accumulatedValidationTimeNanos.get() / validations;
+  }
+
+  @Override
+  public int getIdleConnectionCount() {
+    return ((ConcurrentPooledDataSource) dataSource).getIdleConnectionCount();
+  }
+
+  @Override
+  public int getActiveConnectionCount() {
+    return ((ConcurrentPooledDataSource) dataSource).getActiveConnectionCount();
+  }
+
+}
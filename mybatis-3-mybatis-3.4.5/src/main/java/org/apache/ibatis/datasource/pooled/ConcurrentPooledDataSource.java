@@ -0,0 +1,680 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * A connection pool that does not serialize checkouts and returns on a single lock.
+ * <p>
+ * It is configured exactly like {@link PooledDataSource}, but:
+ * </p>
+ * <ul>
+ * <li>a thread first tries to reuse the connection it returned last, then takes one from a lock free idle queue</li>
+ * <li>a returned connection is handed off directly to the oldest waiting thread, waiters are served in FIFO
+ * order and only the one receiving a connection is woken up</li>
+ * <li>physical connections are created, validated and rolled back without holding any lock, a pool slot
+ * being reserved first</li>
+ * </ul>
+ * The idle limit is enforced approximately under concurrent returns.
+ *
+ * @since 3.4.6
+ */
+public class ConcurrentPooledDataSource extends PooledDataSource {
+
+  private static final Log log = LogFactory.getLog(ConcurrentPooledDataSource.class);
+
+  private final ConcurrentPoolState state = new ConcurrentPoolState(this);
+
+  private final Set<PoolEntry> entries = Collections.newSetFromMap(new ConcurrentHashMap<PoolEntry, Boolean>());
+  private final Queue<PoolEntry> idleEntries = new ConcurrentLinkedQueue<PoolEntry>();
+  private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+  private final AtomicInteger totalConnections = new AtomicInteger();
+  private final AtomicInteger idleConnections = new AtomicInteger();
+  private final AtomicInteger generation = new AtomicInteger();
+  private final ThreadLocal<WeakReference<PoolEntry>> lastReturned = new ThreadLocal<WeakReference<PoolEntry>>();
+  // set once the partition has been dropped by the parent pool
+  private volatile boolean retired;
+
+  public ConcurrentPooledDataSource() {
+    super();
+  }
+
+  public ConcurrentPooledDataSource(UnpooledDataSource dataSource) {
+    super(dataSource);
+  }
+
+  public ConcurrentPooledDataSource(String driver, String url, String username, String password) {
+    super(driver, url, username, password);
+  }
+
+  public ConcurrentPooledDataSource(String driver, String url, Properties driverProperties) {
+    super(driver, url, driverProperties);
+  }
+
+  public ConcurrentPooledDataSource(ClassLoader driverClassLoader, String driver, String url, String username, String password) {
+    super(driverClassLoader, driver, url, username, password);
+  }
+
+  public ConcurrentPooledDataSource(ClassLoader driverClassLoader, String driver, String url, Properties driverProperties) {
+    super(driverClassLoader, driver, url, driverProperties);
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    startMaintenance();
+    return borrowConnection(dataSource.getUsername(), dataSource.getPassword()).getProxyConnection();
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    startMaintenance();
+    PooledDataSource partition = partitionFor(username, password);
+    if (partition != null) {
+      return partition.getConnection();
+    }
+    return borrowConnection(username, password).getProxyConnection();
+  }
+
+  @Override
+  public PoolState getPoolState() {
+    return state;
+  }
+
+  @Override
+  public int getIdleConnectionCount() {
+    return idleConnections.get();
+  }
+
+  @Override
+  public int getActiveConnectionCount() {
+    return totalConnections.get() - idleConnections.get();
+  }
+
+  /*
+   * Closes all active and idle connections in the pool
+   */
+  @Override
+  public void forceCloseAll() {
+    // also called by the setters of the super class
+    if (entries == null) {
+      return;
+    }
+    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    generation.incrementAndGet();
+    for (PoolEntry entry : entries) {
+      discard(entry);
+    }
+    idleEntries.clear();
+    resetPartitions();
+    if (log.isDebugEnabled()) {
+      log.debug("ConcurrentPooledDataSource forcefully closed/removed all connections.");
+    }
+  }
+
+  @Override
+  protected void pushConnection(PooledConnection conn) throws SQLException {
+    PoolEntry entry = ((BorrowedConnection) conn).entry;
+    if (!entry.owner.compareAndSet((BorrowedConnection) conn, null)) {
+      // already closed, reclaimed as overdue or closed by forceCloseAll
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCount.incrementAndGet();
+      metrics.badConnection();
+      return;
+    }
+    conn.releasePermit();
+    state.accumulatedCheckoutTime.addAndGet(conn.getCheckoutTime());
+    metrics.released(TimeUnit.MILLISECONDS.toNanos(conn.getCheckoutTime()));
+    conn.invalidate();
+    entry.lastUsedTimestamp = conn.getLastUsedTimestamp();
+    entry.lastValidatedTimestamp = conn.getLastValidatedTimestamp();
+    entry.lastReturnedTimestamp = System.currentTimeMillis();
+    try {
+      conn.resetTransaction(false);
+    } catch (SQLException e) {
+      discard(entry);
+      throw e;
+    }
+    if (conn.getConnectionTypeCode() != expectedConnectionTypeCode || entry.generation != generation.get()
+        || isExpired(entry.realConnection.hashCode(), entry.createdTimestamp, entry.lastUsedTimestamp, false)) {
+      discard(entry);
+      if (log.isDebugEnabled()) {
+        log.debug("Closed connection " + conn.getRealHashCode() + ".");
+      }
+      return;
+    }
+    recycle(entry);
+    if (retired) {
+      // retired meanwhile, the entry may have been queued after the idle connections were closed
+      resizePool(poolMaximumActiveConnections, 0);
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Returned connection " + conn.getRealHashCode() + " to pool.");
+    }
+  }
+
+  /*
+   * Same as the maintenance of PooledDataSource, idle entries are claimed before
+   * being closed or pinged so that they are never shared with a borrower
+   */
+  @Override
+  protected void maintainPool() {
+    detectLeaks();
+    int minimumIdle = Math.min(poolMinimumIdleConnections, poolMaximumIdleConnections);
+    boolean validate = poolBackgroundValidation && poolPingEnabled;
+    for (PoolEntry entry : entries) {
+      if (entry.status.get() != PoolEntry.IDLE) {
+        continue;
+      }
+      boolean checkIdleTimeout = idleConnections.get() > minimumIdle;
+      long lastUsedTimestamp = Math.max(entry.lastUsedTimestamp, entry.lastReturnedTimestamp);
+      if (isExpired(entry.realConnection.hashCode(), entry.createdTimestamp, lastUsedTimestamp, checkIdleTimeout)) {
+        if (entry.claim()) {
+          idleConnections.decrementAndGet();
+          discard(entry);
+          if (log.isDebugEnabled()) {
+            log.debug("Retired connection " + entry.realConnection.hashCode() + ".");
+          }
+        }
+      } else if (validate
+          && System.currentTimeMillis() - Math.max(entry.lastUsedTimestamp, entry.lastValidatedTimestamp) >= poolMaintenanceInterval
+          && entry.claim()) {
+        idleConnections.decrementAndGet();
+        BorrowedConnection probe = new BorrowedConnection(entry, this);
+        if (executePingQuery(probe)) {
+          entry.lastValidatedTimestamp = probe.getLastValidatedTimestamp();
+          recycle(entry);
+        } else {
+          state.badConnectionCount.incrementAndGet();
+          metrics.badConnection();
+          discard(entry);
+        }
+      }
+    }
+    while (idleConnections.get() < minimumIdle) {
+      PoolEntry entry;
+      try {
+        entry = createIfAllowed();
+      } catch (SQLException e) {
+        log.warn("Could not open an idle connection: " + e.getMessage());
+        return;
+      }
+      if (entry == null) {
+        return;
+      }
+      recycle(entry);
+    }
+  }
+
+  @Override
+  protected boolean isUnused() {
+    return totalConnections.get() == 0;
+  }
+
+  @Override
+  protected void retire() {
+    retired = true;
+    super.retire();
+  }
+
+  @Override
+  protected PooledDataSource newPartition(UnpooledDataSource partitionDataSource) {
+    return new ConcurrentPooledDataSource(partitionDataSource);
+  }
+
+  @Override
+  protected List<PooledConnection> getActivePooledConnections() {
+    List<PooledConnection> active = new ArrayList<PooledConnection>();
+    for (PoolEntry entry : entries) {
+      BorrowedConnection owner = entry.owner.get();
+      if (owner != null) {
+        active.add(owner);
+      }
+    }
+    return active;
+  }
+
+  @Override
+  protected void recordValidation(long nanos) {
+    state.validationCount.incrementAndGet();
+    state.accumulatedValidationTimeNanos.addAndGet(nanos);
+  }
+
+  private PooledConnection borrowConnection(String username, String password) throws SQLException {
+    Semaphore permits = acquirePermit();
+    if (permits == null) {
+      return doBorrowConnection(username, password);
+    }
+    boolean acquired = false;
+    try {
+      PooledConnection conn = doBorrowConnection(username, password);
+      conn.setPermits(permits);
+      acquired = true;
+      return conn;
+    } finally {
+      if (!acquired) {
+        permits.release();
+      }
+    }
+  }
+
+  private PooledConnection doBorrowConnection(String username, String password) throws SQLException {
+    long t = System.currentTimeMillis();
+    long start = System.nanoTime();
+    int localBadConnectionCount = 0;
+    while (true) {
+      PoolEntry entry = acquire();
+      BorrowedConnection conn = new BorrowedConnection(entry, this);
+      conn.setCreatedTimestamp(entry.createdTimestamp);
+      conn.setLastUsedTimestamp(entry.lastUsedTimestamp);
+      conn.setLastValidatedTimestamp(entry.lastValidatedTimestamp);
+      conn.setLastReturnedTimestamp(entry.lastReturnedTimestamp);
+      // ping to server and check the connection is valid or not, no lock is held
+      if (conn.isValid()) {
+        try {
+          conn.resetTransaction(false);
+        } catch (SQLException e) {
+          discard(entry);
+          throw e;
+        }
+        conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+        conn.setCheckoutTimestamp(System.currentTimeMillis());
+        conn.setLastUsedTimestamp(System.currentTimeMillis());
+        recordCheckoutSite(conn);
+        entry.owner.set(conn);
+        if (entry.status.get() == PoolEntry.REMOVED) {
+          // closed by forceCloseAll in the meantime
+          continue;
+        }
+        state.requestCount.incrementAndGet();
+        state.accumulatedRequestTime.addAndGet(System.currentTimeMillis() - t);
+        metrics.acquired(System.nanoTime() - start);
+        return conn;
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+      }
+      discard(entry);
+      state.badConnectionCount.incrementAndGet();
+      metrics.badConnection();
+      localBadConnectionCount++;
+      if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
+        if (log.isDebugEnabled()) {
+          log.debug("ConcurrentPooledDataSource: Could not get a good connection to the database.");
+        }
+        throw new SQLException("ConcurrentPooledDataSource: Could not get a good connection to the database.");
+      }
+    }
+  }
+
+  /*
+   * Returns an entry reserved for the calling thread, waiting if needed
+   */
+  private PoolEntry acquire() throws SQLException {
+    boolean countedWait = false;
+    while (true) {
+      PoolEntry entry = claimIdle();
+      if (entry == null) {
+        entry = createIfAllowed();
+      }
+      if (entry == null) {
+        entry = claimOverdue();
+      }
+      if (entry != null) {
+        return entry;
+      }
+      if (!countedWait) {
+        state.hadToWaitCount.incrementAndGet();
+        countedWait = true;
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+      }
+      long wt = System.currentTimeMillis();
+      entry = await(poolTimeToWait);
+      state.accumulatedWaitTime.addAndGet(System.currentTimeMillis() - wt);
+      if (entry != null) {
+        return entry;
+      }
+    }
+  }
+
+  @Override
+  protected void resizePool(int maximumActive, int maximumIdle) {
+    int added = maximumActive - poolMaximumActiveConnections;
+    poolMaximumActiveConnections = maximumActive;
+    poolMaximumIdleConnections = maximumIdle;
+    // each waiter woken up opens one of the new connections
+    for (int i = 0; i < added; i++) {
+      signalFreeSlot();
+    }
+    for (PoolEntry entry : entries) {
+      if (idleConnections.get() <= maximumIdle) {
+        break;
+      }
+      if (entry.status.get() == PoolEntry.IDLE && entry.claim()) {
+        idleConnections.decrementAndGet();
+        discard(entry);
+      }
+    }
+  }
+
+  private PoolEntry claimIdle() {
+    WeakReference<PoolEntry> reference = lastReturned.get();
+    PoolEntry entry = reference == null ? null : reference.get();
+    if (entry != null && entry.claim()) {
+      idleConnections.decrementAndGet();
+      return entry;
+    }
+    while ((entry = idleEntries.poll()) != null) {
+      entry.queued.set(false);
+      if (entry.claim()) {
+        idleConnections.decrementAndGet();
+        if (log.isDebugEnabled()) {
+          log.debug("Checked out connection " + entry.realConnection.hashCode() + " from pool.");
+        }
+        return entry;
+      }
+      // stale: already claimed through thread affinity or closed
+    }
+    return null;
+  }
+
+  private PoolEntry createIfAllowed() throws SQLException {
+    int total;
+    do {
+      total = totalConnections.get();
+      if (total >= maximumActiveConnections()) {
+        return null;
+      }
+    } while (!totalConnections.compareAndSet(total, total + 1));
+    boolean created = false;
+    try {
+      // the slot is reserved, the physical connection is opened without holding any lock
+      long creationStart = System.nanoTime();
+      PoolEntry entry = new PoolEntry(dataSource.getConnection(), generation.get());
+      metrics.created(System.nanoTime() - creationStart);
+      entries.add(entry);
+      created = true;
+      if (log.isDebugEnabled()) {
+        log.debug("Created connection " + entry.realConnection.hashCode() + ".");
+      }
+      return entry;
+    } finally {
+      if (!created) {
+        totalConnections.decrementAndGet();
+        signalFreeSlot();
+      }
+    }
+  }
+
+  private PoolEntry claimOverdue() {
+    BorrowedConnection oldest = null;
+    for (PoolEntry entry : entries) {
+      BorrowedConnection owner = entry.owner.get();
+      if (owner != null && (oldest == null || owner.getCheckoutTimestamp() < oldest.getCheckoutTimestamp())) {
+        oldest = owner;
+      }
+    }
+    if (oldest == null) {
+      return null;
+    }
+    long longestCheckoutTime = oldest.getCheckoutTime();
+    if (longestCheckoutTime <= poolMaximumCheckoutTime || !oldest.entry.owner.compareAndSet(oldest, null)) {
+      return null;
+    }
+    // Can claim overdue connection
+    state.claimedOverdueConnectionCount.incrementAndGet();
+    state.accumulatedCheckoutTimeOfOverdueConnections.addAndGet(longestCheckoutTime);
+    state.accumulatedCheckoutTime.addAndGet(longestCheckoutTime);
+    reportLeak(oldest);
+    metrics.overdueClaimed();
+    oldest.invalidate();
+    oldest.releasePermit();
+    try {
+      // the previous owner may still be using it, do not trust the tracked state
+      oldest.resetTransaction(true);
+    } catch (SQLException e) {
+      // the connection is validated before being handed out
+      log.debug("Bad connection. Could not roll back");
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Claimed overdue connection " + oldest.getRealHashCode() + ".");
+    }
+    return oldest.entry;
+  }
+
+  /*
+   * Parks the calling thread until a connection is handed off to it, a slot is freed or the timeout expires
+   */
+  private PoolEntry await(long timeout) throws SQLException {
+    Waiter waiter = new Waiter();
+    waiters.offer(waiter);
+    // a connection may have been returned before the waiter was visible
+    PoolEntry entry = claimIdle();
+    if (entry != null) {
+      if (!waiter.cancel()) {
+        recycleHandedOff(waiter.slot.get());
+      }
+      return entry;
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    metrics.waitStarted();
+    try {
+      while (waiter.slot.get() == null) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          break;
+        }
+        LockSupport.parkNanos(this, remaining);
+        if (Thread.interrupted()) {
+          if (!waiter.cancel()) {
+            recycleHandedOff(waiter.slot.get());
+          }
+          Thread.currentThread().interrupt();
+          throw new SQLException("ConcurrentPooledDataSource: Interrupted while waiting for a connection.");
+        }
+      }
+    } finally {
+      metrics.waitEnded();
+    }
+    if (waiter.cancel()) {
+      metrics.timedOut();
+      return null;
+    }
+    entry = waiter.slot.get();
+    return entry == Waiter.FREE_SLOT ? null : entry;
+  }
+
+  /*
+   * Makes an entry available again: hands it off to a waiter or puts it in the idle queue
+   */
+  private void recycle(PoolEntry entry) {
+    if (handOff(entry)) {
+      return;
+    }
+    if (idleConnections.get() >= poolMaximumIdleConnections) {
+      discard(entry);
+      return;
+    }
+    idleConnections.incrementAndGet();
+    entry.status.set(PoolEntry.IDLE);
+    lastReturned.set(entry.reference);
+    if (entry.queued.compareAndSet(false, true)) {
+      idleEntries.offer(entry);
+    }
+    // a thread may have started waiting after handOff: give it the entry unless someone else took it
+    if (!waiters.isEmpty() && entry.claim()) {
+      idleConnections.decrementAndGet();
+      if (!handOff(entry)) {
+        idleConnections.incrementAndGet();
+        entry.status.set(PoolEntry.IDLE);
+        // claimIdle() may have polled the entry while it was claimed here and dropped it as stale
+        if (entry.queued.compareAndSet(false, true)) {
+          idleEntries.offer(entry);
+        }
+      }
+    }
+  }
+
+  private void recycleHandedOff(PoolEntry entry) {
+    if (entry != Waiter.FREE_SLOT) {
+      recycle(entry);
+    } else {
+      signalFreeSlot();
+    }
+  }
+
+  private boolean handOff(PoolEntry entry) {
+    Waiter waiter;
+    while ((waiter = waiters.poll()) != null) {
+      if (waiter.offer(entry)) {
+        return true;
+      }
+      // the waiter gave up
+    }
+    return false;
+  }
+
+  /*
+   * Wakes up a waiter so that it can open a new connection
+   */
+  private void signalFreeSlot() {
+    handOff(Waiter.FREE_SLOT);
+  }
+
+  private void discard(PoolEntry entry) {
+    int previous = entry.status.getAndSet(PoolEntry.REMOVED);
+    if (previous == PoolEntry.REMOVED) {
+      return;
+    }
+    if (previous == PoolEntry.IDLE) {
+      idleConnections.decrementAndGet();
+    }
+    entries.remove(entry);
+    BorrowedConnection owner = entry.owner.getAndSet(null);
+    if (owner != null) {
+      owner.invalidate();
+      owner.releasePermit();
+    }
+    Connection realConn = entry.realConnection;
+    try {
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+    } catch (Exception e) {
+      // ignore
+    }
+    // closed even if the rollback failed, the connection is not reachable any more
+    try {
+      realConn.close();
+    } catch (Exception e) {
+      // ignore
+    }
+    totalConnections.decrementAndGet();
+    signalFreeSlot();
+  }
+
+  /*
+   * A physical connection owned by the pool
+   */
+  static final class PoolEntry {
+
+    static final int IDLE = 0;
+    static final int IN_USE = 1;
+    static final int REMOVED = 2;
+
+    final Connection realConnection;
+    final ConnectionState connectionState = new ConnectionState();
+    final int generation;
+    final long createdTimestamp;
+    volatile long lastUsedTimestamp;
+    volatile long lastValidatedTimestamp;
+    volatile long lastReturnedTimestamp;
+    final AtomicInteger status = new AtomicInteger(IN_USE);
+    // true while the entry is in the idle queue, possibly as a stale element
+    final AtomicBoolean queued = new AtomicBoolean();
+    // the pooled connection currently handed out, null when idle
+    final AtomicReference<BorrowedConnection> owner = new AtomicReference<BorrowedConnection>();
+    final WeakReference<PoolEntry> reference = new WeakReference<PoolEntry>(this);
+
+    PoolEntry(Connection realConnection, int generation) {
+      this.realConnection = realConnection;
+      this.generation = generation;
+      this.createdTimestamp = System.currentTimeMillis();
+      this.lastUsedTimestamp = createdTimestamp;
+    }
+
+    boolean claim() {
+      return status.compareAndSet(IDLE, IN_USE);
+    }
+  }
+
+  static final class BorrowedConnection extends PooledConnection {
+
+    final PoolEntry entry;
+
+    BorrowedConnection(PoolEntry entry, ConcurrentPooledDataSource dataSource) {
+      super(entry.realConnection, dataSource, entry.connectionState);
+      this.entry = entry;
+    }
+  }
+
+  private static final class Waiter {
+
+    // handed off to a waiter when it can open a connection itself
+    static final PoolEntry FREE_SLOT = new PoolEntry(null, -1);
+    private static final PoolEntry CANCELLED = new PoolEntry(null, -1);
+
+    final Thread thread = Thread.currentThread();
+    final AtomicReference<PoolEntry> slot = new AtomicReference<PoolEntry>();
+
+    boolean offer(PoolEntry entry) {
+      if (slot.compareAndSet(null, entry)) {
+        LockSupport.unpark(thread);
+        return true;
+      }
+      return false;
+    }
+
+    boolean cancel() {
+      return slot.compareAndSet(null, CANCELLED);
+    }
+  }
+
+}
@@ -0,0 +1,195 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * Session state of a physical connection, shared by all the pooled connections that wrap it.
+ * <p>
+ * Setters that would not change the last known value are not sent to the driver,
+ * auto commit is answered from the cache and commits or rollbacks are skipped when no
+ * statement has been created since the pool last reset the connection. Once the real
+ * connection has been unwrapped the state can no longer be trusted and every call goes
+ * to the driver.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+final class ConnectionState {
+
+  private static final int SET_AUTO_COMMIT = 1;
+  private static final int GET_AUTO_COMMIT = 2;
+  private static final int SET_TRANSACTION_ISOLATION = 3;
+  private static final int GET_TRANSACTION_ISOLATION = 4;
+  private static final int SET_READ_ONLY = 5;
+  private static final int IS_READ_ONLY = 6;
+  private static final int SET_CATALOG = 7;
+  private static final int GET_CATALOG = 8;
+  private static final int CREATE_STATEMENT = 9;
+  private static final int COMMIT = 10;
+  private static final int ROLLBACK = 11;
+  private static final int UNWRAP = 12;
+
+  private static final Map<String, Integer> TRACKED_METHODS = new HashMap<String, Integer>();
+
+  static {
+    TRACKED_METHODS.put("setAutoCommit", SET_AUTO_COMMIT);
+    TRACKED_METHODS.put("getAutoCommit", GET_AUTO_COMMIT);
+    TRACKED_METHODS.put("setTransactionIsolation", SET_TRANSACTION_ISOLATION);
+    TRACKED_METHODS.put("getTransactionIsolation", GET_TRANSACTION_ISOLATION);
+    TRACKED_METHODS.put("setReadOnly", SET_READ_ONLY);
+    TRACKED_METHODS.put("isReadOnly", IS_READ_ONLY);
+    TRACKED_METHODS.put("setCatalog", SET_CATALOG);
+    TRACKED_METHODS.put("getCatalog", GET_CATALOG);
+    TRACKED_METHODS.put("createStatement", CREATE_STATEMENT);
+    TRACKED_METHODS.put("prepareStatement", CREATE_STATEMENT);
+    TRACKED_METHODS.put("prepareCall", CREATE_STATEMENT);
+    // metadata queries may start a transaction on some databases
+    TRACKED_METHODS.put("getMetaData", CREATE_STATEMENT);
+    TRACKED_METHODS.put("commit", COMMIT);
+    TRACKED_METHODS.put("rollback", ROLLBACK);
+    TRACKED_METHODS.put("unwrap", UNWRAP);
+  }
+
+  private Boolean autoCommit;
+  private Integer transactionIsolation;
+  private Boolean readOnly;
+  private String catalog;
+  // a statement has been created since the last reset, a transaction may be open
+  private boolean dirty;
+  private boolean tracked = true;
+
+  /*
+   * Invokes a method on the real connection, skipping it when the result is already known
+   */
+  Object invoke(Connection realConnection, Method method, Object[] args) throws Throwable {
+    Integer operation = tracked ? TRACKED_METHODS.get(method.getName()) : null;
+    if (operation == null) {
+      return invokeReal(realConnection, method, args);
+    }
+    switch (operation) {
+      case SET_AUTO_COMMIT:
+        if (args[0].equals(autoCommit)) {
+          return null;
+        }
+        autoCommit = null;
+        invokeReal(realConnection, method, args);
+        autoCommit = (Boolean) args[0];
+        return null;
+      case GET_AUTO_COMMIT:
+        if (autoCommit == null) {
+          autoCommit = (Boolean) invokeReal(realConnection, method, args);
+        }
+        return autoCommit;
+      case SET_TRANSACTION_ISOLATION:
+        if (args[0].equals(transactionIsolation)) {
+          return null;
+        }
+        transactionIsolation = null;
+        invokeReal(realConnection, method, args);
+        transactionIsolation = (Integer) args[0];
+        return null;
+      case GET_TRANSACTION_ISOLATION:
+        // drivers may silently use a stricter level than the one requested, always ask them
+        transactionIsolation = (Integer) invokeReal(realConnection, method, args);
+        return transactionIsolation;
+      case SET_READ_ONLY:
+        if (args[0].equals(readOnly)) {
+          return null;
+        }
+        readOnly = null;
+        invokeReal(realConnection, method, args);
+        readOnly = (Boolean) args[0];
+        return null;
+      case IS_READ_ONLY:
+        readOnly = (Boolean) invokeReal(realConnection, method, args);
+        return readOnly;
+      case SET_CATALOG:
+        if (args[0] != null && args[0].equals(catalog)) {
+          return null;
+        }
+        catalog = null;
+        invokeReal(realConnection, method, args);
+        catalog = (String) args[0];
+        return null;
+      case GET_CATALOG:
+        catalog = (String) invokeReal(realConnection, method, args);
+        return catalog;
+      case CREATE_STATEMENT:
+        dirty = true;
+        return invokeReal(realConnection, method, args);
+      case COMMIT:
+      case ROLLBACK:
+        if (!dirty && args == null) {
+          // nothing has been executed, there is nothing to end
+          return null;
+        }
+        return invokeReal(realConnection, method, args);
+      case UNWRAP:
+        untrack();
+        return invokeReal(realConnection, method, args);
+      default:
+        return invokeReal(realConnection, method, args);
+    }
+  }
+
+  /*
+   * Ends the transaction that may have been left open by the previous user of the connection
+   *
+   * @param realConnection - the physical connection
+   * @param force - ignore the tracked state, used when the connection may still be in use by another thread
+   */
+  void resetTransaction(Connection realConnection, boolean force) throws SQLException {
+    if (!force && tracked && !dirty) {
+      return;
+    }
+    if (force || !tracked || autoCommit == null) {
+      autoCommit = realConnection.getAutoCommit();
+    }
+    if (!autoCommit) {
+      realConnection.rollback();
+    }
+    dirty = false;
+  }
+
+  /*
+   * Stops trusting the cached state, the real connection is now used behind the pool's back
+   */
+  void untrack() {
+    tracked = false;
+    autoCommit = null;
+    transactionIsolation = null;
+    readOnly = null;
+    catalog = null;
+    dirty = true;
+  }
+
+  private static Object invokeReal(Connection realConnection, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(realConnection, args);
+    } catch (Throwable t) {
+      throw ExceptionUtil.unwrapThrowable(t);
+    }
+  }
+
+}
@@ -0,0 +1,138 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations.
+ * <p>
+ * Values are counted in power of two buckets of microseconds, so percentiles are
+ * reported as the upper bound of their bucket (at most twice the actual value).
+ * Recording a value is a few atomic increments.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+public class LatencyHistogram {
+
+  // bucket 0 counts durations under 1 microsecond, bucket i those under 2^i microseconds
+  private static final int BUCKETS = 40;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    buckets.incrementAndGet(bucketOf(nanos / 1000));
+    count.incrementAndGet();
+    sum.addAndGet(nanos);
+    long current;
+    while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+      // retry
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public double getMeanMillis() {
+    long n = count.get();
+    return n == 0 ? 0 : sum.get() / 1000000.0 / n;
+  }
+
+  public double getMaxMillis() {
+    return max.get() / 1000000.0;
+  }
+
+  public long getTotalNanos() {
+    return sum.get();
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the upper bound of the bucket holding the percentile, 0 if nothing was recorded
+   */
+  public double getPercentileMillis(double percentile) {
+    return Math.min(getPercentileMillis(getBucketCounts(), percentile), getMaxMillis());
+  }
+
+  /**
+   * @return a copy of the bucket counts, subtracting two copies gives the values recorded in between
+   */
+  public long[] getBucketCounts() {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return counts;
+  }
+
+  /**
+   * @param counts bucket counts, as returned by {@link #getBucketCounts()}
+   * @param percentile between 0 and 100
+   * @return the upper bound of the bucket holding the percentile, 0 if the counts are empty
+   */
+  public static double getPercentileMillis(long[] counts, double percentile) {
+    long total = 0;
+    for (long bucketCount : counts) {
+      total += bucketCount;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100.0);
+    long seen = 0;
+    int last = 0;
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] > 0) {
+        last = i;
+      }
+      seen += counts[i];
+      if (seen >= rank && counts[i] > 0) {
+        return (1L << i) / 1000.0;
+      }
+    }
+    return (1L << last) / 1000.0;
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  private static int bucketOf(long micros) {
+    int bucket = 64 - Long.numberOfLeadingZeros(micros);
+    return bucket < BUCKETS ? bucket : BUCKETS - 1;
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount() + ", mean=" + getMeanMillis() + "ms, p99=" + getPercentileMillis(99) + "ms, max="
+        + getMaxMillis() + "ms";
+  }
+
+}
@@ -0,0 +1,60 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * Receives the events recorded by {@link PoolMetrics}.
+ * <p>
+ * Listeners are registered with {@link PooledDataSource#addPoolListener(PoolListener)}
+ * and are called synchronously by the thread using the pool, never while holding
+ * the pool lock, so implementations must be thread safe and return quickly.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+public interface PoolListener {
+
+  /**
+   * @param waitNanos time spent by the caller to get the connection
+   */
+  void onAcquire(long waitNanos);
+
+  /**
+   * @param usageNanos time the connection was checked out
+   */
+  void onRelease(long usageNanos);
+
+  /**
+   * @param nanos time spent opening a physical connection
+   */
+  void onCreate(long nanos);
+
+  /**
+   * A thread waited poolTimeToWait without getting a connection.
+   */
+  void onTimeout();
+
+  void onOverdueClaim();
+
+  void onBadConnection();
+
+  /**
+   * A connection has been checked out longer than poolLeakDetectionThreshold, or is
+   * about to be claimed as overdue. Only called when leak detection is enabled.
+   */
+  void onLeakSuspected(CheckedOutConnection connection);
+
+}
@@ -0,0 +1,322 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.datasource.DataSourceException;
+
+/**
+ * Live metrics of a pooled data source.
+ * <p>
+ * Unlike {@link PoolState}, which only keeps totals behind the pool lock, the
+ * metrics are recorded with atomic counters and {@link LatencyHistogram}s, outside
+ * of the pool lock, and can be read at any time without blocking the pool.
+ * Active and idle counts are read from the gauges the pool publishes whenever
+ * it moves a connection.
+ * </p>
+ * <p>
+ * The MBean registered by {@link #registerMBean(String)} keeps the pool reachable,
+ * it is unregistered when the pool is closed with {@link PooledDataSource#close()}.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+public class PoolMetrics implements PoolMetricsMBean {
+
+  // the metrics currently registered under each name, a pool reusing the id of another replaces its MBean
+  private static final ConcurrentMap<ObjectName, PoolMetrics> REGISTERED = new ConcurrentHashMap<ObjectName, PoolMetrics>();
+
+  private final PooledDataSource dataSource;
+  private final List<PoolListener> listeners = new CopyOnWriteArrayList<PoolListener>();
+
+  private final LatencyHistogram acquireTime = new LatencyHistogram();
+  private final LatencyHistogram usageTime = new LatencyHistogram();
+  private final LatencyHistogram creationTime = new LatencyHistogram();
+  private final AtomicInteger waitingThreads = new AtomicInteger();
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong overdueClaims = new AtomicLong();
+  private final AtomicLong badConnections = new AtomicLong();
+  private final AtomicLong suspectedLeaks = new AtomicLong();
+  private ObjectName mbeanName;
+
+  public PoolMetrics(PooledDataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  public void addListener(PoolListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(PoolListener listener) {
+    listeners.remove(listener);
+  }
+
+  public void acquired(long waitNanos) {
+    acquireTime.record(waitNanos);
+    if (!listeners.isEmpty()) {
+      for (PoolListener listener : listeners) {
+        listener.onAcquire(waitNanos);
+      }
+    }
+  }
+
+  public void released(long usageNanos) {
+    usageTime.record(usageNanos);
+    if (!listeners.isEmpty()) {
+      for (PoolListener listener : listeners) {
+        listener.onRelease(usageNanos);
+      }
+    }
+  }
+
+  public void created(long nanos) {
+    creationTime.record(nanos);
+    if (!listeners.isEmpty()) {
+      for (PoolListener listener : listeners) {
+        listener.onCreate(nanos);
+      }
+    }
+  }
+
+  public void timedOut() {
+    timeouts.incrementAndGet();
+    if (!listeners.isEmpty()) {
+      for (PoolListener listener : listeners) {
+        listener.onTimeout();
+      }
+    }
+  }
+
+  public void overdueClaimed() {
+    overdueClaims.incrementAndGet();
+    if (!listeners.isEmpty()) {
+      for (PoolListener listener : listeners) {
+        listener.onOverdueClaim();
+      }
+    }
+  }
+
+  public void badConnection() {
+    badConnections.incrementAndGet();
+    if (!listeners.isEmpty()) {
+      for (PoolListener listener : listeners) {
+        listener.onBadConnection();
+      }
+    }
+  }
+
+  public void leakSuspected(CheckedOutConnection connection) {
+    suspectedLeaks.incrementAndGet();
+    if (!listeners.isEmpty()) {
+      for (PoolListener listener : listeners) {
+        listener.onLeakSuspected(connection);
+      }
+    }
+  }
+
+  public void waitStarted() {
+    waitingThreads.incrementAndGet();
+  }
+
+  public void waitEnded() {
+    waitingThreads.decrementAndGet();
+  }
+
+  public LatencyHistogram getAcquireTime() {
+    return acquireTime;
+  }
+
+  public LatencyHistogram getUsageTime() {
+    return usageTime;
+  }
+
+  public LatencyHistogram getCreationTime() {
+    return creationTime;
+  }
+
+  @Override
+  public int getActiveConnections() {
+    return dataSource.getActiveConnectionCount();
+  }
+
+  @Override
+  public int getIdleConnections() {
+    return dataSource.getIdleConnectionCount();
+  }
+
+  @Override
+  public int getWaitingThreads() {
+    return waitingThreads.get();
+  }
+
+  @Override
+  public long getAcquireCount() {
+    return acquireTime.getCount();
+  }
+
+  @Override
+  public double getAcquireTimeMean() {
+    return acquireTime.getMeanMillis();
+  }
+
+  @Override
+  public double getAcquireTime95thPercentile() {
+    return acquireTime.getPercentileMillis(95);
+  }
+
+  @Override
+  public double getAcquireTime99thPercentile() {
+    return acquireTime.getPercentileMillis(99);
+  }
+
+  @Override
+  public double getAcquireTimeMax() {
+    return acquireTime.getMaxMillis();
+  }
+
+  @Override
+  public double getUsageTimeMean() {
+    return usageTime.getMeanMillis();
+  }
+
+  @Override
+  public double getUsageTime95thPercentile() {
+    return usageTime.getPercentileMillis(95);
+  }
+
+  @Override
+  public double getUsageTime99thPercentile() {
+    return usageTime.getPercentileMillis(99);
+  }
+
+  @Override
+  public double getUsageTimeMax() {
+    return usageTime.getMaxMillis();
+  }
+
+  @Override
+  public long getCreationCount() {
+    return creationTime.getCount();
+  }
+
+  @Override
+  public double getCreationTimeMean() {
+    return creationTime.getMeanMillis();
+  }
+
+  @Override
+  public double getCreationTime99thPercentile() {
+    return creationTime.getPercentileMillis(99);
+  }
+
+  @Override
+  public double getCreationTimeMax() {
+    return creationTime.getMaxMillis();
+  }
+
+  @Override
+  public long getTimeouts() {
+    return timeouts.get();
+  }
+
+  @Override
+  public long getOverdueClaims() {
+    return overdueClaims.get();
+  }
+
+  @Override
+  public long getBadConnections() {
+    return badConnections.get();
+  }
+
+  @Override
+  public long getSuspectedLeaks() {
+    return suspectedLeaks.get();
+  }
+
+  @Override
+  public void reset() {
+    acquireTime.reset();
+    usageTime.reset();
+    creationTime.reset();
+    timeouts.set(0);
+    overdueClaims.set(0);
+    badConnections.set(0);
+    suspectedLeaks.set(0);
+  }
+
+  /**
+   * Registers these metrics in the platform MBean server, replacing any previous
+   * registration with the same id and the previous registration of these metrics.
+   */
+  public synchronized ObjectName registerMBean(String id) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("org.apache.ibatis:type=PoolMetrics,id=" + ObjectName.quote(id));
+      unregisterMBean();
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+      REGISTERED.put(name, this);
+      mbeanName = name;
+      return name;
+    } catch (JMException e) {
+      throw new DataSourceException("Error registering metrics MBean for pool " + id + ". Cause: " + e, e);
+    }
+  }
+
+  /**
+   * Removes these metrics from the platform MBean server, if they were registered.
+   */
+  public synchronized void unregisterMBean() {
+    if (mbeanName == null) {
+      return;
+    }
+    try {
+      if (REGISTERED.remove(mbeanName, this)) {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+      }
+    } catch (InstanceNotFoundException e) {
+      // already unregistered
+    } catch (JMException e) {
+      throw new DataSourceException("Error unregistering metrics MBean " + mbeanName + ". Cause: " + e, e);
+    } finally {
+      mbeanName = null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "PoolMetrics [active=" + getActiveConnections() + ", idle=" + getIdleConnections() + ", waiting="
+        + getWaitingThreads() + ", acquire=(" + acquireTime + "), usage=(" + usageTime + "), creation=("
+        + creationTime + "), timeouts=" + getTimeouts() + ", overdueClaims=" + getOverdueClaims()
+        + ", badConnections=" + getBadConnections() + ", suspectedLeaks=" + getSuspectedLeaks() + "]";
+  }
+
+}
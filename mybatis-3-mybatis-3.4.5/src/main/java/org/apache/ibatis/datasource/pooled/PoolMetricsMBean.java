@@ -0,0 +1,67 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * JMX view of {@link PoolMetrics}. Durations are in milliseconds.
+ *
+ * @since 3.4.6
+ */
+public interface PoolMetricsMBean {
+
+  int getActiveConnections();
+
+  int getIdleConnections();
+
+  int getWaitingThreads();
+
+  long getAcquireCount();
+
+  double getAcquireTimeMean();
+
+  double getAcquireTime95thPercentile();
+
+  double getAcquireTime99thPercentile();
+
+  double getAcquireTimeMax();
+
+  double getUsageTimeMean();
+
+  double getUsageTime95thPercentile();
+
+  double getUsageTime99thPercentile();
+
+  double getUsageTimeMax();
+
+  long getCreationCount();
+
+  double getCreationTimeMean();
+
+  double getCreationTime99thPercentile();
+
+  double getCreationTimeMax();
+
+  long getTimeouts();
+
+  long getOverdueClaims();
+
+  long getBadConnections();
+
+  long getSuspectedLeaks();
+
+  void reset();
+
+}
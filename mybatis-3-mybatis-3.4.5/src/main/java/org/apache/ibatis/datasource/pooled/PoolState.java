@@ -35,6 +35,13 @@ public class PoolState {
   protected long accumulatedWaitTime = 0;
   protected long hadToWaitCount = 0;
   protected long badConnectionCount = 0;
+  protected long validationCount = 0;
+  protected long accumulatedValidationTimeNanos = 0;
+  // slots reserved by connections being opened, validated or reset outside the lock
+  protected int pendingConnections = 0;
+  // sizes of the connection lists, published for readers that must not take the pool lock
+  protected volatile int idleConnectionGauge = 0;
+  protected volatile int activeConnectionGauge = 0;
 
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
@@ -74,6 +81,23 @@ public class PoolState {
   }
 
 
+  public synchronized long getValidationCount() {
+    return validationCount;
+  }
+
+  public synchronized long getAverageValidationTimeNanos() {
+    return validationCount == 0 ? 0 : accumulatedValidationTimeNanos / validationCount;
+  }
+
+  /*
+   * Publishes the sizes of the connection lists, must be called with the pool lock held
+   * after the lists are modified
+   */
+  protected void publishCounts() {
+    idleConnectionGauge = idleConnections.size();
+    activeConnectionGauge = activeConnections.size();
+  }
+
   public synchronized int getIdleConnectionCount() {
     return idleConnections.size();
   }
@@ -97,6 +121,7 @@ public class PoolState {
     builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
     builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
     builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+    builder.append("\n poolValidationSkipWindow       ").append(dataSource.poolValidationSkipWindow);
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
@@ -108,6 +133,8 @@ public class PoolState {
     builder.append("\n hadToWait                      ").append(getHadToWaitCount());
     builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
     builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
+    builder.append("\n validationCount                ").append(getValidationCount());
+    builder.append("\n averageValidationTimeNanos     ").append(getAverageValidationTimeNanos());
     builder.append("\n===============================================================");
     return builder.toString();
   }
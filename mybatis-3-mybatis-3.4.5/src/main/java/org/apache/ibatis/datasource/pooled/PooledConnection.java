@@ -20,8 +20,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
-
-import org.apache.ibatis.reflection.ExceptionUtil;
+import java.util.concurrent.Semaphore;
 
 /**
  * @author Clinton Begin
@@ -35,11 +34,18 @@ class PooledConnection implements InvocationHandler {
   private final PooledDataSource dataSource;
   private final Connection realConnection;
   private final Connection proxyConnection;
+  private final ConnectionState connectionState;
   private long checkoutTimestamp;
   private long createdTimestamp;
   private long lastUsedTimestamp;
+  private long lastValidatedTimestamp;
+  private long lastReturnedTimestamp;
   private int connectionTypeCode;
   private boolean valid;
+  private String checkoutThreadName;
+  private Throwable checkoutSite;
+  private volatile boolean leakReported;
+  private volatile Semaphore permits;
 
   /*
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -48,9 +54,21 @@ class PooledConnection implements InvocationHandler {
    * @param dataSource - the dataSource that the connection is from
    */
   public PooledConnection(Connection connection, PooledDataSource dataSource) {
+    this(connection, dataSource, new ConnectionState());
+  }
+
+  /*
+   * Constructor for a new pooled connection wrapping a connection that has already been pooled
+   *
+   * @param connection - the connection that is to be presented as a pooled connection
+   * @param dataSource - the dataSource that the connection is from
+   * @param connectionState - the state tracked for the connection so far
+   */
+  public PooledConnection(Connection connection, PooledDataSource dataSource, ConnectionState connectionState) {
     this.hashCode = connection.hashCode();
     this.realConnection = connection;
     this.dataSource = dataSource;
+    this.connectionState = connectionState;
     this.createdTimestamp = System.currentTimeMillis();
     this.lastUsedTimestamp = System.currentTimeMillis();
     this.valid = true;
@@ -82,6 +100,24 @@ class PooledConnection implements InvocationHandler {
     return realConnection;
   }
 
+  /*
+   * Getter for the state tracked for the real connection
+   *
+   * @return The connection state
+   */
+  public ConnectionState getConnectionState() {
+    return connectionState;
+  }
+
+  /*
+   * Rolls back the transaction the connection may have left open, unless it is known that there is none
+   *
+   * @param force - check the real connection even if the tracked state says there is nothing to roll back
+   */
+  public void resetTransaction(boolean force) throws SQLException {
+    connectionState.resetTransaction(realConnection, force);
+  }
+
   /*
    * Getter for the proxy for the connection
    *
@@ -163,6 +199,51 @@ class PooledConnection implements InvocationHandler {
     return System.currentTimeMillis() - lastUsedTimestamp;
   }
 
+  /*
+   * Getter for the time that the connection was last checked with the ping query
+   *
+   * @return - the timestamp
+   */
+  public long getLastValidatedTimestamp() {
+    return lastValidatedTimestamp;
+  }
+
+  /*
+   * Setter for the time that the connection was last checked with the ping query
+   *
+   * @param lastValidatedTimestamp - the timestamp
+   */
+  public void setLastValidatedTimestamp(long lastValidatedTimestamp) {
+    this.lastValidatedTimestamp = lastValidatedTimestamp;
+  }
+
+  /*
+   * Getter for the time that the connection was last returned to the pool
+   *
+   * @return - the timestamp
+   */
+  public long getLastReturnedTimestamp() {
+    return lastReturnedTimestamp;
+  }
+
+  /*
+   * Setter for the time that the connection was last returned to the pool
+   *
+   * @param lastReturnedTimestamp - the timestamp
+   */
+  public void setLastReturnedTimestamp(long lastReturnedTimestamp) {
+    this.lastReturnedTimestamp = lastReturnedTimestamp;
+  }
+
+  /*
+   * Getter for the time since this connection was last used or checked with the ping query
+   *
+   * @return - the time since the connection was last known to be good
+   */
+  public long getTimeElapsedSinceLastValidation() {
+    return System.currentTimeMillis() - Math.max(lastUsedTimestamp, lastValidatedTimestamp);
+  }
+
   /*
    * Getter for the age of the connection
    *
@@ -190,6 +271,59 @@ class PooledConnection implements InvocationHandler {
     this.checkoutTimestamp = timestamp;
   }
 
+  /*
+   * Records where the connection was checked out, for leak detection
+   *
+   * @param threadName - the name of the thread that checked the connection out
+   * @param checkoutSite - the stack of the checkout, or null if not sampled
+   */
+  public void setCheckoutSite(String threadName, Throwable checkoutSite) {
+    this.checkoutThreadName = threadName;
+    this.checkoutSite = checkoutSite;
+  }
+
+  /*
+   * Setter for the shared permits of a partitioned pool, one of them is held while the connection is checked out
+   *
+   * @param permits - the permits a permit was taken from
+   */
+  public void setPermits(Semaphore permits) {
+    this.permits = permits;
+  }
+
+  /*
+   * Gives back the shared permit held by this connection, if any
+   */
+  public void releasePermit() {
+    Semaphore held = permits;
+    if (held != null) {
+      permits = null;
+      held.release();
+    }
+  }
+
+  /*
+   * Marks the connection as reported as a possible leak
+   *
+   * @return false if it had already been reported
+   */
+  public boolean markLeakReported() {
+    if (leakReported) {
+      return false;
+    }
+    leakReported = true;
+    return true;
+  }
+
+  /*
+   * Getter for a snapshot of this checked out connection
+   *
+   * @return the snapshot
+   */
+  public CheckedOutConnection toCheckedOutConnection() {
+    return new CheckedOutConnection(getRealHashCode(), checkoutTimestamp, checkoutThreadName, checkoutSite);
+  }
+
   /*
    * Getter for the time that this connection has been checked out
    *
@@ -236,16 +370,12 @@ class PooledConnection implements InvocationHandler {
       dataSource.pushConnection(this);
       return null;
     } else {
-      try {
-        if (!Object.class.equals(method.getDeclaringClass())) {
-          // issue #579 toString() should never fail
-          // throw an SQLException instead of a Runtime
-          checkConnection();
-        }
-        return method.invoke(realConnection, args);
-      } catch (Throwable t) {
-        throw ExceptionUtil.unwrapThrowable(t);
+      if (!Object.class.equals(method.getDeclaringClass())) {
+        // issue #579 toString() should never fail
+        // throw an SQLException instead of a Runtime
+        checkConnection();
       }
+      return connectionState.invoke(realConnection, method, args);
     }
   }
 
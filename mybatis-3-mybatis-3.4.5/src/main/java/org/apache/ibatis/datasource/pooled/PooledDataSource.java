@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
+import java.io.Closeable;
 import java.io.PrintWriter;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
@@ -22,8 +23,23 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
@@ -37,25 +53,61 @@ import org.apache.ibatis.logging.LogFactory;
  *
  * @author Clinton Begin
  */
-public class PooledDataSource implements DataSource {
+public class PooledDataSource implements DataSource, Closeable {
 
   private static final Log log = LogFactory.getLog(PooledDataSource.class);
 
+  private static final String NO_PING_QUERY = "NO PING QUERY SET";
+  // how often an adaptive pool is resized when poolMaintenanceInterval is not set
+  private static final int DEFAULT_ADAPTIVE_INTERVAL = 5000;
+
   private final PoolState state = new PoolState(this);
+  protected final PoolMetrics metrics = new PoolMetrics(this);
 
-  private final UnpooledDataSource dataSource;
+  protected final UnpooledDataSource dataSource;
 
   // OPTIONAL CONFIGURATION FIELDS
-  protected int poolMaximumActiveConnections = 10;
-  protected int poolMaximumIdleConnections = 5;
+  // resized at runtime when poolAdaptiveSizing is on
+  protected volatile int poolMaximumActiveConnections = 10;
+  protected volatile int poolMaximumIdleConnections = 5;
   protected int poolMaximumCheckoutTime = 20000;
   protected int poolTimeToWait = 20000;
   protected int poolMaximumLocalBadConnectionTolerance = 3;
-  protected String poolPingQuery = "NO PING QUERY SET";
+  protected String poolPingQuery = NO_PING_QUERY;
   protected boolean poolPingEnabled;
   protected int poolPingConnectionsNotUsedFor;
-
-  private int expectedConnectionTypeCode;
+  protected int poolMinimumIdleConnections;
+  protected int poolMaximumLifetime;
+  protected int poolIdleTimeout;
+  protected int poolMaintenanceInterval;
+  protected boolean poolBackgroundValidation;
+  protected int poolValidationTimeout = 5;
+  protected int poolValidationSkipWindow;
+  protected int poolLeakDetectionThreshold;
+  protected int poolLeakDetectionSampleRate = 1;
+  protected boolean poolPartitionByUser;
+  protected int poolMaximumActiveConnectionsPerUser;
+  protected boolean poolAdaptiveSizing;
+  protected int poolAdaptiveMinimumActiveConnections = 1;
+  protected int poolAdaptiveMaximumActiveConnections;
+  protected int poolAdaptiveTargetWaitTime = 10;
+  protected int poolAdaptiveShrinkDelay = 5;
+
+  // created by the first adaptive evaluation, dropped when the limits are configured again
+  private volatile AdaptivePoolSizer adaptiveSizer;
+
+  // shared by all the partitions, one permit per checked out connection
+  protected volatile Semaphore sharedPermits;
+  private final ConcurrentHashMap<String, PooledDataSource> partitions = new ConcurrentHashMap<String, PooledDataSource>();
+  private boolean maintainedByParent;
+
+  // cleared when the driver does not implement Connection.isValid()
+  private volatile boolean jdbc4ValidationSupported = true;
+
+  private volatile ScheduledExecutorService maintenanceExecutor;
+  private final AtomicInteger checkoutCount = new AtomicInteger();
+
+  protected int expectedConnectionTypeCode;
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
@@ -87,11 +139,17 @@ public class PooledDataSource implements DataSource {
 
   @Override
   public Connection getConnection() throws SQLException {
+    startMaintenance();
     return popConnection(dataSource.getUsername(), dataSource.getPassword()).getProxyConnection();
   }
 
   @Override
   public Connection getConnection(String username, String password) throws SQLException {
+    startMaintenance();
+    PooledDataSource partition = partitionFor(username, password);
+    if (partition != null) {
+      return partition.getConnection();
+    }
     return popConnection(username, password).getProxyConnection();
   }
 
@@ -157,6 +215,7 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolMaximumActiveConnections(int poolMaximumActiveConnections) {
     this.poolMaximumActiveConnections = poolMaximumActiveConnections;
+    adaptiveSizer = null;
     forceCloseAll();
   }
 
@@ -167,6 +226,7 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolMaximumIdleConnections(int poolMaximumIdleConnections) {
     this.poolMaximumIdleConnections = poolMaximumIdleConnections;
+    adaptiveSizer = null;
     forceCloseAll();
   }
 
@@ -236,6 +296,75 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /*
+   * The number of idle connections the maintenance thread keeps open
+   *
+   * @param poolMinimumIdleConnections The minimum number of idle connections, capped by poolMaximumIdleConnections
+   */
+  public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+    this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+  }
+
+  /*
+   * The time after which a connection is closed instead of being reused. Each
+   * connection is retired up to 10% earlier so that they are not all reopened at once.
+   *
+   * @param milliseconds The maximum lifetime, 0 means unlimited
+   */
+  public void setPoolMaximumLifetime(int milliseconds) {
+    this.poolMaximumLifetime = milliseconds;
+  }
+
+  /*
+   * The time after which the maintenance thread closes an idle connection,
+   * as long as more than poolMinimumIdleConnections are idle
+   *
+   * @param milliseconds The idle timeout, 0 means unlimited
+   */
+  public void setPoolIdleTimeout(int milliseconds) {
+    this.poolIdleTimeout = milliseconds;
+  }
+
+  /*
+   * How often the maintenance thread runs. The thread is started on the first
+   * request for a connection, or by startMaintenance().
+   *
+   * @param milliseconds The delay between two runs, 0 means no maintenance thread
+   */
+  public void setPoolMaintenanceInterval(int milliseconds) {
+    this.poolMaintenanceInterval = milliseconds;
+  }
+
+  /*
+   * Determines if the maintenance thread runs the ping query against idle connections,
+   * so that they do not have to be pinged when they are checked out
+   *
+   * @param poolBackgroundValidation True to ping idle connections in the background (requires poolPingEnabled)
+   */
+  public void setPoolBackgroundValidation(boolean poolBackgroundValidation) {
+    this.poolBackgroundValidation = poolBackgroundValidation;
+  }
+
+  /*
+   * The number of seconds to wait for Connection.isValid(), used to check connections
+   * when no ping query is set
+   *
+   * @param seconds The validation timeout, 0 means no timeout
+   */
+  public void setPoolValidationTimeout(int seconds) {
+    this.poolValidationTimeout = seconds;
+  }
+
+  /*
+   * A connection returned to the pool, or checked, less than this many milliseconds ago
+   * is not checked when it is checked out, whatever poolPingConnectionsNotUsedFor is.
+   *
+   * @param milliseconds The length of the window, 0 to always apply poolPingConnectionsNotUsedFor
+   */
+  public void setPoolValidationSkipWindow(int milliseconds) {
+    this.poolValidationSkipWindow = milliseconds;
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -296,6 +425,263 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public int getPoolValidationTimeout() {
+    return poolValidationTimeout;
+  }
+
+  public int getPoolValidationSkipWindow() {
+    return poolValidationSkipWindow;
+  }
+
+  /*
+   * Enables leak detection: the checkout site of connections is recorded and a connection
+   * checked out for longer than this is reported once by the maintenance thread. A connection
+   * claimed as overdue is always reported when leak detection is enabled.
+   *
+   * @param milliseconds The time after which a connection is reported, 0 disables leak detection
+   */
+  public void setPoolLeakDetectionThreshold(int milliseconds) {
+    this.poolLeakDetectionThreshold = milliseconds;
+  }
+
+  /*
+   * Capturing the stack of a checkout is costly, only one checkout out of this many is captured.
+   * The thread name is recorded for every checkout.
+   *
+   * @param poolLeakDetectionSampleRate 1 to capture every checkout
+   */
+  public void setPoolLeakDetectionSampleRate(int poolLeakDetectionSampleRate) {
+    this.poolLeakDetectionSampleRate = poolLeakDetectionSampleRate;
+  }
+
+  /*
+   * Serves the connections of users other than the configured one from dedicated partitions,
+   * instead of closing and reopening connections whenever the credentials change.
+   * poolMaximumActiveConnections is then the maximum for all the partitions together.
+   * A partition is dropped by the maintenance thread once it has no connection left, that is
+   * when its idle connections have been retired by poolIdleTimeout or poolMaximumLifetime.
+   * Without maintenance thread the partitions are kept until the pool is closed with forceCloseAll.
+   *
+   * @param poolPartitionByUser True to have one partition per user
+   */
+  public void setPoolPartitionByUser(boolean poolPartitionByUser) {
+    this.poolPartitionByUser = poolPartitionByUser;
+    forceCloseAll();
+  }
+
+  /*
+   * The maximum number of connections checked out by a single user when the pool is partitioned
+   *
+   * @param poolMaximumActiveConnectionsPerUser The maximum, 0 to only apply poolMaximumActiveConnections
+   */
+  public void setPoolMaximumActiveConnectionsPerUser(int poolMaximumActiveConnectionsPerUser) {
+    this.poolMaximumActiveConnectionsPerUser = poolMaximumActiveConnectionsPerUser;
+    forceCloseAll();
+  }
+
+  /*
+   * Lets the maintenance thread resize the pool between poolAdaptiveMinimumActiveConnections and
+   * poolAdaptiveMaximumActiveConnections, starting from poolMaximumActiveConnections. The idle limit
+   * follows in the same proportion. Not applied to pools partitioned by user.
+   *
+   * @param poolAdaptiveSizing True to resize the pool from the observed waits and utilization
+   */
+  public void setPoolAdaptiveSizing(boolean poolAdaptiveSizing) {
+    this.poolAdaptiveSizing = poolAdaptiveSizing;
+    adaptiveSizer = null;
+  }
+
+  /*
+   * The lower bound of the adaptive pool size
+   *
+   * @param poolAdaptiveMinimumActiveConnections The minimum number of active connections
+   */
+  public void setPoolAdaptiveMinimumActiveConnections(int poolAdaptiveMinimumActiveConnections) {
+    this.poolAdaptiveMinimumActiveConnections = poolAdaptiveMinimumActiveConnections;
+  }
+
+  /*
+   * The upper bound of the adaptive pool size
+   *
+   * @param poolAdaptiveMaximumActiveConnections The maximum number of active connections,
+   *   0 to never grow beyond the configured poolMaximumActiveConnections
+   */
+  public void setPoolAdaptiveMaximumActiveConnections(int poolAdaptiveMaximumActiveConnections) {
+    this.poolAdaptiveMaximumActiveConnections = poolAdaptiveMaximumActiveConnections;
+  }
+
+  /*
+   * The pool grows when the 95th percentile of the time spent getting a connection exceeds this value
+   *
+   * @param poolAdaptiveTargetWaitTime The target in milliseconds
+   */
+  public void setPoolAdaptiveTargetWaitTime(int poolAdaptiveTargetWaitTime) {
+    this.poolAdaptiveTargetWaitTime = poolAdaptiveTargetWaitTime;
+  }
+
+  /*
+   * The number of calm maintenance runs in a row needed before the pool shrinks
+   *
+   * @param poolAdaptiveShrinkDelay The number of runs
+   */
+  public void setPoolAdaptiveShrinkDelay(int poolAdaptiveShrinkDelay) {
+    this.poolAdaptiveShrinkDelay = poolAdaptiveShrinkDelay;
+  }
+
+  /*
+   * Registers the metrics of the pool in the platform MBean server, they stay
+   * registered until the pool is closed
+   *
+   * @param id The id of the pool in the MBean name
+   */
+  public void setPoolJmxName(String id) {
+    metrics.registerMBean(id);
+  }
+
+  public boolean isPoolAdaptiveSizing() {
+    return poolAdaptiveSizing;
+  }
+
+  public int getPoolAdaptiveMinimumActiveConnections() {
+    return poolAdaptiveMinimumActiveConnections;
+  }
+
+  public int getPoolAdaptiveMaximumActiveConnections() {
+    return poolAdaptiveMaximumActiveConnections;
+  }
+
+  public int getPoolAdaptiveTargetWaitTime() {
+    return poolAdaptiveTargetWaitTime;
+  }
+
+  public int getPoolAdaptiveShrinkDelay() {
+    return poolAdaptiveShrinkDelay;
+  }
+
+  public boolean isPoolPartitionByUser() {
+    return poolPartitionByUser;
+  }
+
+  public int getPoolMaximumActiveConnectionsPerUser() {
+    return poolMaximumActiveConnectionsPerUser;
+  }
+
+  /*
+   * Getter for the partitions opened so far, the connections of the configured user are served by this pool
+   *
+   * @return the partitions of the other users
+   */
+  public Collection<PooledDataSource> getPoolPartitions() {
+    return Collections.unmodifiableCollection(partitions.values());
+  }
+
+  public int getPoolLeakDetectionThreshold() {
+    return poolLeakDetectionThreshold;
+  }
+
+  public int getPoolLeakDetectionSampleRate() {
+    return poolLeakDetectionSampleRate;
+  }
+
+  /*
+   * Lists the connections currently checked out, the checkout site is only known when leak
+   * detection is enabled
+   *
+   * @return a snapshot of the checked out connections, oldest first
+   */
+  public List<CheckedOutConnection> getCheckedOutConnections() {
+    List<PooledConnection> active = getActivePooledConnections();
+    List<CheckedOutConnection> result = new ArrayList<CheckedOutConnection>(active.size());
+    for (PooledConnection conn : active) {
+      result.add(conn.toCheckedOutConnection());
+    }
+    Collections.sort(result, new Comparator<CheckedOutConnection>() {
+      @Override
+      public int compare(CheckedOutConnection o1, CheckedOutConnection o2) {
+        return o1.getCheckoutTimestamp() < o2.getCheckoutTimestamp() ? -1 : (o1.getCheckoutTimestamp() == o2.getCheckoutTimestamp() ? 0 : 1);
+      }
+    });
+    return result;
+  }
+
+  public PoolMetrics getPoolMetrics() {
+    return metrics;
+  }
+
+  public void addPoolListener(PoolListener listener) {
+    metrics.addListener(listener);
+  }
+
+  public void removePoolListener(PoolListener listener) {
+    metrics.removeListener(listener);
+  }
+
+  public int getPoolMinimumIdleConnections() {
+    return poolMinimumIdleConnections;
+  }
+
+  public int getPoolMaximumLifetime() {
+    return poolMaximumLifetime;
+  }
+
+  public int getPoolIdleTimeout() {
+    return poolIdleTimeout;
+  }
+
+  public int getPoolMaintenanceInterval() {
+    return poolMaintenanceInterval;
+  }
+
+  public boolean isPoolBackgroundValidation() {
+    return poolBackgroundValidation;
+  }
+
+  /*
+   * Starts the maintenance thread if poolMaintenanceInterval is set or poolAdaptiveSizing is on.
+   * Its first run opens poolMinimumIdleConnections connections.
+   */
+  public void startMaintenance() {
+    if ((poolMaintenanceInterval <= 0 && !poolAdaptiveSizing) || maintenanceExecutor != null || maintainedByParent) {
+      return;
+    }
+    synchronized (this) {
+      if (maintenanceExecutor != null) {
+        return;
+      }
+      ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "mybatis-pool-maintenance");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      executor.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            adjustPoolSize();
+            maintainPool();
+            maintainPartitions();
+          } catch (Throwable t) {
+            log.warn("Pool maintenance failed: " + t.getMessage());
+          }
+        }
+      }, 0, poolMaintenanceInterval > 0 ? poolMaintenanceInterval : DEFAULT_ADAPTIVE_INTERVAL, TimeUnit.MILLISECONDS);
+      maintenanceExecutor = executor;
+    }
+  }
+
+  /*
+   * Stops the maintenance thread, the connections are left open
+   */
+  public synchronized void stopMaintenance() {
+    if (maintenanceExecutor != null) {
+      maintenanceExecutor.shutdownNow();
+      maintenanceExecutor = null;
+    }
+  }
+
   /*
    * Closes all active and idle connections in the pool
    */
@@ -306,6 +692,7 @@ public class PooledDataSource implements DataSource {
         try {
           PooledConnection conn = state.activeConnections.remove(i - 1);
           conn.invalidate();
+          conn.releasePermit();
 
           Connection realConn = conn.getRealConnection();
           if (!realConn.getAutoCommit()) {
@@ -330,49 +717,106 @@ public class PooledDataSource implements DataSource {
           // ignore
         }
       }
+      state.publishCounts();
     }
+    resetPartitions();
     if (log.isDebugEnabled()) {
       log.debug("PooledDataSource forcefully closed/removed all connections.");
     }
   }
 
+  /*
+   * Shuts the pool down: stops the maintenance thread, closes all connections and
+   * unregisters the metrics MBean, which would otherwise keep the pool reachable
+   */
+  public void close() {
+    stopMaintenance();
+    forceCloseAll();
+    metrics.unregisterMBean();
+  }
+
   public PoolState getPoolState() {
     return state;
   }
 
-  private int assembleConnectionTypeCode(String url, String username, String password) {
+  /*
+   * Returns the number of idle connections without taking the pool lock
+   */
+  public int getIdleConnectionCount() {
+    return state.idleConnectionGauge;
+  }
+
+  /*
+   * Returns the number of active connections without taking the pool lock
+   */
+  public int getActiveConnectionCount() {
+    return state.activeConnectionGauge;
+  }
+
+  protected int assembleConnectionTypeCode(String url, String username, String password) {
     return ("" + url + username + password).hashCode();
   }
 
   protected void pushConnection(PooledConnection conn) throws SQLException {
 
     synchronized (state) {
-      state.activeConnections.remove(conn);
-      if (conn.isValid()) {
-        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
-          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+      if (removeActive(conn)) {
+        conn.releasePermit();
+        // keep the slot reserved while the connection is checked and reset
+        state.pendingConnections++;
+      } else {
+        // already claimed as overdue or closed by forceCloseAll
+        if (log.isDebugEnabled()) {
+          log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+        }
+        state.badConnectionCount++;
+        conn = null;
+      }
+    }
+    if (conn == null) {
+      metrics.badConnection();
+      return;
+    }
+
+    boolean valid = conn.isValid();
+    if (valid) {
+      boolean rolledBack = false;
+      try {
+        conn.resetTransaction(false);
+        rolledBack = true;
+      } finally {
+        if (!rolledBack) {
+          conn.invalidate();
+          closeQuietly(conn);
+          releaseSlot();
+        }
+      }
+    }
+    if (valid) {
+      metrics.released(TimeUnit.MILLISECONDS.toNanos(conn.getCheckoutTime()));
+    } else {
+      metrics.badConnection();
+    }
+
+    synchronized (state) {
+      state.pendingConnections--;
+      if (valid) {
+        state.accumulatedCheckoutTime += conn.getCheckoutTime();
+        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode
+            && !isExpired(conn.getRealHashCode(), conn.getCreatedTimestamp(), conn.getLastUsedTimestamp(), false)) {
+          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this, conn.getConnectionState());
           state.idleConnections.add(newConn);
+          state.publishCounts();
           newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
           newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+          newConn.setLastValidatedTimestamp(conn.getLastValidatedTimestamp());
+          newConn.setLastReturnedTimestamp(System.currentTimeMillis());
           conn.invalidate();
           if (log.isDebugEnabled()) {
             log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
           }
           state.notifyAll();
-        } else {
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
-          conn.getRealConnection().close();
-          if (log.isDebugEnabled()) {
-            log.debug("Closed connection " + conn.getRealHashCode() + ".");
-          }
-          conn.invalidate();
+          return;
         }
       } else {
         if (log.isDebugEnabled()) {
@@ -380,107 +824,207 @@ public class PooledDataSource implements DataSource {
         }
         state.badConnectionCount++;
       }
+      state.notifyAll();
+    }
+
+    if (valid) {
+      conn.getRealConnection().close();
+      if (log.isDebugEnabled()) {
+        log.debug("Closed connection " + conn.getRealHashCode() + ".");
+      }
+      conn.invalidate();
     }
   }
 
+  /*
+   * Removes the connection from the active ones. Compared by identity: a reclaimed overdue
+   * connection is equal to the one now wrapping the same real connection.
+   */
+  private boolean removeActive(PooledConnection conn) {
+    Iterator<PooledConnection> iterator = state.activeConnections.iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next() == conn) {
+        iterator.remove();
+        state.publishCounts();
+        return true;
+      }
+    }
+    return false;
+  }
+
   private PooledConnection popConnection(String username, String password) throws SQLException {
+    Semaphore permits = acquirePermit();
+    if (permits == null) {
+      return doPopConnection(username, password);
+    }
+    boolean acquired = false;
+    try {
+      PooledConnection conn = doPopConnection(username, password);
+      conn.setPermits(permits);
+      acquired = true;
+      return conn;
+    } finally {
+      if (!acquired) {
+        permits.release();
+      }
+    }
+  }
+
+  private PooledConnection doPopConnection(String username, String password) throws SQLException {
     boolean countedWait = false;
     PooledConnection conn = null;
     long t = System.currentTimeMillis();
+    long start = System.nanoTime();
     int localBadConnectionCount = 0;
 
     while (conn == null) {
+      boolean mustCreate = false;
+      boolean timedOut = false;
+      PooledConnection overdueConnection = null;
       synchronized (state) {
         if (!state.idleConnections.isEmpty()) {
           // Pool has available connection
           conn = state.idleConnections.remove(0);
+          state.publishCounts();
           if (log.isDebugEnabled()) {
             log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
           }
         } else {
           // Pool does not have available connection
-          if (state.activeConnections.size() < poolMaximumActiveConnections) {
-            // Can create new connection
-            conn = new PooledConnection(dataSource.getConnection(), this);
+          if (state.activeConnections.size() + state.pendingConnections < maximumActiveConnections()) {
+            // Can create new connection, it is opened once the slot is reserved
+            mustCreate = true;
+          } else if (!state.activeConnections.isEmpty()
+              && state.activeConnections.get(0).getCheckoutTime() > poolMaximumCheckoutTime) {
+            // Cannot create new connection, but can claim overdue connection
+            PooledConnection oldestActiveConnection = state.activeConnections.get(0);
+            long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
+            state.claimedOverdueConnectionCount++;
+            state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
+            state.accumulatedCheckoutTime += longestCheckoutTime;
+            state.activeConnections.remove(oldestActiveConnection);
+            state.publishCounts();
+            conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this, oldestActiveConnection.getConnectionState());
+            conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
+            conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
+            oldestActiveConnection.invalidate();
+            oldestActiveConnection.releasePermit();
+            overdueConnection = oldestActiveConnection;
             if (log.isDebugEnabled()) {
-              log.debug("Created connection " + conn.getRealHashCode() + ".");
+              log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
             }
           } else {
-            // Cannot create new connection
-            PooledConnection oldestActiveConnection = state.activeConnections.get(0);
-            long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
-            if (longestCheckoutTime > poolMaximumCheckoutTime) {
-              // Can claim overdue connection
-              state.claimedOverdueConnectionCount++;
-              state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
-              state.accumulatedCheckoutTime += longestCheckoutTime;
-              state.activeConnections.remove(oldestActiveConnection);
-              if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
-                try {
-                  oldestActiveConnection.getRealConnection().rollback();
-                } catch (SQLException e) {
-                  /*
-                     Just log a message for debug and continue to execute the following
-                     statement like nothing happend.
-                     Wrap the bad connection with a new PooledConnection, this will help
-                     to not intterupt current executing thread and give current thread a
-                     chance to join the next competion for another valid/good database
-                     connection. At the end of this loop, bad {@link @conn} will be set as null.
-                   */
-                  log.debug("Bad connection. Could not roll back");
-                }  
+            // Must wait
+            try {
+              if (!countedWait) {
+                state.hadToWaitCount++;
+                countedWait = true;
               }
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
-              conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
-              conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
-              oldestActiveConnection.invalidate();
               if (log.isDebugEnabled()) {
-                log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+                log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
               }
-            } else {
-              // Must wait
+              long wt = System.currentTimeMillis();
+              metrics.waitStarted();
               try {
-                if (!countedWait) {
-                  state.hadToWaitCount++;
-                  countedWait = true;
-                }
-                if (log.isDebugEnabled()) {
-                  log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
-                }
-                long wt = System.currentTimeMillis();
                 state.wait(poolTimeToWait);
-                state.accumulatedWaitTime += System.currentTimeMillis() - wt;
-              } catch (InterruptedException e) {
-                break;
+              } finally {
+                metrics.waitEnded();
               }
+              long waited = System.currentTimeMillis() - wt;
+              state.accumulatedWaitTime += waited;
+              timedOut = waited >= poolTimeToWait;
+            } catch (InterruptedException e) {
+              break;
             }
           }
         }
-        if (conn != null) {
-          // ping to server and check the connection is valid or not
-          if (conn.isValid()) {
-            if (!conn.getRealConnection().getAutoCommit()) {
-              conn.getRealConnection().rollback();
+        if (conn != null || mustCreate) {
+          // reserve the slot, the database is only accessed outside the lock
+          state.pendingConnections++;
+        }
+      }
+
+      if (timedOut) {
+        metrics.timedOut();
+      }
+      if (mustCreate) {
+        long creationStart = System.nanoTime();
+        try {
+          conn = new PooledConnection(dataSource.getConnection(), this);
+        } finally {
+          if (conn == null) {
+            releaseSlot();
+          }
+        }
+        metrics.created(System.nanoTime() - creationStart);
+        if (log.isDebugEnabled()) {
+          log.debug("Created connection " + conn.getRealHashCode() + ".");
+        }
+      }
+      if (overdueConnection != null) {
+        reportLeak(overdueConnection);
+        metrics.overdueClaimed();
+      }
+      if (overdueConnection != null) {
+        try {
+          // the previous owner may still be using it, do not trust the tracked state
+          overdueConnection.resetTransaction(true);
+        } catch (SQLException e) {
+          /*
+             Just log a message for debug and continue to execute the following
+             statement like nothing happend.
+             Wrap the bad connection with a new PooledConnection, this will help
+             to not intterupt current executing thread and give current thread a
+             chance to join the next competion for another valid/good database
+             connection. At the end of this loop, bad {@link @conn} will be set as null.
+           */
+          log.debug("Bad connection. Could not roll back");
+        }
+      }
+      if (conn != null) {
+        // ping to server and check the connection is valid or not
+        if (conn.isValid()) {
+          boolean rolledBack = false;
+          try {
+            conn.resetTransaction(false);
+            rolledBack = true;
+          } finally {
+            if (!rolledBack) {
+              // the connection is neither idle nor active any more, it would leak if left open
+              conn.invalidate();
+              closeQuietly(conn);
+              releaseSlot();
             }
-            conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
-            conn.setCheckoutTimestamp(System.currentTimeMillis());
-            conn.setLastUsedTimestamp(System.currentTimeMillis());
+          }
+          conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+          conn.setCheckoutTimestamp(System.currentTimeMillis());
+          conn.setLastUsedTimestamp(System.currentTimeMillis());
+          recordCheckoutSite(conn);
+          synchronized (state) {
+            state.pendingConnections--;
             state.activeConnections.add(conn);
+            state.publishCounts();
             state.requestCount++;
             state.accumulatedRequestTime += System.currentTimeMillis() - t;
-          } else {
-            if (log.isDebugEnabled()) {
-              log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
-            }
+          }
+          metrics.acquired(System.nanoTime() - start);
+        } else {
+          if (log.isDebugEnabled()) {
+            log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+          }
+          synchronized (state) {
+            state.pendingConnections--;
             state.badConnectionCount++;
-            localBadConnectionCount++;
-            conn = null;
-            if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
-              if (log.isDebugEnabled()) {
-                log.debug("PooledDataSource: Could not get a good connection to the database.");
-              }
-              throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+            state.notifyAll();
+          }
+          metrics.badConnection();
+          localBadConnectionCount++;
+          conn = null;
+          if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
+            if (log.isDebugEnabled()) {
+              log.debug("PooledDataSource: Could not get a good connection to the database.");
             }
+            throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
           }
         }
       }
@@ -497,6 +1041,414 @@ public class PooledDataSource implements DataSource {
     return conn;
   }
 
+  /*
+   * Closes the physical connection of a connection dropped from the pool
+   */
+  private void closeQuietly(PooledConnection conn) {
+    try {
+      conn.getRealConnection().close();
+    } catch (SQLException e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Error closing connection " + conn.getRealHashCode() + ". Cause: " + e);
+      }
+    }
+  }
+
+  /*
+   * Gives back a slot reserved by a connection that could not be opened or reset
+   */
+  private void releaseSlot() {
+    synchronized (state) {
+      state.pendingConnections--;
+      state.notifyAll();
+    }
+  }
+
+  /*
+   * Run periodically by the maintenance thread when poolAdaptiveSizing is on: resizes the pool
+   * from the waits and the utilization observed since the previous run.
+   */
+  protected void adjustPoolSize() {
+    if (!poolAdaptiveSizing || poolPartitionByUser) {
+      return;
+    }
+    AdaptivePoolSizer sizer = adaptiveSizer;
+    if (sizer == null) {
+      sizer = new AdaptivePoolSizer(poolMaximumActiveConnections, poolMaximumIdleConnections);
+      adaptiveSizer = sizer;
+    }
+    int limit = poolMaximumActiveConnections;
+    int maximum = poolAdaptiveMaximumActiveConnections > 0 ? poolAdaptiveMaximumActiveConnections : sizer.getBaseMaximumActive();
+    int minimum = Math.max(1, Math.min(poolAdaptiveMinimumActiveConnections, maximum));
+    int newLimit = sizer.evaluate(limit, minimum, maximum, poolAdaptiveTargetWaitTime, poolAdaptiveShrinkDelay, metrics);
+    if (newLimit == limit || sizer != adaptiveSizer) {
+      // unchanged, or the limits have been configured again in the meantime
+      return;
+    }
+    resizePool(newLimit, sizer.idleLimitFor(newLimit));
+    if (log.isDebugEnabled()) {
+      log.debug("Resized pool from " + limit + " to " + newLimit + " connections (95th percentile wait "
+          + sizer.getLastWaitMillis() + "ms, utilization " + Math.round(sizer.getLastUtilization() * 100) + "%).");
+    }
+  }
+
+  /*
+   * Changes the limits without closing the connections. Waiting threads are woken up when
+   * the pool grows and the idle connections beyond the new idle limit are closed.
+   */
+  protected void resizePool(int maximumActive, int maximumIdle) {
+    List<PooledConnection> surplus = new ArrayList<PooledConnection>();
+    synchronized (state) {
+      boolean grown = maximumActive > poolMaximumActiveConnections;
+      poolMaximumActiveConnections = maximumActive;
+      poolMaximumIdleConnections = maximumIdle;
+      while (state.idleConnections.size() > maximumIdle) {
+        PooledConnection conn = state.idleConnections.remove(0);
+        conn.invalidate();
+        surplus.add(conn);
+      }
+      state.publishCounts();
+      if (grown) {
+        state.notifyAll();
+      }
+    }
+    for (PooledConnection conn : surplus) {
+      try {
+        conn.getRealConnection().close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+  }
+
+  /*
+   * Run periodically by the maintenance thread: retires expired idle connections,
+   * pings the idle connections not known to be good and opens connections up to
+   * poolMinimumIdleConnections. The database is only accessed outside the lock.
+   */
+  protected void maintainPool() {
+    detectLeaks();
+    List<PooledConnection> retired = new ArrayList<PooledConnection>();
+    List<PooledConnection> unchecked = new ArrayList<PooledConnection>();
+    boolean validate = poolBackgroundValidation && poolPingEnabled;
+    synchronized (state) {
+      int removable = state.idleConnections.size() - Math.min(poolMinimumIdleConnections, poolMaximumIdleConnections);
+      Iterator<PooledConnection> iterator = state.idleConnections.iterator();
+      while (iterator.hasNext()) {
+        PooledConnection conn = iterator.next();
+        long lastUsedTimestamp = Math.max(conn.getLastUsedTimestamp(), conn.getLastReturnedTimestamp());
+        if (isExpired(conn.getRealHashCode(), conn.getCreatedTimestamp(), lastUsedTimestamp, removable > 0)) {
+          iterator.remove();
+          retired.add(conn);
+          removable--;
+        } else if (validate && conn.getTimeElapsedSinceLastValidation() >= poolMaintenanceInterval) {
+          // keep the slot while the connection is pinged
+          iterator.remove();
+          unchecked.add(conn);
+          state.pendingConnections++;
+        }
+      }
+      state.publishCounts();
+    }
+
+    for (PooledConnection conn : retired) {
+      conn.invalidate();
+      try {
+        conn.getRealConnection().close();
+      } catch (SQLException e) {
+        // ignore
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Retired connection " + conn.getRealHashCode() + ".");
+      }
+    }
+
+    for (PooledConnection conn : unchecked) {
+      boolean good = executePingQuery(conn);
+      boolean close = false;
+      synchronized (state) {
+        state.pendingConnections--;
+        if (!good) {
+          state.badConnectionCount++;
+        } else if (state.idleConnections.size() < poolMaximumIdleConnections) {
+          state.idleConnections.add(conn);
+          state.publishCounts();
+        } else {
+          close = true;
+        }
+        state.notifyAll();
+      }
+      if (!good) {
+        metrics.badConnection();
+      } else if (close) {
+        try {
+          conn.getRealConnection().close();
+        } catch (SQLException e) {
+          // ignore
+        }
+      }
+    }
+
+    int missing;
+    int typeCode;
+    synchronized (state) {
+      missing = Math.min(
+          Math.min(poolMinimumIdleConnections, poolMaximumIdleConnections) - state.idleConnections.size(),
+          maximumActiveConnections() - state.activeConnections.size() - state.pendingConnections);
+      if (missing <= 0) {
+        return;
+      }
+      state.pendingConnections += missing;
+      typeCode = expectedConnectionTypeCode;
+    }
+    for (int i = 0; i < missing; i++) {
+      PooledConnection conn;
+      long creationStart = System.nanoTime();
+      try {
+        conn = new PooledConnection(dataSource.getConnection(), this);
+        metrics.created(System.nanoTime() - creationStart);
+      } catch (SQLException e) {
+        synchronized (state) {
+          state.pendingConnections -= missing - i;
+          state.notifyAll();
+        }
+        log.warn("Could not open an idle connection: " + e.getMessage());
+        return;
+      }
+      boolean added = false;
+      synchronized (state) {
+        state.pendingConnections--;
+        // the pool may have been reset while the connection was being opened
+        if (typeCode == expectedConnectionTypeCode) {
+          state.idleConnections.add(conn);
+          state.publishCounts();
+          added = true;
+        }
+        state.notifyAll();
+      }
+      if (!added) {
+        try {
+          conn.getRealConnection().close();
+        } catch (SQLException e) {
+          // ignore
+        }
+      } else if (log.isDebugEnabled()) {
+        log.debug("Opened idle connection " + conn.getRealHashCode() + ".");
+      }
+    }
+  }
+
+  /*
+   * Waits for a permit shared by all the partitions, when the pool is partitioned
+   *
+   * @return the permits a permit has been taken from, or null if the pool is not partitioned
+   */
+  protected Semaphore acquirePermit() throws SQLException {
+    Semaphore permits = sharedPermits;
+    if (permits == null) {
+      return null;
+    }
+    try {
+      while (!permits.tryAcquire(poolTimeToWait, TimeUnit.MILLISECONDS)) {
+        metrics.timedOut();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("PooledDataSource: Interrupted while waiting for a connection.");
+    }
+    return permits;
+  }
+
+  /*
+   * Returns the partition serving the given credentials, or null if they are served by this pool
+   */
+  protected PooledDataSource partitionFor(String username, String password) {
+    if (!poolPartitionByUser || (equals(username, dataSource.getUsername()) && equals(password, dataSource.getPassword()))) {
+      return null;
+    }
+    String key = username + '\u0000' + password;
+    PooledDataSource partition = partitions.get(key);
+    if (partition == null) {
+      PooledDataSource newPartition = createPartition(username, password);
+      partition = partitions.putIfAbsent(key, newPartition);
+      if (partition == null) {
+        partition = newPartition;
+      } else {
+        newPartition.forceCloseAll();
+      }
+    }
+    return partition;
+  }
+
+  /*
+   * Creates the pool of a partition, subclasses return a pool of their own type
+   */
+  protected PooledDataSource newPartition(UnpooledDataSource partitionDataSource) {
+    return new PooledDataSource(partitionDataSource);
+  }
+
+  private PooledDataSource createPartition(String username, String password) {
+    UnpooledDataSource partitionDataSource = new UnpooledDataSource(dataSource.getDriverClassLoader(), dataSource.getDriver(),
+        dataSource.getUrl(), username, password);
+    if (dataSource.getDriverProperties() != null) {
+      Properties driverProperties = new Properties();
+      driverProperties.putAll(dataSource.getDriverProperties());
+      partitionDataSource.setDriverProperties(driverProperties);
+    }
+    partitionDataSource.setAutoCommit(dataSource.isAutoCommit());
+    partitionDataSource.setDefaultTransactionIsolationLevel(dataSource.getDefaultTransactionIsolationLevel());
+    PooledDataSource partition = newPartition(partitionDataSource);
+    partition.poolMaximumActiveConnections = maximumActiveConnections();
+    partition.poolMaximumIdleConnections = poolMaximumIdleConnections;
+    partition.poolMaximumCheckoutTime = poolMaximumCheckoutTime;
+    partition.poolTimeToWait = poolTimeToWait;
+    partition.poolMaximumLocalBadConnectionTolerance = poolMaximumLocalBadConnectionTolerance;
+    partition.poolPingQuery = poolPingQuery;
+    partition.poolPingEnabled = poolPingEnabled;
+    partition.poolPingConnectionsNotUsedFor = poolPingConnectionsNotUsedFor;
+    partition.poolMaximumLifetime = poolMaximumLifetime;
+    partition.poolIdleTimeout = poolIdleTimeout;
+    partition.poolMaintenanceInterval = poolMaintenanceInterval;
+    partition.poolBackgroundValidation = poolBackgroundValidation;
+    partition.poolValidationTimeout = poolValidationTimeout;
+    partition.poolValidationSkipWindow = poolValidationSkipWindow;
+    partition.poolLeakDetectionThreshold = poolLeakDetectionThreshold;
+    partition.poolLeakDetectionSampleRate = poolLeakDetectionSampleRate;
+    partition.expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), username, password);
+    partition.sharedPermits = sharedPermits;
+    // the partitions are maintained by the thread of this pool
+    partition.maintainedByParent = true;
+    return partition;
+  }
+
+  /*
+   * Run by the maintenance thread: maintains the partitions and drops the ones left without
+   * connections, so that the partitions of users gone away do not pile up. A user coming back
+   * gets a new partition.
+   */
+  protected void maintainPartitions() {
+    for (Map.Entry<String, PooledDataSource> entry : partitions.entrySet()) {
+      PooledDataSource partition = entry.getValue();
+      partition.maintainPool();
+      if (partition.isUnused() && partitions.remove(entry.getKey(), partition)) {
+        // a thread may still hold the partition, what it checks out is closed once returned
+        partition.retire();
+      }
+    }
+  }
+
+  /*
+   * Whether the pool has no connection at all, neither checked out, idle nor being opened
+   */
+  protected boolean isUnused() {
+    synchronized (state) {
+      return state.activeConnections.isEmpty() && state.idleConnections.isEmpty() && state.pendingConnections == 0;
+    }
+  }
+
+  /*
+   * Closes the idle connections of a partition dropped by the parent pool, the connections
+   * returned from now on are closed instead of being pooled
+   */
+  protected void retire() {
+    resizePool(poolMaximumActiveConnections, 0);
+  }
+
+  /*
+   * The maximum number of connections checked out from this pool itself, when the pool
+   * is partitioned it is the limit of each user
+   */
+  protected int maximumActiveConnections() {
+    if (poolPartitionByUser && poolMaximumActiveConnectionsPerUser > 0) {
+      return Math.min(poolMaximumActiveConnectionsPerUser, poolMaximumActiveConnections);
+    }
+    return poolMaximumActiveConnections;
+  }
+
+  /*
+   * Closes the partitions, they are created again on demand with the current settings
+   */
+  protected void resetPartitions() {
+    for (PooledDataSource partition : partitions.values()) {
+      partition.forceCloseAll();
+    }
+    partitions.clear();
+    if (!maintainedByParent) {
+      sharedPermits = poolPartitionByUser ? new Semaphore(poolMaximumActiveConnections, true) : null;
+    }
+  }
+
+  private static boolean equals(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  /*
+   * Snapshot of the connections currently checked out
+   */
+  protected List<PooledConnection> getActivePooledConnections() {
+    synchronized (state) {
+      return new ArrayList<PooledConnection>(state.activeConnections);
+    }
+  }
+
+  /*
+   * Records the thread and, for sampled checkouts, the stack of the caller
+   */
+  protected void recordCheckoutSite(PooledConnection conn) {
+    if (poolLeakDetectionThreshold <= 0) {
+      return;
+    }
+    Throwable site = null;
+    if (poolLeakDetectionSampleRate <= 1 || checkoutCount.incrementAndGet() % poolLeakDetectionSampleRate == 0) {
+      site = new Throwable("Connection checked out here");
+    }
+    conn.setCheckoutSite(Thread.currentThread().getName(), site);
+  }
+
+  /*
+   * Reports the connections checked out for longer than poolLeakDetectionThreshold
+   */
+  protected void detectLeaks() {
+    if (poolLeakDetectionThreshold <= 0) {
+      return;
+    }
+    for (PooledConnection conn : getActivePooledConnections()) {
+      if (conn.getCheckoutTime() > poolLeakDetectionThreshold) {
+        reportLeak(conn);
+      }
+    }
+  }
+
+  /*
+   * Reports a connection as a possible leak, once
+   */
+  protected void reportLeak(PooledConnection conn) {
+    if (poolLeakDetectionThreshold <= 0 || !conn.markLeakReported()) {
+      return;
+    }
+    CheckedOutConnection checkedOut = conn.toCheckedOutConnection();
+    log.warn("Possible connection leak. " + checkedOut);
+    metrics.leakSuspected(checkedOut);
+  }
+
+  /*
+   * Checks whether a connection has outlived poolMaximumLifetime or, optionally,
+   * has not been used for poolIdleTimeout. Both periods are shortened by up to 10%
+   * depending on the connection so that connections opened together are not
+   * retired together.
+   */
+  protected boolean isExpired(int realHashCode, long createdTimestamp, long lastUsedTimestamp, boolean checkIdleTimeout) {
+    long now = System.currentTimeMillis();
+    if (poolMaximumLifetime > 0 && now - createdTimestamp > withJitter(realHashCode, poolMaximumLifetime)) {
+      return true;
+    }
+    return checkIdleTimeout && poolIdleTimeout > 0 && now - lastUsedTimestamp > withJitter(realHashCode, poolIdleTimeout);
+  }
+
+  private static long withJitter(int realHashCode, int period) {
+    return period - (realHashCode & Integer.MAX_VALUE) % (period / 10 + 1);
+  }
+
   /*
    * Method to check to see if a connection is still usable
    *
@@ -515,41 +1467,102 @@ public class PooledDataSource implements DataSource {
       result = false;
     }
 
-    if (result) {
-      if (poolPingEnabled) {
-        if (poolPingConnectionsNotUsedFor >= 0 && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
-          try {
-            if (log.isDebugEnabled()) {
-              log.debug("Testing connection " + conn.getRealHashCode() + " ...");
-            }
-            Connection realConn = conn.getRealConnection();
-            Statement statement = realConn.createStatement();
-            ResultSet rs = statement.executeQuery(poolPingQuery);
-            rs.close();
-            statement.close();
-            if (!realConn.getAutoCommit()) {
-              realConn.rollback();
-            }
-            result = true;
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
-            }
-          } catch (Exception e) {
-            log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
-            try {
-              conn.getRealConnection().close();
-            } catch (Exception e2) {
-              //ignore
-            }
-            result = false;
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
-            }
-          }
+    if (result && poolPingEnabled && poolPingConnectionsNotUsedFor >= 0
+        && conn.getTimeElapsedSinceLastValidation() > poolPingConnectionsNotUsedFor
+        && !isInValidationSkipWindow(conn)) {
+      result = executePingQuery(conn);
+    }
+    return result;
+  }
+
+  private boolean isInValidationSkipWindow(PooledConnection conn) {
+    if (poolValidationSkipWindow <= 0) {
+      return false;
+    }
+    long lastKnownGood = Math.max(conn.getLastReturnedTimestamp(), conn.getLastValidatedTimestamp());
+    return System.currentTimeMillis() - lastKnownGood < poolValidationSkipWindow;
+  }
+
+  /*
+   * Checks a connection with the ping query or, when no ping query is set, with
+   * Connection.isValid(). The connection is closed if the check fails.
+   *
+   * @param conn - the connection to check
+   * @return True if the check succeeded
+   */
+  protected boolean executePingQuery(PooledConnection conn) {
+    long start = System.nanoTime();
+    try {
+      if (log.isDebugEnabled()) {
+        log.debug("Testing connection " + conn.getRealHashCode() + " ...");
+      }
+      Connection realConn = conn.getRealConnection();
+      if (!isValidConnection(realConn)) {
+        Statement statement = realConn.createStatement();
+        ResultSet rs = statement.executeQuery(poolPingQuery);
+        rs.close();
+        statement.close();
+        if (!realConn.getAutoCommit()) {
+          realConn.rollback();
         }
       }
+      recordValidation(System.nanoTime() - start);
+      conn.setLastValidatedTimestamp(System.currentTimeMillis());
+      if (log.isDebugEnabled()) {
+        log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
+      }
+      return true;
+    } catch (Exception e) {
+      recordValidation(System.nanoTime() - start);
+      if (NO_PING_QUERY.equals(poolPingQuery)) {
+        log.warn("Validation of connection " + conn.getRealHashCode() + " failed: " + e.getMessage());
+      } else {
+        log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
+      }
+      try {
+        conn.getRealConnection().close();
+      } catch (Exception e2) {
+        //ignore
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
+      }
+      return false;
+    }
+  }
+
+  /*
+   * Uses the JDBC 4 validation when no ping query is set
+   *
+   * @return True if the connection is valid, false if the ping query must be run instead
+   * @throws SQLException if the driver reports the connection as invalid
+   */
+  private boolean isValidConnection(Connection realConn) throws SQLException {
+    if (!jdbc4ValidationSupported || !NO_PING_QUERY.equals(poolPingQuery)) {
+      return false;
+    }
+    try {
+      if (!realConn.isValid(poolValidationTimeout)) {
+        throw new SQLException("Connection.isValid() returned false");
+      }
+      return true;
+    } catch (SQLFeatureNotSupportedException e) {
+      jdbc4ValidationSupported = false;
+    } catch (AbstractMethodError e) {
+      jdbc4ValidationSupported = false;
+    }
+    log.warn("The driver does not support Connection.isValid(), a ping query must be set.");
+    return false;
+  }
+
+  /*
+   * Records the time taken by a connection check
+   */
+  protected void recordValidation(long nanos) {
+    synchronized (state) {
+      state.validationCount++;
+      state.accumulatedValidationTimeNanos += nanos;
     }
-    return result;
   }
 
   /*
@@ -562,13 +1575,17 @@ public class PooledDataSource implements DataSource {
     if (Proxy.isProxyClass(conn.getClass())) {
       InvocationHandler handler = Proxy.getInvocationHandler(conn);
       if (handler instanceof PooledConnection) {
-        return ((PooledConnection) handler).getRealConnection();
+        PooledConnection pooledConnection = (PooledConnection) handler;
+        // the caller may change the connection behind the pool's back
+        pooledConnection.getConnectionState().untrack();
+        return pooledConnection.getRealConnection();
       }
     }
     return conn;
   }
 
   protected void finalize() throws Throwable {
+    stopMaintenance();
     forceCloseAll();
     super.finalize();
   }
@@ -0,0 +1,43 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+/**
+ * A read replica and the state used to balance and eject it.
+ *
+ * @since 3.4.6
+ */
+final class Replica {
+
+  final DataSource dataSource;
+  // connections currently borrowed from this replica by routing connections
+  final AtomicInteger outstanding = new AtomicInteger();
+  final AtomicInteger consecutiveFailures = new AtomicInteger();
+  volatile long ejectedUntil;
+
+  Replica(DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  boolean isEjected(long now) {
+    return ejectedUntil > now;
+  }
+
+}
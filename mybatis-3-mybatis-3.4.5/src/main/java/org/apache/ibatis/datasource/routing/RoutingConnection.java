@@ -0,0 +1,341 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.ibatis.datasource.StatementRoute;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * Connection handed out by {@link RoutingDataSource}.
+ * <p>
+ * It opens a primary and a replica connection only when a statement needs them and keeps
+ * the auto commit mode, isolation and read only settings in sync on both. Once the
+ * transaction writes, the replica connection and the statements prepared on it are
+ * closed so that the following reads see the data just written. Unless the reads of a
+ * transaction are pinned to the primary, the ones preceding the first write run on the
+ * replica, outside the transaction of the primary.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+final class RoutingConnection implements InvocationHandler {
+
+  private static final Log log = LogFactory.getLog(RoutingConnection.class);
+
+  private static final int MIN_PURGE_THRESHOLD = 32;
+
+  private final RoutingDataSource dataSource;
+  private final String username;
+  private final String password;
+  private Connection primaryConnection;
+  private Replica replica;
+  private Connection replicaConnection;
+  private final List<Statement> replicaStatements = new ArrayList<Statement>();
+  private int purgeThreshold = MIN_PURGE_THRESHOLD;
+  private Boolean autoCommit;
+  private Integer transactionIsolation;
+  private Boolean readOnly;
+  // the current transaction has sent a statement to the primary
+  private boolean writing;
+  private boolean closed;
+
+  RoutingConnection(RoutingDataSource dataSource, String username, String password) {
+    this.dataSource = dataSource;
+    this.username = username;
+    this.password = password;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String methodName = method.getName();
+    if (Object.class.equals(method.getDeclaringClass())) {
+      if ("equals".equals(methodName)) {
+        return proxy == args[0];
+      } else if ("hashCode".equals(methodName)) {
+        return System.identityHashCode(proxy);
+      }
+      return "RoutingConnection@" + Integer.toHexString(System.identityHashCode(proxy));
+    }
+    if ("close".equals(methodName)) {
+      close();
+      return null;
+    } else if ("isClosed".equals(methodName)) {
+      return closed;
+    }
+    if (closed) {
+      throw new SQLException("Error accessing RoutingConnection. Connection is closed.");
+    }
+    if ("prepareStatement".equals(methodName) || "createStatement".equals(methodName)) {
+      return prepare(method, args);
+    } else if ("getAutoCommit".equals(methodName)) {
+      return getAutoCommit();
+    } else if ("setAutoCommit".equals(methodName)) {
+      setAutoCommit((Boolean) args[0]);
+      return null;
+    } else if ("setTransactionIsolation".equals(methodName)) {
+      transactionIsolation = (Integer) args[0];
+      applyToOpenConnections(method, args);
+      return null;
+    } else if ("getTransactionIsolation".equals(methodName) && transactionIsolation != null) {
+      return transactionIsolation;
+    } else if ("setReadOnly".equals(methodName)) {
+      readOnly = (Boolean) args[0];
+      applyToOpenConnections(method, args);
+      return null;
+    } else if ("isReadOnly".equals(methodName) && readOnly != null) {
+      return readOnly;
+    } else if (("commit".equals(methodName) || "rollback".equals(methodName)) && args == null) {
+      applyToOpenConnections(method, args);
+      writing = false;
+      return null;
+    } else if ("prepareCall".equals(methodName) || "setSavepoint".equals(methodName)) {
+      startWriting();
+    }
+    return invoke(primary(), method, args);
+  }
+
+  private Object prepare(Method method, Object[] args) throws Throwable {
+    boolean read = StatementRoute.isRead();
+    if (read && !writing && !isLockingRead(args) && !isPinnedToPrimary()) {
+      for (int attempt = 0; attempt < 2; attempt++) {
+        Connection conn = replica();
+        if (conn == null) {
+          break;
+        }
+        try {
+          Statement statement = (Statement) invoke(conn, method, args);
+          dataSource.replicaSucceeded(replica);
+          if (statement != null) {
+            track(statement);
+          }
+          return statement;
+        } catch (SQLException e) {
+          if (!isConnectionFailure(e)) {
+            throw e;
+          }
+          dataSource.replicaFailed(replica, e);
+          releaseReplica();
+        }
+      }
+    } else if (!read) {
+      startWriting();
+    }
+    return invoke(primary(), method, args);
+  }
+
+  /*
+   * The reads of a transaction go to the replica until it writes, unless they are pinned to the primary
+   */
+  private boolean isPinnedToPrimary() throws SQLException {
+    return dataSource.isTransactionalReadsOnPrimary() && !getAutoCommit();
+  }
+
+  private void startWriting() throws SQLException {
+    if (!getAutoCommit()) {
+      writing = true;
+      releaseReplica();
+    }
+  }
+
+  private boolean getAutoCommit() throws SQLException {
+    if (autoCommit == null) {
+      autoCommit = primaryConnection != null ? primaryConnection.getAutoCommit()
+          : dataSource.getDefaultAutoCommit(username, password);
+    }
+    return autoCommit;
+  }
+
+  private void setAutoCommit(boolean desiredAutoCommit) throws SQLException {
+    if (autoCommit != null && autoCommit == desiredAutoCommit) {
+      return;
+    }
+    // the connections are reconfigured when opened if this fails half way
+    autoCommit = desiredAutoCommit;
+    if (desiredAutoCommit) {
+      // switching auto commit on commits the current transaction
+      writing = false;
+    }
+    if (primaryConnection != null) {
+      primaryConnection.setAutoCommit(desiredAutoCommit);
+    }
+    if (replicaConnection != null) {
+      replicaConnection.setAutoCommit(desiredAutoCommit);
+    }
+  }
+
+  private void applyToOpenConnections(Method method, Object[] args) throws Throwable {
+    if (primaryConnection != null) {
+      invoke(primaryConnection, method, args);
+    }
+    if (replicaConnection != null) {
+      invoke(replicaConnection, method, args);
+    }
+  }
+
+  private Connection primary() throws SQLException {
+    if (primaryConnection == null) {
+      Connection conn = dataSource.openPrimary(username, password);
+      configure(conn);
+      primaryConnection = conn;
+    }
+    return primaryConnection;
+  }
+
+  private Connection replica() {
+    if (replicaConnection != null) {
+      return replicaConnection;
+    }
+    Replica candidate = dataSource.reserveReplica();
+    if (candidate == null) {
+      return null;
+    }
+    Connection conn = null;
+    try {
+      conn = username == null ? candidate.dataSource.getConnection() : candidate.dataSource.getConnection(username, password);
+      configure(conn);
+      replica = candidate;
+      replicaConnection = conn;
+      return conn;
+    } catch (SQLException e) {
+      closeQuietly(conn);
+      dataSource.releaseReplica(candidate);
+      dataSource.replicaFailed(candidate, e);
+      return null;
+    }
+  }
+
+  private void configure(Connection conn) throws SQLException {
+    boolean configured = false;
+    try {
+      if (autoCommit != null && conn.getAutoCommit() != autoCommit) {
+        conn.setAutoCommit(autoCommit);
+      }
+      if (transactionIsolation != null) {
+        conn.setTransactionIsolation(transactionIsolation);
+      }
+      if (readOnly != null) {
+        conn.setReadOnly(readOnly);
+      }
+      configured = true;
+    } finally {
+      if (!configured) {
+        closeQuietly(conn);
+      }
+    }
+  }
+
+  private void track(Statement statement) throws SQLException {
+    if (replicaStatements.size() >= purgeThreshold) {
+      for (Iterator<Statement> it = replicaStatements.iterator(); it.hasNext();) {
+        if (it.next().isClosed()) {
+          it.remove();
+        }
+      }
+      purgeThreshold = Math.max(MIN_PURGE_THRESHOLD, replicaStatements.size() * 2);
+    }
+    replicaStatements.add(statement);
+  }
+
+  private void releaseReplica() {
+    if (replicaConnection == null) {
+      return;
+    }
+    for (Statement statement : replicaStatements) {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+    replicaStatements.clear();
+    purgeThreshold = MIN_PURGE_THRESHOLD;
+    closeQuietly(replicaConnection);
+    dataSource.releaseReplica(replica);
+    replicaConnection = null;
+    replica = null;
+  }
+
+  private void close() throws SQLException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    releaseReplica();
+    if (primaryConnection != null) {
+      Connection conn = primaryConnection;
+      primaryConnection = null;
+      conn.close();
+    }
+  }
+
+  private static boolean isConnectionFailure(SQLException e) {
+    String sqlState = e.getSQLState();
+    return e instanceof SQLTransientConnectionException || e instanceof SQLNonTransientConnectionException
+        || (sqlState != null && sqlState.startsWith("08"));
+  }
+
+  private static boolean isLockingRead(Object[] args) {
+    if (args == null || !(args[0] instanceof String)) {
+      return false;
+    }
+    String sql = (String) args[0];
+    return containsIgnoreCase(sql, "for update") || containsIgnoreCase(sql, "lock in share mode")
+        || containsIgnoreCase(sql, "for share");
+  }
+
+  private static boolean containsIgnoreCase(String sql, String keyword) {
+    for (int i = sql.length() - keyword.length(); i >= 0; i--) {
+      if (sql.regionMatches(true, i, keyword, 0, keyword.length())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void closeQuietly(Connection conn) {
+    if (conn != null) {
+      try {
+        conn.close();
+      } catch (SQLException e) {
+        if (log.isDebugEnabled()) {
+          log.debug("Error closing routed connection. Cause: " + e);
+        }
+      }
+    }
+  }
+
+  private static Object invoke(Connection target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (Throwable t) {
+      throw ExceptionUtil.unwrapThrowable(t);
+    }
+  }
+
+}
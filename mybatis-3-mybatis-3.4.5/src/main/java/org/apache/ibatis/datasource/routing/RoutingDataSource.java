@@ -0,0 +1,282 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.StatementRoute;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Read/write splitting datasource.
+ * <p>
+ * Connections are opened lazily and route every statement they prepare: reads go to the
+ * replica with the fewest outstanding connections as long as the transaction has not
+ * written anything, everything else goes to the primary. A replica that fails
+ * {@link #setReplicaFailureThreshold(int) several times in a row} is ejected for a while
+ * and its reads are sent to the other replicas or to the primary.
+ * </p>
+ * The executor tells which statements are reads with {@link StatementRoute}, statements
+ * prepared without it, locking reads and stored procedure calls always go to the primary.
+ * <p>
+ * Only auto commit reads go to replicas: every statement of a transaction (auto commit off) runs on
+ * the primary, so that its reads see its own isolation and locks. With
+ * {@link #setTransactionalReadsOnPrimary(boolean) setTransactionalReadsOnPrimary(false)} the reads
+ * preceding the first write of a transaction go to a replica too, they may then not see the data
+ * committed just before by other transactions and are not part of the transaction on the primary.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+public class RoutingDataSource implements DataSource {
+
+  private static final Log log = LogFactory.getLog(RoutingDataSource.class);
+
+  private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
+
+  private final DataSource primary;
+  private final Replica[] replicas;
+  private final AtomicInteger nextReplica = new AtomicInteger();
+  private volatile Boolean defaultAutoCommit;
+
+  protected int replicaFailureThreshold = 3;
+  protected long replicaEjectionTime = 30000;
+  protected volatile boolean transactionalReadsOnPrimary = true;
+
+  public RoutingDataSource(DataSource primary, List<? extends DataSource> replicas) {
+    this.primary = primary;
+    this.replicas = new Replica[replicas.size()];
+    for (int i = 0; i < this.replicas.length; i++) {
+      this.replicas[i] = new Replica(replicas.get(i));
+    }
+  }
+
+  /**
+   * Same as {@link StatementRoute#mark(boolean)}.
+   *
+   * @param read true if they only read data and may be sent to a replica
+   */
+  public static void routeStatement(boolean read) {
+    StatementRoute.mark(read);
+  }
+
+  /**
+   * Same as {@link StatementRoute#clear()}.
+   */
+  public static void clearStatementRoute() {
+    StatementRoute.clear();
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return newConnection(null, null);
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return newConnection(username, password);
+  }
+
+  private Connection newConnection(String username, String password) {
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES,
+        new RoutingConnection(this, username, password));
+  }
+
+  Connection openPrimary(String username, String password) throws SQLException {
+    return username == null ? primary.getConnection() : primary.getConnection(username, password);
+  }
+
+  /*
+   * The auto commit mode of the connections handed out by the primary, asked once
+   */
+  boolean getDefaultAutoCommit(String username, String password) throws SQLException {
+    Boolean autoCommit = defaultAutoCommit;
+    if (autoCommit == null) {
+      Connection conn = openPrimary(username, password);
+      try {
+        autoCommit = conn.getAutoCommit();
+      } finally {
+        conn.close();
+      }
+      defaultAutoCommit = autoCommit;
+    }
+    return autoCommit;
+  }
+
+  /*
+   * Reserves the healthy replica with the fewest outstanding connections, or returns null if there is none
+   */
+  Replica reserveReplica() {
+    if (replicas.length == 0) {
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    // start from a different replica every time so that ties are spread
+    int start = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % replicas.length;
+    Replica best = null;
+    int bestOutstanding = Integer.MAX_VALUE;
+    for (int i = 0; i < replicas.length; i++) {
+      Replica replica = replicas[(start + i) % replicas.length];
+      int outstanding = replica.outstanding.get();
+      if (!replica.isEjected(now) && outstanding < bestOutstanding) {
+        best = replica;
+        bestOutstanding = outstanding;
+      }
+    }
+    if (best != null) {
+      best.outstanding.incrementAndGet();
+    }
+    return best;
+  }
+
+  void releaseReplica(Replica replica) {
+    replica.outstanding.decrementAndGet();
+  }
+
+  void replicaSucceeded(Replica replica) {
+    if (replica.consecutiveFailures.get() != 0) {
+      replica.consecutiveFailures.set(0);
+    }
+  }
+
+  void replicaFailed(Replica replica, SQLException e) {
+    int failures = replica.consecutiveFailures.incrementAndGet();
+    if (failures >= replicaFailureThreshold) {
+      replica.ejectedUntil = System.currentTimeMillis() + replicaEjectionTime;
+      log.warn("Ejecting replica " + indexOf(replica) + " for " + replicaEjectionTime + " milliseconds after "
+          + failures + " consecutive failures. Cause: " + e);
+    } else if (log.isDebugEnabled()) {
+      log.debug("Replica " + indexOf(replica) + " failed, routing to another node. Cause: " + e);
+    }
+  }
+
+  private int indexOf(Replica replica) {
+    for (int i = 0; i < replicas.length; i++) {
+      if (replicas[i] == replica) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public DataSource getPrimaryDataSource() {
+    return primary;
+  }
+
+  public List<DataSource> getReplicaDataSources() {
+    List<DataSource> dataSources = new ArrayList<DataSource>(replicas.length);
+    for (Replica replica : replicas) {
+      dataSources.add(replica.dataSource);
+    }
+    return Collections.unmodifiableList(dataSources);
+  }
+
+  /**
+   * @return the number of connections currently borrowed from the replica
+   */
+  public int getOutstandingConnections(int replica) {
+    return replicas[replica].outstanding.get();
+  }
+
+  public boolean isReplicaEjected(int replica) {
+    return replicas[replica].isEjected(System.currentTimeMillis());
+  }
+
+  public int getReplicaFailureThreshold() {
+    return replicaFailureThreshold;
+  }
+
+  /**
+   * @param replicaFailureThreshold number of consecutive failures after which a replica is ejected
+   */
+  public void setReplicaFailureThreshold(int replicaFailureThreshold) {
+    this.replicaFailureThreshold = replicaFailureThreshold;
+  }
+
+  public long getReplicaEjectionTime() {
+    return replicaEjectionTime;
+  }
+
+  /**
+   * @param replicaEjectionTime number of milliseconds an ejected replica receives no reads,
+   *          it is tried again afterwards
+   */
+  public void setReplicaEjectionTime(long replicaEjectionTime) {
+    this.replicaEjectionTime = replicaEjectionTime;
+  }
+
+  public boolean isTransactionalReadsOnPrimary() {
+    return transactionalReadsOnPrimary;
+  }
+
+  /**
+   * @param transactionalReadsOnPrimary true (the default) to send the reads of a transaction (auto commit
+   *          off) to the primary, false to send them to a replica until the transaction writes
+   */
+  public void setTransactionalReadsOnPrimary(boolean transactionalReadsOnPrimary) {
+    this.transactionalReadsOnPrimary = transactionalReadsOnPrimary;
+  }
+
+  @Override
+  public void setLoginTimeout(int loginTimeout) throws SQLException {
+    primary.setLoginTimeout(loginTimeout);
+    for (Replica replica : replicas) {
+      replica.dataSource.setLoginTimeout(loginTimeout);
+    }
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return primary.getLoginTimeout();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter logWriter) throws SQLException {
+    primary.setLogWriter(logWriter);
+    for (Replica replica : replicas) {
+      replica.dataSource.setLogWriter(logWriter);
+    }
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return primary.getLogWriter();
+  }
+
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    throw new SQLException(getClass().getName() + " is not a wrapper.");
+  }
+
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return false;
+  }
+
+  public Logger getParentLogger() {
+    return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME); // requires JDK version 1.6
+  }
+
+}
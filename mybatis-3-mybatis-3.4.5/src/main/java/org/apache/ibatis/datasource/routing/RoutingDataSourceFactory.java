@@ -0,0 +1,130 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.DataSourceException;
+import org.apache.ibatis.datasource.DataSourceFactory;
+import org.apache.ibatis.datasource.pooled.ConcurrentPooledDataSourceFactory;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+
+/**
+ * Builds a {@link RoutingDataSource} from pooled datasources.
+ * <p>
+ * Properties prefixed with <code>primary.</code> configure the primary pool, those prefixed with
+ * <code>replica.&lt;name&gt;.</code> configure one replica pool each (replicas are ordered by name)
+ * and the others are shared by all the pools, for instance:
+ * </p>
+ * <pre>
+ * &lt;dataSource type="ROUTING"&gt;
+ *   &lt;property name="driver" value="..."/&gt;
+ *   &lt;property name="username" value="..."/&gt;
+ *   &lt;property name="primary.url" value="jdbc:...primary"/&gt;
+ *   &lt;property name="replica.1.url" value="jdbc:...replica1"/&gt;
+ *   &lt;property name="replica.2.url" value="jdbc:...replica2"/&gt;
+ * &lt;/dataSource&gt;
+ * </pre>
+ * <code>poolType</code> (<code>POOLED</code> or <code>CONCURRENT_POOLED</code>),
+ * <code>replicaFailureThreshold</code>, <code>replicaEjectionTime</code> and <code>transactionalReadsOnPrimary</code>
+ * (true by default) configure the routing itself.
+ *
+ * @since 3.4.6
+ */
+public class RoutingDataSourceFactory implements DataSourceFactory {
+
+  public static final String PRIMARY_PREFIX = "primary.";
+  public static final String REPLICA_PREFIX = "replica.";
+  public static final String POOL_TYPE = "poolType";
+  public static final String REPLICA_FAILURE_THRESHOLD = "replicaFailureThreshold";
+  public static final String REPLICA_EJECTION_TIME = "replicaEjectionTime";
+  public static final String TRANSACTIONAL_READS_ON_PRIMARY = "transactionalReadsOnPrimary";
+
+  private DataSource dataSource;
+
+  @Override
+  public void setProperties(Properties properties) {
+    Properties common = new Properties();
+    Properties primary = new Properties();
+    Map<String, Properties> replicas = new TreeMap<String, Properties>();
+    for (String key : properties.stringPropertyNames()) {
+      String value = properties.getProperty(key);
+      if (key.startsWith(PRIMARY_PREFIX)) {
+        primary.setProperty(key.substring(PRIMARY_PREFIX.length()), value);
+      } else if (key.startsWith(REPLICA_PREFIX)) {
+        String replicaKey = key.substring(REPLICA_PREFIX.length());
+        int dot = replicaKey.indexOf('.');
+        if (dot <= 0) {
+          throw new DataSourceException("Invalid replica property: " + key + ". Expected " + REPLICA_PREFIX + "<name>.<property>");
+        }
+        String name = replicaKey.substring(0, dot);
+        Properties replica = replicas.get(name);
+        if (replica == null) {
+          replica = new Properties();
+          replicas.put(name, replica);
+        }
+        replica.setProperty(replicaKey.substring(dot + 1), value);
+      } else if (!POOL_TYPE.equals(key) && !REPLICA_FAILURE_THRESHOLD.equals(key) && !REPLICA_EJECTION_TIME.equals(key)
+          && !TRANSACTIONAL_READS_ON_PRIMARY.equals(key)) {
+        common.setProperty(key, value);
+      }
+    }
+    String poolType = properties.getProperty(POOL_TYPE, "POOLED");
+    List<DataSource> replicaDataSources = new ArrayList<DataSource>(replicas.size());
+    for (Properties replica : replicas.values()) {
+      replicaDataSources.add(newPool(poolType, common, replica));
+    }
+    RoutingDataSource routingDataSource = new RoutingDataSource(newPool(poolType, common, primary), replicaDataSources);
+    if (properties.containsKey(REPLICA_FAILURE_THRESHOLD)) {
+      routingDataSource.setReplicaFailureThreshold(Integer.parseInt(properties.getProperty(REPLICA_FAILURE_THRESHOLD)));
+    }
+    if (properties.containsKey(REPLICA_EJECTION_TIME)) {
+      routingDataSource.setReplicaEjectionTime(Long.parseLong(properties.getProperty(REPLICA_EJECTION_TIME)));
+    }
+    if (properties.containsKey(TRANSACTIONAL_READS_ON_PRIMARY)) {
+      routingDataSource.setTransactionalReadsOnPrimary(Boolean.parseBoolean(properties.getProperty(TRANSACTIONAL_READS_ON_PRIMARY)));
+    }
+    dataSource = routingDataSource;
+  }
+
+  @Override
+  public DataSource getDataSource() {
+    return dataSource;
+  }
+
+  private static DataSource newPool(String poolType, Properties common, Properties specific) {
+    DataSourceFactory factory;
+    if ("POOLED".equalsIgnoreCase(poolType)) {
+      factory = new PooledDataSourceFactory();
+    } else if ("CONCURRENT_POOLED".equalsIgnoreCase(poolType)) {
+      factory = new ConcurrentPooledDataSourceFactory();
+    } else {
+      throw new DataSourceException("Unknown pool type: " + poolType + ". Expected POOLED or CONCURRENT_POOLED");
+    }
+    Properties properties = new Properties();
+    properties.putAll(common);
+    properties.putAll(specific);
+    factory.setProperties(properties);
+    return factory.getDataSource();
+  }
+
+}
@@ -20,11 +20,16 @@ import static org.apache.ibatis.executor.ExecutionPlaceholder.EXECUTION_PLACEHOL
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.EvictionReason;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.impl.SnapshotCache;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.statement.StatementUtil;
 import org.apache.ibatis.logging.Log;
@@ -62,6 +67,8 @@ public abstract class BaseExecutor implements Executor {
 	protected PerpetualCache localCache;
 	// 一级缓存，用于缓存输出类型参数
 	protected PerpetualCache localOutputParameterCache;
+	// 一级缓存的统计信息，未开启统计时为null
+	protected CacheStatistics localCacheStatistics;
 	protected Configuration configuration;
 
 	// 用来记录嵌套查询的层数
@@ -76,6 +83,8 @@ public abstract class BaseExecutor implements Executor {
 		this.closed = false;
 		this.configuration = configuration;
 		this.wrapper = this;
+		this.localCacheStatistics = configuration.isCacheStatisticsEnabled()
+				? configuration.getLocalCacheStatistics() : null;
 	}
 
 	@Override
@@ -144,10 +153,16 @@ public abstract class BaseExecutor implements Executor {
 	@Override
 	public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler)
 			throws SQLException {
-		//获取BoundSql对象
-		BoundSql boundSql = ms.getBoundSql(parameter);
+		//获取BoundSql对象，设置了chunkSize的<foreach>节点只生成第一块
+		BoundSql boundSql = ms.getBoundSql(parameter, 0);
+		//使用ResultHandler的查询以及不使用一级缓存的查询无需创建CacheKey
+		boolean cacheable = resultHandler == null && isLocalCacheUsable(ms);
+		if (boundSql.getChunkCount() > 1) {
+			//集合被分块，每块执行一次查询后合并结果
+			return ChunkedQuery.query(this, ms, parameter, rowBounds, resultHandler, boundSql, cacheable);
+		}
 		//创建CacheKey对象
-		CacheKey key = createCacheKey(ms, parameter, rowBounds, boundSql);
+		CacheKey key = cacheable ? createCacheKey(ms, parameter, rowBounds, boundSql) : CacheKey.NULL_CACHE_KEY;
 		//调用query()的重载方法
 		return query(ms, parameter, rowBounds, resultHandler, key, boundSql);
 	}
@@ -167,19 +182,35 @@ public abstract class BaseExecutor implements Executor {
 			//存活时长的第一个方面
 			clearLocalCache();
 		}
+		//没有CacheKey的查询以及不使用一级缓存的顶层查询完全绕过一级缓存，嵌套查询仍需
+		//一级缓存来处理循环引用
+		boolean bypassLocalCache = key == CacheKey.NULL_CACHE_KEY || (queryStack == 0 && !isLocalCacheUsable(ms));
 		List<E> list;
 		try {
 			//增加查询层数
 			queryStack++;
-			//查询一级缓存
-			list = resultHandler == null ? (List<E>) localCache.getObject(key) : null;
-			if (list != null) {
-				//针对存储过程调用的处理。其功能是:在一级缓存命中时，获取缓存中保存的输出类型参数，
-				//并设置到用户传入的实参对象中
-				handleLocallyCachedOutputParameters(ms, key, parameter, boundSql);
+			if (ms.isImmutable() && resultHandler == null) {
+				//不可变语句的结果由所有会话共享，不使用一级缓存
+				list = queryImmutable(ms, parameter, rowBounds, key, boundSql);
 			} else {
-				//其中会调用doQuery()方法完成数据库查询，并得到映射后的结果对象
-				list = queryFromDatabase(ms, parameter, rowBounds, resultHandler, key, boundSql);
+				//查询一级缓存
+				list = resultHandler == null && !bypassLocalCache ? (List<E>) localCache.getObject(key) : null;
+				if (localCacheStatistics != null && resultHandler == null && !bypassLocalCache) {
+					if (list == null) {
+						localCacheStatistics.miss();
+					} else {
+						localCacheStatistics.hit();
+					}
+				}
+				if (list != null) {
+					//针对存储过程调用的处理。其功能是:在一级缓存命中时，获取缓存中保存的输出类型参数，
+					//并设置到用户传入的实参对象中
+					handleLocallyCachedOutputParameters(ms, key, parameter, boundSql);
+				} else {
+					//其中会调用doQuery()方法完成数据库查询，并得到映射后的结果对象
+					list = bypassLocalCache ? this.<E>doQuery(ms, parameter, rowBounds, resultHandler, boundSql)
+							: this.<E>queryFromDatabase(ms, parameter, rowBounds, resultHandler, key, boundSql);
+				}
 			}
 		} finally {
 			//当前查询完成，查询层次减少
@@ -190,17 +221,23 @@ public abstract class BaseExecutor implements Executor {
 		if (queryStack == 0) { 
 			//在最外层的查询结束后，所有的嵌套查询也已经完成，相关的缓存项也已经完全加载
 			//所以可以开始加载一级缓存中缓存的嵌套查询的结果对象
-			for (DeferredLoad deferredLoad : deferredLoads) {
-				deferredLoad.load();
+			if (!deferredLoads.isEmpty()) {
+				for (DeferredLoad deferredLoad : deferredLoads) {
+					deferredLoad.load();
+				}
+				// issue #601
+				//加载完成后，清空deferredLoads集合
+				deferredLoads.clear();
 			}
-			// issue #601
-			//加载完成后，清空deferredLoads集合
-			deferredLoads.clear();
 			if (configuration.getLocalCacheScope() == LocalCacheScope.STATEMENT) {
 				// issue #482
 				//根据localCacheScope配置决定是否清空一级缓存, localCacheScope配置是影响一级缓存
 				//中结果对象存活时长的第二方面
 				clearLocalCache();
+			} else if (configuration.getLocalCacheScope() == LocalCacheScope.NONE
+					&& (localCache.getSize() > 0 || localOutputParameterCache.getSize() > 0)) {
+				//只清空嵌套查询留下的缓存项
+				clearLocalCache();
 			}
 		}
 		return list;
@@ -238,15 +275,14 @@ public abstract class BaseExecutor implements Executor {
 		if (closed) {
 			throw new ExecutorException("Executor was closed.");
 		}
-		//创建CacheKey对象
-		CacheKey cacheKey = new CacheKey();
-		//将MappedStatement的id添加到CacheKey对象中
-		cacheKey.update(ms.getId());
+		List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+		//以预先计算好的语句id前缀创建CacheKey对象，并按照参数个数预分配空间
+		CacheKey cacheKey = new CacheKey(ms.getCacheKeyPrefix(), parameterMappings.size() + 4);
 		cacheKey.update(rowBounds.getOffset());
 		cacheKey.update(rowBounds.getLimit());
 		cacheKey.update(boundSql.getSql());
-		List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
 		TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
+		MetaObject metaObject = null;
 		
 		// mimic DefaultParameterHandler logic
 		// 获取用户传入的实参，并添加到CacheKey对象中
@@ -262,7 +298,10 @@ public abstract class BaseExecutor implements Executor {
 				} else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
 					value = parameterObject;
 				} else {
-					MetaObject metaObject = configuration.newMetaObject(parameterObject);
+					//所有参数共用同一个MetaObject对象
+					if (metaObject == null) {
+						metaObject = configuration.newMetaObject(parameterObject);
+					}
 					value = metaObject.getValue(propertyName);
 				}
 				
@@ -279,6 +318,15 @@ public abstract class BaseExecutor implements Executor {
 		return cacheKey;
 	}
 	
+	/**
+	 * @return false if the local cache is disabled for the statement or for the
+	 *         whole configuration
+	 * @since 3.4.6
+	 */
+	protected boolean isLocalCacheUsable(MappedStatement ms) {
+		return ms.isUseLocalCache() && configuration.getLocalCacheScope() != LocalCacheScope.NONE;
+	}
+
 	//检测缓存中是否缓存CacheKey对应的对象
 	@Override
 	public boolean isCached(MappedStatement ms, CacheKey key) {
@@ -316,6 +364,9 @@ public abstract class BaseExecutor implements Executor {
 	public void clearLocalCache() {
 		//这是影响一级缓存中数据存活时长的第三个方面
 		if (!closed) {
+			if (localCacheStatistics != null) {
+				localCacheStatistics.evicted(EvictionReason.CLEARED, localCache.getSize());
+			}
 			localCache.clear();
 			localOutputParameterCache.clear();
 		}
@@ -379,6 +430,7 @@ public abstract class BaseExecutor implements Executor {
 		List<E> list;
 		//在缓存中添加占位符
 		localCache.putObject(key, EXECUTION_PLACEHOLDER);
+		long start = localCacheStatistics != null ? System.nanoTime() : 0;
 		try {
 			//调用doQuery()方法(抽象方法),完成数据库查询操作,并返回结果对象
 			list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
@@ -388,6 +440,10 @@ public abstract class BaseExecutor implements Executor {
 		}
 		//将真正的结果对象添加到一级缓存中
 		localCache.putObject(key, list);
+		if (localCacheStatistics != null) {
+			localCacheStatistics.loaded(System.nanoTime() - start);
+			localCacheStatistics.put();
+		}
 		//是否为存储过程调用
 		if (ms.getStatementType() == StatementType.CALLABLE) {
 			//缓存输出类型的参数
@@ -396,6 +452,56 @@ public abstract class BaseExecutor implements Executor {
 		return list;
 	}
 
+	@SuppressWarnings("unchecked")
+	private <E> List<E> queryImmutable(MappedStatement ms, Object parameter, RowBounds rowBounds, CacheKey key,
+			BoundSql boundSql) throws SQLException {
+		//通过另一条不可变语句的结果按属性查找
+		if (ms.getLookupStatement() != null) {
+			return (List<E>) lookupImmutable(ms, parameter);
+		}
+		SnapshotCache snapshotCache = ms.getSnapshotCache();
+		if (key == CacheKey.NULL_CACHE_KEY) {
+			key = createCacheKey(ms, parameter, rowBounds, boundSql);
+		}
+		List<E> list = (List<E>) snapshotCache.getObject(key);
+		if (list == null) {
+			//并发的首次加载可能重复查询数据库，但只有第一个结果会被保存
+			List<E> loaded = doQuery(ms, parameter, rowBounds, Executor.NO_RESULT_HANDLER, boundSql);
+			snapshotCache.putObject(key, loaded);
+			list = (List<E>) snapshotCache.getObject(key);
+			if (list == null) {
+				//缓存已满，结果不会被保存，同样以只读的形式返回
+				list = Collections.unmodifiableList(loaded);
+			}
+		}
+		return list;
+	}
+
+	private List<Object> lookupImmutable(MappedStatement ms, Object parameter) throws SQLException {
+		MappedStatement source = configuration.getMappedStatement(ms.getLookupStatement());
+		SnapshotCache sourceCache = source.getSnapshotCache();
+		if (sourceCache == null) {
+			throw new ExecutorException("The lookupStatement '" + source.getId() + "' of '" + ms.getId()
+					+ "' must be an immutable statement.");
+		}
+		Map<Object, List<Object>> index = sourceCache.getIndex(ms.getLookupProperty());
+		if (index == null) {
+			BoundSql sourceBoundSql = source.getBoundSql(null);
+			CacheKey sourceKey = createCacheKey(source, null, RowBounds.DEFAULT, sourceBoundSql);
+			List<Object> snapshot = queryImmutable(source, null, RowBounds.DEFAULT, sourceKey, sourceBoundSql);
+			index = sourceCache.index(ms.getLookupProperty(), snapshot, configuration);
+		}
+		Object value;
+		if (parameter == null
+				|| configuration.getTypeHandlerRegistry().hasTypeHandler(parameter.getClass())) {
+			value = parameter;
+		} else {
+			value = configuration.newMetaObject(parameter).getValue(ms.getLookupProperty());
+		}
+		List<Object> matches = index.get(SnapshotCache.normalizeKey(value));
+		return matches == null ? Collections.emptyList() : matches;
+	}
+
 	protected Connection getConnection(Log statementLog) throws SQLException {
 		Connection connection = transaction.getConnection();
 		if (statementLog.isDebugEnabled()) {
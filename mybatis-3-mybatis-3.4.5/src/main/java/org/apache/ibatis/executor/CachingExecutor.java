@@ -16,18 +16,24 @@
 package org.apache.ibatis.executor;
 
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.decorators.TableInvalidatingCache;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
 import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.parsing.TableNameParser;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.LocalCacheScope;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
@@ -73,23 +79,29 @@ public class CachingExecutor implements Executor {
 
 	@Override
 	public int update(MappedStatement ms, Object parameterObject) throws SQLException {
-		flushCacheIfRequired(ms);
+		flushCacheIfRequired(ms, parameterObject, null);
 		return delegate.update(ms, parameterObject);
 	}
 
 	@Override
 	public <E> List<E> query(MappedStatement ms, Object parameterObject, RowBounds rowBounds,
 			ResultHandler resultHandler) throws SQLException {
-		//获取boundSql对象
-		BoundSql boundSql = ms.getBoundSql(parameterObject);
+		//获取boundSql对象，设置了chunkSize的<foreach>节点只生成第一块
+		BoundSql boundSql = ms.getBoundSql(parameterObject, 0);
+		//使用ResultHandler的查询既不读取二级缓存也不读取一级缓存，无需创建CacheKey
+		boolean cacheable = resultHandler == null && isAnyCacheUsable(ms);
+		if (boundSql.getChunkCount() > 1) {
+			//集合被分块，每块作为一条语句查询(分别缓存)后合并结果
+			return ChunkedQuery.query(this, ms, parameterObject, rowBounds, resultHandler, boundSql, cacheable);
+		}
 		//创建CacheKey对象
-		CacheKey key = createCacheKey(ms, parameterObject, rowBounds, boundSql);
+		CacheKey key = cacheable ? createCacheKey(ms, parameterObject, rowBounds, boundSql) : CacheKey.NULL_CACHE_KEY;
 		return query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
 	}
 
 	@Override
 	public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
-		flushCacheIfRequired(ms);
+		flushCacheIfRequired(ms, parameter, null);
 		return delegate.queryCursor(ms, parameter, rowBounds);
 	}
 	
@@ -98,10 +110,10 @@ public class CachingExecutor implements Executor {
 			ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
 		//获取查询语句所在的命名空间对应的二级缓存
 		Cache cache = ms.getCache();
-		//是否开启了二级缓存功能
-		if (cache != null) {
+		//是否开启了二级缓存功能，不可变语句的结果由所有会话共享，不经过二级缓存
+		if (cache != null && !ms.isImmutable()) {
 			//根据select节点配置是否清空二级缓存
-			flushCacheIfRequired(ms);
+			flushCacheIfRequired(ms, parameterObject, boundSql);
 			//检测sql节点的useCache配置以及是否使用了resultHandler配置
 			if (ms.isUseCache() && resultHandler == null) {
 				//二级缓存不能保存输出类型参数，如果查询操作调用了包含输出类型参数的存储过程
@@ -112,8 +124,22 @@ public class CachingExecutor implements Executor {
 				List<E> list = (List<E>) tcm.getObject(cache, key);
 				//二级缓存没有相对应的结果对象，调用封装的Execuotr对象的query方法
 				if (list == null) {
+					//按表失效时，在执行查询之前记录表的版本，查询执行期间提交的修改会使查询结果失效
+					TableInvalidatingCache tableCache = TableInvalidatingCache.of(cache);
+					TableInvalidatingCache.Versions versions = tableCache == null ? null
+							: tableCache.captureVersions(resolveTables(ms, parameterObject, boundSql));
+					CacheStatistics statistics = ms.getConfiguration().getCacheStatistics(cache.getId());
+					long start = statistics != null ? System.nanoTime() : 0;
 					list = delegate.<E>query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
-					tcm.putObject(cache, key, list); // issue #578 and #116
+					if (statistics != null) {
+						//记录二级缓存未命中时从数据库(或一级缓存)加载的耗时
+						statistics.loaded(System.nanoTime() - start);
+					}
+					if (versions != null) {
+						tcm.putObject(cache, key, list, versions);
+					} else {
+						tcm.putObject(cache, key, list); // issue #578 and #116
+					}
 				}
 				return list;
 			}
@@ -144,6 +170,13 @@ public class CachingExecutor implements Executor {
 		}
 	}
 
+	private boolean isAnyCacheUsable(MappedStatement ms) {
+		if (ms.getCache() != null && ms.isUseCache()) {
+			return true;
+		}
+		return ms.isUseLocalCache() && ms.getConfiguration().getLocalCacheScope() != LocalCacheScope.NONE;
+	}
+
 	private void ensureNoOutParams(MappedStatement ms, Object parameter, BoundSql boundSql) {
 		if (ms.getStatementType() == StatementType.CALLABLE) {
 			for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
@@ -177,11 +210,30 @@ public class CachingExecutor implements Executor {
 		delegate.clearLocalCache();
 	}
 
-	private void flushCacheIfRequired(MappedStatement ms) {
+	private void flushCacheIfRequired(MappedStatement ms, Object parameterObject, BoundSql boundSql) {
 		Cache cache = ms.getCache();
 		if (cache != null && ms.isFlushCacheRequired()) {
-			tcm.clear(cache);
+			//按表失效时，只清空读取了该语句所修改的表的缓存项
+			if (TableInvalidatingCache.of(cache) != null) {
+				tcm.clear(cache, resolveTables(ms, parameterObject, boundSql));
+			} else {
+				tcm.clear(cache);
+			}
+		}
+	}
+
+	//优先使用语句上声明的表，否则从sql中解析，解析不出时返回空集合
+	private Set<String> resolveTables(MappedStatement ms, Object parameterObject, BoundSql boundSql) {
+		if (!ms.getTables().isEmpty()) {
+			return ms.getTables();
+		}
+		if (ms.getStatementType() == StatementType.CALLABLE) {
+			return Collections.emptySet();
+		}
+		if (boundSql == null) {
+			boundSql = ms.getBoundSql(parameterObject);
 		}
+		return TableNameParser.parse(boundSql.getSql());
 	}
 
 	@Override
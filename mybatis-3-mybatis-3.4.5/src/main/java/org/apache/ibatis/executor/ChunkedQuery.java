@@ -0,0 +1,67 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * Runs a query whose SQL is split in chunks (see {@link BoundSql#getChunkCount()}) as one statement per chunk
+ * and merges the rows in the order of the chunks. Each chunk is cached under its own key.
+ *
+ * @since 3.4.6
+ */
+final class ChunkedQuery {
+
+  private ChunkedQuery() {
+    // Prevent Instantiation
+  }
+
+  static <E> List<E> query(Executor executor, MappedStatement ms, Object parameter, RowBounds rowBounds,
+      ResultHandler resultHandler, BoundSql firstChunk, boolean cacheable) throws SQLException {
+    // the row bounds apply to the merged rows, not to each chunk
+    boolean bounded = rowBounds.getOffset() != RowBounds.NO_ROW_OFFSET || rowBounds.getLimit() != RowBounds.NO_ROW_LIMIT;
+    if (bounded && resultHandler != null) {
+      throw new ExecutorException("The statement " + ms.getId()
+          + " is split in chunks and cannot be run with both RowBounds and a ResultHandler.");
+    }
+    RowBounds chunkRowBounds = bounded ? RowBounds.DEFAULT : rowBounds;
+    List<E> results = new ArrayList<E>();
+    BoundSql boundSql = firstChunk;
+    for (int chunk = 0; chunk < firstChunk.getChunkCount(); chunk++) {
+      if (chunk > 0) {
+        boundSql = ms.getBoundSql(parameter, chunk);
+      }
+      CacheKey key = cacheable ? executor.createCacheKey(ms, parameter, chunkRowBounds, boundSql) : CacheKey.NULL_CACHE_KEY;
+      List<E> chunkResults = executor.query(ms, parameter, chunkRowBounds, resultHandler, key, boundSql);
+      results.addAll(chunkResults);
+    }
+    if (bounded) {
+      int from = Math.min(rowBounds.getOffset(), results.size());
+      int to = rowBounds.getLimit() >= results.size() - from ? results.size() : from + rowBounds.getLimit();
+      results = new ArrayList<E>(results.subList(from, to));
+    }
+    return results;
+  }
+
+}
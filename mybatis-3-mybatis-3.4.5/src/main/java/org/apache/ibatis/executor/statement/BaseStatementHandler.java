@@ -19,14 +19,17 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 
+import org.apache.ibatis.datasource.StatementRoute;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.executor.resultset.ResultSetHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
@@ -94,6 +97,8 @@ public abstract class BaseStatementHandler implements StatementHandler {
 	public Statement prepare(Connection connection, Integer transactionTimeout) throws SQLException {
 		ErrorContext.instance().sql(boundSql.getSql());
 		Statement statement = null;
+		// 告诉数据源当前语句能否发往从库，数据源被包装时读写分离同样有效
+		StatementRoute.mark(isReadStatement());
 		try {
 			statement = instantiateStatement(connection);
 			setStatementTimeout(statement, transactionTimeout);
@@ -105,9 +110,17 @@ public abstract class BaseStatementHandler implements StatementHandler {
 		} catch (Exception e) {
 			closeStatement(statement);
 			throw new ExecutorException("Error preparing statement.  Cause: " + e, e);
+		} finally {
+			StatementRoute.clear();
 		}
 	}
 
+	// selectKey语句可能会读取序列，只能在主库执行
+	private boolean isReadStatement() {
+		return mappedStatement.getSqlCommandType() == SqlCommandType.SELECT
+				&& !mappedStatement.getId().endsWith(SelectKeyGenerator.SELECT_KEY_SUFFIX);
+	}
+
 	protected abstract Statement instantiateStatement(Connection connection) throws SQLException;
 
 	protected void setStatementTimeout(Statement stmt, Integer transactionTimeout) throws SQLException {
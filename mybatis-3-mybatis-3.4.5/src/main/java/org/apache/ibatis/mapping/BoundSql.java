@@ -39,14 +39,37 @@ public class BoundSql {
   private final List<ParameterMapping> parameterMappings;
   private final Object parameterObject;
   private final Map<String, Object> additionalParameters;
-  private final MetaObject metaParameters;
+  private final Configuration configuration;
+  private MetaObject metaParameters;
+  private int chunkCount = 1;
 
   public BoundSql(Configuration configuration, String sql, List<ParameterMapping> parameterMappings, Object parameterObject) {
+    this(configuration, sql, parameterMappings, parameterObject, null);
+  }
+
+  /**
+   * @param additionalParameters copied as the additional parameters, like the bindings of a dynamic statement
+   * @since 3.4.6
+   */
+  public BoundSql(Configuration configuration, String sql, List<ParameterMapping> parameterMappings, Object parameterObject,
+      Map<String, Object> additionalParameters) {
+    this.configuration = configuration;
     this.sql = sql;
     this.parameterMappings = parameterMappings;
     this.parameterObject = parameterObject;
-    this.additionalParameters = new HashMap<String, Object>();
-    this.metaParameters = configuration.newMetaObject(additionalParameters);
+    if (additionalParameters == null) {
+      this.additionalParameters = new HashMap<String, Object>();
+      return;
+    }
+    this.additionalParameters = new HashMap<String, Object>(additionalParameters.size() * 4 / 3 + 1);
+    for (Map.Entry<String, Object> entry : additionalParameters.entrySet()) {
+      String name = entry.getKey();
+      if (name.indexOf('.') < 0 && name.indexOf('[') < 0) {
+        this.additionalParameters.put(name, entry.getValue());
+      } else {
+        setAdditionalParameter(name, entry.getValue());
+      }
+    }
   }
 
   public String getSql() {
@@ -67,10 +90,32 @@ public class BoundSql {
   }
 
   public void setAdditionalParameter(String name, Object value) {
-    metaParameters.setValue(name, value);
+    getMetaParameters().setValue(name, value);
   }
 
   public Object getAdditionalParameter(String name) {
-    return metaParameters.getValue(name);
+    return getMetaParameters().getValue(name);
+  }
+
+  private MetaObject getMetaParameters() {
+    if (metaParameters == null) {
+      metaParameters = configuration.newMetaObject(additionalParameters);
+    }
+    return metaParameters;
+  }
+
+  /**
+   * The number of chunks of the statement, more than 1 when a &lt;foreach&gt; with a chunkSize iterates over a
+   * larger collection. This SQL is then only the first chunk.
+   *
+   * @see ChunkedSqlSource
+   * @since 3.4.6
+   */
+  public int getChunkCount() {
+    return chunkCount;
+  }
+
+  public void setChunkCount(int chunkCount) {
+    this.chunkCount = chunkCount;
   }
 }
@@ -23,14 +23,20 @@ import java.util.Properties;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.CoalescingCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.NearCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.StatisticsCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TableInvalidatingCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.invalidation.InvalidationTransport;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
 
@@ -55,6 +61,14 @@ public class CacheBuilder {
 	private Properties properties;
 	//是否阻塞
 	private boolean blocking;
+	//是否按表失效缓存项
+	private boolean tableInvalidation;
+	//是否合并并发的缓存未命中请求
+	private boolean coalescing;
+	//缓存统计信息，为null时不进行统计
+	private CacheStatistics statistics;
+	//在多个节点间传播失效的传输方式，为null时不传播
+	private InvalidationTransport invalidationTransport;
 
 	public CacheBuilder(String id) {
 		this.id = id;
@@ -93,6 +107,26 @@ public class CacheBuilder {
 		return this;
 	}
 
+	public CacheBuilder tableInvalidation(boolean tableInvalidation) {
+		this.tableInvalidation = tableInvalidation;
+		return this;
+	}
+
+	public CacheBuilder coalescing(boolean coalescing) {
+		this.coalescing = coalescing;
+		return this;
+	}
+
+	public CacheBuilder statistics(CacheStatistics statistics) {
+		this.statistics = statistics;
+		return this;
+	}
+
+	public CacheBuilder invalidationTransport(InvalidationTransport invalidationTransport) {
+		this.invalidationTransport = invalidationTransport;
+		return this;
+	}
+
 	public CacheBuilder properties(Properties properties) {
 		this.properties = properties;
 		return this;
@@ -107,6 +141,7 @@ public class CacheBuilder {
 		Cache cache = newBaseCacheInstance(implementation, id);
 		//根据cache节点下的配置property信息，初始化Cache对象
 		setCacheProperties(cache);
+		setCacheStatistics(cache);
 		// issue #352, do not apply decorators to custom caches
 		//检测cache对象的类型，如果是PerpetualCache类型，则添加decorators集合中的装饰器
 		//如果是自定义类型的Cache接口实现，则不添加decorators集合中的装饰器
@@ -116,6 +151,7 @@ public class CacheBuilder {
 				cache = newCacheDecoratorInstance(decorator, cache);
 				//配置cache对象的属性
 				setCacheProperties(cache);
+				setCacheStatistics(cache);
 			}
 			//添加MyBatis中提供的标准装饰器
 			cache = setStandardDecorators(cache);
@@ -123,6 +159,17 @@ public class CacheBuilder {
 		} else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
 			cache = new LoggingCache(cache);
 		}
+		//命中、未命中等统计由最外层的装饰器记录，TableInvalidatingCache自身会记录
+		if (statistics != null) {
+			if (TableInvalidatingCache.of(cache) == null) {
+				cache = new StatisticsCache(cache, statistics);
+			}
+			statistics.setCache(cache);
+		}
+		//NearCache必须是最外层的装饰器
+		if (invalidationTransport != null) {
+			cache = new NearCache(cache, invalidationTransport);
+		}
 		return cache;
 	}
 
@@ -149,14 +196,25 @@ public class CacheBuilder {
 			if (clearInterval != null) {
 				cache = new ScheduledCache(cache);
 				((ScheduledCache) cache).setClearInterval(clearInterval);
+				setCacheStatistics(cache);
 			}
 			if (readWrite) {
 				cache = new SerializedCache(cache);
+				setCacheStatistics(cache);
 			}
 			//默认添加的两个装饰器
 			cache = new LoggingCache(cache);
 			cache = new SynchronizedCache(cache);
-			if (blocking) {
+			if (tableInvalidation) {
+				cache = new TableInvalidatingCache(cache);
+				setCacheStatistics(cache);
+			}
+			//coalescing与blocking作用相同，同时配置时只使用coalescing
+			//两者都在TableInvalidatingCache之外，失效的缓存项对它们来说也是未命中
+			if (coalescing) {
+				cache = new CoalescingCache(cache);
+				setCacheProperties(cache);
+			} else if (blocking) {
 				cache = new BlockingCache(cache);
 			}
 			return cache;
@@ -213,6 +271,16 @@ public class CacheBuilder {
 		}
 	}
 
+	//将统计信息设置到有statistics属性的Cache对象中，由其记录淘汰等事件
+	private void setCacheStatistics(Cache cache) {
+		if (statistics != null) {
+			MetaObject metaCache = SystemMetaObject.forObject(cache);
+			if (metaCache.hasSetter("statistics") && CacheStatistics.class == metaCache.getSetterType("statistics")) {
+				metaCache.setValue("statistics", statistics);
+			}
+		}
+	}
+
 	private Cache newBaseCacheInstance(Class<? extends Cache> cacheClass, String id) {
 		Constructor<? extends Cache> cacheConstructor = getBaseCacheConstructor(cacheClass);
 		try {
@@ -0,0 +1,31 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+/**
+ * A {@link SqlSource} whose SQL can be split in chunks, each one run as its own statement. Queries ask for
+ * the chunks one by one and merge their results, see {@link BoundSql#getChunkCount()}.
+ *
+ * @since 3.4.6
+ */
+public interface ChunkedSqlSource extends SqlSource {
+
+  /**
+   * @param chunk the index of the chunk to build, -1 for the whole SQL
+   */
+  BoundSql getBoundSql(Object parameterObject, int chunk);
+
+}
@@ -17,14 +17,19 @@ package org.apache.ibatis.mapping;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.impl.SnapshotCache;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.parsing.TableNameParser;
 import org.apache.ibatis.scripting.LanguageDriver;
 import org.apache.ibatis.session.Configuration;
 
@@ -48,6 +53,8 @@ public final class MappedStatement {
 	private List<ResultMap> resultMaps;
 	private boolean flushCacheRequired;
 	private boolean useCache;
+	//是否使用一级缓存
+	private boolean useLocalCache;
 	private boolean resultOrdered;
 	//sql的类型，INSERT|UPDATE|DELETE|SELECT或是FLUSH
 	private SqlCommandType sqlCommandType;
@@ -59,6 +66,18 @@ public final class MappedStatement {
 	private Log statementLog;
 	private LanguageDriver lang;
 	private String[] resultSets;
+	//语句读取或修改的表，用于表级别的二级缓存失效
+	private Set<String> tables;
+	//预先计算好的CacheKey前缀，包含语句的id
+	private CacheKey cacheKeyPrefix;
+	//查询结果是否为不可变的引用数据，不可变的结果由所有会话共享
+	private boolean immutable;
+	//是否在创建SqlSessionFactory时预先加载
+	private boolean preload;
+	//通过另一条不可变语句的结果按属性查找
+	private String lookupStatement;
+	private String lookupProperty;
+	private SnapshotCache snapshotCache;
 
 	MappedStatement() {
 		// constructor disabled
@@ -85,6 +104,8 @@ public final class MappedStatement {
 			}
 			mappedStatement.statementLog = LogFactory.getLog(logId);
 			mappedStatement.lang = configuration.getDefaultScriptingLanguageInstance();
+			mappedStatement.tables = Collections.emptySet();
+			mappedStatement.useLocalCache = true;
 		}
 
 		public Builder resource(String resource) {
@@ -145,6 +166,27 @@ public final class MappedStatement {
 			return this;
 		}
 
+		public Builder useLocalCache(boolean useLocalCache) {
+			mappedStatement.useLocalCache = useLocalCache;
+			return this;
+		}
+
+		public Builder immutable(boolean immutable) {
+			mappedStatement.immutable = immutable;
+			return this;
+		}
+
+		public Builder preload(boolean preload) {
+			mappedStatement.preload = preload;
+			return this;
+		}
+
+		public Builder lookup(String lookupStatement, String lookupProperty) {
+			mappedStatement.lookupStatement = lookupStatement;
+			mappedStatement.lookupProperty = lookupProperty;
+			return this;
+		}
+
 		public Builder resultOrdered(boolean resultOrdered) {
 			mappedStatement.resultOrdered = resultOrdered;
 			return this;
@@ -180,6 +222,24 @@ public final class MappedStatement {
 			return this;
 		}
 
+		public Builder tables(String tables) {
+			String[] names = delimitedStringToArray(tables);
+			if (names == null) {
+				mappedStatement.tables = Collections.emptySet();
+			} else {
+				Set<String> normalized = new LinkedHashSet<String>();
+				for (String name : names) {
+					//与从sql中解析出的表名使用相同的规则，去掉schema前缀和引号并转换为小写
+					String table = TableNameParser.normalize(name);
+					if (table.length() > 0) {
+						normalized.add(table);
+					}
+				}
+				mappedStatement.tables = Collections.unmodifiableSet(normalized);
+			}
+			return this;
+		}
+
 		/** @deprecated Use {@link #resultSets} */
 		@Deprecated
 		public Builder resulSets(String resultSet) {
@@ -193,6 +253,14 @@ public final class MappedStatement {
 			assert mappedStatement.sqlSource != null;
 			assert mappedStatement.lang != null;
 			mappedStatement.resultMaps = Collections.unmodifiableList(mappedStatement.resultMaps);
+			mappedStatement.cacheKeyPrefix = new CacheKey(new Object[] { mappedStatement.id });
+			if (mappedStatement.preload || mappedStatement.lookupStatement != null) {
+				mappedStatement.immutable = true;
+			}
+			if (mappedStatement.immutable) {
+				mappedStatement.snapshotCache = new SnapshotCache(mappedStatement.id,
+						mappedStatement.configuration.getSnapshotCacheSize());
+			}
 			return mappedStatement;
 		}
 	}
@@ -261,6 +329,34 @@ public final class MappedStatement {
 		return useCache;
 	}
 
+	public boolean isUseLocalCache() {
+		return useLocalCache;
+	}
+
+	public boolean isImmutable() {
+		return immutable;
+	}
+
+	public boolean isPreload() {
+		return preload;
+	}
+
+	public String getLookupStatement() {
+		return lookupStatement;
+	}
+
+	public String getLookupProperty() {
+		return lookupProperty;
+	}
+
+	/**
+	 * @return the cache shared by all the sessions for an immutable statement,
+	 *         null otherwise
+	 */
+	public SnapshotCache getSnapshotCache() {
+		return snapshotCache;
+	}
+
 	public boolean isResultOrdered() {
 		return resultOrdered;
 	}
@@ -289,6 +385,23 @@ public final class MappedStatement {
 		return resultSets;
 	}
 
+	/**
+	 * @return a key holding the statement id, to be used as the prefix of the
+	 *         cache keys of this statement. It must not be updated.
+	 */
+	public CacheKey getCacheKeyPrefix() {
+		return cacheKeyPrefix;
+	}
+
+	/**
+	 * @return the tables declared on the statement, normalized by
+	 *         {@link TableNameParser#normalize(String)}, empty if they have to be
+	 *         parsed from the SQL
+	 */
+	public Set<String> getTables() {
+		return tables;
+	}
+
 	/** @deprecated Use {@link #getResultSets()} */
 	@Deprecated
 	public String[] getResulSets() {
@@ -296,11 +409,20 @@ public final class MappedStatement {
 	}
 
 	public BoundSql getBoundSql(Object parameterObject) {
-		BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
+		return getBoundSql(parameterObject, -1);
+	}
+
+	//chunk为需要的块序号，sqlSource不支持分块时始终返回完整的sql语句，-1表示不分块
+	public BoundSql getBoundSql(Object parameterObject, int chunk) {
+		BoundSql boundSql = chunk >= 0 && sqlSource instanceof ChunkedSqlSource
+				? ((ChunkedSqlSource) sqlSource).getBoundSql(parameterObject, chunk)
+				: sqlSource.getBoundSql(parameterObject);
 		List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
 		if (parameterMappings == null || parameterMappings.isEmpty()) {
+			int chunkCount = boundSql.getChunkCount();
 			boundSql = new BoundSql(configuration, boundSql.getSql(), parameterMap.getParameterMappings(),
 					parameterObject);
+			boundSql.setChunkCount(chunkCount);
 		}
 
 		// check for nested result maps in parameter mappings (issue #30)
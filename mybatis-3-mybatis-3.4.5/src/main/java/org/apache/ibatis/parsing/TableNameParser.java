@@ -0,0 +1,192 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.parsing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Best effort extraction of the table names referenced by a SQL statement.
+ * <p>
+ * The parser only understands the common <code>FROM</code>, <code>JOIN</code>, <code>INTO</code>,
+ * <code>UPDATE</code> and <code>USING</code> clauses. Callers must treat an empty result as
+ * "unknown" and fall back to a conservative behavior.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+public final class TableNameParser {
+
+  private static final Set<String> TABLE_PRECEDING_KEYWORDS = new HashSet<String>(Arrays.asList(
+      "from", "join", "into", "update", "using", "table"));
+
+  private static final Set<String> RESERVED_WORDS = new HashSet<String>(Arrays.asList(
+      "select", "from", "where", "join", "inner", "outer", "left", "right", "full", "cross", "natural",
+      "on", "group", "order", "having", "limit", "offset", "union", "intersect", "except", "minus",
+      "set", "values", "value", "into", "update", "delete", "insert", "merge", "using", "when", "then",
+      "fetch", "for", "with", "lateral", "window", "returning", "straight_join", "start", "connect", "only",
+      "ignore", "low_priority", "quick", "top", "table", "default"));
+
+  private TableNameParser() {
+    // Prevent Instantiation
+  }
+
+  /**
+   * @param sql the SQL statement, usually {@link org.apache.ibatis.mapping.BoundSql#getSql()}
+   * @return the table names, normalized by {@link #normalize(String)}, or an empty set if none could be found
+   */
+  public static Set<String> parse(String sql) {
+    if (sql == null || sql.length() == 0) {
+      return Collections.emptySet();
+    }
+    List<String> tokens = tokenize(sql);
+    Set<String> tables = new LinkedHashSet<String>();
+    int i = 0;
+    while (i < tokens.size()) {
+      String token = tokens.get(i++);
+      if (!TABLE_PRECEDING_KEYWORDS.contains(token)) {
+        continue;
+      }
+      // "insert into t", "delete from t", "update only t", "select ... from a x, b y join c"
+      while (i < tokens.size()) {
+        String candidate = tokens.get(i);
+        if ("only".equals(candidate) || "ignore".equals(candidate) || "low_priority".equals(candidate)) {
+          i++;
+          continue;
+        }
+        if (!isIdentifier(candidate)) {
+          break;
+        }
+        tables.add(normalize(candidate));
+        i++;
+        // skip an optional alias
+        if (i < tokens.size() && "as".equals(tokens.get(i))) {
+          i++;
+        }
+        if (i < tokens.size() && isIdentifier(tokens.get(i))) {
+          i++;
+        }
+        if (i < tokens.size() && ",".equals(tokens.get(i))) {
+          i++;
+          continue;
+        }
+        break;
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Normalizes a table name so that every spelling of a table maps to the same name: the schema (or
+   * catalog) prefix and the identifier quotes are removed and the name is lower cased.
+   * <code>IBTEST."Post"</code>, <code>ibtest.post</code> and <code>post</code> are all <code>post</code>.
+   *
+   * @return the normalized name, or an empty string if nothing is left
+   */
+  public static String normalize(String name) {
+    StringBuilder unquoted = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c != '"' && c != '`' && c != '[' && c != ']') {
+        unquoted.append(c);
+      }
+    }
+    String table = unquoted.toString().trim();
+    int dot = table.lastIndexOf('.');
+    if (dot >= 0) {
+      table = table.substring(dot + 1).trim();
+    }
+    return table.toLowerCase(Locale.ENGLISH);
+  }
+
+  private static boolean isIdentifier(String token) {
+    if (token.length() == 0 || RESERVED_WORDS.contains(token) || "as".equals(token)) {
+      return false;
+    }
+    char first = token.charAt(0);
+    return Character.isLetter(first) || first == '_' || first == '$' || first == '#';
+  }
+
+  private static List<String> tokenize(String sql) {
+    List<String> tokens = new ArrayList<String>();
+    StringBuilder current = new StringBuilder();
+    int length = sql.length();
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (c == '\'') {
+        // skip string literals, honoring doubled quotes
+        flush(current, tokens);
+        i++;
+        while (i < length) {
+          if (sql.charAt(i) == '\'') {
+            if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+              i += 2;
+              continue;
+            }
+            break;
+          }
+          i++;
+        }
+        tokens.add("?");
+        i++;
+      } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        flush(current, tokens);
+        while (i < length && sql.charAt(i) != '\n') {
+          i++;
+        }
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        flush(current, tokens);
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else if (c == '"' || c == '`' || c == '[') {
+        // quoted identifier, keep its content as part of the current (possibly qualified) name
+        char close = c == '[' ? ']' : c;
+        int end = sql.indexOf(close, i + 1);
+        if (end < 0) {
+          end = length;
+        }
+        current.append(sql, i + 1, end);
+        i = end + 1;
+      } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '.') {
+        current.append(c);
+        i++;
+      } else {
+        flush(current, tokens);
+        if (c == ',' || c == '(' || c == ')' || c == ';' || c == '?' || c == '=') {
+          tokens.add(String.valueOf(c));
+        }
+        i++;
+      }
+    }
+    flush(current, tokens);
+    return tokens;
+  }
+
+  private static void flush(StringBuilder current, List<String> tokens) {
+    if (current.length() > 0) {
+      tokens.add(current.toString().toLowerCase(Locale.ENGLISH));
+      current.setLength(0);
+    }
+  }
+
+}
@@ -0,0 +1,389 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import ognl.MethodFailedException;
+import ognl.Ognl;
+import ognl.OgnlContext;
+import ognl.OgnlException;
+import ognl.OgnlOps;
+import ognl.OgnlRuntime;
+
+import org.apache.ibatis.reflection.DefaultReflectorFactory;
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.invoker.MethodInvoker;
+
+/**
+ * An OGNL expression compiled by {@link ExpressionCompiler} into a tree of evaluators.
+ * <p>
+ * Operators are evaluated with {@link OgnlOps} so that conversions and comparisons behave exactly as
+ * in OGNL. A property or method step the compiled form does not handle itself (a null target, a
+ * collection pseudo property, a missing getter...) is delegated to {@link OgnlRuntime} on the value
+ * already computed, the rest of the expression is never evaluated twice. OGNL errors are thrown as
+ * {@link EvaluationException}.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+abstract class CompiledExpression {
+
+  private static final OgnlClassResolver CLASS_RESOLVER = new OgnlClassResolver();
+  private static final ReflectorFactory REFLECTOR_FACTORY = new DefaultReflectorFactory();
+  private static final Object[] NO_ARGUMENTS = new Object[0];
+  // names handled by the OGNL map property accessor instead of Map.get()
+  private static final Set<String> MAP_PSEUDO_PROPERTIES = new HashSet<String>(Arrays.asList(
+      "size", "keys", "keySet", "values", "isEmpty"));
+
+  abstract Object getValue(Object root);
+
+  /**
+   * @return true if the value does not depend on the root object
+   */
+  boolean isConstant() {
+    return false;
+  }
+
+  static final class Literal extends CompiledExpression {
+    private final Object value;
+
+    Literal(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      return value;
+    }
+
+    @Override
+    boolean isConstant() {
+      return true;
+    }
+  }
+
+  /**
+   * A property of the root object, resolved like {@link DynamicContext.ContextAccessor} does.
+   */
+  static final class RootProperty extends CompiledExpression {
+    private final Property property;
+
+    RootProperty(String name) {
+      this.property = new Property(null, name);
+    }
+
+    @Override
+    Object getValue(Object root) {
+      if (!(root instanceof DynamicContext.ContextMap)) {
+        return property.read(root, root);
+      }
+      Map<?, ?> map = (Map<?, ?>) root;
+      Object result = map.get(property.name);
+      if (result != null || map.containsKey(property.name)) {
+        return result;
+      }
+      Object parameterObject = map.get(DynamicContext.PARAMETER_OBJECT_KEY);
+      if (parameterObject instanceof Map) {
+        return ((Map<?, ?>) parameterObject).get(property.name);
+      }
+      return null;
+    }
+  }
+
+  static final class Property extends CompiledExpression {
+    private final CompiledExpression target;
+    private final String name;
+    private volatile Getter getter;
+
+    Property(CompiledExpression target, String name) {
+      this.target = target;
+      this.name = name;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      return read(root, target.getValue(root));
+    }
+
+    Object read(Object root, Object object) {
+      if (object == null) {
+        return ognlProperty(root, object, name);
+      }
+      if (object instanceof Map) {
+        if (MAP_PSEUDO_PROPERTIES.contains(name)) {
+          return ognlProperty(root, object, name);
+        }
+        return ((Map<?, ?>) object).get(name);
+      }
+      if (object instanceof Collection || object instanceof Iterator || object instanceof Enumeration
+          || object.getClass().isArray()) {
+        return ognlProperty(root, object, name);
+      }
+      // the getter is bound to the last type seen, usually the only one
+      Getter current = getter;
+      if (current == null || current.type != object.getClass()) {
+        current = new Getter(object.getClass(), name);
+        getter = current;
+      }
+      if (current.invoker == null) {
+        return ognlProperty(root, object, name);
+      }
+      try {
+        return current.invoker.invoke(object, NO_ARGUMENTS);
+      } catch (Exception e) {
+        // reported as OGNL does, the getter is not called again
+        throw new EvaluationException(new MethodFailedException(object, name, ExceptionUtil.unwrapThrowable(e)));
+      }
+    }
+  }
+
+  static final class MethodCall extends CompiledExpression {
+    static final int SIZE = 0;
+    static final int IS_EMPTY = 1;
+    static final int LENGTH = 2;
+    static final int TRIM = 3;
+    private static final String[] NAMES = { "size", "isEmpty", "length", "trim" };
+
+    private final CompiledExpression target;
+    private final int method;
+
+    MethodCall(CompiledExpression target, int method) {
+      this.target = target;
+      this.method = method;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object object = target.getValue(root);
+      switch (method) {
+        case SIZE:
+          if (object instanceof Collection) {
+            return ((Collection<?>) object).size();
+          } else if (object instanceof Map) {
+            return ((Map<?, ?>) object).size();
+          }
+          break;
+        case IS_EMPTY:
+          if (object instanceof Collection) {
+            return ((Collection<?>) object).isEmpty();
+          } else if (object instanceof Map) {
+            return ((Map<?, ?>) object).isEmpty();
+          } else if (object instanceof String) {
+            return ((String) object).isEmpty();
+          }
+          break;
+        case LENGTH:
+          if (object instanceof String) {
+            return ((String) object).length();
+          }
+          break;
+        case TRIM:
+          if (object instanceof String) {
+            return ((String) object).trim();
+          }
+          break;
+        default:
+          break;
+      }
+      return ognlMethod(root, object, NAMES[method]);
+    }
+
+    @Override
+    boolean isConstant() {
+      return target.isConstant();
+    }
+  }
+
+  static final class Not extends CompiledExpression {
+    private final CompiledExpression operand;
+
+    Not(CompiledExpression operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      return OgnlOps.booleanValue(operand.getValue(root)) ? Boolean.FALSE : Boolean.TRUE;
+    }
+
+    @Override
+    boolean isConstant() {
+      return operand.isConstant();
+    }
+  }
+
+  /**
+   * <code>and</code> and <code>or</code> return the last operand they evaluated, as in OGNL.
+   */
+  static final class Logical extends CompiledExpression {
+    private final CompiledExpression[] operands;
+    private final boolean and;
+
+    Logical(CompiledExpression[] operands, boolean and) {
+      this.operands = operands;
+      this.and = and;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object result = null;
+      int last = operands.length - 1;
+      for (int i = 0; i <= last; i++) {
+        result = operands[i].getValue(root);
+        if (i != last && OgnlOps.booleanValue(result) != and) {
+          break;
+        }
+      }
+      return result;
+    }
+
+    @Override
+    boolean isConstant() {
+      for (CompiledExpression operand : operands) {
+        if (!operand.isConstant()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  static final class Comparison extends CompiledExpression {
+    static final int EQ = 0;
+    static final int NEQ = 1;
+    static final int LT = 2;
+    static final int GT = 3;
+    static final int LTE = 4;
+    static final int GTE = 5;
+
+    private final CompiledExpression left;
+    private final CompiledExpression right;
+    private final int operator;
+
+    Comparison(CompiledExpression left, CompiledExpression right, int operator) {
+      this.left = left;
+      this.right = right;
+      this.operator = operator;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      Object v1 = left.getValue(root);
+      Object v2 = right.getValue(root);
+      boolean result;
+      switch (operator) {
+        case EQ:
+          result = OgnlOps.equal(v1, v2);
+          break;
+        case NEQ:
+          result = !OgnlOps.equal(v1, v2);
+          break;
+        case LT:
+          result = OgnlOps.less(v1, v2);
+          break;
+        case GT:
+          result = OgnlOps.greater(v1, v2);
+          break;
+        case LTE:
+          result = !OgnlOps.greater(v1, v2);
+          break;
+        default:
+          result = !OgnlOps.less(v1, v2);
+          break;
+      }
+      return result ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    @Override
+    boolean isConstant() {
+      return left.isConstant() && right.isConstant();
+    }
+  }
+
+  /*
+   * Reads a property the way an OGNL property step does
+   */
+  static Object ognlProperty(Object root, Object target, String name) {
+    try {
+      return OgnlRuntime.getProperty(newContext(root), target, name);
+    } catch (OgnlException e) {
+      throw new EvaluationException(e);
+    }
+  }
+
+  /*
+   * Calls a method without arguments the way an OGNL method step does
+   */
+  static Object ognlMethod(Object root, Object target, String name) {
+    try {
+      return OgnlRuntime.callMethod(newContext(root), target, name, NO_ARGUMENTS);
+    } catch (OgnlException e) {
+      throw new EvaluationException(e);
+    }
+  }
+
+  private static OgnlContext newContext(Object root) {
+    return (OgnlContext) Ognl.createDefaultContext(root, CLASS_RESOLVER);
+  }
+
+  /*
+   * The getter of a property for a type, without invoker when OGNL has to read it
+   */
+  private static final class Getter {
+    private final Class<?> type;
+    private final Invoker invoker;
+
+    Getter(Class<?> type, String name) {
+      Invoker getInvoker;
+      try {
+        Reflector reflector = REFLECTOR_FACTORY.findForClass(type);
+        getInvoker = reflector.hasGetter(name) ? reflector.getGetInvoker(name) : null;
+      } catch (RuntimeException e) {
+        getInvoker = null;
+      }
+      this.type = type;
+      // only real getters, OGNL does not read fields that have none
+      this.invoker = getInvoker instanceof MethodInvoker ? getInvoker : null;
+    }
+  }
+
+  /**
+   * An error raised by OGNL while evaluating a step of a compiled expression.
+   */
+  static final class EvaluationException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    EvaluationException(OgnlException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized OgnlException getCause() {
+      return (OgnlException) super.getCause();
+    }
+  }
+
+}
@@ -0,0 +1,73 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.builder.BuilderException;
+
+/**
+ * Evaluates the common subset of OGNL with expressions compiled once into trees of evaluators (see
+ * {@link ExpressionCompiler}) instead of interpreting them with OGNL on every call.
+ * <p>
+ * Whether an expression is compiled is decided once, when it is first seen: expressions outside of
+ * that subset are always evaluated by OGNL, the others always by their compiled form, which delegates
+ * to OGNL the single steps it does not handle itself. Results and errors are the same with both
+ * evaluators and no getter is called twice.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+public class CompiledExpressionEvaluator extends ExpressionEvaluator {
+
+  private static final CompiledExpression NOT_COMPILED = new CompiledExpression.Literal(null);
+
+  private final ConcurrentHashMap<String, CompiledExpression> expressions = new ConcurrentHashMap<String, CompiledExpression>();
+
+  @Override
+  public Object evaluate(String expression, Object parameterObject) {
+    CompiledExpression compiled = expression == null ? NOT_COMPILED : compile(expression);
+    if (compiled == NOT_COMPILED) {
+      return super.evaluate(expression, parameterObject);
+    }
+    try {
+      return compiled.getValue(parameterObject);
+    } catch (CompiledExpression.EvaluationException e) {
+      // same error as OgnlCache
+      throw new BuilderException("Error evaluating expression '" + expression + "'. Cause: " + e.getCause(), e.getCause());
+    }
+  }
+
+  /**
+   * @return true if the expression is evaluated by its compiled form
+   */
+  public boolean isCompiled(String expression) {
+    return expression != null && compile(expression) != NOT_COMPILED;
+  }
+
+  private CompiledExpression compile(String expression) {
+    CompiledExpression compiled = expressions.get(expression);
+    if (compiled == null) {
+      compiled = ExpressionCompiler.compile(expression);
+      if (compiled == null) {
+        compiled = NOT_COMPILED;
+      }
+      expressions.put(expression, compiled);
+    }
+    return compiled;
+  }
+
+}
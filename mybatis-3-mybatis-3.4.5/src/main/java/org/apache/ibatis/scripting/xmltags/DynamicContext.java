@@ -15,7 +15,9 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import ognl.OgnlContext;
@@ -23,7 +25,10 @@ import ognl.OgnlException;
 import ognl.OgnlRuntime;
 import ognl.PropertyAccessor;
 
+import org.apache.ibatis.builder.ParameterMappingTemplate;
+import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.scripting.ScriptingException;
 import org.apache.ibatis.session.Configuration;
 
 /**
@@ -41,19 +46,67 @@ public class DynamicContext {
 	//参数上下文
 	private final ContextMap bindings;
 	//在SqlNode解析动态sql时，会将解析后的SQL语句片段添加到该属性集合中保存，最终拼接出一条完整的sql语句
-	private final StringBuilder sqlBuilder = new StringBuilder();
+	private final StringBuilder sqlBuilder;
 	private int uniqueNumber = 0;
+	private final Configuration configuration;
+	//预先解析的"#{}"占位符及其对应的属性名(foreach中会被重命名)，只有DynamicSqlSource创建的上下文才会收集
+	private final List<ParameterMappingTemplate> parameterTemplates;
+	private final List<String> parameterProperties;
+	//已经确定的参数类型，为null的元素表示需要根据bindings集合解析
+	private final List<Class<?>> parameterTypes;
+	//不为null时只记录动态节点的执行结果(sql语句的形状)，不拼接sql片段
+	private final SqlShape shape;
+	//分块执行时需要生成的块序号，为-1表示不分块，生成完整的sql语句
+	private int chunk = -1;
+	//设置了chunkSize的<foreach>节点将集合分成的块数
+	private int chunkCount = 1;
 	
-	//构造方法初始化
 	public DynamicContext(Configuration configuration, Object parameterObject) {
-		//对于非Map类型的参数，会创建对应的MetaObject对象，并封装成ContextMap对象
-		if (parameterObject != null && !(parameterObject instanceof Map)) {
-			MetaObject metaObject = configuration.newMetaObject(parameterObject);
-			bindings = new ContextMap(metaObject);
-		} else {
-			//初始化bindings集合
-			bindings = new ContextMap(null);
-		}
+		this(configuration, parameterObject, false);
+	}
+
+	//构造方法初始化，collectParameters为true时sqlBuilder中保存的是"?"占位符
+	public DynamicContext(Configuration configuration, Object parameterObject, boolean collectParameters) {
+		this(configuration, parameterObject, collectParameters, null);
+	}
+
+	//DynamicSqlSource按形状缓存sql语句时，先通过该构造方法创建的上下文计算形状
+	DynamicContext(Configuration configuration, Object parameterObject, SqlShape shape, int bindingCount) {
+		this(configuration, parameterObject, false, shape, bindingCount, 0, 0);
+	}
+
+	//DynamicSqlSource根据上一次生成的sql语句预估各个集合的大小，避免扩容
+	DynamicContext(Configuration configuration, Object parameterObject, int bindingCount, int sqlLength,
+			int parameterCount) {
+		this(configuration, parameterObject, true, null, bindingCount, sqlLength, parameterCount);
+	}
+
+	//包装其他上下文的DynamicContext(例如<foreach>、<trim>节点使用的上下文)会重写所有访问以下字段的方法，
+	//不需要创建自己的bindings集合和sql缓冲区
+	DynamicContext(Configuration configuration) {
+		this.configuration = configuration;
+		this.bindings = null;
+		this.sqlBuilder = null;
+		this.parameterTemplates = null;
+		this.parameterProperties = null;
+		this.parameterTypes = null;
+		this.shape = null;
+	}
+
+	private DynamicContext(Configuration configuration, Object parameterObject, boolean collectParameters, SqlShape shape) {
+		this(configuration, parameterObject, collectParameters, shape, 0, 16, 10);
+	}
+
+	private DynamicContext(Configuration configuration, Object parameterObject, boolean collectParameters, SqlShape shape,
+			int bindingCount, int sqlLength, int parameterCount) {
+		this.configuration = configuration;
+		this.sqlBuilder = new StringBuilder(sqlLength);
+		this.parameterTemplates = collectParameters ? new ArrayList<ParameterMappingTemplate>(parameterCount) : null;
+		this.parameterProperties = collectParameters ? new ArrayList<String>(parameterCount) : null;
+		this.parameterTypes = collectParameters ? new ArrayList<Class<?>>(parameterCount) : null;
+		this.shape = shape;
+		//对于非Map类型的参数，查找属性时才会创建对应的MetaObject对象
+		bindings = new ContextMap(configuration, parameterObject instanceof Map ? null : parameterObject, bindingCount);
 		//将PARAMETER_OBJECT_KEY->parameterObject这一对应关系添加到bindings集合中
 		//其中PARAMETER_OBJECT_KEY的值为“_parameter”，在有的SqlNode实现中直接使用该字面值
 		bindings.put(PARAMETER_OBJECT_KEY, parameterObject);
@@ -68,44 +121,188 @@ public class DynamicContext {
 		bindings.put(name, value);
 	}
 	
-	//追加sql片段
+	//追加sql片段，sql中可以包含"#{}"占位符
 	public void appendSql(String sql) {
+		if (shape != null) {
+			return;
+		}
+		if (parameterTemplates != null && sql != null && sql.contains("#{")) {
+			appendParsedSql(sql);
+			return;
+		}
+		sqlBuilder.append(sql);
+		sqlBuilder.append(" ");
+	}
+
+	//是否收集预先解析的占位符，为false时SqlNode只能通过appendSql(String)追加原始的sql片段
+	public boolean isCollectingParameters() {
+		return parameterTemplates != null;
+	}
+
+	//追加已将"#{}"占位符替换为"?"的sql片段，properties为null时使用占位符中定义的属性名
+	public void appendSql(String sql, ParameterMappingTemplate[] parameters, String[] properties) {
+		appendSql(sql, parameters, properties, null);
+	}
+
+	//propertyTypes中不为null的元素表示参数的类型已经确定(参数值的类型)，例如foreach直接引用集合中的元素
+	//数组中的元素会被复制，调用者可以重用这些数组
+	public void appendSql(String sql, ParameterMappingTemplate[] parameters, String[] properties, Class<?>[] propertyTypes) {
+		if (shape != null) {
+			return;
+		}
+		if (parameterTemplates == null) {
+			throw new ScriptingException("This context does not collect parameters, the sql must be appended with its #{} placeholders");
+		}
 		sqlBuilder.append(sql);
 		sqlBuilder.append(" ");
+		for (int i = 0; i < parameters.length; i++) {
+			parameterTemplates.add(parameters[i]);
+			parameterProperties.add(properties == null ? parameters[i].getProperty() : properties[i]);
+			parameterTypes.add(propertyTypes == null ? null : propertyTypes[i]);
+		}
+	}
+
+	//是否只记录sql语句的形状，为true时追加的sql片段都会被忽略，
+	//<trim>、<foreach>等节点可以直接处理子节点，不需要再包装上下文
+	public boolean isRecordingShape() {
+		return shape != null;
+	}
+
+	//记录动态节点的执行结果，例如<if>节点test表达式的值、<foreach>节点的每次迭代
+	//相同的执行结果序列一定会生成相同的sql语句
+	public void recordShape(int outcome) {
+		if (shape != null) {
+			shape.add(outcome);
+		}
+	}
+
+	SqlShape getShape() {
+		return shape;
+	}
+
+	//需要生成的块序号，为-1时<foreach>节点不分块
+	public int getChunk() {
+		return chunk;
+	}
+
+	void setChunk(int chunk) {
+		this.chunk = chunk;
+	}
+
+	public int getChunkCount() {
+		return chunkCount;
+	}
+
+	//由分块的<foreach>节点设置，一条sql语句中只能有一个<foreach>节点分块
+	public void setChunkCount(int chunkCount) {
+		if (this.chunkCount > 1 && chunkCount > 1) {
+			throw new ScriptingException("Only one <foreach> of a statement can be split in chunks");
+		}
+		this.chunkCount = chunkCount;
+	}
+
+	//执行时才产生的sql片段(例如${}替换后的文本)中的占位符只能在追加时解析
+	protected void appendParsedSql(String sql) {
+		List<ParameterMappingTemplate> templates = new ArrayList<ParameterMappingTemplate>();
+		String parsedSql = ParameterMappingTemplate.parse(configuration, sql, templates, false);
+		appendSql(parsedSql, templates.toArray(new ParameterMappingTemplate[templates.size()]), null);
+	}
+
+	List<ParameterMappingTemplate> getParameterTemplates() {
+		return parameterTemplates;
+	}
+
+	List<String> getParameterProperties() {
+		return parameterProperties;
+	}
+
+	List<Class<?>> getParameterTypes() {
+		return parameterTypes;
+	}
+
+	//所有SqlNode处理完毕后，根据最终的bindings集合确定每个占位符的属性类型
+	public List<ParameterMapping> getParameterMappings(Class<?> parameterType) {
+		List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>(parameterTemplates.size());
+		if (!parameterTemplates.isEmpty()) {
+			MetaObject metaParameters = configuration.newMetaObject(bindings);
+			for (int i = 0; i < parameterTemplates.size(); i++) {
+				ParameterMappingTemplate template = parameterTemplates.get(i);
+				Class<?> propertyType = parameterTypes.get(i);
+				if (propertyType == null) {
+					parameterMappings.add(template.build(parameterProperties.get(i), parameterType, metaParameters));
+				} else {
+					parameterMappings.add(template.build(parameterProperties.get(i), propertyType));
+				}
+			}
+		}
+		return parameterMappings;
 	}
 	
-	//获取解析后的完整sql语句
+	//获取解析后的完整sql语句，去掉首尾的空白字符时只复制一次
 	public String getSql() {
-		return sqlBuilder.toString().trim();
+		int start = 0;
+		int end = sqlBuilder.length();
+		while (start < end && sqlBuilder.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && sqlBuilder.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		return sqlBuilder.substring(start, end);
+	}
+
+	//以下三个方法的返回值作为下一次创建上下文时的预估大小
+	int getSqlLength() {
+		return sqlBuilder.length();
+	}
+
+	int getParameterCount() {
+		return parameterTemplates == null ? 0 : parameterTemplates.size();
+	}
+
+	int getBindingCount() {
+		return bindings.size();
 	}
 
 	public int getUniqueNumber() {
 		return uniqueNumber++;
 	}
+
+	Configuration getConfiguration() {
+		return configuration;
+	}
 	
 	//内部类
 	static class ContextMap extends HashMap<String, Object> {
 		private static final long serialVersionUID = 2977601501966151582L;
-		//将用户传入的参数封装成MetaObject对象
-		private MetaObject parameterMetaObject;
+		private final transient Configuration configuration;
+		//用户传入的非Map类型的参数，第一次查找其属性时才封装成MetaObject对象
+		private final transient Object parameterObject;
+		private transient MetaObject parameterMetaObject;
 
-		public ContextMap(MetaObject parameterMetaObject) {
-			this.parameterMetaObject = parameterMetaObject;
+		//bindingCount为预计的绑定个数，集合的容量足够时不会扩容
+		public ContextMap(Configuration configuration, Object parameterObject, int bindingCount) {
+			super(bindingCount < 12 ? 16 : bindingCount * 4 / 3 + 1);
+			this.configuration = configuration;
+			this.parameterObject = parameterObject;
 		}
 		
 		//重写get方法
 		@Override
 		public Object get(Object key) {
-			String strKey = (String) key;
 			//如果ContextMap中已经包含了key,则直接返回
-			if (super.containsKey(strKey)) {
-				return super.get(strKey);
+			Object value = super.get(key);
+			if (value != null || super.containsKey(key)) {
+				return value;
 			}
 			
 			//从运行时的参数查找对应属性
-			if (parameterMetaObject != null) {
+			if (parameterObject != null) {
+				if (parameterMetaObject == null) {
+					parameterMetaObject = configuration.newMetaObject(parameterObject);
+				}
 				// issue #61 do not modify the context when reading
-				return parameterMetaObject.getValue(strKey);
+				return parameterMetaObject.getValue((String) key);
 			}
 
 			return null;
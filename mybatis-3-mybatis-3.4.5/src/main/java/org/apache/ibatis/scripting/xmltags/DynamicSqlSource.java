@@ -15,40 +15,212 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.ibatis.builder.SqlSourceBuilder;
+import org.apache.ibatis.builder.ParameterMappingTemplate;
 import org.apache.ibatis.mapping.BoundSql;
-import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.mapping.ChunkedSqlSource;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.session.Configuration;
 
 /**
  * @author Clinton Begin
- * 负责处理动态的SQL语句，两者都会将处理后的SQL语句封装成StaticSqlSource返回
- * 封装的SQL语句还需要进一步解析，才会最终形成数据库可执行的sql语句
+ * 负责处理动态的SQL语句，SqlNode中的"#{}"占位符在构建时已经预先解析，
+ * 执行时只需根据参数拼接sql片段并确定每个参数的类型
+ * 开启dynamicSqlCacheSize后，相同形状(各个动态节点的执行结果相同)的参数会复用已经生成的sql语句
+ * 查询语句中设置了chunkSize的<foreach>节点会将集合分块，每块生成一条sql语句
  */
-public class DynamicSqlSource implements SqlSource {
+public class DynamicSqlSource implements ChunkedSqlSource {
 
 	private final Configuration configuration;
 	private final SqlNode rootSqlNode;
+	//sql语句的形状与生成的sql语句之间的对应关系，为null表示不缓存
+	private final ConcurrentHashMap<SqlShape, ShapedSql> shapedSqls;
+	private final int shapedSqlLimit;
+	//已缓存的形状个数，先占用名额再放入，缓存不会超过上限
+	private final AtomicInteger shapedSqlCount = new AtomicInteger();
+	//上一次生成sql语句时bindings集合、sql语句和参数的大小，作为下一次创建上下文时的预估大小
+	private volatile int bindingCount;
+	private volatile int sqlLength = 16;
+	private volatile int parameterCount = 10;
 
 	public DynamicSqlSource(Configuration configuration, SqlNode rootSqlNode) {
+		this(configuration, rootSqlNode, false);
+	}
+
+	/**
+	 * @param shapeCacheable true if the sql only depends on the shape of the parameter (no ${} and
+	 *          only the nodes created by {@link XMLScriptBuilder}), the sql is then cached by shape
+	 *          when {@link Configuration#getDynamicSqlCacheSize()} is positive
+	 * @since 3.4.6
+	 */
+	public DynamicSqlSource(Configuration configuration, SqlNode rootSqlNode, boolean shapeCacheable) {
 		this.configuration = configuration;
 		this.rootSqlNode = rootSqlNode;
+		this.shapedSqlLimit = shapeCacheable ? configuration.getDynamicSqlCacheSize() : 0;
+		this.shapedSqls = shapedSqlLimit > 0 ? new ConcurrentHashMap<SqlShape, ShapedSql>() : null;
 	}
 
 	@Override
 	public BoundSql getBoundSql(Object parameterObject) {
-		DynamicContext context = new DynamicContext(configuration, parameterObject);
-		rootSqlNode.apply(context);
-		SqlSourceBuilder sqlSourceParser = new SqlSourceBuilder(configuration);
+		return getBoundSql(parameterObject, -1);
+	}
+
+	//chunk为设置了chunkSize的<foreach>节点需要生成的块序号，为-1时生成完整的sql语句
+	@Override
+	public BoundSql getBoundSql(Object parameterObject, int chunk) {
 		Class<?> parameterType = parameterObject == null ? Object.class : parameterObject.getClass();
-		SqlSource sqlSource = sqlSourceParser.parse(context.getSql(), parameterType, context.getBindings());
-		BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
-		for (Map.Entry<String, Object> entry : context.getBindings().entrySet()) {
-			boundSql.setAdditionalParameter(entry.getKey(), entry.getValue());
+		if (shapedSqls == null) {
+			DynamicContext context = buildSql(parameterObject, chunk);
+			//"#{}"占位符在构建SqlNode时已经解析，这里不再重新解析sql语句，只需确定每个参数的类型
+			return newBoundSql(context, context.getSql(), context.getParameterMappings(parameterType), parameterObject);
+		}
+		//先只计算sql语句的形状，不拼接sql片段
+		DynamicContext context = new DynamicContext(configuration, parameterObject, new SqlShape(), bindingCount);
+		context.setChunk(chunk);
+		rootSqlNode.apply(context);
+		ShapedSql shapedSql = shapedSqls.get(context.getShape());
+		if (shapedSql != null) {
+			return newBoundSql(context, shapedSql.sql, shapedSql.getParameterMappings(parameterType, context.getBindings()),
+					parameterObject);
+		}
+		//新的形状，生成完整的sql语句后缓存起来，达到上限后不再缓存新的形状，已经缓存的形状不受影响
+		SqlShape shape = context.getShape();
+		context = buildSql(parameterObject, chunk);
+		shapedSql = new ShapedSql(configuration, context, parameterType);
+		if (shapedSqlCount.incrementAndGet() > shapedSqlLimit || shapedSqls.putIfAbsent(shape, shapedSql) != null) {
+			//超过上限，或者其他线程已经缓存了这个形状
+			shapedSqlCount.decrementAndGet();
+		}
+		return newBoundSql(context, shapedSql.sql, shapedSql.parameterMappings, parameterObject);
+	}
+
+	private DynamicContext buildSql(Object parameterObject, int chunk) {
+		DynamicContext context = new DynamicContext(configuration, parameterObject, bindingCount, sqlLength,
+				parameterCount);
+		context.setChunk(chunk);
+		rootSqlNode.apply(context);
+		//只在大小变化时更新，避免多个线程反复写同一个字段
+		if (sqlLength != context.getSqlLength()) {
+			sqlLength = context.getSqlLength();
+		}
+		if (parameterCount != context.getParameterCount()) {
+			parameterCount = context.getParameterCount();
+		}
+		if (bindingCount != context.getBindingCount()) {
+			bindingCount = context.getBindingCount();
 		}
+		return context;
+	}
+
+	private BoundSql newBoundSql(DynamicContext context, String sql, List<ParameterMapping> parameterMappings,
+			Object parameterObject) {
+		//bindings集合中的所有元素都作为BoundSql的附加参数
+		BoundSql boundSql = new BoundSql(configuration, sql, parameterMappings, parameterObject, context.getBindings());
+		boundSql.setChunkCount(context.getChunkCount());
 		return boundSql;
 	}
 
+	//某个形状生成的sql语句及参数映射，参数映射在属性类型与生成时相同时才能复用
+	private static class ShapedSql {
+		private final Configuration configuration;
+		private final String sql;
+		private final ParameterMappingTemplate[] templates;
+		private final String[] properties;
+		private final Class<?>[] propertyTypes;
+		//类型由参数值决定的参数(foreach直接引用的集合元素)
+		private final boolean[] typedByValue;
+		//"name[index]"形式的参数对应的集合名称和下标，用于快速获取参数值
+		private final String[] listNames;
+		private final int[] listIndexes;
+		private final List<ParameterMapping> parameterMappings;
+
+		ShapedSql(Configuration configuration, DynamicContext context, Class<?> parameterType) {
+			this.configuration = configuration;
+			this.sql = context.getSql();
+			List<ParameterMappingTemplate> parameterTemplates = context.getParameterTemplates();
+			this.templates = parameterTemplates.toArray(new ParameterMappingTemplate[parameterTemplates.size()]);
+			this.properties = context.getParameterProperties().toArray(new String[templates.length]);
+			this.propertyTypes = new Class<?>[templates.length];
+			this.typedByValue = new boolean[templates.length];
+			this.listNames = new String[templates.length];
+			this.listIndexes = new int[templates.length];
+			List<ParameterMapping> mappings = new ArrayList<ParameterMapping>(templates.length);
+			if (templates.length > 0) {
+				List<Class<?>> knownTypes = context.getParameterTypes();
+				MetaObject metaParameters = configuration.newMetaObject(context.getBindings());
+				for (int i = 0; i < templates.length; i++) {
+					typedByValue[i] = knownTypes.get(i) != null;
+					if (typedByValue[i]) {
+						parseListElement(i);
+					}
+					propertyTypes[i] = typedByValue[i] ? knownTypes.get(i)
+							: templates[i].getPropertyType(properties[i], parameterType, metaParameters);
+					mappings.add(templates[i].build(properties[i], propertyTypes[i]));
+				}
+			}
+			this.parameterMappings = mappings;
+		}
+
+		//属性类型依赖于参数的实际类型(例如foreach中的元素)，类型发生变化时重新创建参数映射
+		List<ParameterMapping> getParameterMappings(Class<?> parameterType, Map<String, Object> bindings) {
+			if (templates.length == 0) {
+				return parameterMappings;
+			}
+			MetaObject metaParameters = configuration.newMetaObject(bindings);
+			for (int i = 0; i < templates.length; i++) {
+				Class<?> propertyType = getPropertyType(i, parameterType, bindings, metaParameters);
+				if (propertyType != propertyTypes[i]) {
+					return rebuildParameterMappings(i, propertyType, parameterType, bindings, metaParameters);
+				}
+			}
+			return parameterMappings;
+		}
+
+		private List<ParameterMapping> rebuildParameterMappings(int changed, Class<?> changedType, Class<?> parameterType,
+				Map<String, Object> bindings, MetaObject metaParameters) {
+			List<ParameterMapping> mappings = new ArrayList<ParameterMapping>(parameterMappings.subList(0, changed));
+			mappings.add(templates[changed].build(properties[changed], changedType));
+			for (int i = changed + 1; i < templates.length; i++) {
+				mappings.add(templates[i].build(properties[i], getPropertyType(i, parameterType, bindings, metaParameters)));
+			}
+			return mappings;
+		}
+
+		private Class<?> getPropertyType(int i, Class<?> parameterType, Map<String, Object> bindings,
+				MetaObject metaParameters) {
+			if (!typedByValue[i]) {
+				return templates[i].getPropertyType(properties[i], parameterType, metaParameters);
+			}
+			Object value;
+			Object list = listNames[i] == null ? null : bindings.get(listNames[i]);
+			if (list instanceof RandomAccess && list instanceof List && listIndexes[i] < ((List<?>) list).size()) {
+				value = ((List<?>) list).get(listIndexes[i]);
+			} else {
+				value = metaParameters.getValue(properties[i]);
+			}
+			return value == null ? Object.class : value.getClass();
+		}
+
+		private void parseListElement(int i) {
+			String property = properties[i];
+			int open = property.indexOf('[');
+			if (open <= 0 || property.indexOf('.') >= 0 || property.charAt(property.length() - 1) != ']') {
+				return;
+			}
+			try {
+				listIndexes[i] = Integer.parseInt(property.substring(open + 1, property.length() - 1));
+				listNames[i] = property.substring(0, open);
+			} catch (NumberFormatException e) {
+				// not an index, the value is read through the MetaObject
+			}
+		}
+	}
+
 }
@@ -0,0 +1,384 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiles the subset of OGNL used by most dynamic SQL tests.
+ * <p>
+ * Supported: <code>null</code>, <code>true</code>, <code>false</code>, number, string and char literals,
+ * property paths, the <code>size()</code>, <code>isEmpty()</code>, <code>length()</code> and
+ * <code>trim()</code> methods, comparisons (<code>== != &lt; &gt; &lt;= &gt;=</code> and their
+ * <code>eq neq lt gt lte gte</code> forms), <code>and</code>, <code>or</code>, <code>not</code> (and
+ * <code>&amp;&amp; || !</code>) and parentheses. Anything else makes {@link #compile(String)} return
+ * null and the expression is left to OGNL.
+ * </p>
+ *
+ * @since 3.4.6
+ */
+final class ExpressionCompiler {
+
+  private static final Set<String> RESERVED_WORDS = new HashSet<String>(Arrays.asList(
+      "and", "or", "not", "eq", "neq", "lt", "gt", "lte", "gte", "in", "instanceof",
+      "shl", "shr", "ushr", "band", "bor", "xor", "null", "true", "false", "new"));
+
+  // thrown when the expression leaves the supported subset
+  private static final RuntimeException UNSUPPORTED = new UnsupportedSyntaxException();
+
+  private final String expression;
+  private int position;
+
+  private ExpressionCompiler(String expression) {
+    this.expression = expression;
+  }
+
+  /**
+   * @return the compiled expression, or null if it is not part of the supported subset
+   */
+  static CompiledExpression compile(String expression) {
+    if (expression == null) {
+      return null;
+    }
+    ExpressionCompiler compiler = new ExpressionCompiler(expression);
+    try {
+      CompiledExpression compiled = compiler.parseOr();
+      compiler.skipWhitespace();
+      return compiler.position == expression.length() ? compiled : null;
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  private CompiledExpression parseOr() {
+    List<CompiledExpression> operands = new ArrayList<CompiledExpression>();
+    operands.add(parseAnd());
+    while (acceptOperator("||") || acceptWord("or")) {
+      operands.add(parseAnd());
+    }
+    return operands.size() == 1 ? operands.get(0)
+        : new CompiledExpression.Logical(operands.toArray(new CompiledExpression[operands.size()]), false);
+  }
+
+  private CompiledExpression parseAnd() {
+    List<CompiledExpression> operands = new ArrayList<CompiledExpression>();
+    operands.add(parseEquality());
+    while (acceptOperator("&&") || acceptWord("and")) {
+      operands.add(parseEquality());
+    }
+    return operands.size() == 1 ? operands.get(0)
+        : new CompiledExpression.Logical(operands.toArray(new CompiledExpression[operands.size()]), true);
+  }
+
+  private CompiledExpression parseEquality() {
+    CompiledExpression left = parseRelational();
+    while (true) {
+      if (acceptOperator("==") || acceptWord("eq")) {
+        left = new CompiledExpression.Comparison(left, parseRelational(), CompiledExpression.Comparison.EQ);
+      } else if (acceptOperator("!=") || acceptWord("neq")) {
+        left = new CompiledExpression.Comparison(left, parseRelational(), CompiledExpression.Comparison.NEQ);
+      } else {
+        return left;
+      }
+    }
+  }
+
+  private CompiledExpression parseRelational() {
+    CompiledExpression left = parseUnary();
+    while (true) {
+      int operator;
+      if (acceptOperator("<=") || acceptWord("lte")) {
+        operator = CompiledExpression.Comparison.LTE;
+      } else if (acceptOperator(">=") || acceptWord("gte")) {
+        operator = CompiledExpression.Comparison.GTE;
+      } else if (acceptOperator("<") || acceptWord("lt")) {
+        operator = CompiledExpression.Comparison.LT;
+      } else if (acceptOperator(">") || acceptWord("gt")) {
+        operator = CompiledExpression.Comparison.GT;
+      } else {
+        return left;
+      }
+      left = new CompiledExpression.Comparison(left, parseUnary(), operator);
+    }
+  }
+
+  private CompiledExpression parseUnary() {
+    skipWhitespace();
+    if (peek() == '!' && peek(1) != '=') {
+      position++;
+      return new CompiledExpression.Not(parseUnary());
+    }
+    if (acceptWord("not")) {
+      return new CompiledExpression.Not(parseUnary());
+    }
+    return parsePrimary();
+  }
+
+  private CompiledExpression parsePrimary() {
+    skipWhitespace();
+    char c = peek();
+    if (c == '(') {
+      position++;
+      CompiledExpression inner = parseOr();
+      expect(')');
+      return inner;
+    }
+    if (c == '\'' || c == '"') {
+      return new CompiledExpression.Literal(parseString(c));
+    }
+    if (c >= '0' && c <= '9') {
+      return new CompiledExpression.Literal(parseNumber());
+    }
+    String word = parseIdentifier();
+    if ("null".equals(word)) {
+      return new CompiledExpression.Literal(null);
+    } else if ("true".equals(word)) {
+      return new CompiledExpression.Literal(Boolean.TRUE);
+    } else if ("false".equals(word)) {
+      return new CompiledExpression.Literal(Boolean.FALSE);
+    } else if (RESERVED_WORDS.contains(word)) {
+      throw UNSUPPORTED;
+    }
+    skipWhitespace();
+    if (peek() == '(') {
+      // static or root method calls
+      throw UNSUPPORTED;
+    }
+    CompiledExpression chain = new CompiledExpression.RootProperty(word);
+    while (true) {
+      skipWhitespace();
+      if (peek() != '.') {
+        return chain;
+      }
+      position++;
+      skipWhitespace();
+      String name = parseIdentifier();
+      if (RESERVED_WORDS.contains(name)) {
+        throw UNSUPPORTED;
+      }
+      skipWhitespace();
+      if (peek() == '(') {
+        position++;
+        expect(')');
+        chain = new CompiledExpression.MethodCall(chain, methodOf(name));
+      } else {
+        chain = new CompiledExpression.Property(chain, name);
+      }
+    }
+  }
+
+  private static int methodOf(String name) {
+    if ("size".equals(name)) {
+      return CompiledExpression.MethodCall.SIZE;
+    } else if ("isEmpty".equals(name)) {
+      return CompiledExpression.MethodCall.IS_EMPTY;
+    } else if ("length".equals(name)) {
+      return CompiledExpression.MethodCall.LENGTH;
+    } else if ("trim".equals(name)) {
+      return CompiledExpression.MethodCall.TRIM;
+    }
+    throw UNSUPPORTED;
+  }
+
+  private String parseIdentifier() {
+    int start = position;
+    if (position >= expression.length() || !Character.isJavaIdentifierStart(expression.charAt(position))) {
+      throw UNSUPPORTED;
+    }
+    position++;
+    while (position < expression.length() && Character.isJavaIdentifierPart(expression.charAt(position))) {
+      position++;
+    }
+    return expression.substring(start, position);
+  }
+
+  /**
+   * Single quoted literals of one character are chars in OGNL.
+   */
+  private Object parseString(char quote) {
+    StringBuilder value = new StringBuilder();
+    position++;
+    while (true) {
+      if (position >= expression.length()) {
+        throw UNSUPPORTED;
+      }
+      char c = expression.charAt(position++);
+      if (c == quote) {
+        break;
+      }
+      if (c == '\\') {
+        if (position >= expression.length()) {
+          throw UNSUPPORTED;
+        }
+        c = unescape(expression.charAt(position++));
+      }
+      value.append(c);
+    }
+    if (quote == '\'' && value.length() == 1) {
+      return Character.valueOf(value.charAt(0));
+    }
+    return value.toString();
+  }
+
+  private static char unescape(char c) {
+    switch (c) {
+      case 'n':
+        return '\n';
+      case 't':
+        return '\t';
+      case 'b':
+        return '\b';
+      case 'r':
+        return '\r';
+      case 'f':
+        return '\f';
+      case '\\':
+      case '\'':
+      case '"':
+        return c;
+      default:
+        // octal and unicode escapes
+        throw UNSUPPORTED;
+    }
+  }
+
+  /**
+   * Decimal literals only, octal and hexadecimal ones and exponents are left to OGNL.
+   */
+  private Object parseNumber() {
+    int start = position;
+    if (peek() == '0' && (Character.isDigit(peek(1)) || peek(1) == 'x' || peek(1) == 'X')) {
+      throw UNSUPPORTED;
+    }
+    skipDigits();
+    boolean decimal = false;
+    if (peek() == '.' && Character.isDigit(peek(1))) {
+      decimal = true;
+      position++;
+      skipDigits();
+    }
+    String digits = expression.substring(start, position);
+    Object value;
+    char suffix = peek();
+    switch (suffix) {
+      case 'l':
+      case 'L':
+        value = decimal ? null : Long.valueOf(digits);
+        position++;
+        break;
+      case 'h':
+      case 'H':
+        value = decimal ? null : new BigInteger(digits);
+        position++;
+        break;
+      case 'b':
+      case 'B':
+        value = new BigDecimal(digits);
+        position++;
+        break;
+      case 'f':
+      case 'F':
+        value = Float.valueOf(digits);
+        position++;
+        break;
+      case 'd':
+      case 'D':
+        value = Double.valueOf(digits);
+        position++;
+        break;
+      default:
+        value = decimal ? (Object) Double.valueOf(digits) : (Object) Integer.valueOf(digits);
+        break;
+    }
+    if (value == null || isIdentifierPart(peek()) || peek() == '.') {
+      throw UNSUPPORTED;
+    }
+    return value;
+  }
+
+  private static boolean isIdentifierPart(char c) {
+    // '\0' marks the end of the expression but is an identifier part for Java
+    return c != '\0' && Character.isJavaIdentifierPart(c);
+  }
+
+  private void skipDigits() {
+    while (Character.isDigit(peek())) {
+      position++;
+    }
+  }
+
+  private boolean acceptOperator(String operator) {
+    skipWhitespace();
+    if (!expression.startsWith(operator, position)) {
+      return false;
+    }
+    char next = peek(operator.length());
+    // do not take "<" out of "<<" or "=" out of "==="
+    if (next == '=' || next == operator.charAt(operator.length() - 1)) {
+      return false;
+    }
+    position += operator.length();
+    return true;
+  }
+
+  private boolean acceptWord(String word) {
+    skipWhitespace();
+    if (!expression.startsWith(word, position) || isIdentifierPart(peek(word.length()))) {
+      return false;
+    }
+    position += word.length();
+    return true;
+  }
+
+  private void expect(char c) {
+    skipWhitespace();
+    if (peek() != c) {
+      throw UNSUPPORTED;
+    }
+    position++;
+  }
+
+  private void skipWhitespace() {
+    while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+      position++;
+    }
+  }
+
+  private char peek() {
+    return peek(0);
+  }
+
+  private char peek(int offset) {
+    int index = position + offset;
+    return index < expression.length() ? expression.charAt(index) : '\0';
+  }
+
+  private static final class UnsupportedSyntaxException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+
+}
@@ -29,9 +29,14 @@ import org.apache.ibatis.builder.BuilderException;
  */
 public class ExpressionEvaluator {
 
+	//通过OGNL解析表达式的值，子类可以提供其他的实现(例如CompiledExpressionEvaluator)
+	public Object evaluate(String expression, Object parameterObject) {
+		return OgnlCache.getValue(expression, parameterObject);
+	}
+
 	public boolean evaluateBoolean(String expression, Object parameterObject) {
-		//首先通过OGNL解析表达式的值
-		Object value = OgnlCache.getValue(expression, parameterObject);
+		//首先解析表达式的值
+		Object value = evaluate(expression, parameterObject);
 		//处理Boolean类型
 		if (value instanceof Boolean) {
 			return (Boolean) value;
@@ -44,7 +49,7 @@ public class ExpressionEvaluator {
 	}
 
 	public Iterable<?> evaluateIterable(String expression, Object parameterObject) {
-		Object value = OgnlCache.getValue(expression, parameterObject);
+		Object value = evaluate(expression, parameterObject);
 		if (value == null) {
 			throw new BuilderException("The expression '" + expression + "' evaluated to a null value.");
 		}
@@ -15,10 +15,16 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
+import org.apache.ibatis.builder.ParameterMappingTemplate;
 import org.apache.ibatis.parsing.GenericTokenParser;
 import org.apache.ibatis.parsing.TokenHandler;
+import org.apache.ibatis.scripting.ScriptingException;
 import org.apache.ibatis.session.Configuration;
 
 /**
@@ -36,9 +42,32 @@ public class ForEachSqlNode implements SqlNode {
   private final String item;
   private final String index;
   private final Configuration configuration;
+  // pads the number of elements to the next power of two by repeating the last element
+  private final boolean padding;
+  // the elements of a query are split in chunks of this size, each one run as its own statement
+  private final int chunkSize;
+  // the placeholder and text of a body that is only "#{item}" and static text, null otherwise
+  private final ParameterMappingTemplate[] itemParameter;
+  private final String itemSql;
+  private volatile ItemProperties itemProperties;
 
   public ForEachSqlNode(Configuration configuration, SqlNode contents, String collectionExpression, String index, String item, String open, String close, String separator) {
-    this.evaluator = new ExpressionEvaluator();
+    this(configuration, contents, collectionExpression, index, item, open, close, separator, new ExpressionEvaluator());
+  }
+
+  public ForEachSqlNode(Configuration configuration, SqlNode contents, String collectionExpression, String index, String item, String open, String close, String separator, ExpressionEvaluator evaluator) {
+    this(configuration, contents, collectionExpression, index, item, open, close, separator, evaluator, false, 0);
+  }
+
+  /**
+   * @param padding true to pad the number of elements to the next power of two (capped at the chunk size) by
+   *          repeating the last element, so that collections of different sizes share a few sql strings
+   * @param chunkSize the maximum number of elements of a query statement, larger collections are split in
+   *          chunks run as separate statements whose results are merged (0 to never split)
+   * @since 3.4.6
+   */
+  public ForEachSqlNode(Configuration configuration, SqlNode contents, String collectionExpression, String index, String item, String open, String close, String separator, ExpressionEvaluator evaluator, boolean padding, int chunkSize) {
+    this.evaluator = evaluator;
     this.collectionExpression = collectionExpression;
     this.contents = contents;
     this.open = open;
@@ -47,49 +76,209 @@ public class ForEachSqlNode implements SqlNode {
     this.index = index;
     this.item = item;
     this.configuration = configuration;
+    this.padding = padding;
+    this.chunkSize = chunkSize;
+    StaticTextSqlNode text = staticText(contents);
+    if (item != null && text != null && text.getParameters() != null && text.getParameters().length == 1
+        && item.equals(text.getParameters()[0].getProperty())) {
+      this.itemParameter = text.getParameters();
+      this.itemSql = text.getParameterizedText();
+    } else {
+      this.itemParameter = null;
+      this.itemSql = null;
+    }
+  }
+
+  private static StaticTextSqlNode staticText(SqlNode contents) {
+    if (contents instanceof MixedSqlNode) {
+      List<SqlNode> nodes = ((MixedSqlNode) contents).getContents();
+      if (nodes.size() == 1) {
+        contents = nodes.get(0);
+      }
+    }
+    return contents instanceof StaticTextSqlNode ? (StaticTextSqlNode) contents : null;
   }
 
   @Override
   public boolean apply(DynamicContext context) {
     Map<String, Object> bindings = context.getBindings();
-    final Iterable<?> iterable = evaluator.evaluateIterable(collectionExpression, bindings);
+    Iterable<?> iterable = evaluator.evaluateIterable(collectionExpression, bindings);
+    int offset = 0;
+    if (chunkSize > 0 && context.getChunk() >= 0 && iterable instanceof Collection
+        && ((Collection<?>) iterable).size() > chunkSize) {
+      List<?> list = iterable instanceof List ? (List<?>) iterable : new ArrayList<Object>((Collection<?>) iterable);
+      int chunks = (list.size() + chunkSize - 1) / chunkSize;
+      if (context.getChunk() >= chunks) {
+        throw new ScriptingException("Chunk " + context.getChunk() + " is out of the " + chunks
+            + " chunks of the <foreach> collection '" + collectionExpression + "'");
+      }
+      context.setChunkCount(chunks);
+      offset = context.getChunk() * chunkSize;
+      iterable = list.subList(offset, Math.min(offset + chunkSize, list.size()));
+    }
+    int paddedSize = padding && iterable instanceof Collection ? paddedSize(((Collection<?>) iterable).size()) : 0;
+    if (itemParameter != null && iterable instanceof Collection && !((Collection<?>) iterable).isEmpty()
+        && (context.isCollectingParameters() || context.isRecordingShape())
+        && applyItems(context, (Collection<?>) iterable, paddedSize)) {
+      return true;
+    }
+    if (context.isRecordingShape()) {
+      return applyShape(context, iterable, offset, paddedSize);
+    }
     if (!iterable.iterator().hasNext()) {
       return true;
     }
     boolean first = true;
     applyOpen(context);
     int i = 0;
+    Object last = null;
     for (Object o : iterable) {
-      DynamicContext oldContext = context;
-      if (first || separator == null) {
-        context = new PrefixedContext(context, "");
-      } else {
-        context = new PrefixedContext(context, separator);
-      }
-      int uniqueNumber = context.getUniqueNumber();
-      // Issue #709 
+      first = applyIteration(context, o, offset + i, first);
+      last = o;
+      i++;
+    }
+    // the padding repeats the last element
+    for (int lastIndex = offset + i - 1; i < paddedSize; i++) {
+      first = applyIteration(context, last, lastIndex, first);
+    }
+    applyClose(context);
+    context.getBindings().remove(item);
+    context.getBindings().remove(index);
+    return true;
+  }
+
+  /**
+   * Applies the contents to one element, the placeholders of the element are itemized with a new
+   * unique number.
+   *
+   * @return true if nothing has been appended yet, so the next element is not prefixed by the separator
+   */
+  private boolean applyIteration(DynamicContext context, Object o, int i, boolean first) {
+    PrefixedContext prefixed = new PrefixedContext(context, first || separator == null ? "" : separator);
+    int uniqueNumber = prefixed.getUniqueNumber();
+    bindIteration(prefixed, o, i, uniqueNumber);
+    contents.apply(new FilteredDynamicContext(configuration, prefixed, index, item, uniqueNumber));
+    return first && !prefixed.isPrefixApplied();
+  }
+
+  private void bindIteration(DynamicContext context, Object o, int i, int uniqueNumber) {
+    // Issue #709 
+    if (o instanceof Map.Entry) {
+      @SuppressWarnings("unchecked") 
+      Map.Entry<Object, Object> mapEntry = (Map.Entry<Object, Object>) o;
+      applyIndex(context, mapEntry.getKey(), uniqueNumber);
+      applyItem(context, mapEntry.getValue(), uniqueNumber);
+    } else {
+      applyIndex(context, i, uniqueNumber);
+      applyItem(context, o, uniqueNumber);
+    }
+  }
+
+  /**
+   * The number of iterations of a padded collection: the next power of two, but not more than the
+   * chunk size when the collection fits in a chunk.
+   */
+  private int paddedSize(int size) {
+    if (size <= 1) {
+      return size;
+    }
+    int paddedSize = Integer.highestOneBit(size - 1) << 1;
+    if (chunkSize > 0 && size <= chunkSize) {
+      paddedSize = Math.min(paddedSize, chunkSize);
+    }
+    return paddedSize;
+  }
+
+  /**
+   * Fast path of the "#{item}" bodies: the collection is bound once, as a list, and the placeholders reference its
+   * elements by index, instead of binding every element and applying the body through two wrapping
+   * contexts per element. The sql is the same as the one of the general path and each element is
+   * typed by its class, as a bound element would be.
+   *
+   * @return false if the collection must go through the general path (map entries)
+   */
+  private boolean applyItems(DynamicContext context, Collection<?> collection, int paddedSize) {
+    for (Object o : collection) {
       if (o instanceof Map.Entry) {
-        @SuppressWarnings("unchecked") 
-        Map.Entry<Object, Object> mapEntry = (Map.Entry<Object, Object>) o;
-        applyIndex(context, mapEntry.getKey(), uniqueNumber);
-        applyItem(context, mapEntry.getValue(), uniqueNumber);
-      } else {
-        applyIndex(context, i, uniqueNumber);
-        applyItem(context, o, uniqueNumber);
+        return false;
       }
-      contents.apply(new FilteredDynamicContext(configuration, context, index, item, uniqueNumber));
-      if (first) {
-        first = !((PrefixedContext) context).isPrefixApplied();
+    }
+    // the elements are read by index
+    List<?> list = collection instanceof List && collection instanceof RandomAccess ? (List<?>) collection
+        : new ArrayList<Object>(collection);
+    String name = itemizeItem(item, context.getUniqueNumber());
+    context.bind(name, list);
+    int size = Math.max(list.size(), paddedSize);
+    if (context.isRecordingShape()) {
+      // -1 tells this path apart from the iterations of the general one
+      context.recordShape(-1);
+      context.recordShape(list.size());
+      context.recordShape(size);
+    } else {
+      String[] properties = itemProperties(name, list.size());
+      String[] property = new String[1];
+      Class<?>[] propertyType = new Class<?>[1];
+      applyOpen(context);
+      for (int i = 0; i < size; i++) {
+        // the padding repeats the last element
+        int element = Math.min(i, list.size() - 1);
+        Object o = list.get(element);
+        // what the PrefixedContext of the general path appends
+        context.appendSql(i == 0 || separator == null ? "" : separator);
+        property[0] = properties[element];
+        propertyType[0] = o == null ? Object.class : o.getClass();
+        context.appendSql(itemSql, itemParameter, property, propertyType);
       }
-      context = oldContext;
-      i++;
+      applyClose(context);
     }
-    applyClose(context);
     context.getBindings().remove(item);
     context.getBindings().remove(index);
     return true;
   }
 
+  /**
+   * The "name[i]" properties are kept for the last name, which is usually the same for every call.
+   */
+  private String[] itemProperties(String name, int size) {
+    ItemProperties cached = itemProperties;
+    if (cached == null || !cached.name.equals(name) || cached.properties.length < size) {
+      String[] properties = new String[size];
+      for (int i = 0; i < size; i++) {
+        properties[i] = new StringBuilder(name).append('[').append(i).append(']').toString();
+      }
+      cached = new ItemProperties(name, properties);
+      itemProperties = cached;
+    }
+    return cached.properties;
+  }
+
+  /**
+   * Binds the items and applies the contents without building any sql. Each iteration is recorded
+   * as a 1, the end of the collection as a 0.
+   */
+  private boolean applyShape(DynamicContext context, Iterable<?> iterable, int offset, int paddedSize) {
+    int i = 0;
+    Object last = null;
+    for (Object o : iterable) {
+      context.recordShape(1);
+      bindIteration(context, o, offset + i, context.getUniqueNumber());
+      contents.apply(context);
+      last = o;
+      i++;
+    }
+    for (int lastIndex = offset + i - 1; i < paddedSize; i++) {
+      context.recordShape(1);
+      bindIteration(context, last, lastIndex, context.getUniqueNumber());
+      contents.apply(context);
+    }
+    context.recordShape(0);
+    if (i > 0) {
+      context.getBindings().remove(item);
+      context.getBindings().remove(index);
+    }
+    return true;
+  }
+
   private void applyIndex(DynamicContext context, Object o, int i) {
     if (index != null) {
       context.bind(index, o);
@@ -120,6 +309,16 @@ public class ForEachSqlNode implements SqlNode {
     return new StringBuilder(ITEM_PREFIX).append(item).append("_").append(i).toString();
   }
 
+  private static final class ItemProperties {
+    private final String name;
+    private final String[] properties;
+
+    ItemProperties(String name, String[] properties) {
+      this.name = name;
+      this.properties = properties;
+    }
+  }
+
   private static class FilteredDynamicContext extends DynamicContext {
     private final DynamicContext delegate;
     private final int index;
@@ -127,7 +326,7 @@ public class ForEachSqlNode implements SqlNode {
     private final String item;
 
     public FilteredDynamicContext(Configuration configuration,DynamicContext delegate, String itemIndex, String item, int i) {
-      super(configuration, null);
+      super(configuration);
       this.delegate = delegate;
       this.index = i;
       this.itemIndex = itemIndex;
@@ -165,11 +364,59 @@ public class ForEachSqlNode implements SqlNode {
       delegate.appendSql(parser.parse(sql));
     }
 
+    @Override
+    public boolean isCollectingParameters() {
+      return delegate.isCollectingParameters();
+    }
+
+    @Override
+    public void appendSql(String sql, ParameterMappingTemplate[] parameters, String[] properties, Class<?>[] propertyTypes) {
+      String[] itemizedProperties = properties;
+      if (parameters.length > 0) {
+        itemizedProperties = new String[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+          String property = properties == null ? parameters[i].getProperty() : properties[i];
+          String itemized = itemizeProperty(property, item);
+          if (itemIndex != null && itemized == property) {
+            itemized = itemizeProperty(property, itemIndex);
+          }
+          itemizedProperties[i] = itemized;
+        }
+      }
+      delegate.appendSql(sql, parameters, itemizedProperties, propertyTypes);
+    }
+
+    /**
+     * Same rule as the rewrite of the #{} content above, applied to an already parsed property.
+     */
+    private String itemizeProperty(String property, String name) {
+      if (property == null || name == null || !property.startsWith(name)) {
+        return property;
+      }
+      if (property.length() > name.length()) {
+        char next = property.charAt(name.length());
+        if (next != '.' && !Character.isWhitespace(next)) {
+          return property;
+        }
+      }
+      return itemizeItem(name, index) + property.substring(name.length());
+    }
+
     @Override
     public int getUniqueNumber() {
       return delegate.getUniqueNumber();
     }
 
+    @Override
+    public int getChunk() {
+      return delegate.getChunk();
+    }
+
+    @Override
+    public void setChunkCount(int chunkCount) {
+      delegate.setChunkCount(chunkCount);
+    }
+
   }
 
 
@@ -179,7 +426,7 @@ public class ForEachSqlNode implements SqlNode {
     private boolean prefixApplied;
 
     public PrefixedContext(DynamicContext delegate, String prefix) {
-      super(configuration, null);
+      super(configuration);
       this.delegate = delegate;
       this.prefix = prefix;
       this.prefixApplied = false;
@@ -208,6 +455,20 @@ public class ForEachSqlNode implements SqlNode {
       delegate.appendSql(sql);
     }
 
+    @Override
+    public boolean isCollectingParameters() {
+      return delegate.isCollectingParameters();
+    }
+
+    @Override
+    public void appendSql(String sql, ParameterMappingTemplate[] parameters, String[] properties, Class<?>[] propertyTypes) {
+      if (!prefixApplied && sql.trim().length() > 0) {
+        delegate.appendSql(prefix);
+        prefixApplied = true;
+      }
+      delegate.appendSql(sql, parameters, properties, propertyTypes);
+    }
+
     @Override
     public String getSql() {
       return delegate.getSql();
@@ -217,6 +478,16 @@ public class ForEachSqlNode implements SqlNode {
     public int getUniqueNumber() {
       return delegate.getUniqueNumber();
     }
+
+    @Override
+    public int getChunk() {
+      return delegate.getChunk();
+    }
+
+    @Override
+    public void setChunkCount(int chunkCount) {
+      delegate.setChunkCount(chunkCount);
+    }
   }
 
 }
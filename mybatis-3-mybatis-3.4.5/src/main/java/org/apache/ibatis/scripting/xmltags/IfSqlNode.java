@@ -28,15 +28,23 @@ public class IfSqlNode implements SqlNode {
 	private final SqlNode contents;
 
 	public IfSqlNode(SqlNode contents, String test) {
+		this(contents, test, new ExpressionEvaluator());
+	}
+
+	//evaluator由LanguageDriver决定，例如CompiledXMLLanguageDriver使用编译后的表达式
+	public IfSqlNode(SqlNode contents, String test, ExpressionEvaluator evaluator) {
 		this.test = test;
 		this.contents = contents;
-		this.evaluator = new ExpressionEvaluator();
+		this.evaluator = evaluator;
 	}
 	
 	@Override
 	public boolean apply(DynamicContext context) {
 		//检测test属性中记录的表达式
-		if (evaluator.evaluateBoolean(test, context.getBindings())) {
+		boolean result = evaluator.evaluateBoolean(test, context.getBindings());
+		//记录test表达式的值，作为sql语句形状的一部分
+		context.recordShape(result ? 1 : 0);
+		if (result) {
 			//test表达式为true，则执行子节点的apply()方法
 			contents.apply(context);
 			return true;
@@ -45,4 +53,17 @@ public class IfSqlNode implements SqlNode {
 		return false;
 	}
 
+	//SqlNodeFolder在构建时折叠test表达式为常量的<if>节点
+	String getTest() {
+		return test;
+	}
+
+	SqlNode getContents() {
+		return contents;
+	}
+
+	ExpressionEvaluator getEvaluator() {
+		return evaluator;
+	}
+
 }
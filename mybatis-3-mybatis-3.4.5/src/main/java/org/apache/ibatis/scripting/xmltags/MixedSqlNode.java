@@ -36,4 +36,9 @@ public class MixedSqlNode implements SqlNode {
 		}
 		return true;
 	}
+
+	//ForEachSqlNode根据子节点判断能否直接引用集合中的元素
+	List<SqlNode> getContents() {
+		return contents;
+	}
 }
@@ -0,0 +1,223 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.builder.ParameterMappingTemplate;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Simplifies a tree of {@link SqlNode}s when the statement is built.
+ * <p>
+ * <code>&lt;if&gt;</code> and <code>&lt;when&gt;</code> nodes whose test is made of literals only are
+ * replaced by their contents or removed, <code>&lt;trim&gt;</code>, <code>&lt;where&gt;</code> and
+ * <code>&lt;set&gt;</code> nodes that wrap static text are rendered once, and adjacent static texts
+ * are merged. The folded tree renders the same sql as the original one. If it is left with static
+ * text only, see {@link #isStatic(SqlNode)}, the statement does not depend on its parameter and can
+ * be built as a raw sql source.
+ * </p>
+ * Only the node types built by {@link XMLScriptBuilder} are folded, other nodes (and subclasses) are
+ * kept as they are.
+ *
+ * @since 3.4.6
+ */
+final class SqlNodeFolder {
+
+  private static final SqlNode EMPTY = new MixedSqlNode(Collections.<SqlNode>emptyList());
+
+  private final Configuration configuration;
+
+  SqlNodeFolder(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  /**
+   * @return the folded node, the same instance if nothing could be folded
+   */
+  SqlNode fold(SqlNode node) {
+    return fold(node, " ");
+  }
+
+  /**
+   * @param separator the text the enclosing context appends after each sql fragment: a space for the
+   *          context of the statement, nothing in the buffer of a <code>&lt;trim&gt;</code> node
+   */
+  private SqlNode fold(SqlNode node, String separator) {
+    Class<?> type = node.getClass();
+    if (type == MixedSqlNode.class) {
+      return foldMixed((MixedSqlNode) node, separator);
+    } else if (type == IfSqlNode.class) {
+      return foldIf((IfSqlNode) node, separator);
+    } else if (type == ChooseSqlNode.class) {
+      return foldChoose((ChooseSqlNode) node, separator);
+    } else if (type == TrimSqlNode.class || type == WhereSqlNode.class || type == SetSqlNode.class) {
+      return foldTrim((TrimSqlNode) node);
+    }
+    return node;
+  }
+
+  /**
+   * @return true if the node appends the same sql whatever the parameter is, and its placeholders do
+   *         not reference values bound by the dynamic context
+   */
+  boolean isStatic(SqlNode node) {
+    if (node.getClass() == StaticTextSqlNode.class) {
+      ParameterMappingTemplate[] parameters = ((StaticTextSqlNode) node).getParameters();
+      if (parameters == null) {
+        return false;
+      }
+      for (ParameterMappingTemplate parameter : parameters) {
+        if (isBound(parameter.getProperty())) {
+          return false;
+        }
+      }
+      return true;
+    } else if (node.getClass() == MixedSqlNode.class) {
+      for (SqlNode child : ((MixedSqlNode) node).getContents()) {
+        if (!isStatic(child)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private SqlNode foldMixed(MixedSqlNode node, String separator) {
+    List<SqlNode> contents = node.getContents();
+    List<SqlNode> folded = new ArrayList<SqlNode>(contents.size());
+    boolean changed = false;
+    for (SqlNode child : contents) {
+      SqlNode foldedChild = fold(child, separator);
+      changed |= foldedChild != child;
+      if (foldedChild.getClass() == MixedSqlNode.class) {
+        changed = true;
+        for (SqlNode grandChild : ((MixedSqlNode) foldedChild).getContents()) {
+          changed |= append(folded, grandChild, separator);
+        }
+      } else {
+        changed |= append(folded, foldedChild, separator);
+      }
+    }
+    return changed ? new MixedSqlNode(folded) : node;
+  }
+
+  // merges adjacent static texts, joined by what the enclosing context appends after each of them
+  private boolean append(List<SqlNode> contents, SqlNode node, String separator) {
+    int last = contents.size() - 1;
+    if (last >= 0 && isText(node) && isText(contents.get(last))) {
+      String text = ((StaticTextSqlNode) contents.get(last)).getText() + separator + ((StaticTextSqlNode) node).getText();
+      contents.set(last, new StaticTextSqlNode(configuration, text));
+      return true;
+    }
+    contents.add(node);
+    return false;
+  }
+
+  private boolean isText(SqlNode node) {
+    return node.getClass() == StaticTextSqlNode.class && ((StaticTextSqlNode) node).getParameters() != null;
+  }
+
+  private SqlNode foldIf(IfSqlNode node, String separator) {
+    Boolean test = evaluateConstant(node);
+    if (test == null) {
+      SqlNode contents = fold(node.getContents(), separator);
+      return contents == node.getContents() ? node : new IfSqlNode(contents, node.getTest(), node.getEvaluator());
+    }
+    return test ? fold(node.getContents(), separator) : EMPTY;
+  }
+
+  private SqlNode foldChoose(ChooseSqlNode node, String separator) {
+    List<SqlNode> whens = new ArrayList<SqlNode>();
+    SqlNode otherwise = node.getDefaultSqlNode();
+    boolean changed = false;
+    for (SqlNode when : node.getIfSqlNodes()) {
+      Boolean test = when.getClass() == IfSqlNode.class ? evaluateConstant((IfSqlNode) when) : null;
+      if (test == null) {
+        SqlNode folded = fold(when, separator);
+        changed |= folded != when;
+        whens.add(folded);
+      } else if (test) {
+        // the following branches can never be chosen
+        otherwise = ((IfSqlNode) when).getContents();
+        changed = true;
+        break;
+      } else {
+        changed = true;
+      }
+    }
+    SqlNode foldedOtherwise = otherwise == null ? null : fold(otherwise, separator);
+    if (whens.isEmpty()) {
+      return foldedOtherwise == null ? EMPTY : foldedOtherwise;
+    }
+    if (!changed && foldedOtherwise == otherwise) {
+      return node;
+    }
+    return new ChooseSqlNode(whens, foldedOtherwise);
+  }
+
+  private SqlNode foldTrim(TrimSqlNode node) {
+    // the contents are appended to the buffer of the node, without separator
+    SqlNode contents = fold(node.getContents(), "");
+    TrimSqlNode folded = contents == node.getContents() ? node : node.withContents(contents);
+    if (!isStatic(contents)) {
+      return folded;
+    }
+    // the text of the placeholders is kept, it is parsed again by the static node
+    DynamicContext context = new DynamicContext(configuration, null);
+    folded.apply(context);
+    return new StaticTextSqlNode(configuration, context.getSql());
+  }
+
+  /**
+   * @return the value of the test, or null if it depends on the parameter or could not be evaluated
+   */
+  private Boolean evaluateConstant(IfSqlNode node) {
+    CompiledExpression compiled = ExpressionCompiler.compile(node.getTest());
+    if (compiled == null || !compiled.isConstant()) {
+      return null;
+    }
+    Map<String, Object> bindings = new DynamicContext(configuration, null).getBindings();
+    try {
+      return node.getEvaluator().evaluateBoolean(node.getTest(), bindings);
+    } catch (RuntimeException e) {
+      // reported when the statement is executed, as it was before
+      return null;
+    }
+  }
+
+  private static boolean isBound(String property) {
+    if (property == null) {
+      // a placeholder that could not be parsed is reported when the statement is executed
+      return true;
+    }
+    int end = property.length();
+    for (int i = 0; i < property.length(); i++) {
+      char c = property.charAt(i);
+      if (c == '.' || c == '[') {
+        end = i;
+        break;
+      }
+    }
+    String name = property.substring(0, end);
+    return DynamicContext.PARAMETER_OBJECT_KEY.equals(name) || DynamicContext.DATABASE_ID_KEY.equals(name);
+  }
+
+}
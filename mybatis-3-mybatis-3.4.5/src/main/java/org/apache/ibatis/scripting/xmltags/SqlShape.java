@@ -0,0 +1,67 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.util.Arrays;
+
+/**
+ * The outcomes of the dynamic nodes of a statement for a given parameter, in the order they were
+ * applied: one value per <code>&lt;if&gt;</code> or <code>&lt;when&gt;</code> test, and one per
+ * iteration plus a terminator per <code>&lt;foreach&gt;</code>. Nodes are applied in an order that
+ * only depends on these outcomes, so two parameters with the same shape produce the same sql.
+ *
+ * @since 3.4.6
+ */
+final class SqlShape {
+
+  private int[] outcomes = new int[16];
+  private int size;
+  private int hash = 1;
+
+  void add(int outcome) {
+    if (size == outcomes.length) {
+      outcomes = Arrays.copyOf(outcomes, size << 1);
+    }
+    outcomes[size++] = outcome;
+    hash = 31 * hash + outcome;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof SqlShape)) {
+      return false;
+    }
+    SqlShape other = (SqlShape) o;
+    if (hash != other.hash || size != other.size) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (outcomes[i] != other.outcomes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -15,6 +15,12 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.builder.ParameterMappingTemplate;
+import org.apache.ibatis.session.Configuration;
+
 /**
  * @author Clinton Begin
  * 使用text字段记录了对应的非动态SQL语句节点，其apply()方法直接将text
@@ -22,15 +28,44 @@ package org.apache.ibatis.scripting.xmltags;
  */
 public class StaticTextSqlNode implements SqlNode {
 	private final String text;
+	//构建时将"#{}"占位符替换为"?"后的sql片段，以及预先解析的占位符
+	private final String parameterizedText;
+	private final ParameterMappingTemplate[] parameters;
 
 	public StaticTextSqlNode(String text) {
 		this.text = text;
+		this.parameterizedText = null;
+		this.parameters = null;
+	}
+
+	public StaticTextSqlNode(Configuration configuration, String text) {
+		this.text = text;
+		List<ParameterMappingTemplate> templates = new ArrayList<ParameterMappingTemplate>();
+		this.parameterizedText = ParameterMappingTemplate.parse(configuration, text, templates, true);
+		this.parameters = templates.toArray(new ParameterMappingTemplate[templates.size()]);
 	}
 
 	@Override
 	public boolean apply(DynamicContext context) {
-		context.appendSql(text);
+		if (parameters != null && context.isCollectingParameters()) {
+			context.appendSql(parameterizedText, parameters, null);
+		} else {
+			context.appendSql(text);
+		}
 		return true;
 	}
 
+	String getText() {
+		return text;
+	}
+
+	//预先解析后的sql片段，没有通过Configuration创建时为null
+	String getParameterizedText() {
+		return parameterizedText;
+	}
+
+	ParameterMappingTemplate[] getParameters() {
+		return parameters;
+	}
+
 }
\ No newline at end of file
@@ -15,8 +15,13 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
+import org.apache.ibatis.builder.ParameterMappingTemplate;
 import org.apache.ibatis.parsing.GenericTokenParser;
 import org.apache.ibatis.parsing.TokenHandler;
 import org.apache.ibatis.scripting.ScriptingException;
@@ -25,102 +30,184 @@ import org.apache.ibatis.type.SimpleTypeRegistry;
 /**
  * @author Clinton Begin
  * 表示的是包含"${}"占位符的动态SQL节点
+ * 构建时已经将文本拆分成普通文本片段和"${}"表达式，执行时只需计算表达式的值并拼接
  */
 public class TextSqlNode implements SqlNode {
-	private final String text;
 	private final Pattern injectionFilter;
+	//拆分后的文本片段(已去除转义字符)和"${}"表达式，literals比expressions多一个元素
+	private final String[] literals;
+	private final String[] expressions;
+	//替换结果的缓存，key为各个"${}"表达式的值，为null表示不缓存
+	private final ConcurrentHashMap<Object, Substitution> substitutions;
+	private final int substitutionLimit;
 
 	public TextSqlNode(String text) {
 		this(text, null);
 	}
 
 	public TextSqlNode(String text, Pattern injectionFilter) {
-		this.text = text;
+		this(text, injectionFilter, 0);
+	}
+
+	/**
+	 * @param substitutionCacheSize the maximum number of distinct substitution results cached by the node, 0 to
+	 *          never cache them. Suits "${}" whose values come from a small domain, like sort columns
+	 * @since 3.4.6
+	 */
+	public TextSqlNode(String text, Pattern injectionFilter, int substitutionCacheSize) {
 		this.injectionFilter = injectionFilter;
+		SegmentTokenHandler segments = new SegmentTokenHandler(text);
+		segments.split(createParser(segments).parse(text));
+		this.literals = segments.getLiterals();
+		this.expressions = segments.getExpressions();
+		this.substitutionLimit = expressions.length > 0 ? substitutionCacheSize : 0;
+		this.substitutions = substitutionLimit > 0 ? new ConcurrentHashMap<Object, Substitution>() : null;
 	}
 
 	// 判断是否为动态sql
 	public boolean isDynamic() {
-		DynamicCheckerTokenParser checker = new DynamicCheckerTokenParser();
-		// 创建GenericTokenParser对象，GenericTokenParser前面已经分析过
-		GenericTokenParser parser = createParser(checker);
-		parser.parse(text);
-		return checker.isDynamic();
+		return expressions.length > 0;
 	}
 
 	@Override
 	public boolean apply(DynamicContext context) {
-		//创建解析器
-		GenericTokenParser parser = createParser(new BindingTokenParser(context, injectionFilter));
-		//将解析后的sql片段追加到后面
-		context.appendSql(parser.parse(text));
+		if (expressions.length == 0) {
+			context.appendSql(literals[0]);
+			return true;
+		}
+		bindValue(context);
+		if (substitutions == null) {
+			StringBuilder sql = new StringBuilder(literals[0]);
+			for (int i = 0; i < expressions.length; i++) {
+				String value = evaluate(expressions[i], context);
+				checkInjection(value);
+				sql.append(value).append(literals[i + 1]);
+			}
+			//将解析后的sql片段追加到后面
+			context.appendSql(sql.toString());
+			return true;
+		}
+		String[] values = new String[expressions.length];
+		for (int i = 0; i < expressions.length; i++) {
+			values[i] = evaluate(expressions[i], context);
+		}
+		Object key = values.length == 1 ? values[0] : Arrays.asList(values);
+		Substitution substitution = substitutions.get(key);
+		if (substitution == null) {
+			for (String value : values) {
+				checkInjection(value);
+			}
+			substitution = new Substitution(substitute(values), context);
+			//值的范围超出缓存上限时不再缓存新的值，已经缓存的值不受影响
+			if (substitutions.size() < substitutionLimit) {
+				substitutions.putIfAbsent(key, substitution);
+			}
+		}
+		substitution.appendTo(context);
 		return true;
 	}
-	
+
+	private String substitute(String[] values) {
+		StringBuilder sql = new StringBuilder(literals[0]);
+		for (int i = 0; i < values.length; i++) {
+			sql.append(values[i]).append(literals[i + 1]);
+		}
+		return sql.toString();
+	}
+
+	//参数是简单类型时，"${}"表达式可以通过value引用参数
+	private void bindValue(DynamicContext context) {
+		//获取用户提供的实参
+		Object parameter = context.getBindings().get("_parameter");
+		if (parameter == null) {
+			context.getBindings().put("value", null);
+		} else if (SimpleTypeRegistry.isSimpleType(parameter.getClass())) {
+			context.getBindings().put("value", parameter);
+		}
+	}
+
+	private String evaluate(String expression, DynamicContext context) {
+		//通过OGNL解析表达式的值
+		Object value = OgnlCache.getValue(expression, context.getBindings());
+		return value == null ? "" : String.valueOf(value); // issue #274 return "" instead of "null"
+	}
+
+	//检测合法性
+	private void checkInjection(String value) {
+		if (injectionFilter != null && !injectionFilter.matcher(value).matches()) {
+			throw new ScriptingException("Invalid input. Please conform to regex" + injectionFilter.pattern());
+		}
+	}
+
 	//解析"${}"片段
 	private GenericTokenParser createParser(TokenHandler handler) {
 		return new GenericTokenParser("${", "}", handler);
 	}
-	
-	//内部类
-	//根据DynamicContext.bindings集合中的信息解析SQL语句节点中的"${}"占位符
-	private static class BindingTokenParser implements TokenHandler {
-		
-		private DynamicContext context;
-		private Pattern injectionFilter;
-
-		public BindingTokenParser(DynamicContext context, Pattern injectionFilter) {
-			this.context = context;
-			this.injectionFilter = injectionFilter;
-		}
-		
-		
-		@Override
-		public String handleToken(String content) {
-			//获取用户提供的实参
-			Object parameter = context.getBindings().get("_parameter");
-			if (parameter == null) {
-				context.getBindings().put("value", null);
-			} else if (SimpleTypeRegistry.isSimpleType(parameter.getClass())) {
-				context.getBindings().put("value", parameter);
+
+	//某组"${}"表达式的值替换后的sql片段，收集占位符时其中的"#{}"占位符也已经预先解析
+	private static class Substitution {
+		private final String sql;
+		private final String parsedSql;
+		private final ParameterMappingTemplate[] parameters;
+
+		Substitution(String sql, DynamicContext context) {
+			this.sql = sql;
+			if (context.isCollectingParameters() && sql.contains("#{")) {
+				List<ParameterMappingTemplate> templates = new ArrayList<ParameterMappingTemplate>();
+				this.parsedSql = ParameterMappingTemplate.parse(context.getConfiguration(), sql, templates, true);
+				this.parameters = templates.toArray(new ParameterMappingTemplate[templates.size()]);
+			} else {
+				this.parsedSql = null;
+				this.parameters = null;
 			}
-			//通过OGNL解析content的值
-			Object value = OgnlCache.getValue(content, context.getBindings());
-			String srtValue = (value == null ? "" : String.valueOf(value)); // issue
-																			// #274
-																			// return
-																			// ""
-																			// instead
-																			// of
-			//检测合法性																// "null"
-			checkInjection(srtValue);
-			return srtValue;
 		}
 
-		private void checkInjection(String value) {
-			if (injectionFilter != null && !injectionFilter.matcher(value).matches()) {
-				throw new ScriptingException("Invalid input. Please conform to regex" + injectionFilter.pattern());
+		void appendTo(DynamicContext context) {
+			if (parameters != null && context.isCollectingParameters()) {
+				context.appendSql(parsedSql, parameters, null);
+			} else {
+				context.appendSql(sql);
 			}
 		}
 	}
 
-	private static class DynamicCheckerTokenParser implements TokenHandler {
+	//记录"${}"表达式，并用text中没有出现过的字符代替表达式，再按该字符拆分出文本片段
+	private static class SegmentTokenHandler implements TokenHandler {
+		private final String marker;
+		private final List<String> expressions = new ArrayList<String>();
+		private final List<String> literals = new ArrayList<String>();
 
-		private boolean isDynamic;
+		public SegmentTokenHandler(String text) {
+			char marker = '\uE000';
+			while (text != null && text.indexOf(marker) >= 0) {
+				marker++;
+			}
+			this.marker = String.valueOf(marker);
+		}
+
+		@Override
+		public String handleToken(String content) {
+			expressions.add(content);
+			return marker;
+		}
 
-		public DynamicCheckerTokenParser() {
-			// Prevent Synthetic Access
+		void split(String parsed) {
+			int start = 0;
+			for (int i = 0; i < expressions.size(); i++) {
+				int end = parsed.indexOf(marker, start);
+				literals.add(parsed.substring(start, end));
+				start = end + 1;
+			}
+			literals.add(parsed.substring(start));
 		}
 
-		public boolean isDynamic() {
-			return isDynamic;
+		String[] getLiterals() {
+			return literals.toArray(new String[literals.size()]);
 		}
 
-		@Override
-		public String handleToken(String content) {
-			this.isDynamic = true;
-			return null;
+		String[] getExpressions() {
+			return expressions.toArray(new String[expressions.size()]);
 		}
 	}
 
-}
\ No newline at end of file
+}
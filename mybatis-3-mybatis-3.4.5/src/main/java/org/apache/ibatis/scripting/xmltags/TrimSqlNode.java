@@ -22,6 +22,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
 
+import org.apache.ibatis.builder.ParameterMappingTemplate;
 import org.apache.ibatis.session.Configuration;
 
 /**
@@ -40,6 +41,9 @@ public class TrimSqlNode implements SqlNode {
 	//如果包括的是空sql语句，则删除后缀
 	private final List<String> suffixesToOverride;
 	private final Configuration configuration;
+	//上一次处理后的sql长度和占位符个数，用于预先分配FilteredDynamicContext的缓冲区
+	private volatile int sqlLength = 16;
+	private volatile int parameterCount = 10;
 
 	public TrimSqlNode(Configuration configuration, SqlNode contents, String prefix, String prefixesToOverride,
 			String suffix, String suffixesToOverride) {
@@ -59,6 +63,10 @@ public class TrimSqlNode implements SqlNode {
 
 	@Override
 	public boolean apply(DynamicContext context) {
+		//只记录形状时不会拼接sql片段，也就不需要处理前缀和后缀
+		if (context.isRecordingShape()) {
+			return contents.apply(context);
+		}
 		FilteredDynamicContext filteredDynamicContext = new FilteredDynamicContext(context);
 		boolean result = contents.apply(filteredDynamicContext);
 		//处理前缀和后缀
@@ -66,6 +74,15 @@ public class TrimSqlNode implements SqlNode {
 		return result;
 	}
 	
+	SqlNode getContents() {
+		return contents;
+	}
+
+	//创建前缀、后缀相同，但子节点不同的TrimSqlNode对象，由SqlNodeFolder替换折叠后的子节点
+	TrimSqlNode withContents(SqlNode contents) {
+		return new TrimSqlNode(configuration, contents, prefix, prefixesToOverride, suffix, suffixesToOverride);
+	}
+
 	private static List<String> parseOverrides(String overrides) {
 		if (overrides != null) {
 			//按照"|"进行分割
@@ -87,24 +104,40 @@ public class TrimSqlNode implements SqlNode {
 		private boolean suffixApplied;
 		//记录子节点解析后的结果
 		private StringBuilder sqlBuffer;
+		//子节点追加的占位符，与sqlBuffer中的"?"一一对应，在applyAll()时一起交给delegate
+		private List<ParameterMappingTemplate> parameters;
+		private List<String> properties;
+		private List<Class<?>> propertyTypes;
 
 		public FilteredDynamicContext(DynamicContext delegate) {
-			super(configuration, null);
+			super(configuration);
 			this.delegate = delegate;
 			this.prefixApplied = false;
 			this.suffixApplied = false;
-			this.sqlBuffer = new StringBuilder();
+			this.sqlBuffer = new StringBuilder(sqlLength);
 		}
 		
 		public void applyAll() {
 			//获取子节点解析后的结果，并全部转换为大写
-			sqlBuffer = new StringBuilder(sqlBuffer.toString().trim());
+			trim(sqlBuffer);
 			String trimmedUppercaseSql = sqlBuffer.toString().toUpperCase(Locale.ENGLISH);
 			if (trimmedUppercaseSql.length() > 0) {
 				applyPrefix(sqlBuffer, trimmedUppercaseSql);
 				applySuffix(sqlBuffer, trimmedUppercaseSql);
 			}
-			delegate.appendSql(sqlBuffer.toString());
+			if (sqlBuffer.length() != sqlLength) {
+				sqlLength = sqlBuffer.length();
+			}
+			if (parameters != null && parameters.size() != parameterCount) {
+				parameterCount = parameters.size();
+			}
+			if (isCollectingParameters()) {
+				// sqlBuffer中已经没有需要解析的占位符，不能再走appendSql(String)
+				delegate.appendSql(sqlBuffer.toString(), toArray(parameters, new ParameterMappingTemplate[0]),
+						toArray(properties, new String[0]), toArray(propertyTypes, new Class<?>[0]));
+			} else {
+				delegate.appendSql(sqlBuffer.toString());
+			}
 		}
 
 		@Override
@@ -124,7 +157,32 @@ public class TrimSqlNode implements SqlNode {
 
 		@Override
 		public void appendSql(String sql) {
+			//执行时产生的占位符需要立即解析，保证参数的顺序与sqlBuffer中"?"的顺序一致
+			if (sql != null && sql.contains("#{") && isCollectingParameters()) {
+				appendParsedSql(sql);
+			} else {
+				sqlBuffer.append(sql);
+			}
+		}
+
+		@Override
+		public boolean isCollectingParameters() {
+			return delegate.isCollectingParameters();
+		}
+
+		@Override
+		public void appendSql(String sql, ParameterMappingTemplate[] parameters, String[] properties,
+				Class<?>[] propertyTypes) {
 			sqlBuffer.append(sql);
+			if (parameters.length == 0) {
+				return;
+			}
+			initParameters(parameters.length);
+			for (int i = 0; i < parameters.length; i++) {
+				this.parameters.add(parameters[i]);
+				this.properties.add(properties == null ? parameters[i].getProperty() : properties[i]);
+				this.propertyTypes.add(propertyTypes == null ? null : propertyTypes[i]);
+			}
 		}
 
 		@Override
@@ -132,6 +190,61 @@ public class TrimSqlNode implements SqlNode {
 			return delegate.getSql();
 		}
 
+		@Override
+		public int getChunk() {
+			return delegate.getChunk();
+		}
+
+		@Override
+		public void setChunkCount(int chunkCount) {
+			delegate.setChunkCount(chunkCount);
+		}
+
+		//前缀和后缀中的"#{}"占位符也需要解析，其参数插入到index位置，与sqlBuffer中"?"的顺序保持一致
+		private String parsePlaceholders(String text, int index) {
+			if (!isCollectingParameters() || !text.contains("#{")) {
+				return text;
+			}
+			List<ParameterMappingTemplate> templates = new ArrayList<ParameterMappingTemplate>();
+			String parsedText = ParameterMappingTemplate.parse(configuration, text, templates, false);
+			initParameters(templates.size());
+			for (int i = 0; i < templates.size(); i++) {
+				parameters.add(index + i, templates.get(i));
+				properties.add(index + i, templates.get(i).getProperty());
+				propertyTypes.add(index + i, null);
+			}
+			return parsedText;
+		}
+
+		private void initParameters(int count) {
+			if (parameters == null) {
+				int capacity = Math.max(parameterCount, count);
+				parameters = new ArrayList<ParameterMappingTemplate>(capacity);
+				properties = new ArrayList<String>(capacity);
+				propertyTypes = new ArrayList<Class<?>>(capacity);
+			}
+		}
+
+		//与String.trim()相同，但直接在sqlBuffer上删除首尾的空白字符，避免复制
+		private void trim(StringBuilder sql) {
+			int end = sql.length();
+			while (end > 0 && sql.charAt(end - 1) <= ' ') {
+				end--;
+			}
+			sql.setLength(end);
+			int start = 0;
+			while (start < end && sql.charAt(start) <= ' ') {
+				start++;
+			}
+			if (start > 0) {
+				sql.delete(0, start);
+			}
+		}
+
+		private <T> T[] toArray(List<T> list, T[] empty) {
+			return list == null ? empty : list.toArray(empty);
+		}
+
 		private void applyPrefix(StringBuilder sql, String trimmedUppercaseSql) {
 			if (!prefixApplied) {
 				prefixApplied = true;
@@ -145,7 +258,7 @@ public class TrimSqlNode implements SqlNode {
 				}
 				if (prefix != null) {
 					sql.insert(0, " ");
-					sql.insert(0, prefix);
+					sql.insert(0, parsePlaceholders(prefix, 0));
 				}
 			}
 		}
@@ -165,7 +278,7 @@ public class TrimSqlNode implements SqlNode {
 				}
 				if (suffix != null) {
 					sql.append(" ");
-					sql.append(suffix);
+					sql.append(parsePlaceholders(suffix, parameters == null ? 0 : parameters.size()));
 				}
 			}
 		}
@@ -57,7 +57,7 @@ public class XMLLanguageDriver implements LanguageDriver {
 		} else {
 			// issue #127
 			script = PropertyParser.parse(script, configuration.getVariables());
-			TextSqlNode textSqlNode = new TextSqlNode(script);
+			TextSqlNode textSqlNode = new TextSqlNode(script, null, configuration.getSubstitutionCacheSize());
 			if (textSqlNode.isDynamic()) {
 				return new DynamicSqlSource(configuration, textSqlNode);
 			} else {
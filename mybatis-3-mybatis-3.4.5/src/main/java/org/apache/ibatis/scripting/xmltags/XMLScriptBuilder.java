@@ -36,16 +36,26 @@ public class XMLScriptBuilder extends BaseBuilder {
 
 	private final XNode context;
 	private boolean isDynamic;
+	//是否含有"${}"占位符，替换后的sql语句依赖于参数的值，不能按形状缓存
+	private boolean hasSubstitutions;
 	private final Class<?> parameterType;
+	//解析<if>、<when>、<foreach>和<bind>节点中表达式的ExpressionEvaluator对象
+	private final ExpressionEvaluator evaluator;
 
 	public XMLScriptBuilder(Configuration configuration, XNode context) {
 		this(configuration, context, null);
 	}
 
 	public XMLScriptBuilder(Configuration configuration, XNode context, Class<?> parameterType) {
+		this(configuration, context, parameterType, new ExpressionEvaluator());
+	}
+
+	public XMLScriptBuilder(Configuration configuration, XNode context, Class<?> parameterType,
+			ExpressionEvaluator evaluator) {
 		super(configuration);
 		this.context = context;
 		this.parameterType = parameterType;
+		this.evaluator = evaluator;
 	}
 
 	public SqlSource parseScriptNode() {
@@ -56,7 +66,15 @@ public class XMLScriptBuilder extends BaseBuilder {
 		SqlSource sqlSource = null;
 		//根据是否是动态SQL，创建相应的SqlSource对象
 		if (isDynamic) {
-			sqlSource = new DynamicSqlSource(configuration, rootSqlNode);
+			//在构建时折叠test表达式为常量的节点，折叠后只剩下静态文本的sql语句与参数无关，同样使用RawSqlSource。
+			//RawSqlSource根据parameterType确定参数的类型，没有指定parameterType时仍由DynamicSqlSource根据实参确定
+			SqlNodeFolder folder = new SqlNodeFolder(configuration);
+			SqlNode foldedSqlNode = folder.fold(rootSqlNode);
+			if (parameterType != null && folder.isStatic(foldedSqlNode)) {
+				sqlSource = new RawSqlSource(configuration, foldedSqlNode, parameterType);
+			} else {
+				sqlSource = new DynamicSqlSource(configuration, foldedSqlNode, !hasSubstitutions);
+			}
 		} else {
 			sqlSource = new RawSqlSource(configuration, rootSqlNode, parameterType);
 		}
@@ -76,14 +94,15 @@ public class XMLScriptBuilder extends BaseBuilder {
 			if (child.getNode().getNodeType() == Node.CDATA_SECTION_NODE
 					|| child.getNode().getNodeType() == Node.TEXT_NODE) {
 				String data = child.getStringBody("");
-				TextSqlNode textSqlNode = new TextSqlNode(data);
+				TextSqlNode textSqlNode = new TextSqlNode(data, null, configuration.getSubstitutionCacheSize());
 				//解析sql语句，如果含有未解析的'${}'占位符，则为动态sql
 				if (textSqlNode.isDynamic()) {
 					contents.add(textSqlNode);
 					//标记为动态sql语句
 					isDynamic = true;
+					hasSubstitutions = true;
 				} else {
-					contents.add(new StaticTextSqlNode(data));
+					contents.add(new StaticTextSqlNode(configuration, data));
 				}
 			//如果子节点是一个标签，那么一定是动态SQL，并且根据不同的动态标签生成不同的NodeHandler
 			} else if (child.getNode().getNodeType() == Node.ELEMENT_NODE) { // issue
@@ -129,7 +148,7 @@ public class XMLScriptBuilder extends BaseBuilder {
 		public void handleNode(XNode nodeToHandle, List<SqlNode> targetContents) {
 			final String name = nodeToHandle.getStringAttribute("name");
 			final String expression = nodeToHandle.getStringAttribute("value");
-			final VarDeclSqlNode node = new VarDeclSqlNode(name, expression);
+			final VarDeclSqlNode node = new VarDeclSqlNode(name, expression, evaluator);
 			targetContents.add(node);
 		}
 	}
@@ -196,8 +215,11 @@ public class XMLScriptBuilder extends BaseBuilder {
 			String open = nodeToHandle.getStringAttribute("open");
 			String close = nodeToHandle.getStringAttribute("close");
 			String separator = nodeToHandle.getStringAttribute("separator");
+			//padding为true时将元素个数补齐到2的幂，chunkSize为查询语句中每条sql语句最多包含的元素个数
+			boolean padding = nodeToHandle.getBooleanAttribute("padding", false);
+			int chunkSize = nodeToHandle.getIntAttribute("chunkSize", 0);
 			ForEachSqlNode forEachSqlNode = new ForEachSqlNode(configuration, mixedSqlNode, collection, index, item,
-					open, close, separator);
+					open, close, separator, evaluator, padding, chunkSize);
 			targetContents.add(forEachSqlNode);
 		}
 	}
@@ -212,7 +234,7 @@ public class XMLScriptBuilder extends BaseBuilder {
 			List<SqlNode> contents = parseDynamicTags(nodeToHandle);
 			MixedSqlNode mixedSqlNode = new MixedSqlNode(contents);
 			String test = nodeToHandle.getStringAttribute("test");
-			IfSqlNode ifSqlNode = new IfSqlNode(mixedSqlNode, test);
+			IfSqlNode ifSqlNode = new IfSqlNode(mixedSqlNode, test, evaluator);
 			targetContents.add(ifSqlNode);
 		}
 	}
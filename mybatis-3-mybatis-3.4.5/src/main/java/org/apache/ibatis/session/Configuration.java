@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.ibatis.binding.MapperRegistry;
 import org.apache.ibatis.builder.CacheRefResolver;
@@ -31,13 +32,20 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheListener;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.impl.SnapshotCache;
+import org.apache.ibatis.cache.invalidation.FileJournalInvalidationTransport;
+import org.apache.ibatis.cache.invalidation.InvalidationTransport;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
+import org.apache.ibatis.datasource.pooled.ConcurrentPooledDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+import org.apache.ibatis.datasource.routing.RoutingDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.executor.BatchExecutor;
 import org.apache.ibatis.executor.CachingExecutor;
@@ -82,6 +90,7 @@ import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
 import org.apache.ibatis.scripting.LanguageDriver;
 import org.apache.ibatis.scripting.LanguageDriverRegistry;
 import org.apache.ibatis.scripting.defaults.RawLanguageDriver;
+import org.apache.ibatis.scripting.xmltags.CompiledXMLLanguageDriver;
 import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
 import org.apache.ibatis.transaction.Transaction;
 import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
@@ -109,6 +118,8 @@ public class Configuration {
 	protected boolean callSettersOnNulls;
 	protected boolean useActualParamName = true;
 	protected boolean returnInstanceForEmptyRow;
+	protected boolean cacheStatisticsEnabled;
+	protected boolean cacheStatisticsJmxEnabled;
 
 	protected String logPrefix;
 	protected Class<? extends Log> logImpl;
@@ -119,6 +130,12 @@ public class Configuration {
 			Arrays.asList(new String[] { "equals", "clone", "hashCode", "toString" }));
 	protected Integer defaultStatementTimeout;
 	protected Integer defaultFetchSize;
+	// 每个动态sql语句按形状缓存的sql语句个数，0表示不缓存，达到上限后新的形状不再缓存
+	protected int dynamicSqlCacheSize;
+	// 每个"${}"文本节点缓存的替换结果个数，0表示不缓存
+	protected int substitutionCacheSize;
+	// 每条不可变语句缓存的结果个数(每个不同的参数一个)，达到上限后新参数的查询结果不再缓存
+	protected int snapshotCacheSize = SnapshotCache.DEFAULT_SIZE;
 	protected ExecutorType defaultExecutorType = ExecutorType.SIMPLE;
 	protected AutoMappingBehavior autoMappingBehavior = AutoMappingBehavior.PARTIAL;
 	protected AutoMappingUnknownColumnBehavior autoMappingUnknownColumnBehavior = AutoMappingUnknownColumnBehavior.NONE;
@@ -127,6 +144,8 @@ public class Configuration {
 	protected ReflectorFactory reflectorFactory = new DefaultReflectorFactory();
 	protected ObjectFactory objectFactory = new DefaultObjectFactory();
 	protected ObjectWrapperFactory objectWrapperFactory = new DefaultObjectWrapperFactory();
+	// 在多个节点间传播二级缓存失效的传输方式，为null时二级缓存只在本节点内有效
+	protected InvalidationTransport invalidationTransport;
 
 	protected boolean lazyLoadingEnabled = false;
 	protected ProxyFactory proxyFactory = new JavassistProxyFactory(); // #224
@@ -160,6 +179,11 @@ public class Configuration {
 			"Mapped Statements collection");
 	// 保存缓存对象cache的集合
 	protected final Map<String, Cache> caches = new StrictMap<Cache>("Caches collection");
+	// 二级缓存的统计信息，key为cache的id
+	protected final Map<String, CacheStatistics> cacheStatistics = new HashMap<String, CacheStatistics>();
+	protected final List<CacheListener> cacheListeners = new CopyOnWriteArrayList<CacheListener>();
+	// 所有会话一级缓存的统计信息
+	protected final CacheStatistics localCacheStatistics = new CacheStatistics("LocalCache", cacheListeners);
 	protected final Map<String, ResultMap> resultMaps = new StrictMap<ResultMap>("Result Maps collection");
 	protected final Map<String, ParameterMap> parameterMaps = new StrictMap<ParameterMap>("Parameter Maps collection");
 	protected final Map<String, KeyGenerator> keyGenerators = new StrictMap<KeyGenerator>("Key Generators collection");
@@ -191,6 +215,8 @@ public class Configuration {
 
 		typeAliasRegistry.registerAlias("JNDI", JndiDataSourceFactory.class);
 		typeAliasRegistry.registerAlias("POOLED", PooledDataSourceFactory.class);
+		typeAliasRegistry.registerAlias("CONCURRENT_POOLED", ConcurrentPooledDataSourceFactory.class);
+		typeAliasRegistry.registerAlias("ROUTING", RoutingDataSourceFactory.class);
 		typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
 
 		typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
@@ -199,10 +225,13 @@ public class Configuration {
 		typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
 		typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
 
+		typeAliasRegistry.registerAlias("JOURNAL", FileJournalInvalidationTransport.class);
+
 		typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
 		typeAliasRegistry.registerAlias("XML", XMLLanguageDriver.class);
 		typeAliasRegistry.registerAlias("RAW", RawLanguageDriver.class);
+		typeAliasRegistry.registerAlias("COMPILED_XML", CompiledXMLLanguageDriver.class);
 
 		typeAliasRegistry.registerAlias("SLF4J", Slf4jImpl.class);
 		typeAliasRegistry.registerAlias("COMMONS_LOGGING", JakartaCommonsLoggingImpl.class);
@@ -418,6 +447,95 @@ public class Configuration {
 		this.cacheEnabled = cacheEnabled;
 	}
 
+	/**
+	 * @return true if the caches (local and second level) built from now on collect statistics.
+	 *         Enabling JMX export or registering a listener implies it.
+	 * @since 3.4.6
+	 */
+	public boolean isCacheStatisticsEnabled() {
+		return cacheStatisticsEnabled || cacheStatisticsJmxEnabled || !cacheListeners.isEmpty();
+	}
+
+	/**
+	 * @since 3.4.6
+	 */
+	public void setCacheStatisticsEnabled(boolean cacheStatisticsEnabled) {
+		this.cacheStatisticsEnabled = cacheStatisticsEnabled;
+	}
+
+	/**
+	 * @since 3.4.6
+	 */
+	public boolean isCacheStatisticsJmxEnabled() {
+		return cacheStatisticsJmxEnabled;
+	}
+
+	/**
+	 * Cache statistics are registered as MBeans when the SqlSessionFactory is built,
+	 * and unregistered by {@link #unregisterCacheStatistics()}.
+	 * @since 3.4.6
+	 */
+	public void setCacheStatisticsJmxEnabled(boolean cacheStatisticsJmxEnabled) {
+		this.cacheStatisticsJmxEnabled = cacheStatisticsJmxEnabled;
+	}
+
+	/**
+	 * Listeners are notified by every cache with statistics, including the ones already built.
+	 * @since 3.4.6
+	 */
+	public void addCacheListener(CacheListener listener) {
+		cacheListeners.add(listener);
+	}
+
+	/**
+	 * @since 3.4.6
+	 */
+	public List<CacheListener> getCacheListeners() {
+		return cacheListeners;
+	}
+
+	/**
+	 * @since 3.4.6
+	 */
+	public void addCacheStatistics(CacheStatistics statistics) {
+		cacheStatistics.put(statistics.getId(), statistics);
+	}
+
+	/**
+	 * @return the statistics of a second level cache, or null if it does not collect them
+	 * @since 3.4.6
+	 */
+	public CacheStatistics getCacheStatistics(String cacheId) {
+		return cacheStatistics.get(cacheId);
+	}
+
+	/**
+	 * @since 3.4.6
+	 */
+	public Collection<CacheStatistics> getCacheStatistics() {
+		return cacheStatistics.values();
+	}
+
+	/**
+	 * @return the statistics aggregated over the local cache of every session
+	 * @since 3.4.6
+	 */
+	public CacheStatistics getLocalCacheStatistics() {
+		return localCacheStatistics;
+	}
+
+	/**
+	 * Unregisters the cache statistics MBeans of this configuration, see
+	 * {@link org.apache.ibatis.session.defaults.DefaultSqlSessionFactory#close()}.
+	 * @since 3.4.6
+	 */
+	public void unregisterCacheStatistics() {
+		for (CacheStatistics statistics : cacheStatistics.values()) {
+			statistics.unregisterMBean();
+		}
+		localCacheStatistics.unregisterMBean();
+	}
+
 	public Integer getDefaultStatementTimeout() {
 		return defaultStatementTimeout;
 	}
@@ -440,6 +558,60 @@ public class Configuration {
 		this.defaultFetchSize = defaultFetchSize;
 	}
 
+	/**
+	 * @return the maximum number of sql strings a dynamic statement caches by shape (the outcomes of its
+	 *         tests and the sizes of its collections), 0 if they are not cached
+	 * @since 3.4.6
+	 */
+	public int getDynamicSqlCacheSize() {
+		return dynamicSqlCacheSize;
+	}
+
+	/**
+	 * Applies to the statements built afterwards. With a cache, tests and bind expressions are evaluated
+	 * once more when a statement meets a new shape. Statements with ${} are never cached. Once the limit
+	 * is reached the new shapes are not cached any more, the cached ones are kept.
+	 * @since 3.4.6
+	 */
+	public void setDynamicSqlCacheSize(int dynamicSqlCacheSize) {
+		this.dynamicSqlCacheSize = dynamicSqlCacheSize;
+	}
+
+	/**
+	 * @return the maximum number of distinct ${} substitution results each text node caches, with their
+	 *         #{} placeholders already parsed, 0 if they are not cached
+	 * @since 3.4.6
+	 */
+	public int getSubstitutionCacheSize() {
+		return substitutionCacheSize;
+	}
+
+	/**
+	 * Applies to the statements built afterwards. Meant for ${} whose values come from a small domain, like sort
+	 * columns: once a node has cached this many results, new values are substituted without being cached.
+	 * @since 3.4.6
+	 */
+	public void setSubstitutionCacheSize(int substitutionCacheSize) {
+		this.substitutionCacheSize = substitutionCacheSize;
+	}
+
+	/**
+	 * @return the maximum number of results (one per distinct parameter) each immutable statement caches
+	 * @since 3.4.6
+	 */
+	public int getSnapshotCacheSize() {
+		return snapshotCacheSize;
+	}
+
+	/**
+	 * Applies to the statements built afterwards. Once an immutable statement has cached this many results,
+	 * queries with new parameters are executed without being cached.
+	 * @since 3.4.6
+	 */
+	public void setSnapshotCacheSize(int snapshotCacheSize) {
+		this.snapshotCacheSize = snapshotCacheSize;
+	}
+
 	public boolean isUseColumnLabel() {
 		return useColumnLabel;
 	}
@@ -509,6 +681,21 @@ public class Configuration {
 		this.reflectorFactory = reflectorFactory;
 	}
 
+	/**
+	 * @since 3.4.6
+	 */
+	public InvalidationTransport getInvalidationTransport() {
+		return invalidationTransport;
+	}
+
+	/**
+	 * Only the caches built from now on use the transport.
+	 * @since 3.4.6
+	 */
+	public void setInvalidationTransport(InvalidationTransport invalidationTransport) {
+		this.invalidationTransport = invalidationTransport;
+	}
+
 	public ObjectFactory getObjectFactory() {
 		return objectFactory;
 	}
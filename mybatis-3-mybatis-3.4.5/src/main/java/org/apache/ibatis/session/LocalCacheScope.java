@@ -19,5 +19,11 @@ package org.apache.ibatis.session;
  * @author Eduardo Macarron
  */
 public enum LocalCacheScope {
-  SESSION,STATEMENT
+  SESSION,STATEMENT,
+  /**
+   * Top level queries do not use the local cache at all. Nested queries still use it
+   * to resolve circular references, it is cleared when the top level query ends.
+   * @since 3.4.6
+   */
+  NONE
 }
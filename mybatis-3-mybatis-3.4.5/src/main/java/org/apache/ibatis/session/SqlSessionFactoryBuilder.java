@@ -18,11 +18,17 @@ package org.apache.ibatis.session;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
 import org.apache.ibatis.builder.xml.XMLConfigBuilder;
 import org.apache.ibatis.exceptions.ExceptionFactory;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
 
 /**
@@ -33,6 +39,8 @@ import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
  */
 public class SqlSessionFactoryBuilder {
 
+	private static final Log log = LogFactory.getLog(SqlSessionFactoryBuilder.class);
+
 	public SqlSessionFactory build(Reader reader) {
 		return build(reader, null, null);
 	}
@@ -94,7 +102,58 @@ public class SqlSessionFactoryBuilder {
 	}
 
 	public SqlSessionFactory build(Configuration config) {
-		return new DefaultSqlSessionFactory(config);
+		SqlSessionFactory sqlSessionFactory = new DefaultSqlSessionFactory(config);
+		//将缓存统计信息注册为MBean，由DefaultSqlSessionFactory.close()注销
+		if (config.isCacheStatisticsJmxEnabled()) {
+			registerCacheStatistics(config);
+		}
+		//预加载标记了preload的不可变语句
+		preloadImmutableStatements(sqlSessionFactory, config);
+		return sqlSessionFactory;
+	}
+
+	private void registerCacheStatistics(Configuration config) {
+		//同一个JVM中可能存在多个命名空间相同的SqlSessionFactory，MBean的名称中包含Configuration对象的标识
+		String scope = (config.getEnvironment() == null ? "default" : config.getEnvironment().getId()) + "@"
+				+ Integer.toHexString(System.identityHashCode(config));
+		for (CacheStatistics statistics : config.getCacheStatistics()) {
+			registerCacheStatistics(statistics, scope);
+		}
+		registerCacheStatistics(config.getLocalCacheStatistics(), scope);
+	}
+
+	private void registerCacheStatistics(CacheStatistics statistics, String scope) {
+		//名称已被占用时不注册，也不替换其他Configuration的MBean
+		if (statistics.registerMBean(scope) == null) {
+			log.warn("Statistics MBean of cache " + statistics.getId() + " is already registered for " + scope);
+		}
+	}
+
+	private void preloadImmutableStatements(SqlSessionFactory sqlSessionFactory, Configuration config) {
+		//存在未完成解析的语句时不触发其构建，相关错误仍在首次使用时抛出
+		if (config.getEnvironment() == null || !config.getIncompleteStatements().isEmpty()) {
+			return;
+		}
+		//mappedStatements集合中同一语句会以全名和简称各保存一次
+		Set<String> preloaded = new HashSet<String>();
+		for (Object value : config.getMappedStatements()) {
+			if (!(value instanceof MappedStatement)) {
+				continue;
+			}
+			MappedStatement ms = (MappedStatement) value;
+			if (!ms.isPreload() || !preloaded.add(ms.getId())) {
+				continue;
+			}
+			SqlSession session = sqlSessionFactory.openSession();
+			try {
+				session.selectList(ms.getId());
+			} catch (RuntimeException e) {
+				//预加载失败时退化为首次查询时加载
+				log.warn("Could not preload immutable statement '" + ms.getId() + "', it will be loaded on first use. Cause: " + e);
+			} finally {
+				session.close();
+			}
+		}
 	}
 
 }
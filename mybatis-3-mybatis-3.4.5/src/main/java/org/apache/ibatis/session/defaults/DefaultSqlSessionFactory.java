@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.session.defaults;
 
+import java.io.Closeable;
 import java.sql.Connection;
 import java.sql.SQLException;
 
@@ -35,7 +36,7 @@ import org.apache.ibatis.transaction.managed.ManagedTransactionFactory;
  * @author Clinton Begin
  * 具体的工厂类，提供了两种创建DefaultSqlSession对象的方法
  */
-public class DefaultSqlSessionFactory implements SqlSessionFactory {
+public class DefaultSqlSessionFactory implements SqlSessionFactory, Closeable {
 
 	private final Configuration configuration;
 
@@ -87,6 +88,16 @@ public class DefaultSqlSessionFactory implements SqlSessionFactory {
 	public Configuration getConfiguration() {
 		return configuration;
 	}
+
+	/**
+	 * Releases what the factory registered when it was built, like the cache statistics
+	 * MBeans. The factory is still usable, but should be discarded.
+	 * @since 3.4.6
+	 */
+	@Override
+	public void close() {
+		configuration.unregisterCacheStatistics();
+	}
 	
 	//通过数据源获取数据库连接，并创建Executor对象以及DefaultSqlSession对象
 	private SqlSession openSessionFromDataSource(ExecutorType execType, TransactionIsolationLevel level,
@@ -0,0 +1,177 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.builder.xml.dynamic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.xmltags.CompiledExpressionEvaluator;
+import org.apache.ibatis.scripting.xmltags.CompiledXMLLanguageDriver;
+import org.apache.ibatis.scripting.xmltags.DynamicContext;
+import org.apache.ibatis.scripting.xmltags.ExpressionEvaluator;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class CompiledExpressionEvaluatorTest {
+
+  private CompiledExpressionEvaluator evaluator = new CompiledExpressionEvaluator();
+
+  @Test
+  public void shouldCompileCommonConditions() {
+    Author author = new Author(1, "cbegin", null, "cbegin@apache.org", "N/A", Section.NEWS);
+    assertTrue(evaluator.evaluateBoolean("username != null and username != ''", author));
+    assertFalse(evaluator.evaluateBoolean("password != null or id gt 1", author));
+    assertTrue(evaluator.evaluateBoolean("!(id >= 2) && username.length() == 6", author));
+    assertTrue(evaluator.isCompiled("username != null and username != ''"));
+    assertTrue(evaluator.isCompiled("password != null or id gt 1"));
+    assertTrue(evaluator.isCompiled("!(id >= 2) && username.length() == 6"));
+  }
+
+  @Test
+  public void shouldFallBackToOgnl() {
+    Author author = new Author(1, "cbegin", null, "cbegin@apache.org", "N/A", Section.NEWS);
+    assertTrue(evaluator.evaluateBoolean("username.startsWith('cb')", author));
+    assertFalse(evaluator.isCompiled("username.startsWith('cb')"));
+    assertTrue(evaluator.evaluateBoolean("id in {1, 2}", author));
+    assertFalse(evaluator.isCompiled("id in {1, 2}"));
+  }
+
+  @Test
+  public void shouldFallBackToOgnlForPseudoProperties() {
+    Map<String, Object> parameterObject = new HashMap<String, Object>();
+    parameterObject.put("ids", Arrays.asList(1, 2, 3));
+    assertEquals(3, evaluator.evaluate("ids.size", parameterObject));
+    assertEquals(3, evaluator.evaluate("ids.size()", parameterObject));
+  }
+
+  @Test
+  public void shouldNotCallGettersTwiceWhenAStepIsLeftToOgnl() {
+    CountingBean bean = new CountingBean();
+    assertTrue(evaluator.evaluateBoolean("items.size == 2", bean));
+    assertTrue(evaluator.isCompiled("items.size == 2"));
+    assertEquals(1, bean.calls);
+  }
+
+  @Test
+  public void shouldReportErrorsLikeOgnl() {
+    Map<String, Object> parameterObject = new HashMap<String, Object>();
+    parameterObject.put("author", null);
+    assertEquals(ognlError("author.username != null", parameterObject),
+        compiledError("author.username != null", parameterObject));
+
+    CountingBean bean = new CountingBean();
+    String error = compiledError("broken != null", bean);
+    assertTrue(error, error.startsWith("Error evaluating expression 'broken != null'. Cause: "));
+    assertTrue(error, error.contains("Broken getter"));
+    assertEquals(1, bean.calls);
+  }
+
+  @Test
+  public void shouldReturnLastEvaluatedOperand() {
+    Map<String, Object> parameterObject = new HashMap<String, Object>();
+    parameterObject.put("count", 0);
+    parameterObject.put("limit", 5);
+    assertEquals(5, evaluator.evaluate("count or limit", parameterObject));
+    assertEquals(0, evaluator.evaluate("limit and count", parameterObject));
+  }
+
+  @Test
+  public void shouldCompareCharLiteralsLikeOgnl() {
+    Map<String, Object> parameterObject = new HashMap<String, Object>();
+    parameterObject.put("flag", 'Y');
+    parameterObject.put("code", "YES");
+    assertTrue(evaluator.evaluateBoolean("flag == 'Y'", parameterObject));
+    assertTrue(evaluator.evaluateBoolean("code == \"YES\"", parameterObject));
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void shouldFailLikeOgnlWhenComparingStringToChar() {
+    Map<String, Object> parameterObject = new HashMap<String, Object>();
+    parameterObject.put("code", "YES");
+    evaluator.evaluateBoolean("code == 'N'", parameterObject);
+  }
+
+  @Test
+  public void shouldResolveParameterObjectThroughContext() {
+    Map<String, Object> parameterObject = new HashMap<String, Object>();
+    parameterObject.put("id", 10);
+    DynamicContext context = new DynamicContext(new Configuration(), parameterObject);
+    context.bind("limit", 5);
+    assertTrue(evaluator.evaluateBoolean("id > limit and missing == null", context.getBindings()));
+    assertTrue(evaluator.isCompiled("id > limit and missing == null"));
+  }
+
+  @Test
+  public void shouldBuildSameSqlWithCompiledLanguageDriver() {
+    Configuration configuration = new Configuration();
+    String script = "<script>select * from author"
+        + "<where><if test=\"id != null\">id = #{id}</if>"
+        + "<if test=\"names != null and names.size() > 0\"> and username in"
+        + "<foreach collection=\"names\" item=\"name\" open=\"(\" separator=\",\" close=\")\">#{name}</foreach></if>"
+        + "</where></script>";
+    SqlSource sqlSource = new CompiledXMLLanguageDriver().createSqlSource(configuration, script, Map.class);
+    Map<String, Object> parameterObject = new HashMap<String, Object>();
+    parameterObject.put("id", null);
+    parameterObject.put("names", Arrays.asList("cbegin", "jblack"));
+    BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
+    assertEquals("select * from author WHERE username in(?,?)", boundSql.getSql().replaceAll("\\s+", " ").trim());
+    assertEquals(2, boundSql.getParameterMappings().size());
+  }
+
+  private String compiledError(String expression, Object parameterObject) {
+    try {
+      evaluator.evaluate(expression, parameterObject);
+    } catch (BuilderException e) {
+      return e.getMessage();
+    }
+    throw new AssertionError("Should have failed: " + expression);
+  }
+
+  private static String ognlError(String expression, Object parameterObject) {
+    try {
+      new ExpressionEvaluator().evaluate(expression, parameterObject);
+    } catch (BuilderException e) {
+      return e.getMessage();
+    }
+    throw new AssertionError("Should have failed: " + expression);
+  }
+
+  public static class CountingBean {
+    int calls;
+
+    public List<String> getItems() {
+      calls++;
+      return Arrays.asList("a", "b");
+    }
+
+    public String getBroken() {
+      calls++;
+      throw new IllegalStateException("Broken getter");
+    }
+  }
+
+}
@@ -16,6 +16,11 @@
 package org.apache.ibatis.builder.xml.dynamic;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -23,21 +28,32 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.apache.ibatis.BaseDataTest;
 import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.ScriptingException;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
 import org.apache.ibatis.scripting.xmltags.ChooseSqlNode;
+import org.apache.ibatis.scripting.xmltags.DynamicContext;
 import org.apache.ibatis.scripting.xmltags.DynamicSqlSource;
+import org.apache.ibatis.scripting.xmltags.ExpressionEvaluator;
 import org.apache.ibatis.scripting.xmltags.ForEachSqlNode;
 import org.apache.ibatis.scripting.xmltags.IfSqlNode;
 import org.apache.ibatis.scripting.xmltags.MixedSqlNode;
 import org.apache.ibatis.scripting.xmltags.SetSqlNode;
 import org.apache.ibatis.scripting.xmltags.SqlNode;
+import org.apache.ibatis.scripting.xmltags.StaticTextSqlNode;
 import org.apache.ibatis.scripting.xmltags.TextSqlNode;
+import org.apache.ibatis.scripting.xmltags.TrimSqlNode;
 import org.apache.ibatis.scripting.xmltags.WhereSqlNode;
+import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
@@ -387,6 +403,397 @@ public class DynamicSqlSourceTest extends BaseDataTest {
     Assert.assertEquals("id=", sql);
   }
 
+  @Test
+  public void shouldKeepParameterOrderWhenPrecompiledAndGeneratedPlaceholdersAreMixed() {
+    final Configuration configuration = new Configuration();
+    final Map<String, Object> param = new HashMap<String, Object>();
+    param.put("col", "B");
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "SELECT * FROM BLOG"),
+        new WhereSqlNode(configuration, mixedContents(
+            new StaticTextSqlNode(configuration, "and A = #{a} "),
+            new TextSqlNode("and ${col} = #{b} "),
+            new StaticTextSqlNode(configuration, "and C = #{c} and D = '\\#{d}'")))));
+    BoundSql boundSql = source.getBoundSql(param);
+    assertEquals("SELECT * FROM BLOG WHERE  A = ? and B = ? and C = ? and D = '#{d}'", boundSql.getSql());
+    assertEquals(3, boundSql.getParameterMappings().size());
+    assertEquals("a", boundSql.getParameterMappings().get(0).getProperty());
+    assertEquals("b", boundSql.getParameterMappings().get(1).getProperty());
+    assertEquals("c", boundSql.getParameterMappings().get(2).getProperty());
+  }
+
+  @Test
+  public void shouldItemizePrecompiledPlaceholdersInForEach() {
+    final Configuration configuration = new Configuration();
+    final Map<String, Object> param = new HashMap<String, Object>();
+    param.put("uuu", new HashMap<String, String>());
+    param.put("uuuu", Arrays.asList(new Bean("a"), new Bean("b")));
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "INSERT INTO BLOG (ID, NAME) VALUES"),
+        new ForEachSqlNode(configuration, mixedContents(
+            new StaticTextSqlNode(configuration, "(#{u.id}, #{uuu.u}, #{uu})")), "uuuu", "uu", "u", null, null, ",")));
+    BoundSql boundSql = source.getBoundSql(param);
+    assertEquals("INSERT INTO BLOG (ID, NAME) VALUES  (?, ?, ?) , (?, ?, ?)", boundSql.getSql());
+    assertEquals(6, boundSql.getParameterMappings().size());
+    assertEquals("__frch_u_0.id", boundSql.getParameterMappings().get(0).getProperty());
+    assertEquals("uuu.u", boundSql.getParameterMappings().get(1).getProperty());
+    assertEquals("__frch_uu_0", boundSql.getParameterMappings().get(2).getProperty());
+    assertEquals("__frch_u_1.id", boundSql.getParameterMappings().get(3).getProperty());
+    assertEquals(String.class, boundSql.getParameterMappings().get(3).getJavaType());
+    assertEquals(Integer.class, boundSql.getParameterMappings().get(5).getJavaType());
+  }
+
+  @Test
+  public void shouldParsePrecompiledPlaceholdersOfTrimPrefixAndSuffix() {
+    final Configuration configuration = new Configuration();
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "UPDATE BLOG"),
+        new TrimSqlNode(configuration, mixedContents(
+            new StaticTextSqlNode(configuration, "NAME = #{name},"),
+            new TextSqlNode("${col} = #{id},")), "SET TAG = #{id},", null, "WHERE NAME = #{name}", ",")));
+    Map<String, Object> param = new HashMap<String, Object>();
+    param.put("col", "ID");
+    param.put("id", 1);
+    param.put("name", "a");
+    BoundSql boundSql = source.getBoundSql(param);
+    assertEquals("UPDATE BLOG SET TAG = ?, NAME = ?,ID = ? WHERE NAME = ?", boundSql.getSql());
+    assertEquals(4, boundSql.getParameterMappings().size());
+    assertEquals("id", boundSql.getParameterMappings().get(0).getProperty());
+    assertEquals("name", boundSql.getParameterMappings().get(1).getProperty());
+    assertEquals("id", boundSql.getParameterMappings().get(2).getProperty());
+    assertEquals("name", boundSql.getParameterMappings().get(3).getProperty());
+  }
+
+  @Test
+  public void shouldReuseParameterMappingsOfPrecompiledPlaceholders() {
+    final Configuration configuration = new Configuration();
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "SELECT * FROM BLOG WHERE ID = #{id,jdbcType=VARCHAR}")));
+    BoundSql first = source.getBoundSql(new Bean("1"));
+    BoundSql second = source.getBoundSql(new Bean("2"));
+    assertEquals(String.class, first.getParameterMappings().get(0).getJavaType());
+    assertSame(first.getParameterMappings().get(0), second.getParameterMappings().get(0));
+    assertEquals(Object.class, source.getBoundSql(new HashMap<String, Object>()).getParameterMappings().get(0).getJavaType());
+  }
+
+  @Test
+  public void shouldReuseSqlOfSameShape() {
+    final Configuration configuration = new Configuration();
+    configuration.setDynamicSqlCacheSize(16);
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "SELECT * FROM BLOG"),
+        new WhereSqlNode(configuration, mixedContents(
+            new IfSqlNode(mixedContents(new StaticTextSqlNode(configuration, "and ID = #{id} ")), "id != null"),
+            new IfSqlNode(mixedContents(new StaticTextSqlNode(configuration, "and NAME = #{name} ")), "name != null"),
+            new ForEachSqlNode(configuration, mixedContents(new StaticTextSqlNode(configuration, "#{item}")),
+                "ids", null, "item", "and TAG in (", ")", ",")))), true);
+    BoundSql first = source.getBoundSql(shapeParameter(1, "a", 1, 2));
+    BoundSql second = source.getBoundSql(shapeParameter(2, "b", 3, 4));
+    BoundSql other = source.getBoundSql(shapeParameter(3, null, 5));
+    assertEquals("SELECT * FROM BLOG WHERE  ID = ? and NAME = ? and TAG in (?,?)", first.getSql());
+    assertSame(first.getSql(), second.getSql());
+    assertSame(first.getParameterMappings(), second.getParameterMappings());
+    assertEquals(4, second.getAdditionalParameter("__frch_item_0[1]"));
+    assertEquals("SELECT * FROM BLOG WHERE  ID = ? and TAG in (?)", other.getSql());
+    assertEquals(2, other.getParameterMappings().size());
+  }
+
+  @Test
+  public void shouldStopCachingNewShapesAtTheLimit() {
+    final Configuration configuration = new Configuration();
+    configuration.setDynamicSqlCacheSize(1);
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "SELECT * FROM BLOG"),
+        new WhereSqlNode(configuration, mixedContents(
+            new IfSqlNode(mixedContents(new StaticTextSqlNode(configuration, "and NAME = #{name} ")), "name != null")))), true);
+    Map<String, Object> named = new HashMap<String, Object>();
+    named.put("name", "a");
+    Map<String, Object> unnamed = new HashMap<String, Object>();
+    unnamed.put("name", null);
+    BoundSql first = source.getBoundSql(named);
+    BoundSql other = source.getBoundSql(unnamed);
+    BoundSql otherAgain = source.getBoundSql(unnamed);
+    // the cache is full, the new shape is built every time and the cached one is kept
+    assertEquals(other.getSql(), otherAgain.getSql());
+    assertNotSame(other.getSql(), otherAgain.getSql());
+    assertSame(first.getSql(), source.getBoundSql(named).getSql());
+  }
+
+  @Test
+  public void shouldRebuildParameterMappingsOfSameShapeWhenTypesChange() {
+    final Configuration configuration = new Configuration();
+    configuration.setDynamicSqlCacheSize(16);
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "SELECT * FROM BLOG WHERE ID in"),
+        new ForEachSqlNode(configuration, mixedContents(new StaticTextSqlNode(configuration, "#{item}")),
+            "list", null, "item", "(", ")", ",")), true);
+    Map<String, Object> integers = new HashMap<String, Object>();
+    integers.put("list", Arrays.asList(1, 2));
+    Map<String, Object> strings = new HashMap<String, Object>();
+    strings.put("list", Arrays.asList("1", "2"));
+    BoundSql first = source.getBoundSql(integers);
+    BoundSql second = source.getBoundSql(strings);
+    assertSame(first.getSql(), second.getSql());
+    assertEquals(Integer.class, first.getParameterMappings().get(1).getJavaType());
+    assertEquals(String.class, second.getParameterMappings().get(1).getJavaType());
+  }
+
+  @Test
+  public void shouldReferenceForEachItemsByIndexInTheBoundList() {
+    final Configuration configuration = new Configuration();
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "SELECT * FROM BLOG WHERE ID in"),
+        new ForEachSqlNode(configuration, mixedContents(new StaticTextSqlNode(configuration, "#{item}")),
+            "list", null, "item", "(", ")", ",")));
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("list", new LinkedHashSet<Object>(Arrays.asList(1, "2", null)));
+    BoundSql boundSql = source.getBoundSql(parameter);
+    assertEquals("SELECT * FROM BLOG WHERE ID in (  ? , ? , ? )", boundSql.getSql());
+    assertEquals("__frch_item_0[1]", boundSql.getParameterMappings().get(1).getProperty());
+    assertEquals("2", boundSql.getAdditionalParameter("__frch_item_0[1]"));
+    assertEquals(Integer.class, boundSql.getParameterMappings().get(0).getJavaType());
+    assertEquals(String.class, boundSql.getParameterMappings().get(1).getJavaType());
+    assertEquals(Object.class, boundSql.getParameterMappings().get(2).getJavaType());
+  }
+
+  @Test
+  public void shouldBindForEachMapEntriesOneByOne() {
+    final Configuration configuration = new Configuration();
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "SELECT * FROM BLOG WHERE ID in"),
+        new ForEachSqlNode(configuration, mixedContents(new StaticTextSqlNode(configuration, "#{item}")),
+            "map", "key", "item", "(", ")", ",")));
+    Map<String, Object> map = new LinkedHashMap<String, Object>();
+    map.put("a", 1);
+    map.put("b", 2);
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("map", map);
+    BoundSql boundSql = source.getBoundSql(parameter);
+    assertEquals("SELECT * FROM BLOG WHERE ID in (  ? , ? )", boundSql.getSql());
+    assertEquals("__frch_item_1", boundSql.getParameterMappings().get(1).getProperty());
+    assertEquals(2, boundSql.getAdditionalParameter("__frch_item_1"));
+  }
+
+  @Test
+  public void shouldPadForEachByRepeatingTheLastElement() {
+    final Configuration configuration = new Configuration();
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "SELECT * FROM BLOG WHERE ID in"),
+        new ForEachSqlNode(configuration, mixedContents(new StaticTextSqlNode(configuration, "#{item.id}")),
+            "list", "i", "item", "(", ")", ",", new ExpressionEvaluator(), true, 0)));
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("list", Arrays.asList(new Bean("a"), new Bean("b"), new Bean("c")));
+    BoundSql boundSql = source.getBoundSql(parameter);
+    assertEquals("SELECT * FROM BLOG WHERE ID in (  ? , ? , ? , ? )", boundSql.getSql());
+    assertEquals("__frch_item_3.id", boundSql.getParameterMappings().get(3).getProperty());
+    assertEquals("c", boundSql.getAdditionalParameter("__frch_item_3.id"));
+    assertEquals(2, boundSql.getAdditionalParameter("__frch_i_3"));
+  }
+
+  @Test
+  public void shouldBuildOneChunkOfForEach() {
+    final Configuration configuration = new Configuration();
+    configuration.setDynamicSqlCacheSize(16);
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "SELECT * FROM BLOG"),
+        new WhereSqlNode(configuration, mixedContents(
+            new ForEachSqlNode(configuration, mixedContents(new StaticTextSqlNode(configuration, "#{item}")),
+                "list", null, "item", "ID in (", ")", ",", new ExpressionEvaluator(), true, 4)))), true);
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("list", Arrays.asList(1, 2, 3, 4, 5, 6, 7));
+    BoundSql first = source.getBoundSql(parameter, 0);
+    BoundSql second = source.getBoundSql(parameter, 1);
+    BoundSql whole = source.getBoundSql(parameter);
+    assertEquals(2, first.getChunkCount());
+    assertEquals("SELECT * FROM BLOG WHERE ID in (?,?,?,?)", first.getSql());
+    assertEquals(first.getSql(), second.getSql());
+    assertEquals(7, second.getAdditionalParameter(second.getParameterMappings().get(3).getProperty()));
+    assertEquals(1, whole.getChunkCount());
+    assertEquals(8, whole.getParameterMappings().size());
+  }
+
+  @Test
+  public void shouldSubstituteSplitTextSegments() {
+    TextSqlNode node = new TextSqlNode("SELECT '\\${x}', ${col} FROM BLOG ORDER BY ${col} ${dir}");
+    assertTrue(node.isDynamic());
+    assertFalse(new TextSqlNode("SELECT '\\${x}' FROM BLOG").isDynamic());
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("col", "TITLE");
+    parameter.put("dir", null);
+    DynamicContext context = new DynamicContext(new Configuration(), parameter);
+    node.apply(context);
+    assertEquals("SELECT '${x}', TITLE FROM BLOG ORDER BY TITLE", context.getSql());
+  }
+
+  @Test
+  public void shouldCacheSubstitutionsWithTheirParsedPlaceholders() {
+    final Configuration configuration = new Configuration();
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new TextSqlNode("SELECT * FROM BLOG WHERE ${col} = #{${prop}}", Pattern.compile("\\w+"), 1)));
+    Map<String, Object> title = new HashMap<String, Object>();
+    title.put("col", "TITLE");
+    title.put("prop", "name");
+    title.put("name", "mybatis");
+    Map<String, Object> author = new HashMap<String, Object>(title);
+    author.put("col", "AUTHOR");
+    for (int i = 0; i < 2; i++) {
+      BoundSql boundSql = source.getBoundSql(title);
+      assertEquals("SELECT * FROM BLOG WHERE TITLE = ?", boundSql.getSql());
+      assertEquals("name", boundSql.getParameterMappings().get(0).getProperty());
+      // the cache is full, other values are substituted without being cached
+      assertEquals("SELECT * FROM BLOG WHERE AUTHOR = ?", source.getBoundSql(author).getSql());
+    }
+    title.put("col", "TITLE OR 1=1");
+    try {
+      source.getBoundSql(title);
+      fail();
+    } catch (ScriptingException e) {
+      assertTrue(e.getMessage().startsWith("Invalid input"));
+    }
+  }
+
+  @Test
+  public void shouldFoldConstantTestsIntoRawSqlSource() {
+    String script = "<script>select * from BLOG <where><if test='true'>and ID = #{id} </if>"
+        + "<if test=\"'a' == 'b'\">and TITLE = #{title}</if></where>"
+        + "<choose><when test='false'>limit 1</when><when test='1 == 1'>order by ID</when><otherwise>order by TITLE</otherwise></choose></script>";
+    XMLLanguageDriver driver = new XMLLanguageDriver();
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("id", 1);
+    SqlSource source = driver.createSqlSource(new Configuration(), script, Map.class);
+    assertTrue(source instanceof RawSqlSource);
+    BoundSql boundSql = source.getBoundSql(parameter);
+    assertEquals("select * from BLOG  WHERE  ID = ? order by ID", boundSql.getSql());
+    assertEquals("id", boundSql.getParameterMappings().get(0).getProperty());
+    // without a parameter type the property types are resolved from the parameter object
+    source = driver.createSqlSource(new Configuration(), script, null);
+    assertTrue(source instanceof DynamicSqlSource);
+    assertEquals("select * from BLOG  WHERE  ID = ? order by ID", source.getBoundSql(parameter).getSql());
+  }
+
+  @Test
+  public void shouldKeepTestsThatDependOnTheParameterWhenFolding() {
+    String script = "<script>select * from BLOG <where><if test='true'>and ID = #{id} </if>"
+        + "<if test='title != null'>and TITLE = #{title}</if></where></script>";
+    SqlSource source = new XMLLanguageDriver().createSqlSource(new Configuration(), script, Map.class);
+    assertTrue(source instanceof DynamicSqlSource);
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("id", 1);
+    assertEquals("select * from BLOG  WHERE  ID = ?", source.getBoundSql(parameter).getSql());
+    parameter.put("title", "t");
+    assertEquals("select * from BLOG  WHERE  ID = ? and TITLE = ?", source.getBoundSql(parameter).getSql());
+  }
+
+  @Test
+  public void shouldRenderTheSameSqlWhenTextsInsideTrimAreFolded() {
+    String script = "<script>select * from BLOG<where><if test='true'>and ID = #{id}</if><if test='true'>and TITLE = #{title}</if></where>"
+        + "<trim prefix='(' suffix=')' suffixOverrides=','><if test='1 == 1'>ID,</if><if test='true'>TITLE,</if></trim></script>";
+    final Configuration configuration = new Configuration();
+    SqlSource folded = new XMLLanguageDriver().createSqlSource(configuration, script, Map.class);
+    assertTrue(folded instanceof RawSqlSource);
+    final DynamicSqlSource unfolded = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "select * from BLOG"),
+        new WhereSqlNode(configuration, mixedContents(
+            new IfSqlNode(mixedContents(new StaticTextSqlNode(configuration, "and ID = #{id}")), "true"),
+            new IfSqlNode(mixedContents(new StaticTextSqlNode(configuration, "and TITLE = #{title}")), "true"))),
+        new TrimSqlNode(configuration, mixedContents(
+            new IfSqlNode(mixedContents(new StaticTextSqlNode(configuration, "ID,")), "1 == 1"),
+            new IfSqlNode(mixedContents(new StaticTextSqlNode(configuration, "TITLE,")), "true")), "(", null, ")", ",")));
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("id", 1);
+    parameter.put("title", "t");
+    BoundSql boundSql = folded.getBoundSql(parameter);
+    assertEquals(unfolded.getBoundSql(parameter).getSql(), boundSql.getSql());
+    assertEquals("select * from BLOG WHERE  ID = ?and TITLE = ? ( ID,TITLE )", boundSql.getSql());
+    assertEquals(2, boundSql.getParameterMappings().size());
+  }
+
+  @Test
+  public void shouldApplyForEachInsideTrim() {
+    final Configuration configuration = new Configuration();
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "SELECT * FROM BLOG"),
+        new TrimSqlNode(configuration, mixedContents(
+            new IfSqlNode(mixedContents(new StaticTextSqlNode(configuration, "and NAME = #{name} ")), "name != null"),
+            new ForEachSqlNode(configuration, mixedContents(new StaticTextSqlNode(configuration, "#{item}")),
+                "ids", null, "item", "or ID in (", ")", ",")), "WHERE", "AND |OR ", null, null)));
+    BoundSql boundSql = source.getBoundSql(shapeParameter(null, null, 1, 2));
+    assertEquals("SELECT * FROM BLOG WHERE  ID in (?,?)", boundSql.getSql());
+    assertEquals("__frch_item_0[1]", boundSql.getParameterMappings().get(1).getProperty());
+    assertEquals(2, boundSql.getAdditionalParameter("__frch_item_0[1]"));
+    boundSql = source.getBoundSql(shapeParameter(null, "a", 3));
+    assertEquals("SELECT * FROM BLOG WHERE  NAME = ? or ID in (?)", boundSql.getSql());
+    assertEquals("name", boundSql.getParameterMappings().get(0).getProperty());
+    assertEquals(3, boundSql.getAdditionalParameter(boundSql.getParameterMappings().get(1).getProperty()));
+  }
+
+  @Test
+  public void shouldOverridePrefixAndSuffixOfTrimmedText() {
+    final Configuration configuration = new Configuration();
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "UPDATE BLOG"),
+        new TrimSqlNode(configuration, mixedContents(
+            new IfSqlNode(mixedContents(new StaticTextSqlNode(configuration, " \n\t, NAME = #{name}, ")), "name != null"),
+            new IfSqlNode(mixedContents(new StaticTextSqlNode(configuration, "ID = #{id}, \n ")), "id != null")),
+            "SET", ", ", "WHERE ID = 1", ",")));
+    assertEquals("UPDATE BLOG SET  NAME = ?, ID = ? WHERE ID = 1", source.getBoundSql(shapeParameter(1, "a")).getSql());
+    // the buffer presized from the longer text above is trimmed again
+    assertEquals("UPDATE BLOG SET  NAME = ? WHERE ID = 1", source.getBoundSql(shapeParameter(null, "a")).getSql());
+    assertEquals("UPDATE BLOG SET ID = ? WHERE ID = 1", source.getBoundSql(shapeParameter(1, null)).getSql());
+    assertEquals("UPDATE BLOG", source.getBoundSql(shapeParameter(null, null)).getSql());
+  }
+
+  @Test
+  public void shouldExposeBindingsAfterRendering() {
+    final Configuration configuration = new Configuration();
+    configuration.setDatabaseId("hsql");
+    final DynamicSqlSource source = new DynamicSqlSource(configuration, mixedContents(
+        new StaticTextSqlNode(configuration, "SELECT * FROM BLOG WHERE ID in"),
+        new ForEachSqlNode(configuration, mixedContents(new StaticTextSqlNode(configuration, "#{item}")),
+            "list", "i", "item", "(", ")", ",")));
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("list", Arrays.asList("a", "b"));
+    BoundSql boundSql = source.getBoundSql(parameter);
+    assertSame(parameter, boundSql.getAdditionalParameter(DynamicContext.PARAMETER_OBJECT_KEY));
+    assertEquals("hsql", boundSql.getAdditionalParameter(DynamicContext.DATABASE_ID_KEY));
+    assertEquals("b", boundSql.getAdditionalParameter("__frch_item_0[1]"));
+    assertTrue(boundSql.hasAdditionalParameter("__frch_item_0"));
+
+    // a context that does not collect the parameters binds each element under its own name
+    DynamicContext context = new DynamicContext(configuration, parameter);
+    new ForEachSqlNode(configuration, mixedContents(new StaticTextSqlNode(configuration, "#{item}")),
+        "list", null, "item", "(", ")", ",").apply(context);
+    Map<String, Object> bindings = context.getBindings();
+    assertEquals("( #{__frch_item_0} , #{__frch_item_1} )", context.getSql().replaceAll("\\s+", " "));
+    assertSame(parameter, bindings.get(DynamicContext.PARAMETER_OBJECT_KEY));
+    assertEquals("hsql", bindings.get(DynamicContext.DATABASE_ID_KEY));
+    assertEquals("a", bindings.get("__frch_item_0"));
+    assertEquals("b", bindings.get("__frch_item_1"));
+  }
+
+  @Test
+  public void shouldLookUpBindingsBeforeTheParameterProperties() {
+    DynamicContext context = new DynamicContext(new Configuration(), new Bean("1"));
+    Map<String, Object> bindings = context.getBindings();
+    // the properties of the parameter are read without being bound
+    assertEquals("1", bindings.get("id"));
+    assertFalse(bindings.containsKey("id"));
+    context.bind("id", "2");
+    assertEquals("2", bindings.get("id"));
+    // a binding set to null hides the property of the parameter
+    context.bind("id", null);
+    assertEquals(null, bindings.get("id"));
+    assertEquals(null, new DynamicContext(new Configuration(), null).getBindings().get("id"));
+  }
+
+  private Map<String, Object> shapeParameter(Integer id, String name, Integer... ids) {
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("id", id);
+    parameter.put("name", name);
+    parameter.put("ids", Arrays.asList(ids));
+    return parameter;
+  }
+
   public static class Bean {
     public String id;
     public Bean(String property) {
@@ -80,4 +80,32 @@ public class CacheKeyTest {
     assertTrue(key1.equals(key2));
   }
 
+  @Test
+  public void shouldTestCacheKeysWithPrefixEqualToFullKeys() {
+    CacheKey prefix = new CacheKey(new Object[] { "ns.select" });
+    CacheKey key1 = new CacheKey(prefix, 2);
+    key1.update(1);
+    key1.update("hello");
+    CacheKey key2 = new CacheKey(new Object[] { "ns.select", 1, "hello" });
+    assertEquals(key1, key2);
+    assertEquals(key1.hashCode(), key2.hashCode());
+    assertEquals(key1.toString(), key2.toString());
+    assertEquals(1, prefix.getUpdateCount());
+  }
+
+  @Test
+  public void shouldGrowBeyondExpectedSize() throws Exception {
+    CacheKey key1 = new CacheKey(1);
+    CacheKey key2 = new CacheKey();
+    for (int i = 0; i < 100; i++) {
+      key1.update(i);
+      key2.update(i);
+    }
+    assertEquals(100, key1.getUpdateCount());
+    assertEquals(key1, key2);
+    assertEquals(key1, key1.clone());
+    key2.update(100);
+    assertFalse(key1.equals(key2));
+  }
+
 }
@@ -0,0 +1,188 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.cache.decorators.StatisticsCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.junit.Test;
+
+public class CacheStatisticsTest {
+
+  @Test
+  public void shouldRecordHitsMissesPutsAndSizeEvictions() {
+    CacheStatistics statistics = new CacheStatistics("default");
+    Cache cache = new CacheBuilder("default").size(2).statistics(statistics).build();
+    assertTrue(cache instanceof StatisticsCache);
+
+    cache.putObject("a", "1");
+    cache.putObject("b", "2");
+    cache.putObject("c", "3");
+    assertEquals("3", cache.getObject("c"));
+    assertNull(cache.getObject("a"));
+
+    assertEquals(3, statistics.getPuts());
+    assertEquals(1, statistics.getHits());
+    assertEquals(1, statistics.getMisses());
+    assertEquals(0.5, statistics.getHitRatio(), 0.0001);
+    assertEquals(1, statistics.getEvictions(EvictionReason.SIZE));
+    assertEquals(2, statistics.getSize());
+    assertEquals(-1, statistics.getEstimatedBytes());
+
+    cache.clear();
+    assertEquals(2, statistics.getEvictions(EvictionReason.CLEARED));
+    assertEquals(3, statistics.getEvictions());
+  }
+
+  @Test
+  public void shouldEstimateBytesOfSerializedEntries() {
+    CacheStatistics statistics = new CacheStatistics("default");
+    Cache cache = new CacheBuilder("default").readWrite(true).statistics(statistics).build();
+    cache.putObject("a", "value");
+    assertTrue(statistics.getEstimatedBytes() > 0);
+  }
+
+  @Test
+  public void shouldNotifyListeners() {
+    final List<String> events = new ArrayList<String>();
+    List<CacheListener> listeners = new ArrayList<CacheListener>();
+    listeners.add(new CacheListener() {
+      @Override
+      public void onHit(String cacheId) {
+        events.add("hit");
+      }
+
+      @Override
+      public void onMiss(String cacheId) {
+        events.add("miss");
+      }
+
+      @Override
+      public void onPut(String cacheId) {
+        events.add("put");
+      }
+
+      @Override
+      public void onEviction(String cacheId, EvictionReason reason, int count) {
+        events.add(reason + ":" + count);
+      }
+
+      @Override
+      public void onLoad(String cacheId, long nanos) {
+        events.add("load");
+      }
+    });
+    CacheStatistics statistics = new CacheStatistics("default", listeners);
+    Cache cache = new CacheBuilder("default").tableInvalidation(true).statistics(statistics).build();
+
+    cache.getObject("a");
+    cache.putObject("a", "1");
+    cache.getObject("a");
+    statistics.loaded(1000);
+    cache.clear();
+    assertEquals("[miss, put, hit, load, CLEARED:1]", events.toString());
+  }
+
+  @Test
+  public void shouldResetCounters() {
+    CacheStatistics statistics = new CacheStatistics("default");
+    statistics.hit();
+    statistics.evicted(EvictionReason.EXPIRED, 3);
+    statistics.loaded(2000000);
+    assertEquals(2.0, statistics.getAverageLoadTimeMillis(), 0.0001);
+    statistics.reset();
+    assertEquals(0, statistics.getHits());
+    assertEquals(0, statistics.getEvictions());
+    assertEquals(0, statistics.getLoads());
+  }
+
+  @Test
+  public void shouldRegisterOneMBeanPerFactory() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    Configuration first = new Configuration();
+    Configuration second = new Configuration();
+    for (Configuration configuration : Arrays.asList(first, second)) {
+      configuration.setCacheStatisticsJmxEnabled(true);
+      configuration.addCacheStatistics(new CacheStatistics("shared.Mapper"));
+    }
+    first.getCacheStatistics("shared.Mapper").put();
+    Set<ObjectName> before = server.queryNames(new ObjectName("org.apache.ibatis:type=CacheStatistics,*"), null);
+    new SqlSessionFactoryBuilder().build(first);
+    new SqlSessionFactoryBuilder().build(second);
+    Set<ObjectName> names = server.queryNames(new ObjectName("org.apache.ibatis:type=CacheStatistics,*"), null);
+    names.removeAll(before);
+    try {
+      // shared.Mapper and LocalCache of each factory
+      assertEquals(4, names.size());
+      long puts = 0;
+      for (ObjectName name : names) {
+        if (name.getKeyProperty("id").contains("shared.Mapper")) {
+          puts += (Long) server.getAttribute(name, "Puts");
+        }
+      }
+      assertEquals(1, puts);
+    } finally {
+      for (ObjectName name : names) {
+        server.unregisterMBean(name);
+      }
+    }
+  }
+
+  @Test
+  public void shouldUnregisterMBeansWhenFactoryIsClosed() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName pattern = new ObjectName("org.apache.ibatis:type=CacheStatistics,*");
+    Set<ObjectName> before = server.queryNames(pattern, null);
+    Configuration configuration = new Configuration();
+    configuration.setCacheStatisticsJmxEnabled(true);
+    configuration.addCacheStatistics(new CacheStatistics("closed.Mapper"));
+    DefaultSqlSessionFactory factory = (DefaultSqlSessionFactory) new SqlSessionFactoryBuilder().build(configuration);
+    assertEquals(before.size() + 2, server.queryNames(pattern, null).size());
+    factory.close();
+    assertEquals(before, server.queryNames(pattern, null));
+    // closing twice is harmless
+    factory.close();
+  }
+
+  @Test
+  public void shouldNotReplaceRegisteredMBean() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    CacheStatistics registered = new CacheStatistics("taken");
+    ObjectName name = registered.registerMBean("scope");
+    try {
+      assertNotNull(name);
+      assertNull(new CacheStatistics("taken").registerMBean("scope"));
+      registered.put();
+      assertEquals(1L, server.getAttribute(name, "Puts"));
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+
+}
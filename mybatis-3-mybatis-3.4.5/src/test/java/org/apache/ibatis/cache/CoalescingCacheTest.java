@@ -0,0 +1,94 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.decorators.CoalescingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class CoalescingCacheTest {
+
+  @Test
+  public void shouldLetWaitersReadTheValueLoadedByTheFirstMiss() throws Exception {
+    final CoalescingCache cache = new CoalescingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject("key"));
+    assertEquals(1, cache.getInFlightCount());
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> waiter = executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          return cache.getObject("key");
+        }
+      });
+      Thread.sleep(100);
+      assertFalse(waiter.isDone());
+      cache.putObject("key", "value");
+      assertEquals("value", waiter.get(5, TimeUnit.SECONDS));
+      assertEquals(0, cache.getInFlightCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldStopWaitingAfterTimeout() throws Exception {
+    final CoalescingCache cache = new CoalescingCache(new PerpetualCache("default"));
+    cache.setTimeout(50);
+    assertNull(cache.getObject("key"));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> waiter = executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          return cache.getObject("key");
+        }
+      });
+      assertNull(waiter.get(5, TimeUnit.SECONDS));
+      // the lost load is forgotten, so the table does not grow
+      assertEquals(0, cache.getInFlightCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void shouldReleaseInFlightLoadOnRemove() {
+    CoalescingCache cache = new CoalescingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject("key"));
+    cache.removeObject("key");
+    assertEquals(0, cache.getInFlightCount());
+  }
+
+  @Test
+  public void shouldNotCoalesceBeyondMaxInFlight() {
+    CoalescingCache cache = new CoalescingCache(new PerpetualCache("default"));
+    cache.setMaxInFlight(1);
+    assertNull(cache.getObject("a"));
+    assertNull(cache.getObject("b"));
+    assertEquals(1, cache.getInFlightCount());
+  }
+
+}
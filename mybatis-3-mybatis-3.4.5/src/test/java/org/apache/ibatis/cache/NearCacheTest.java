@@ -0,0 +1,106 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.ibatis.cache.decorators.NearCache;
+import org.apache.ibatis.cache.decorators.TableInvalidatingCache;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.invalidation.FileJournalInvalidationTransport;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NearCacheTest {
+
+  private File journal;
+  private FileJournalInvalidationTransport transport1;
+  private FileJournalInvalidationTransport transport2;
+
+  @Before
+  public void setUp() throws Exception {
+    journal = File.createTempFile("mybatis-invalidation", ".journal");
+    transport1 = new FileJournalInvalidationTransport(journal);
+    transport2 = new FileJournalInvalidationTransport(journal);
+    // messages are read explicitly with poll()
+    transport1.setPollInterval(Long.MAX_VALUE);
+    transport2.setPollInterval(Long.MAX_VALUE);
+  }
+
+  @After
+  public void tearDown() {
+    transport1.close();
+    transport2.close();
+    journal.delete();
+  }
+
+  @Test
+  public void shouldPropagateCommittedFlushToOtherNodes() {
+    Cache node1 = new CacheBuilder("default").invalidationTransport(transport1).build();
+    Cache node2 = new CacheBuilder("default").invalidationTransport(transport2).build();
+    assertTrue(node1 instanceof NearCache);
+    node1.putObject("key", "value");
+    node2.putObject("key", "value");
+
+    TransactionalCache txCache = new TransactionalCache(node1);
+    txCache.clear();
+    txCache.commit();
+
+    assertNull(node1.getObject("key"));
+    assertEquals("value", node2.getObject("key"));
+    // a node ignores its own messages
+    node1.putObject("key", "value");
+    transport1.poll();
+    assertEquals("value", node1.getObject("key"));
+    assertEquals(1, transport2.poll());
+    assertNull(node2.getObject("key"));
+  }
+
+  @Test
+  public void shouldPropagateTableInvalidations() {
+    Cache node1 = new CacheBuilder("default").tableInvalidation(true).invalidationTransport(transport1).build();
+    Cache node2 = new CacheBuilder("default").tableInvalidation(true).invalidationTransport(transport2).build();
+    TableInvalidatingCache tableCache = TableInvalidatingCache.of(node2);
+    TransactionalCache setup = new TransactionalCache(node2);
+    setup.putObject("authors", "a", tableCache.captureVersions(Arrays.asList("author")));
+    setup.putObject("posts", "p", tableCache.captureVersions(Arrays.asList("post")));
+    setup.commit();
+
+    TransactionalCache txCache = new TransactionalCache(node1);
+    txCache.clear(Arrays.asList("post"));
+    txCache.commit();
+
+    assertEquals(1, transport2.poll());
+    assertEquals("a", node2.getObject("authors"));
+    assertNull(node2.getObject("posts"));
+  }
+
+  @Test
+  public void shouldIgnoreOtherCaches() {
+    Cache node1 = new CacheBuilder("one").invalidationTransport(transport1).build();
+    Cache node2 = new CacheBuilder("two").invalidationTransport(transport2).build();
+    node2.putObject("key", "value");
+    node1.clear();
+    assertEquals(1, transport2.poll());
+    assertEquals("value", node2.getObject("key"));
+  }
+
+}
@@ -0,0 +1,117 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.impl.SnapshotCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class SnapshotCacheTest {
+
+  @Test
+  public void shouldStoreAnUnmodifiableCopyAndKeepTheFirstValue() {
+    SnapshotCache cache = new SnapshotCache("default");
+    List<String> first = new ArrayList<String>(Arrays.asList("a", "b"));
+    cache.putObject("key", first);
+    cache.putObject("key", Arrays.asList("c"));
+    first.add("c");
+
+    List<?> stored = (List<?>) cache.getObject("key");
+    assertEquals(Arrays.asList("a", "b"), stored);
+    try {
+      stored.clear();
+      fail("Snapshots must be read only");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void shouldStopAddingEntriesAtTheLimit() {
+    SnapshotCache cache = new SnapshotCache("default", 2);
+    cache.putObject("a", Arrays.asList("a"));
+    cache.putObject("b", Arrays.asList("b"));
+    cache.putObject("c", Arrays.asList("c"));
+    assertEquals(2, cache.getSize());
+    assertEquals(Arrays.asList("a"), cache.getObject("a"));
+    assertEquals(Arrays.asList("b"), cache.getObject("b"));
+    assertNull(cache.getObject("c"));
+
+    cache.removeObject("a");
+    cache.putObject("c", Arrays.asList("c"));
+    assertEquals(Arrays.asList("c"), cache.getObject("c"));
+    cache.clear();
+    cache.putObject("d", Arrays.asList("d"));
+    cache.putObject("e", Arrays.asList("e"));
+    assertEquals(2, cache.getSize());
+  }
+
+  @Test
+  public void shouldIndexBySnapshotProperty() {
+    SnapshotCache cache = new SnapshotCache("default");
+    List<Author> authors = Arrays.asList(
+        new Author(101, "jim", "*****", "jim@ibatis.apache.org", "", null),
+        new Author(102, "sally", "********", "sally@ibatis.apache.org", null, null));
+
+    Map<Object, List<Object>> index = cache.index("id", authors, new Configuration());
+    assertSame(index, cache.getIndex("id"));
+    assertEquals(1, index.get(SnapshotCache.normalizeKey(101)).size());
+    assertEquals("sally", ((Author) index.get(SnapshotCache.normalizeKey(102)).get(0)).getUsername());
+    assertNull(index.get(SnapshotCache.normalizeKey(103)));
+
+    cache.clear();
+    assertNull(cache.getIndex("id"));
+  }
+
+  @Test
+  public void shouldIndexNumbersOfDifferentTypesByValue() {
+    SnapshotCache cache = new SnapshotCache("default");
+    List<Map<String, Object>> rows = Arrays.asList(
+        row(Long.valueOf(1)), row(new BigDecimal("2.00")), row(BigInteger.valueOf(3)),
+        row(Integer.valueOf(4)), row(new BigDecimal("2.50")), row(new BigInteger("18446744073709551616")));
+
+    Map<Object, List<Object>> index = cache.index("id", rows, new Configuration());
+    assertEquals(6, index.size());
+    assertSame(rows.get(0), index.get(SnapshotCache.normalizeKey(1)).get(0));
+    assertSame(rows.get(1), index.get(SnapshotCache.normalizeKey(2L)).get(0));
+    assertSame(rows.get(1), index.get(SnapshotCache.normalizeKey(new BigDecimal("2"))).get(0));
+    assertSame(rows.get(2), index.get(SnapshotCache.normalizeKey(new BigDecimal("3.0"))).get(0));
+    assertSame(rows.get(3), index.get(SnapshotCache.normalizeKey((short) 4)).get(0));
+    assertSame(rows.get(3), index.get(SnapshotCache.normalizeKey(new BigDecimal("4E0"))).get(0));
+    assertSame(rows.get(4), index.get(SnapshotCache.normalizeKey(2.5d)).get(0));
+    assertSame(rows.get(5), index.get(SnapshotCache.normalizeKey(new BigDecimal("1.8446744073709551616E19"))).get(0));
+    assertNull(index.get(SnapshotCache.normalizeKey(new BigDecimal("2.01"))));
+    assertEquals(SnapshotCache.normalizeKey(0), SnapshotCache.normalizeKey(new BigDecimal("0.000")));
+  }
+
+  private static Map<String, Object> row(Object id) {
+    Map<String, Object> row = new HashMap<String, Object>();
+    row.put("id", id);
+    return row;
+  }
+
+}
@@ -0,0 +1,201 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.TableInvalidatingCache;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.parsing.TableNameParser;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class TableInvalidatingCacheTest {
+
+  @Test
+  public void shouldOnlyInvalidateEntriesReadFromModifiedTables() {
+    TableInvalidatingCache cache = new TableInvalidatingCache(new SerializedCache(new PerpetualCache("default")));
+    cache.putObject("authors", cache.newEntry("a", Arrays.asList("author")));
+    cache.putObject("posts", cache.newEntry("p", Arrays.asList("post", "blog")));
+    cache.putObject("unknown", "u");
+    cache.clearTables(Arrays.asList("blog"));
+    assertEquals("a", cache.getObject("authors"));
+    assertNull(cache.getObject("posts"));
+    assertNull(cache.getObject("unknown"));
+  }
+
+  @Test
+  public void shouldNotStoreEntryInvalidatedBeforeCommit() {
+    TableInvalidatingCache cache = new TableInvalidatingCache(new PerpetualCache("default"));
+    TransactionalCache reader = new TransactionalCache(cache);
+    TransactionalCache writer = new TransactionalCache(cache);
+    reader.putObject("authors", "a", cache.captureVersions(Arrays.asList("author")));
+    writer.clear(Arrays.asList("author"));
+    writer.commit();
+    reader.commit();
+    assertNull(cache.getObject("authors"));
+  }
+
+  @Test
+  public void shouldNotStoreEntryInvalidatedWhileTheQueryRuns() {
+    TableInvalidatingCache cache = new TableInvalidatingCache(new PerpetualCache("default"));
+    TransactionalCache reader = new TransactionalCache(cache);
+    TransactionalCache writer = new TransactionalCache(cache);
+    // the versions are captured before the query is executed
+    TableInvalidatingCache.Versions versions = cache.captureVersions(Arrays.asList("author"));
+    writer.clear(Arrays.asList("author"));
+    writer.commit();
+    // the query returns the rows it read before the write was committed
+    reader.putObject("authors", "a", versions);
+    reader.commit();
+    assertNull(cache.getObject("authors"));
+  }
+
+  @Test
+  public void shouldInvalidateEntriesReadWithQualifiedNamesOnWritesWithUnqualifiedNames() {
+    TableInvalidatingCache cache = new TableInvalidatingCache(new PerpetualCache("default"));
+    TransactionalCache reader = new TransactionalCache(cache);
+    reader.putObject("posts", "p", cache.captureVersions(TableNameParser.parse("select * from ibtest.post where id = ?")));
+    reader.putObject("quoted", "q", cache.captureVersions(TableNameParser.parse("select * from \"IBTEST\".\"POST\"")));
+    reader.putObject("authors", "a", cache.captureVersions(TableNameParser.parse("select * from ibtest.author")));
+    reader.commit();
+
+    TransactionalCache writer = new TransactionalCache(cache);
+    writer.clear(TableNameParser.parse("update post set title = ? where id = ?"));
+    // the written table is hidden from the writer until commit
+    assertNull(writer.getObject("posts"));
+    writer.commit();
+    assertNull(cache.getObject("posts"));
+    assertNull(cache.getObject("quoted"));
+    assertEquals("a", cache.getObject("authors"));
+  }
+
+  @Test
+  public void shouldNormalizeDeclaredTables() {
+    Configuration configuration = new Configuration();
+    SqlSource sqlSource = new StaticSqlSource(configuration, "update post set title = ?");
+    MappedStatement ms = new MappedStatement.Builder(configuration, "updatePost", sqlSource, SqlCommandType.UPDATE)
+        .tables("IBTEST.\"Post\", `blog`").build();
+    assertEquals(new LinkedHashSet<String>(Arrays.asList("post", "blog")), ms.getTables());
+
+    TableInvalidatingCache cache = new TableInvalidatingCache(new PerpetualCache("default"));
+    TransactionalCache reader = new TransactionalCache(cache);
+    reader.putObject("posts", "p", cache.captureVersions(TableNameParser.parse("select * from post")));
+    reader.commit();
+    TransactionalCache writer = new TransactionalCache(cache);
+    writer.clear(ms.getTables());
+    writer.commit();
+    assertNull(cache.getObject("posts"));
+  }
+
+  @Test
+  public void shouldHideEntriesModifiedInCurrentTransaction() {
+    TableInvalidatingCache cache = new TableInvalidatingCache(new PerpetualCache("default"));
+    TransactionalCache setup = new TransactionalCache(cache);
+    setup.putObject("authors", "a", cache.captureVersions(Arrays.asList("author")));
+    setup.putObject("posts", "p", cache.captureVersions(Arrays.asList("post")));
+    setup.commit();
+
+    TransactionalCache txCache = new TransactionalCache(cache);
+    txCache.clear(Arrays.asList("post"));
+    assertEquals("a", txCache.getObject("authors"));
+    assertNull(txCache.getObject("posts"));
+    // other sessions still see the committed data until commit
+    assertEquals("p", cache.getObject("posts"));
+    txCache.commit();
+    assertEquals("a", cache.getObject("authors"));
+    assertNull(cache.getObject("posts"));
+  }
+
+  @Test
+  public void shouldClearWholeCacheWhenTablesAreUnknown() {
+    TableInvalidatingCache cache = new TableInvalidatingCache(new PerpetualCache("default"));
+    TransactionalCache setup = new TransactionalCache(cache);
+    setup.putObject("authors", "a", cache.captureVersions(Arrays.asList("author")));
+    setup.commit();
+    TransactionalCache txCache = new TransactionalCache(cache);
+    txCache.clear(Collections.<String>emptySet());
+    txCache.commit();
+    assertNull(cache.getObject("authors"));
+  }
+
+  @Test
+  public void shouldLoadInvalidatedEntryOnceForConcurrentReaders() throws Exception {
+    final Cache cache = new CacheBuilder("default").tableInvalidation(true).coalescing(true).build();
+    final TableInvalidatingCache tableCache = TableInvalidatingCache.of(cache);
+    TransactionalCache setup = new TransactionalCache(cache);
+    setup.putObject("authors", "a", tableCache.captureVersions(Arrays.asList("author")));
+    setup.commit();
+    TransactionalCache writer = new TransactionalCache(cache);
+    writer.clear(Arrays.asList("author"));
+    writer.commit();
+
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Object>> readers = new ArrayList<Future<Object>>();
+      for (int i = 0; i < 8; i++) {
+        readers.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() throws Exception {
+            start.await();
+            TransactionalCache txCache = new TransactionalCache(cache);
+            Object value = txCache.getObject("authors");
+            if (value == null) {
+              // the query, its versions are captured before it runs
+              TableInvalidatingCache.Versions versions = tableCache.captureVersions(Arrays.asList("author"));
+              loads.incrementAndGet();
+              Thread.sleep(100);
+              value = "b";
+              txCache.putObject("authors", value, versions);
+            }
+            txCache.commit();
+            return value;
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<Object> reader : readers) {
+        assertEquals("b", reader.get(5, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, loads.get());
+  }
+
+}
@@ -0,0 +1,271 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+public abstract class AbstractPooledDataSourceTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  protected PooledDataSource dataSource;
+
+  protected abstract PooledDataSource newDataSource(String url, String username, String password);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    if (dataSource != null) {
+      dataSource.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldCloseConnectionWhoseResetFailsWhenReturned() throws Exception {
+    MockDriver.Database database = database("resetOnReturn");
+    dataSource = newDataSource(database.url, "scott", "tiger");
+    Connection conn = dataSource.getConnection();
+    conn.setAutoCommit(false);
+    conn.prepareStatement("update foo set bar = 1");
+    database.failRollback = true;
+    try {
+      conn.close();
+      fail("Should have thrown");
+    } catch (SQLException e) {
+      // expected
+    }
+    assertEquals(0, database.openCount());
+    assertEquals(0, dataSource.getPoolState().getIdleConnectionCount());
+    assertEquals(0, dataSource.getPoolState().getActiveConnectionCount());
+  }
+
+  @Test
+  public void shouldCloseConnectionWhoseResetFailsWhenCheckedOut() throws Exception {
+    MockDriver.Database database = database("resetOnCheckout");
+    dataSource = newDataSource(database.url, "scott", "tiger");
+    Connection conn = dataSource.getConnection();
+    // the state of an unwrapped connection is checked again when it is checked out
+    PooledDataSource.unwrapConnection(conn).setAutoCommit(false);
+    conn.close();
+    assertEquals(1, dataSource.getPoolState().getIdleConnectionCount());
+    database.failRollback = true;
+    try {
+      dataSource.getConnection();
+      fail("Should have thrown");
+    } catch (SQLException e) {
+      // expected
+    }
+    assertEquals(0, database.openCount());
+    assertEquals(0, dataSource.getPoolState().getIdleConnectionCount());
+    assertEquals(0, dataSource.getPoolState().getActiveConnectionCount());
+    // the slot has been given back
+    database.failRollback = false;
+    dataSource.getConnection().close();
+    assertEquals(1, database.openCount());
+  }
+
+  @Test
+  public void shouldShareTheActiveLimitBetweenPartitions() throws Exception {
+    MockDriver.Database database = database("sharedLimit");
+    partitionedDataSource(database, 2, 0);
+    Connection scott = dataSource.getConnection();
+    Connection alice = dataSource.getConnection("alice", "secret");
+    Future<Connection> bob = checkOutLater("bob");
+    assertWaiting(bob);
+    assertEquals(0, database.openCount("bob"));
+    alice.close();
+    bob.get(5, TimeUnit.SECONDS).close();
+    scott.close();
+    assertEquals(2, dataSource.sharedPermits.availablePermits());
+    assertEquals(2, dataSource.getPoolPartitions().size());
+  }
+
+  @Test
+  public void shouldLimitTheConnectionsOfEachUser() throws Exception {
+    MockDriver.Database database = database("perUserLimit");
+    partitionedDataSource(database, 3, 1);
+    Connection alice = dataSource.getConnection("alice", "secret");
+    Future<Connection> secondAlice = checkOutLater("alice");
+    assertWaiting(secondAlice);
+    // the other users are not blocked
+    Connection bob = dataSource.getConnection("bob", "secret");
+    assertEquals(1, database.openCount("alice"));
+    alice.close();
+    secondAlice.get(5, TimeUnit.SECONDS).close();
+    bob.close();
+    assertEquals(3, dataSource.sharedPermits.availablePermits());
+  }
+
+  @Test
+  public void shouldReleasePermitOfReclaimedOverdueConnection() throws Exception {
+    MockDriver.Database database = database("overdue");
+    partitionedDataSource(database, 2, 1);
+    dataSource.setPoolMaximumCheckoutTime(20);
+    Connection overdue = dataSource.getConnection("alice", "secret");
+    Thread.sleep(50);
+    Connection alice = dataSource.getConnection("alice", "secret");
+    assertEquals(1, database.openedCount());
+    assertEquals(1, dataSource.sharedPermits.availablePermits());
+    // the previous owner closes it late, its permit has already been given back
+    overdue.close();
+    assertEquals(1, dataSource.sharedPermits.availablePermits());
+    alice.close();
+    assertEquals(2, dataSource.sharedPermits.availablePermits());
+  }
+
+  @Test
+  public void shouldReleasePermitOfBadConnection() throws Exception {
+    MockDriver.Database database = database("badConnection");
+    partitionedDataSource(database, 2, 0);
+    Connection alice = dataSource.getConnection("alice", "secret");
+    realConnection(alice).close();
+    alice.close();
+    assertEquals(2, dataSource.sharedPermits.availablePermits());
+
+    alice = dataSource.getConnection("alice", "secret");
+    Connection real = realConnection(alice);
+    alice.close();
+    real.close();
+    // the bad idle connection is replaced
+    alice = dataSource.getConnection("alice", "secret");
+    assertEquals(1, dataSource.sharedPermits.availablePermits());
+    alice.close();
+    assertEquals(2, dataSource.sharedPermits.availablePermits());
+    assertEquals(1, database.openCount());
+  }
+
+  @Test
+  public void shouldDropPartitionsLeftWithoutConnections() throws Exception {
+    MockDriver.Database database = database("dropPartitions");
+    partitionedDataSource(database, 2, 0);
+    dataSource.setPoolIdleTimeout(1);
+    dataSource.getConnection("alice", "secret").close();
+    Connection bob = dataSource.getConnection("bob", "secret");
+    assertEquals(2, dataSource.getPoolPartitions().size());
+    Thread.sleep(20);
+    dataSource.maintainPartitions();
+    assertEquals(0, database.openCount("alice"));
+    assertEquals(1, dataSource.getPoolPartitions().size());
+
+    // a connection checked out from a partition dropped in the meantime is not pooled again
+    dataSource.getPoolPartitions().iterator().next().retire();
+    bob.close();
+    assertEquals(0, database.openCount("bob"));
+    assertEquals(2, dataSource.sharedPermits.availablePermits());
+  }
+
+  @Test
+  public void shouldReadConnectionCountsWithoutThePoolLock() throws Exception {
+    MockDriver.Database database = database("gauges");
+    dataSource = newDataSource(database.url, "scott", "tiger");
+    final PoolMetrics metrics = dataSource.getPoolMetrics();
+    Connection first = dataSource.getConnection();
+    Connection second = dataSource.getConnection();
+    first.close();
+    synchronized (dataSource.getPoolState()) {
+      Future<String> counts = executor.submit(new Callable<String>() {
+        @Override
+        public String call() {
+          return metrics.getActiveConnections() + "/" + metrics.getIdleConnections();
+        }
+      });
+      assertEquals("1/1", counts.get(5, TimeUnit.SECONDS));
+    }
+    second.close();
+    assertEquals(0, metrics.getActiveConnections());
+    assertEquals(2, metrics.getIdleConnections());
+    dataSource.forceCloseAll();
+    assertEquals(0, metrics.getIdleConnections());
+  }
+
+  @Test
+  public void shouldUnregisterMetricsMBeanWhenClosed() throws Exception {
+    MockDriver.Database database = database("closeMBean");
+    dataSource = newDataSource(database.url, "scott", "tiger");
+    dataSource.setPoolJmxName(database.url);
+    ObjectName name = new ObjectName("org.apache.ibatis:type=PoolMetrics,id=" + ObjectName.quote(database.url));
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    assertTrue(server.isRegistered(name));
+    dataSource.getConnection().close();
+    dataSource.close();
+    assertFalse(server.isRegistered(name));
+    assertEquals(0, database.openCount());
+
+    // a closed pool does not unregister the pool that took over its id
+    PooledDataSource replaced = newDataSource(database.url, "scott", "tiger");
+    replaced.setPoolJmxName(database.url);
+    dataSource = newDataSource(database.url, "scott", "tiger");
+    dataSource.setPoolJmxName(database.url);
+    replaced.close();
+    assertTrue(server.isRegistered(name));
+    dataSource.close();
+    assertFalse(server.isRegistered(name));
+  }
+
+  protected MockDriver.Database database(String name) {
+    return MockDriver.database(getClass().getSimpleName() + "." + name);
+  }
+
+  private void partitionedDataSource(MockDriver.Database database, int maximumActive, int maximumActivePerUser) {
+    dataSource = newDataSource(database.url, "scott", "tiger");
+    dataSource.setPoolPartitionByUser(true);
+    dataSource.setPoolMaximumActiveConnections(maximumActive);
+    dataSource.setPoolMaximumActiveConnectionsPerUser(maximumActivePerUser);
+    dataSource.setPoolTimeToWait(50);
+  }
+
+  private Future<Connection> checkOutLater(final String username) {
+    return executor.submit(new Callable<Connection>() {
+      @Override
+      public Connection call() throws Exception {
+        return dataSource.getConnection(username, "secret");
+      }
+    });
+  }
+
+  private static void assertWaiting(Future<Connection> conn) throws Exception {
+    try {
+      conn.get(200, TimeUnit.MILLISECONDS);
+      fail("Should be waiting for a connection");
+    } catch (TimeoutException e) {
+      // expected
+    }
+  }
+
+  private static Connection realConnection(Connection conn) {
+    return ((PooledConnection) Proxy.getInvocationHandler(conn)).getRealConnection();
+  }
+
+}
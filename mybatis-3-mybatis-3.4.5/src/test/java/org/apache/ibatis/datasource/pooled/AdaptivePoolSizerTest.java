@@ -0,0 +1,84 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptivePoolSizerTest {
+
+  private final PoolMetrics metrics = new PoolMetrics(new PooledDataSource());
+  private final AdaptivePoolSizer sizer = new AdaptivePoolSizer(10, 5);
+
+  @Test
+  public void shouldGrowAsSoonAsWaitsExceedTheTarget() {
+    assertEquals(8, evaluate(8));
+    waited(50, 100);
+    assertEquals(10, evaluate(8));
+    waited(50, 100);
+    assertEquals(13, evaluate(10));
+    waited(50, 100);
+    // bounded by the maximum
+    assertEquals(16, evaluate(13));
+    waited(50, 100);
+    assertEquals(16, evaluate(16));
+  }
+
+  @Test
+  public void shouldShrinkOnlyAfterSeveralCalmEvaluations() {
+    assertEquals(16, evaluate(16));
+    assertEquals(16, evaluate(16));
+    assertEquals(16, evaluate(16));
+    assertEquals(14, evaluate(16));
+    assertEquals(14, evaluate(14));
+    // waits between half of the target and the target neither grow nor shrink the pool
+    waited(7, 100);
+    assertEquals(14, evaluate(14));
+    assertEquals(14, evaluate(14));
+    assertEquals(14, evaluate(14));
+    assertEquals(12, evaluate(14));
+  }
+
+  @Test
+  public void shouldStartOverWhenTheMetricsAreReset() {
+    assertEquals(8, evaluate(8));
+    waited(50, 100);
+    metrics.reset();
+    waited(1, 10);
+    assertEquals(8, evaluate(8));
+  }
+
+  @Test
+  public void shouldScaleTheIdleLimit() {
+    assertEquals(5, sizer.idleLimitFor(10));
+    assertEquals(8, sizer.idleLimitFor(16));
+    assertEquals(1, sizer.idleLimitFor(1));
+  }
+
+  private int evaluate(int limit) {
+    return sizer.evaluate(limit, 2, 16, 10, 3, metrics);
+  }
+
+  private void waited(long millis, int times) {
+    for (int i = 0; i < times; i++) {
+      metrics.acquired(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConcurrentPooledDataSourceTest extends AbstractPooledDataSourceTest {
+
+  @Override
+  protected PooledDataSource newDataSource(String url, String username, String password) {
+    return new ConcurrentPooledDataSource(MockDriver.class.getName(), url, username, password);
+  }
+
+  @Test
+  public void shouldKeepIdleConnectionsReachableWhenReturnedWhileWaitersArrive() throws Exception {
+    MockDriver.Database database = database("returnsAndWaiters");
+    dataSource = newDataSource(database.url, "scott", "tiger");
+    dataSource.setPoolMaximumActiveConnections(2);
+    dataSource.setPoolMaximumIdleConnections(2);
+    dataSource.setPoolTimeToWait(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      List<Future<Void>> borrowers = new ArrayList<Future<Void>>();
+      for (int i = 0; i < 8; i++) {
+        borrowers.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            start.await();
+            for (int j = 0; j < 5000; j++) {
+              dataSource.getConnection().close();
+            }
+            return null;
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<Void> borrower : borrowers) {
+        borrower.get(60, TimeUnit.SECONDS);
+      }
+      // every idle connection can still be checked out
+      Future<Void> checkout = executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          Connection first = dataSource.getConnection();
+          Connection second = dataSource.getConnection();
+          first.close();
+          second.close();
+          return null;
+        }
+      });
+      checkout.get(5, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(2, database.openedCount());
+    assertEquals(2, dataSource.getPoolState().getIdleConnectionCount());
+  }
+
+}
@@ -0,0 +1,95 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionStateTest {
+
+  private final List<String> calls = new ArrayList<String>();
+  private Connection realConnection;
+
+  @Before
+  public void setUp() {
+    final boolean[] autoCommit = { true };
+    realConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("hashCode".equals(name)) {
+              return System.identityHashCode(proxy);
+            }
+            calls.add(name);
+            if ("setAutoCommit".equals(name)) {
+              autoCommit[0] = (Boolean) args[0];
+            } else if ("getAutoCommit".equals(name)) {
+              return autoCommit[0];
+            } else if ("unwrap".equals(name)) {
+              return proxy;
+            }
+            return null;
+          }
+        });
+  }
+
+  @Test
+  public void shouldSkipRedundantCallsAndResets() throws Exception {
+    PooledDataSource dataSource = new PooledDataSource();
+    PooledConnection conn = new PooledConnection(realConnection, dataSource);
+    Connection proxy = conn.getProxyConnection();
+    proxy.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+    proxy.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+    proxy.setAutoCommit(false);
+    assertFalse(proxy.getAutoCommit());
+    // nothing has been executed yet
+    proxy.commit();
+    conn.resetTransaction(false);
+    assertEquals("[setTransactionIsolation, setAutoCommit]", calls.toString());
+
+    proxy.prepareStatement("update foo set bar = 1");
+    proxy.commit();
+    // the state survives the connection being wrapped again when it is returned to the pool
+    PooledConnection returned = new PooledConnection(realConnection, dataSource, conn.getConnectionState());
+    returned.resetTransaction(false);
+    returned.resetTransaction(false);
+    assertEquals("[setTransactionIsolation, setAutoCommit, prepareStatement, commit, rollback]", calls.toString());
+  }
+
+  @Test
+  public void shouldStopTrackingOnceUnwrapped() throws Exception {
+    PooledConnection conn = new PooledConnection(realConnection, new PooledDataSource());
+    Connection proxy = conn.getProxyConnection();
+    proxy.setAutoCommit(false);
+    PooledDataSource.unwrapConnection(proxy);
+    proxy.setAutoCommit(false);
+    proxy.getAutoCommit();
+    conn.resetTransaction(false);
+    assertEquals("[setAutoCommit, setAutoCommit, getAutoCommit, getAutoCommit, rollback]", calls.toString());
+  }
+
+}
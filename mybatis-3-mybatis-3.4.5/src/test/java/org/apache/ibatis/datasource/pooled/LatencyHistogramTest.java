@@ -0,0 +1,52 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void shouldReportPercentilesAsBucketUpperBounds() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+    assertEquals(100, histogram.getCount());
+    // 100us falls in the [64us, 128us) bucket
+    assertEquals(0.128, histogram.getPercentileMillis(50), 0.0001);
+    assertEquals(0.128, histogram.getPercentileMillis(99), 0.0001);
+    assertEquals(50, histogram.getPercentileMillis(100), 0.0001);
+    assertEquals(50, histogram.getMaxMillis(), 0.0001);
+    assertEquals((99 * 0.1 + 50) / 100, histogram.getMeanMillis(), 0.0001);
+  }
+
+  @Test
+  public void shouldBeEmptyAfterReset() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(1000);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentileMillis(99), 0);
+    assertEquals(0, histogram.getMaxMillis(), 0);
+  }
+
+}
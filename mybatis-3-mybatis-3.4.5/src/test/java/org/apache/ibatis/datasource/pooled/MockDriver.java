@@ -0,0 +1,186 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * A driver opening in-memory connections that record how they are used, the
+ * databases are identified by the url <code>jdbc:mock:&lt;name&gt;</code>.
+ */
+public class MockDriver implements Driver {
+
+  private static final String PREFIX = "jdbc:mock:";
+  private static final ConcurrentMap<String, Database> databases = new ConcurrentHashMap<String, Database>();
+
+  public static Database database(String name) {
+    Database database = new Database(PREFIX + name);
+    databases.put(database.url, database);
+    return database;
+  }
+
+  @Override
+  public Connection connect(String url, Properties info) throws SQLException {
+    if (!acceptsURL(url)) {
+      return null;
+    }
+    Database database = databases.get(url);
+    if (database == null) {
+      throw new SQLException("Unknown database " + url);
+    }
+    return database.open(info.getProperty("user"));
+  }
+
+  @Override
+  public boolean acceptsURL(String url) {
+    return url != null && url.startsWith(PREFIX);
+  }
+
+  @Override
+  public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+    return new DriverPropertyInfo[0];
+  }
+
+  @Override
+  public int getMajorVersion() {
+    return 1;
+  }
+
+  @Override
+  public int getMinorVersion() {
+    return 0;
+  }
+
+  @Override
+  public boolean jdbcCompliant() {
+    return false;
+  }
+
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    throw new SQLFeatureNotSupportedException();
+  }
+
+  public static class Database {
+
+    final String url;
+    final List<MockConnection> connections = new CopyOnWriteArrayList<MockConnection>();
+    volatile boolean failRollback;
+
+    Database(String url) {
+      this.url = url;
+    }
+
+    Connection open(String user) {
+      MockConnection connection = new MockConnection(this, user);
+      connections.add(connection);
+      return connection.proxy;
+    }
+
+    public int openedCount() {
+      return connections.size();
+    }
+
+    public int openCount() {
+      int count = 0;
+      for (MockConnection connection : connections) {
+        if (!connection.closed) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    public int openCount(String user) {
+      int count = 0;
+      for (MockConnection connection : connections) {
+        if (!connection.closed && user.equals(connection.user)) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+  }
+
+  static class MockConnection implements InvocationHandler {
+
+    final Database database;
+    final String user;
+    final Connection proxy;
+    volatile boolean closed;
+    volatile boolean autoCommit = true;
+
+    MockConnection(Database database, String user) {
+      this.database = database;
+      this.user = user;
+      this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+          this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if ("hashCode".equals(name)) {
+        return System.identityHashCode(proxy);
+      } else if ("equals".equals(name)) {
+        return proxy == args[0];
+      } else if ("toString".equals(name)) {
+        return "MockConnection@" + Integer.toHexString(System.identityHashCode(proxy));
+      } else if ("close".equals(name)) {
+        closed = true;
+        return null;
+      } else if ("isClosed".equals(name)) {
+        return closed;
+      } else if ("isValid".equals(name)) {
+        return !closed;
+      }
+      if (closed) {
+        throw new SQLException("Connection is closed");
+      }
+      if ("setAutoCommit".equals(name)) {
+        autoCommit = (Boolean) args[0];
+      } else if ("getAutoCommit".equals(name)) {
+        return autoCommit;
+      } else if ("rollback".equals(name) && database.failRollback) {
+        throw new SQLException("Rollback failed");
+      } else if ("unwrap".equals(name)) {
+        return proxy;
+      }
+      Class<?> type = method.getReturnType();
+      if (type == boolean.class) {
+        return false;
+      } else if (type == int.class) {
+        return 0;
+      }
+      return null;
+    }
+
+  }
+
+}
@@ -0,0 +1,72 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.junit.Test;
+
+public class PooledDataSourceTest extends AbstractPooledDataSourceTest {
+
+  @Override
+  protected PooledDataSource newDataSource(String url, String username, String password) {
+    return new PooledDataSource(MockDriver.class.getName(), url, username, password);
+  }
+
+  @Test
+  public void shouldCloseThePartitionThatLostTheRace() throws Exception {
+    MockDriver.Database database = database("partitionRace");
+    final List<PooledDataSource> created = new ArrayList<PooledDataSource>();
+    final Connection[] winnerConnection = new Connection[1];
+    dataSource = new PooledDataSource(MockDriver.class.getName(), database.url, "scott", "tiger") {
+      @Override
+      protected PooledDataSource newPartition(UnpooledDataSource partitionDataSource) {
+        PooledDataSource partition = super.newPartition(partitionDataSource);
+        created.add(partition);
+        if (created.size() == 1) {
+          // another thread registers the partition of the same user first
+          try {
+            winnerConnection[0] = getConnection("alice", "secret");
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+        }
+        return partition;
+      }
+    };
+    dataSource.setPoolPartitionByUser(true);
+    Connection alice = dataSource.getConnection("alice", "secret");
+
+    assertEquals(2, created.size());
+    PooledDataSource loser = created.get(0);
+    PooledDataSource winner = created.get(1);
+    assertEquals(1, dataSource.getPoolPartitions().size());
+    assertSame(winner, dataSource.getPoolPartitions().iterator().next());
+    assertEquals(2, winner.getPoolState().getActiveConnectionCount());
+    assertEquals(0, loser.getPoolState().getActiveConnectionCount());
+    assertEquals(2, database.openCount("alice"));
+    alice.close();
+    winnerConnection[0].close();
+    assertEquals(2, winner.getPoolState().getIdleConnectionCount());
+  }
+
+}
@@ -0,0 +1,221 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.StatementRoute;
+import org.junit.After;
+import org.junit.Test;
+
+public class RoutingDataSourceTest {
+
+  private final List<String> calls = new ArrayList<String>();
+
+  @After
+  public void clearRoute() {
+    RoutingDataSource.clearStatementRoute();
+  }
+
+  @Test
+  public void shouldSendReadsToReplicasUntilTheTransactionWritesWhenNotPinned() throws Exception {
+    RoutingDataSource dataSource = new RoutingDataSource(fakeDataSource("primary", false),
+        Arrays.asList(fakeDataSource("replica", false)));
+    dataSource.setTransactionalReadsOnPrimary(false);
+    Connection conn = dataSource.getConnection();
+    conn.setAutoCommit(false);
+    read(conn, "select * from foo");
+    write(conn, "update foo set bar = 1");
+    read(conn, "select * from foo");
+    conn.commit();
+    read(conn, "select * from foo");
+    read(conn, "select * from foo for update");
+    conn.close();
+    assertEquals(Arrays.asList(
+        "replica.getAutoCommit", "replica.setAutoCommit", "replica.prepareStatement select * from foo",
+        // writing closes the replica connection and its statements
+        "replica.statement.close", "replica.close",
+        "primary.getAutoCommit", "primary.setAutoCommit", "primary.prepareStatement update foo set bar = 1",
+        "primary.prepareStatement select * from foo",
+        "primary.commit",
+        "replica.getAutoCommit", "replica.setAutoCommit", "replica.prepareStatement select * from foo",
+        "primary.prepareStatement select * from foo for update",
+        "replica.statement.close", "replica.close", "primary.close"), calls);
+  }
+
+  @Test
+  public void shouldPinTransactionalReadsToThePrimaryByDefault() throws Exception {
+    RoutingDataSource dataSource = new RoutingDataSource(fakeDataSource("primary", false),
+        Arrays.asList(fakeDataSource("replica", false)));
+    Connection conn = dataSource.getConnection();
+    conn.setAutoCommit(false);
+    read(conn, "select * from foo");
+    conn.commit();
+    conn.setAutoCommit(true);
+    read(conn, "select * from foo");
+    conn.close();
+    assertEquals(Arrays.asList(
+        "primary.getAutoCommit", "primary.setAutoCommit", "primary.prepareStatement select * from foo",
+        "primary.commit", "primary.setAutoCommit",
+        // auto commit reads still go to the replica
+        "replica.getAutoCommit", "replica.prepareStatement select * from foo",
+        "replica.statement.close", "replica.close", "primary.close"), calls);
+  }
+
+  @Test
+  public void shouldRouteStatementsMarkedThroughTheNeutralHint() throws Exception {
+    RoutingDataSource dataSource = new RoutingDataSource(fakeDataSource("primary", false),
+        Arrays.asList(fakeDataSource("replica", false)));
+    Connection conn = dataSource.getConnection();
+    StatementRoute.mark(true);
+    try {
+      conn.prepareStatement("select 1");
+    } finally {
+      StatementRoute.clear();
+    }
+    // not marked
+    conn.prepareStatement("select 2");
+    conn.close();
+    assertEquals(1, count("replica.prepareStatement select 1"));
+    assertEquals(1, count("primary.prepareStatement select 2"));
+  }
+
+  @Test
+  public void shouldBalanceReadsOnTheLeastBusyReplica() throws Exception {
+    RoutingDataSource dataSource = new RoutingDataSource(fakeDataSource("primary", false),
+        Arrays.asList(fakeDataSource("replica1", false), fakeDataSource("replica2", false)));
+    Connection first = dataSource.getConnection();
+    Connection second = dataSource.getConnection();
+    read(first, "select 1");
+    read(second, "select 1");
+    assertEquals(1, dataSource.getOutstandingConnections(0));
+    assertEquals(1, dataSource.getOutstandingConnections(1));
+    first.close();
+    second.close();
+    assertEquals(0, dataSource.getOutstandingConnections(0));
+    assertEquals(0, dataSource.getOutstandingConnections(1));
+  }
+
+  @Test
+  public void shouldEjectFailingReplicas() throws Exception {
+    RoutingDataSource dataSource = new RoutingDataSource(fakeDataSource("primary", false),
+        Arrays.asList(fakeDataSource("replica", true)));
+    dataSource.setReplicaFailureThreshold(2);
+    for (int i = 0; i < 3; i++) {
+      Connection conn = dataSource.getConnection();
+      read(conn, "select 1");
+      conn.close();
+    }
+    assertTrue(dataSource.isReplicaEjected(0));
+    // the reads fell back to the primary, the replica has not been tried once ejected
+    assertEquals(2, count("replica.getConnection"));
+    assertEquals(3, count("primary.prepareStatement select 1"));
+  }
+
+  private void read(Connection conn, String sql) throws SQLException {
+    RoutingDataSource.routeStatement(true);
+    try {
+      conn.prepareStatement(sql);
+    } finally {
+      RoutingDataSource.clearStatementRoute();
+    }
+  }
+
+  private void write(Connection conn, String sql) throws SQLException {
+    RoutingDataSource.routeStatement(false);
+    try {
+      conn.prepareStatement(sql);
+    } finally {
+      RoutingDataSource.clearStatementRoute();
+    }
+  }
+
+  private int count(String call) {
+    int count = 0;
+    for (String recorded : calls) {
+      if (recorded.equals(call)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private DataSource fakeDataSource(final String name, final boolean down) {
+    return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DataSource.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!"getConnection".equals(method.getName())) {
+              return null;
+            }
+            if (down) {
+              calls.add(name + ".getConnection");
+              throw new SQLException("Connection refused", "08001");
+            }
+            return fakeConnection(name);
+          }
+        });
+  }
+
+  private Connection fakeConnection(final String name) {
+    final boolean[] autoCommit = { true };
+    return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            String methodName = method.getName();
+            if ("prepareStatement".equals(methodName)) {
+              calls.add(name + ".prepareStatement " + args[0]);
+              return fakeStatement(name);
+            }
+            calls.add(name + "." + methodName);
+            if ("getAutoCommit".equals(methodName)) {
+              return autoCommit[0];
+            } else if ("setAutoCommit".equals(methodName)) {
+              autoCommit[0] = (Boolean) args[0];
+            }
+            return null;
+          }
+        });
+  }
+
+  private Statement fakeStatement(final String name) {
+    return (Statement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { java.sql.PreparedStatement.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("close".equals(method.getName())) {
+              calls.add(name + ".statement.close");
+            }
+            return "isClosed".equals(method.getName()) ? Boolean.FALSE : null;
+          }
+        });
+  }
+
+}
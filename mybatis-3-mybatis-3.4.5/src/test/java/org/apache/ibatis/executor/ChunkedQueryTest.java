@@ -0,0 +1,135 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.junit.Test;
+
+public class ChunkedQueryTest {
+
+  private final Configuration configuration = new Configuration();
+
+  @Test
+  public void shouldRunOneStatementPerChunkAndMergeTheRows() throws SQLException {
+    RecordingExecutor executor = new RecordingExecutor(configuration);
+    List<Object> rows = executor.query(statement(), parameter(1, 2, 3, 4, 5, 6, 7), RowBounds.DEFAULT,
+        Executor.NO_RESULT_HANDLER);
+    assertEquals(Arrays.<Object>asList(1, 2, 3, 4, 5, 6, 7, 7), rows);
+    assertEquals(2, executor.sqls.size());
+    assertEquals(executor.sqls.get(0), executor.sqls.get(1));
+  }
+
+  @Test
+  public void shouldCacheEachChunk() throws SQLException {
+    RecordingExecutor executor = new RecordingExecutor(configuration);
+    MappedStatement ms = statement();
+    executor.query(ms, parameter(1, 2, 3, 4, 5), RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    List<Object> rows = executor.query(ms, parameter(1, 2, 3, 4, 6), RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    assertEquals(Arrays.<Object>asList(1, 2, 3, 4, 6), rows);
+    // the first chunk is the same for both queries
+    assertEquals(3, executor.sqls.size());
+  }
+
+  @Test
+  public void shouldApplyRowBoundsToTheMergedRows() throws SQLException {
+    RecordingExecutor executor = new RecordingExecutor(configuration);
+    List<Object> rows = executor.query(statement(), parameter(1, 2, 3, 4, 5, 6), new RowBounds(3, 2),
+        Executor.NO_RESULT_HANDLER);
+    assertEquals(Arrays.<Object>asList(4, 5), rows);
+  }
+
+  @Test
+  public void shouldNotSplitSmallCollections() throws SQLException {
+    RecordingExecutor executor = new RecordingExecutor(configuration);
+    List<Object> rows = executor.query(statement(), parameter(1, 2, 3), RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+    assertEquals(Arrays.<Object>asList(1, 2, 3, 3), rows);
+    assertEquals(1, executor.sqls.size());
+  }
+
+  private MappedStatement statement() {
+    SqlSource sqlSource = new XMLLanguageDriver().createSqlSource(configuration,
+        "<script>select * from blog where id in"
+            + "<foreach collection=\"ids\" item=\"id\" open=\"(\" close=\")\" separator=\",\" padding=\"true\" chunkSize=\"4\">"
+            + "#{id}</foreach></script>", Map.class);
+    return new MappedStatement.Builder(configuration, "selectBlogs", sqlSource, SqlCommandType.SELECT)
+        .resultMaps(new ArrayList<ResultMap>()).build();
+  }
+
+  private Map<String, Object> parameter(Integer... ids) {
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("ids", Arrays.asList(ids));
+    return parameter;
+  }
+
+  /**
+   * Returns the values of the parameters as the rows of the query.
+   */
+  private static class RecordingExecutor extends BaseExecutor {
+    private final List<String> sqls = new ArrayList<String>();
+
+    RecordingExecutor(Configuration configuration) {
+      super(configuration, null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds,
+        ResultHandler resultHandler, BoundSql boundSql) throws SQLException {
+      sqls.add(boundSql.getSql());
+      List<E> rows = new ArrayList<E>();
+      for (int i = 0; i < boundSql.getParameterMappings().size(); i++) {
+        rows.add((E) boundSql.getAdditionalParameter(boundSql.getParameterMappings().get(i).getProperty()));
+      }
+      return rows;
+    }
+
+    @Override
+    protected int doUpdate(MappedStatement ms, Object parameter) throws SQLException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
+      return Collections.emptyList();
+    }
+
+    @Override
+    protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds,
+        BoundSql boundSql) throws SQLException {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
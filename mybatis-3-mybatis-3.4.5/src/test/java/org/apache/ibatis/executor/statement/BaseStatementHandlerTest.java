@@ -16,7 +16,9 @@
 package org.apache.ibatis.executor.statement;
 
 import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.datasource.StatementRoute;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.session.Configuration;
 import org.junit.After;
 import org.junit.Before;
@@ -24,11 +26,19 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -141,4 +151,26 @@ public class BaseStatementHandlerTest {
         verify(statement).setQueryTimeout(10);
     }
 
+    @Test
+    public void markReadStatementsWhateverTheDataSource() throws SQLException {
+        final List<Boolean> routes = new ArrayList<Boolean>();
+        Connection connection = mock(Connection.class);
+        when(connection.createStatement()).thenAnswer(new Answer<Statement>() {
+            @Override
+            public Statement answer(InvocationOnMock invocation) {
+                routes.add(StatementRoute.isRead());
+                return statement;
+            }
+        });
+        MappedStatement select = new MappedStatement.Builder(configuration, "select", new StaticSqlSource(configuration, "select 1"), SqlCommandType.SELECT).build();
+        MappedStatement update = new MappedStatement.Builder(configuration, "update", new StaticSqlSource(configuration, "update foo set bar = 1"), SqlCommandType.UPDATE).build();
+
+        // no environment, the hint does not depend on the datasource being a RoutingDataSource
+        new SimpleStatementHandler(null, select, null, null, null, null).prepare(connection, null);
+        new SimpleStatementHandler(null, update, null, null, null, null).prepare(connection, null);
+
+        assertEquals(Arrays.asList(true, false), routes);
+        assertFalse(StatementRoute.isRead());
+    }
+
 }
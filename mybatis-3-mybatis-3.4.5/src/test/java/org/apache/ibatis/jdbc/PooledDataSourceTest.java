@@ -27,6 +27,7 @@ import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.datasource.pooled.CheckedOutConnection;
 import org.apache.ibatis.datasource.pooled.PooledDataSource;
 import org.hsqldb.jdbc.JDBCConnection;
 import org.junit.Ignore;
@@ -91,6 +92,77 @@ public class PooledDataSourceTest extends BaseDataTest {
     c.close();
   }
 
+  @Test
+  public void shouldOpenMinimumIdleConnectionsAndRetireExpiredOnes() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMinimumIdleConnections(2);
+      ds.setPoolMaximumLifetime(200);
+      ds.setPoolMaintenanceInterval(50);
+      ds.startMaintenance();
+      Thread.sleep(100);
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+      Connection c = ds.getConnection();
+      Connection realConnection = PooledDataSource.unwrapConnection(c);
+      Thread.sleep(300);
+      // expired while checked out, it is closed instead of being returned to the pool
+      c.close();
+      c = ds.getConnection();
+      assertNotSame(realConnection, PooledDataSource.unwrapConnection(c));
+      c.close();
+    } finally {
+      ds.stopMaintenance();
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldValidateWithIsValidAndSkipRecentlyReturnedConnections() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolPingEnabled(true);
+      ds.setPoolPingConnectionsNotUsedFor(0);
+      Connection c = ds.getConnection();
+      Thread.sleep(10);
+      c.close();
+      c = ds.getConnection();
+      c.close();
+      long validations = ds.getPoolState().getValidationCount();
+      assertTrue(validations > 0);
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      ds.setPoolValidationSkipWindow(60000);
+      for (int i = 0; i < 3; i++) {
+        Thread.sleep(10);
+        ds.getConnection().close();
+      }
+      assertEquals(validations, ds.getPoolState().getValidationCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldReportConnectionHeldLongerThanLeakDetectionThreshold() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolLeakDetectionThreshold(50);
+      ds.setPoolMaintenanceInterval(20);
+      Connection c = ds.getConnection();
+      Thread.sleep(200);
+      List<CheckedOutConnection> checkedOut = ds.getCheckedOutConnections();
+      assertEquals(1, checkedOut.size());
+      assertEquals(Thread.currentThread().getName(), checkedOut.get(0).getThreadName());
+      assertNotNull(checkedOut.get(0).getCheckoutSite());
+      assertTrue(checkedOut.get(0).getAge() >= 200);
+      assertEquals(1, ds.getPoolMetrics().getSuspectedLeaks());
+      c.close();
+      assertTrue(ds.getCheckedOutConnections().isEmpty());
+    } finally {
+      ds.stopMaintenance();
+      ds.forceCloseAll();
+    }
+  }
+
   @Ignore("See the comments")
   @Test
   public void shouldReconnectWhenServerKilledLeakedConnection() throws Exception {
@@ -58,6 +58,32 @@ public class BoundSqlTest {
     assertTrue("should return true even if the element does not exists.", boundSql.hasAdditionalParameter("array[99]"));
   }
 
+  @Test
+  public void shouldCopyAdditionalParameters() throws Exception {
+    List<ParameterMapping> params = Collections.emptyList();
+    Person bean = new Person();
+    bean.id = 1;
+    Map<String, Object> bindings = new HashMap<String, Object>();
+    bindings.put("person", bean);
+    bindings.put("name", null);
+    bindings.put("person.id", 2);
+    BoundSql boundSql = new BoundSql(new Configuration(), "some sql", params, new Object(), bindings);
+
+    // names with a property path are set through the objects they refer to
+    assertEquals(2, boundSql.getAdditionalParameter("person.id"));
+    assertEquals(Integer.valueOf(2), bean.id);
+    assertSame(bean, boundSql.getAdditionalParameter("person"));
+    assertTrue(boundSql.hasAdditionalParameter("name"));
+    assertNull(boundSql.getAdditionalParameter("name"));
+
+    // the bindings are copied
+    bindings.put("other", "value");
+    assertFalse(boundSql.hasAdditionalParameter("other"));
+    boundSql.setAdditionalParameter("pet", "cat");
+    assertFalse(bindings.containsKey("pet"));
+    assertEquals("cat", boundSql.getAdditionalParameter("pet"));
+  }
+
   public static class Person {
     public Integer id;
   }
@@ -0,0 +1,72 @@
+/**
+ *    Copyright ${license.git.copyrightYears} the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.parsing;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TableNameParserTest {
+
+  @Test
+  public void shouldParseSelectWithJoinsAndCommaLists() {
+    assertEquals(tables("author", "blog", "post"), TableNameParser.parse(
+        "select * from Author a, blog as b left outer join post p on p.blog_id = b.id where a.id = ?"));
+  }
+
+  @Test
+  public void shouldParseWriteStatements() {
+    assertEquals(tables("author"), TableNameParser.parse("insert into AUTHOR (id, name) values (?, ?)"));
+    assertEquals(tables("author"), TableNameParser.parse("update author set name = ? where id = ?"));
+    assertEquals(tables("author"), TableNameParser.parse("delete from author where id = ?"));
+  }
+
+  @Test
+  public void shouldParseSubqueriesAndQualifiedNames() {
+    assertEquals(tables("blog", "post"), TableNameParser.parse(
+        "select * from (select id from blog) b where exists (select 1 from \"IBTEST\".\"POST\" p where p.blog_id = b.id)"));
+  }
+
+  @Test
+  public void shouldNormalizeSchemaQuotesAndCase() {
+    assertEquals("post", TableNameParser.normalize("post"));
+    assertEquals("post", TableNameParser.normalize("IBTEST.\"Post\""));
+    assertEquals("post", TableNameParser.normalize("`catalog`.`ibtest`.`POST`"));
+    assertEquals("post", TableNameParser.normalize(" [dbo].[Post] "));
+    assertEquals(tables("post"), TableNameParser.parse("update IBTEST.POST set title = ? where id = ?"));
+  }
+
+  @Test
+  public void shouldIgnoreLiteralsAndComments() {
+    assertEquals(tables("author"), TableNameParser.parse(
+        "select * from author -- from comment_table\n where name = 'from literal' /* join other */"));
+  }
+
+  @Test
+  public void shouldReturnEmptySetWhenNoTableIsFound() {
+    assertTrue(TableNameParser.parse("{call next_id(?)}").isEmpty());
+    assertTrue(TableNameParser.parse(null).isEmpty());
+  }
+
+  private Set<String> tables(String... names) {
+    return new LinkedHashSet<String>(Arrays.asList(names));
+  }
+
+}
@@ -163,4 +163,36 @@ public class ForceFlushOnSelectTest {
     }
   }
 
+  @Test
+  public void testSelectShouldNotUseLocalCacheIfDisabledForStatement() throws SQLException {
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.SIMPLE);
+    try {
+      PersonMapper personMapper = sqlSession.getMapper(PersonMapper.class);
+      Person person = personMapper.selectByIdNoLocalCache(1);
+      updateDatabase(sqlSession.getConnection());
+      Person updatedPerson = personMapper.selectByIdNoLocalCache(1);
+      assertEquals("Simone", updatedPerson.getFirstName());
+      assertNotSame(person, updatedPerson);
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void testSelectShouldNotUseLocalCacheIfLocalCacheScopeIsNone() throws SQLException {
+    sqlSessionFactory.getConfiguration().setLocalCacheScope(LocalCacheScope.NONE);
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.SIMPLE);
+    try {
+      PersonMapper personMapper = sqlSession.getMapper(PersonMapper.class);
+      List<Person> people = personMapper.selectAllNoFlush();
+      updateDatabase(sqlSession.getConnection());
+      people = personMapper.selectAllNoFlush();
+      assertEquals("Simone", people.get(0).getFirstName());
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
 }
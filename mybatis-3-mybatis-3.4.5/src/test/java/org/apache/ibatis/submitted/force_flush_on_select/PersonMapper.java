@@ -20,6 +20,7 @@ import java.util.List;
 public interface PersonMapper {
     public Person selectByIdFlush(int id);
     public Person selectByIdNoFlush(int id);
+    public Person selectByIdNoLocalCache(int id);
     public List<Person> selectAllFlush();
     public List<Person> selectAllNoFlush();
     int update(Person p);
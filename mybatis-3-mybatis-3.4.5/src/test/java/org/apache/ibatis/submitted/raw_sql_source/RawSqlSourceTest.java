@@ -68,6 +68,11 @@ public class RawSqlSourceTest {
     test("getUser3", DynamicSqlSource.class);
   }
 
+  @Test
+  public void shouldUseRawSqlSourceForAnStatementWithConstantXmlTags() {
+    test("getUser4", RawSqlSource.class);
+  }
+
   private void test(String statement, Class<? extends SqlSource> sqlSource) {
     SqlSession sqlSession = sqlSessionFactory.openSession();
     try {